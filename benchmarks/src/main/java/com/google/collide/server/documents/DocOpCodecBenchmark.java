@@ -0,0 +1,92 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.documents;
+
+import com.google.collide.dto.DocOp;
+import com.google.collide.dto.server.DtoServerImpls.DocOpComponentImpl;
+import com.google.collide.dto.server.DtoServerImpls.DocOpImpl;
+import com.google.collide.dto.server.DtoServerImpls.ServerToClientDocOpImpl;
+import com.google.collide.dto.server.DtoServerImpls.ServerToClientDocOpsImpl;
+import com.google.collide.dto.server.ServerDocOpFactory;
+import com.google.collide.shared.ot.DocOpBuilder;
+import com.google.common.collect.Lists;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link DocOpCodec} with the Gson tree based serialization it replaced, on the doc ops a
+ * client sends while typing: a few characters inserted somewhere in a medium sized file.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DocOpCodecBenchmark {
+
+  private static final Gson gson = new GsonBuilder().registerTypeAdapter(
+      DocOpComponentImpl.class, new DocOpComponentDeserializer()).serializeNulls().create();
+
+  /** A typing burst: the client batches the characters typed since its last acked doc op */
+  private String serializedDocOp;
+
+  private ServerToClientDocOpsImpl appliedDocOps;
+
+  @Setup
+  public void setUp() {
+    DocOp docOp = new DocOpBuilder(ServerDocOpFactory.INSTANCE, false).retainLine(412)
+        .retain(17, false).insert("foo(").retain(23, true).retainLine(588).build();
+    serializedDocOp = ((DocOpImpl) docOp).toJson();
+
+    List<ServerToClientDocOpImpl> docOps = Lists.newArrayList(ServerToClientDocOpImpl.make()
+        .setClientId("c4f8f6b2").setAppliedCcRevision(4711).setDocOp2((DocOpImpl) docOp)
+        .setFileEditSessionKey("1782").setFilePath("/src/com/example/Foo.java"));
+    appliedDocOps = ServerToClientDocOpsImpl.make().setDocOps(docOps);
+  }
+
+  @Benchmark
+  public DocOp readGson() {
+    return gson.fromJson(serializedDocOp, DocOpImpl.class);
+  }
+
+  @Benchmark
+  public DocOp readCodec() {
+    return DocOpCodec.read(serializedDocOp);
+  }
+
+  @Benchmark
+  public String writeGson() {
+    return appliedDocOps.toJson();
+  }
+
+  @Benchmark
+  public String writeCodec() {
+    return DocOpCodec.write(appliedDocOps);
+  }
+}
@@ -0,0 +1,99 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.documents;
+
+import com.google.collide.dto.DocOp;
+import com.google.collide.server.documents.VersionedDocument.ConsumeResult;
+import com.google.collide.server.documents.VersionedDocument.DocumentOperationException;
+import com.google.collide.shared.ot.TypingTrace;
+import io.vertx.core.logging.LoggerFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link VersionedDocument#consume} for {@code clientCount} collaborators typing at the
+ * same time, see {@link TypingTrace}.
+ *
+ * <p>
+ * The clients take turns sending one keystroke each. A client only learns about the other
+ * clients' keystrokes together with the ack of its own, so each keystroke is intended for the
+ * revision of the same client's previous keystroke and has to be transformed against the
+ * {@code clientCount - 1} keystrokes sent since.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultiClientTypingBenchmark {
+
+  private static final int LINE_COUNT = 1000;
+
+  @Param({"1", "4", "16", "64"})
+  public int clientCount;
+
+  private TypingTrace trace;
+
+  private VersionedDocument document;
+
+  private String[] clientIds;
+
+  /** The revision each client last heard of */
+  private int[] clientRevisions;
+
+  private int nextClient;
+
+  @Setup(Level.Iteration)
+  public void setUp() {
+    trace = new TypingTrace(LINE_COUNT, clientCount, 42);
+    document = new VersionedDocument(trace.getInitialText(),
+        LoggerFactory.getLogger(MultiClientTypingBenchmark.class));
+    document.setHistoryRetention(2 * clientCount, VersionedDocument.DEFAULT_MAX_RETAINED_DOC_OPS);
+
+    clientIds = new String[clientCount];
+    clientRevisions = new int[clientCount];
+    for (int i = 0; i < clientCount; i++) {
+      clientIds[i] = "client" + i;
+      clientRevisions[i] = document.getCcRevision();
+    }
+    nextClient = 0;
+  }
+
+  @Benchmark
+  public ConsumeResult consumeKeystroke() throws DocumentOperationException {
+    int client = nextClient;
+    nextClient = (nextClient + 1) % clientCount;
+
+    DocOp docOp = trace.nextDocOp(client);
+    ConsumeResult result = document.consume(Collections.singletonList(docOp), clientIds[client],
+        clientRevisions[client], null);
+    clientRevisions[client] = document.getCcRevision();
+    return result;
+  }
+}
@@ -0,0 +1,148 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.documents;
+
+import com.google.collide.dto.DocOp;
+import com.google.collide.dto.server.ServerDocOpFactory;
+import com.google.collide.shared.document.Document;
+import com.google.collide.shared.ot.Composer;
+import com.google.collide.shared.ot.Composer.ComposeException;
+import com.google.collide.shared.ot.DocOpApplier;
+import com.google.collide.shared.ot.DocOpBuilder;
+import com.google.collide.shared.ot.Inverter;
+import com.google.collide.shared.ot.OperationPair;
+import com.google.collide.shared.ot.PackedComposer;
+import com.google.collide.shared.ot.PackedDocOp;
+import com.google.collide.shared.ot.PackedDocOpApplier;
+import com.google.collide.shared.ot.PackedOperationPair;
+import com.google.collide.shared.ot.PackedTransformer;
+import com.google.collide.shared.ot.Transformer;
+import com.google.common.base.Strings;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link PackedDocOp} with the component based doc ops on the work
+ * {@link VersionedDocument#consume} does for a client that is behind the head: composing the doc
+ * ops it has not seen into a bridge, transforming its doc op against the bridge, and applying the
+ * result.
+ *
+ * <p>
+ * The bridge touches {@code editedLineCount} lines spread over the document, so its number of
+ * components grows with it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PackedDocOpBenchmark {
+
+  private static final ServerDocOpFactory FACTORY = ServerDocOpFactory.INSTANCE;
+
+  private static final int LINE_COUNT = 1000;
+
+  private static final String LINE_TEXT = "line of text\n";
+
+  @Param({"1", "10", "100"})
+  public int editedLineCount;
+
+  private DocOp bridge;
+  private DocOp nextDocOp;
+  private DocOp clientDocOp;
+  private DocOp inverseBridge;
+
+  private PackedDocOp packedBridge;
+  private PackedDocOp packedNextDocOp;
+  private PackedDocOp packedClientDocOp;
+  private PackedDocOp packedInverseBridge;
+
+  private Document document;
+
+  @Setup
+  public void setUp() {
+    int stride = LINE_COUNT / editedLineCount;
+    DocOpBuilder builder = new DocOpBuilder(FACTORY, false);
+    for (int i = 0; i < editedLineCount; i++) {
+      builder.retainLine(i == 0 ? stride / 2 : stride - 1).retain(5, false).insert("foo(")
+          .retain(LINE_TEXT.length() - 5, true);
+    }
+    bridge = builder.retainLine(LINE_COUNT + 1 - stride / 2 - (editedLineCount - 1) * stride - 1)
+        .build();
+    inverseBridge = Inverter.invert(FACTORY, bridge);
+
+    // A collaborator typing on the first line, after the bridge
+    nextDocOp = new DocOpBuilder(FACTORY, false).retain(4, false).insert("x")
+        .retain(LINE_TEXT.length() - 4, true).retainLine(LINE_COUNT).build();
+
+    // The late client typing on the last line of text, before the bridge
+    clientDocOp = new DocOpBuilder(FACTORY, false).retainLine(LINE_COUNT - 1).insert("bar")
+        .retain(LINE_TEXT.length(), true).retainLine(1).build();
+
+    packedBridge = PackedDocOp.fromDocOp(bridge);
+    packedNextDocOp = PackedDocOp.fromDocOp(nextDocOp);
+    packedClientDocOp = PackedDocOp.fromDocOp(clientDocOp);
+    packedInverseBridge = PackedDocOp.fromDocOp(inverseBridge);
+
+    document = Document.createFromString(Strings.repeat(LINE_TEXT, LINE_COUNT));
+  }
+
+  @Benchmark
+  public DocOp composeDocOp() throws ComposeException {
+    return Composer.compose(FACTORY, bridge, nextDocOp);
+  }
+
+  @Benchmark
+  public PackedDocOp composePacked() throws ComposeException {
+    return PackedComposer.compose(packedBridge, packedNextDocOp);
+  }
+
+  @Benchmark
+  public OperationPair transformDocOp() {
+    return Transformer.transform(FACTORY, clientDocOp, bridge);
+  }
+
+  @Benchmark
+  public PackedOperationPair transformPacked() {
+    return PackedTransformer.transform(packedClientDocOp, packedBridge);
+  }
+
+  /** Applies the bridge and then its inverse, so the document is the same for every call */
+  @Benchmark
+  public Document applyDocOp() {
+    DocOpApplier.apply(bridge, document);
+    DocOpApplier.apply(inverseBridge, document);
+    return document;
+  }
+
+  @Benchmark
+  public Document applyPacked() {
+    PackedDocOpApplier.apply(packedBridge, document);
+    PackedDocOpApplier.apply(packedInverseBridge, document);
+    return document;
+  }
+}
@@ -0,0 +1,124 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.documents;
+
+import com.google.collide.dto.DocOp;
+import com.google.collide.dto.server.ServerDocOpFactory;
+import com.google.collide.server.documents.VersionedDocument.ConsumeResult;
+import com.google.collide.server.documents.VersionedDocument.DocumentOperationException;
+import com.google.collide.shared.ot.DocOpBuilder;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import io.vertx.core.logging.LoggerFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link VersionedDocument#consume} for a client that is {@code lag} revisions behind the
+ * head, i.e. the cost of bridging its doc op across the doc ops it has not seen yet.
+ *
+ * <p>
+ * With {@code typing} edits, collaborators type runs of characters at a cursor, so composed bridges
+ * stay small and the cost is dominated by the number of composes. With {@code scattered} edits,
+ * every doc op touches a different line, so the bridge itself grows with the lag.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VersionedDocumentConsumeBenchmark {
+
+  private static final int LINE_COUNT = 1000;
+
+  private static final String LINE_TEXT = "line of text\n";
+
+  /** Number of characters typed on a line before the cursor moves elsewhere */
+  private static final int TYPING_RUN_LENGTH = 40;
+
+  @Param({"1", "10", "100", "1000"})
+  public int lag;
+
+  @Param({"typing", "scattered"})
+  public String edits;
+
+  private final DocOpBuilder builder = new DocOpBuilder(ServerDocOpFactory.INSTANCE, false);
+
+  private VersionedDocument document;
+
+  private int cursorLine;
+
+  /** Number of characters typed on the cursor line so far */
+  private int typedOnLine;
+
+  @Setup(Level.Iteration)
+  public void setUp() throws DocumentOperationException {
+    document = new VersionedDocument(Strings.repeat(LINE_TEXT, LINE_COUNT),
+        LoggerFactory.getLogger(VersionedDocumentConsumeBenchmark.class));
+    cursorLine = 0;
+    typedOnLine = 0;
+    document.setHistoryRetention(2 * lag, VersionedDocument.DEFAULT_MAX_RETAINED_DOC_OPS);
+
+    // Collaborators type ahead of the lagging client
+    for (int i = 0; i < lag; i++) {
+      document.consume(Lists.newArrayList(nextTypingDocOp()), "typist", document.getCcRevision(),
+          null);
+    }
+  }
+
+  @Benchmark
+  public ConsumeResult consumeLagging() throws DocumentOperationException {
+    /*
+     * Every doc op advances the head by one, so the client stays exactly lag revisions behind and
+     * its intended revision keeps increasing as the server expects.
+     */
+    return document.consume(Lists.newArrayList(nextTypingDocOp()), "lagging",
+        document.getCcRevision() - lag, null);
+  }
+
+  /**
+   * Inserts a character at the start of the cursor line. The cursor moves to another line after a
+   * run of typing, or after every character for scattered edits, so no line grows without bound.
+   *
+   * <p>
+   * Inserting at the start of a line keeps the doc op valid at every revision the lagging client
+   * may claim, since no doc op changes the number of lines.
+   */
+  private DocOp nextTypingDocOp() {
+    if (typedOnLine == ("typing".equals(edits) ? TYPING_RUN_LENGTH : 1)) {
+      cursorLine = (cursorLine + 7) % LINE_COUNT;
+      typedOnLine = 0;
+    }
+    typedOnLine++;
+
+    if (cursorLine > 0) {
+      builder.retainLine(cursorLine);
+    }
+    return builder.insert("x").retainLine(LINE_COUNT + 1 - cursorLine).build();
+  }
+}
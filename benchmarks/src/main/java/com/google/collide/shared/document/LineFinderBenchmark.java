@@ -0,0 +1,105 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.shared.document;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link LineFinder} lookups at random places in large documents, with
+ * and without a line index, and the cost of maintaining the index while typing
+ * newlines.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LineFinderBenchmark {
+
+  private static final String LINE_TEXT = "  private final int field = 42; // a line of code\n";
+
+  private static final int TARGET_COUNT = 1024;
+
+  @Param({"10000", "100000", "1000000"})
+  public int lineCount;
+
+  @Param({"false", "true"})
+  public boolean indexed;
+
+  private Document document;
+  private final int[] lineNumbers = new int[TARGET_COUNT];
+  private final Line[] lines = new Line[TARGET_COUNT];
+  private final int[] offsets = new int[TARGET_COUNT];
+  private int next;
+
+  @Setup
+  public void setUp() {
+    StringBuilder text = new StringBuilder(lineCount * LINE_TEXT.length());
+    for (int i = 0; i < lineCount; i++) {
+      text.append(LINE_TEXT);
+    }
+    document = Document.createFromString(text.toString());
+    if (indexed) {
+      document.enableLineIndex();
+    }
+
+    Random random = new Random(42);
+    for (int i = 0; i < TARGET_COUNT; i++) {
+      lineNumbers[i] = random.nextInt(lineCount);
+      lines[i] = document.getLineFinder().findLine(lineNumbers[i]).line();
+      offsets[i] = random.nextInt(lineCount * LINE_TEXT.length());
+    }
+  }
+
+  @Benchmark
+  public LineInfo findLineByNumber() {
+    return document.getLineFinder().findLine(lineNumbers[next++ & (TARGET_COUNT - 1)]);
+  }
+
+  @Benchmark
+  public LineInfo findLineNumber() {
+    return document.getLineFinder().findLine(lines[next++ & (TARGET_COUNT - 1)]);
+  }
+
+  @Benchmark
+  public Position findPosition() {
+    return document.getLineFinder().findPosition(offsets[next++ & (TARGET_COUNT - 1)]);
+  }
+
+  /**
+   * Splits and joins a line in the middle of the document, which adds and
+   * removes a line.
+   */
+  @Benchmark
+  public TextChange splitAndJoinLine() {
+    LineInfo lineInfo = document.getLineFinder().findLine(lineNumbers[next++ & (TARGET_COUNT - 1)]);
+    document.insertText(lineInfo.line(), lineInfo.number(), 4, "\n");
+    return document.deleteText(lineInfo.line(), lineInfo.number(), 4, 1);
+  }
+}
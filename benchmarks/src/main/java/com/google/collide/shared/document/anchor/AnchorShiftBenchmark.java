@@ -0,0 +1,111 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.shared.document.anchor;
+
+import com.google.collide.shared.document.Document;
+import com.google.collide.shared.document.LineInfo;
+import com.google.collide.shared.document.TextChange;
+import com.google.common.base.Strings;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how the line anchors of an {@link AnchorManager} follow edits that add and remove
+ * lines: every call splits a line in the middle of the document and joins it again, which shifts
+ * the line numbers of all anchors below it twice.
+ *
+ * <p>
+ * With {@code listened} anchors, every anchor has a shift listener (as the anchors of cursors and
+ * breakpoints do), so each shifted anchor is also dispatched to.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AnchorShiftBenchmark {
+
+  private static final AnchorType ANCHOR_TYPE =
+      AnchorType.create(AnchorShiftBenchmark.class, "benchmark");
+
+  private static final String LINE_TEXT = "  private final int field = 42; // a line of code\n";
+
+  private static final int LINE_COUNT = 100000;
+
+  /** Must be a power of two */
+  private static final int TARGET_COUNT = 1024;
+
+  @Param({"100", "10000"})
+  public int anchorCount;
+
+  @Param({"false", "true"})
+  public boolean listened;
+
+  private Document document;
+
+  private final int[] lineNumbers = new int[TARGET_COUNT];
+  private int next;
+
+  private int shiftCount;
+
+  private final Anchor.ShiftListener shiftListener = new Anchor.ShiftListener() {
+    @Override
+    public void onAnchorShifted(Anchor anchor) {
+      shiftCount++;
+    }
+  };
+
+  @Setup
+  public void setUp() {
+    document = Document.createFromString(Strings.repeat(LINE_TEXT, LINE_COUNT));
+    document.enableLineIndex();
+
+    AnchorManager anchorManager = document.getAnchorManager();
+    for (int i = 0; i < anchorCount; i++) {
+      int lineNumber = (int) ((long) i * LINE_COUNT / anchorCount);
+      LineInfo lineInfo = document.getLineFinder().findLine(lineNumber);
+      Anchor anchor = anchorManager.createAnchor(ANCHOR_TYPE, lineInfo.line(), lineInfo.number(),
+          AnchorManager.IGNORE_COLUMN);
+      if (listened) {
+        anchor.getShiftListenerRegistrar().add(shiftListener);
+      }
+    }
+
+    Random random = new Random(42);
+    for (int i = 0; i < TARGET_COUNT; i++) {
+      lineNumbers[i] = random.nextInt(LINE_COUNT);
+    }
+  }
+
+  @Benchmark
+  public TextChange splitAndJoinLine() {
+    LineInfo lineInfo = document.getLineFinder().findLine(lineNumbers[next++ & (TARGET_COUNT - 1)]);
+    document.insertText(lineInfo.line(), lineInfo.number(), 4, "\n");
+    return document.deleteText(lineInfo.line(), lineInfo.number(), 4, 1);
+  }
+}
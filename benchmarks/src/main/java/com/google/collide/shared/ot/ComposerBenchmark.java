@@ -0,0 +1,76 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.shared.ot;
+
+import com.google.collide.dto.DocOp;
+import com.google.collide.dto.server.ServerDocOpFactory;
+import com.google.collide.shared.ot.Composer.ComposeException;
+import com.google.common.collect.Lists;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link Composer#compose(com.google.collide.dto.shared.DocOpFactory, Iterable)} on a run
+ * of keystrokes, which is how the server builds the bridge for a lagging client and how clients
+ * batch the keystrokes typed while waiting for an ack.
+ *
+ * <p>
+ * With one client the keystrokes stay on a few lines; with more clients they are spread over the
+ * document, so the composition has more components.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ComposerBenchmark {
+
+  private static final int LINE_COUNT = 1000;
+
+  @Param({"1", "8"})
+  public int clientCount;
+
+  @Param({"10", "100"})
+  public int docOpCount;
+
+  private List<DocOp> docOps;
+
+  @Setup
+  public void setUp() {
+    TypingTrace trace = new TypingTrace(LINE_COUNT, clientCount, 42);
+    docOps = Lists.newArrayList();
+    for (int i = 0; i < docOpCount; i++) {
+      docOps.add(trace.nextDocOp(i % clientCount));
+    }
+  }
+
+  @Benchmark
+  public DocOp composeKeystrokes() throws ComposeException {
+    return Composer.compose(ServerDocOpFactory.INSTANCE, docOps);
+  }
+}
@@ -0,0 +1,88 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.shared.ot;
+
+import com.google.collide.dto.DocOp;
+import com.google.collide.dto.server.ServerDocOpFactory;
+import com.google.collide.shared.document.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link DocOpApplier#apply} of keystrokes spread over the document. Every keystroke is
+ * applied together with its inverse, so the document is the same for every call. The series
+ * variant applies the pair with one applier, so the inverse starts from the keystroke's line.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DocOpApplierBenchmark {
+
+  /** Must be a power of two */
+  private static final int KEYSTROKE_COUNT = 256;
+
+  @Param({"1000", "100000"})
+  public int lineCount;
+
+  private final DocOp[] keystrokes = new DocOp[KEYSTROKE_COUNT];
+  private final DocOp[] inverses = new DocOp[KEYSTROKE_COUNT];
+  private final List<List<DocOp>> pairs = new ArrayList<List<DocOp>>();
+  private int next;
+
+  private Document document;
+
+  @Setup
+  public void setUp() {
+    // The first keystroke of every client is valid on the initial text
+    TypingTrace trace = new TypingTrace(lineCount, KEYSTROKE_COUNT, 42);
+    for (int i = 0; i < KEYSTROKE_COUNT; i++) {
+      keystrokes[i] = trace.nextDocOp(i);
+      inverses[i] = Inverter.invert(ServerDocOpFactory.INSTANCE, keystrokes[i]);
+      pairs.add(Arrays.asList(keystrokes[i], inverses[i]));
+    }
+    document = Document.createFromString(trace.getInitialText());
+  }
+
+  @Benchmark
+  public Document applyAndInvert() {
+    int index = next++ & (KEYSTROKE_COUNT - 1);
+    DocOpApplier.apply(keystrokes[index], document);
+    DocOpApplier.apply(inverses[index], document);
+    return document;
+  }
+
+  @Benchmark
+  public Document applySeries() {
+    DocOpApplier.apply(pairs.get(next++ & (KEYSTROKE_COUNT - 1)), document);
+    return document;
+  }
+}
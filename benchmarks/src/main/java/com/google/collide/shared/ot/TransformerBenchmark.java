@@ -0,0 +1,77 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.shared.ot;
+
+import com.google.collide.dto.DocOp;
+import com.google.collide.dto.server.ServerDocOpFactory;
+import com.google.collide.shared.ot.Composer.ComposeException;
+import com.google.common.collect.Lists;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link Transformer#transform} of a keystroke against the composed keystrokes of the
+ * other clients that it did not know about, as the server does for every incoming doc op.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransformerBenchmark {
+
+  private static final int LINE_COUNT = 1000;
+
+  @Param({"2", "16"})
+  public int clientCount;
+
+  /** Number of keystrokes of the other clients composed into the bridge */
+  @Param({"1", "10", "100"})
+  public int bridgeDocOpCount;
+
+  private DocOp clientDocOp;
+
+  private DocOp bridge;
+
+  @Setup
+  public void setUp() throws ComposeException {
+    TypingTrace trace = new TypingTrace(LINE_COUNT, clientCount, 42);
+    clientDocOp = trace.nextDocOp(0);
+
+    List<DocOp> otherDocOps = Lists.newArrayList();
+    for (int i = 0; i < bridgeDocOpCount; i++) {
+      otherDocOps.add(trace.nextDocOp(1 + i % (clientCount - 1)));
+    }
+    bridge = Composer.compose(ServerDocOpFactory.INSTANCE, otherDocOps);
+  }
+
+  @Benchmark
+  public OperationPair transformAgainstBridge() {
+    return Transformer.transform(ServerDocOpFactory.INSTANCE, clientDocOp, bridge);
+  }
+}
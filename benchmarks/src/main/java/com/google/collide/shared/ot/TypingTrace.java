@@ -0,0 +1,133 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.shared.ot;
+
+import com.google.collide.dto.DocOp;
+import com.google.collide.dto.server.ServerDocOpFactory;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generates the keystrokes of collaborators typing in the same document, as one doc op per
+ * keystroke.
+ *
+ * <p>
+ * Each client owns the lines whose number modulo the client count is its index, types runs of
+ * characters at a cursor on one of them (with the odd backspace) and then moves on to its next
+ * line. Keystrokes never add or remove lines, and no client touches another client's lines, so a
+ * client's doc op is valid at every revision since its previous doc op. That lets benchmarks
+ * replay a trace with any amount of lag between the clients.
+ */
+public class TypingTrace {
+
+  public static final String LINE_TEXT = "    int count = compute(first, second); // a comment\n";
+
+  /** Number of keystrokes on a line before the cursor moves to the client's next line */
+  private static final int TYPING_RUN_LENGTH = 40;
+
+  private static final String TYPED_CHARACTERS = "abcdefghijklmnopqrstuvwxyz (){};=.";
+
+  private final int lineCount;
+  private final int clientCount;
+
+  /** The text of each line, without its newline */
+  private final String[] lines;
+
+  private final int[] cursorLines;
+  private final int[] cursorColumns;
+  private final int[] typedOnLine;
+
+  private final Random random;
+  private final DocOpBuilder builder = new DocOpBuilder(ServerDocOpFactory.INSTANCE, false);
+
+  public TypingTrace(int lineCount, int clientCount, long seed) {
+    Preconditions.checkArgument(clientCount <= lineCount, "Every client needs a line");
+    this.lineCount = lineCount;
+    this.clientCount = clientCount;
+    random = new Random(seed);
+
+    lines = new String[lineCount];
+    Arrays.fill(lines, LINE_TEXT.substring(0, LINE_TEXT.length() - 1));
+
+    cursorLines = new int[clientCount];
+    cursorColumns = new int[clientCount];
+    typedOnLine = new int[clientCount];
+    for (int client = 0; client < clientCount; client++) {
+      // Start at a random line of the client
+      int ownedLineCount = (lineCount - 1 - client) / clientCount + 1;
+      cursorLines[client] = client + clientCount * random.nextInt(ownedLineCount);
+      cursorColumns[client] = random.nextInt(lines[0].length() + 1);
+    }
+  }
+
+  /**
+   * Returns the text of the document before any keystroke. It ends with a newline, so it has an
+   * empty last line after the {@code lineCount} lines of text.
+   */
+  public String getInitialText() {
+    return Strings.repeat(LINE_TEXT, lineCount);
+  }
+
+  public int getClientCount() {
+    return clientCount;
+  }
+
+  /**
+   * Returns the doc op of the next keystroke of the given client.
+   */
+  public DocOp nextDocOp(int client) {
+    if (typedOnLine[client] == TYPING_RUN_LENGTH) {
+      int line = cursorLines[client] + clientCount;
+      cursorLines[client] = line < lineCount ? line : client;
+      cursorColumns[client] = random.nextInt(lines[cursorLines[client]].length() + 1);
+      typedOnLine[client] = 0;
+    }
+    typedOnLine[client]++;
+
+    int line = cursorLines[client];
+    int column = cursorColumns[client];
+    String text = lines[line];
+
+    if (line > 0) {
+      builder.retainLine(line);
+    }
+    if (column > 0 && random.nextInt(8) == 0) {
+      // Backspace
+      column--;
+      if (column > 0) {
+        builder.retain(column, false);
+      }
+      builder.delete(text.substring(column, column + 1));
+      lines[line] = text.substring(0, column) + text.substring(column + 1);
+    } else {
+      if (column > 0) {
+        builder.retain(column, false);
+      }
+      String typed =
+          String.valueOf(TYPED_CHARACTERS.charAt(random.nextInt(TYPED_CHARACTERS.length())));
+      builder.insert(typed);
+      lines[line] = text.substring(0, column) + typed + text.substring(column);
+      column++;
+    }
+    cursorColumns[client] = column;
+
+    // The rest of the line with its newline, then the following lines and the empty last line
+    builder.retain(lines[line].length() - column + 1, true);
+    return builder.retainLine(lineCount - line).build();
+  }
+}
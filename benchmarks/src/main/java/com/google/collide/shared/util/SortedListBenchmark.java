@@ -0,0 +1,93 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.shared.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the array-backed and tree-backed {@link SortedList} as the list grows. Every insertion
+ * is followed by the removal of the same item, so the size stays the same.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SortedListBenchmark {
+
+  /** Must be a power of two */
+  private static final int VALUE_COUNT = 1024;
+
+  private static final SortedList.Comparator<Integer> COMPARATOR =
+      new SortedList.Comparator<Integer>() {
+        @Override
+        public int compare(Integer a, Integer b) {
+          return a.compareTo(b);
+        }
+      };
+
+  @Param({"100", "10000", "1000000"})
+  public int size;
+
+  @Param({"false", "true"})
+  public boolean isTreeBacked;
+
+  private final Integer[] values = new Integer[VALUE_COUNT];
+  private final int[] indices = new int[VALUE_COUNT];
+  private int next;
+
+  private SortedList<Integer> list;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42);
+    list = new SortedList<Integer>(COMPARATOR, isTreeBacked);
+    for (int i = 0; i < size; i++) {
+      // Even values in the list, odd ones to insert
+      list.add(random.nextInt(Integer.MAX_VALUE / 2) * 2);
+    }
+
+    for (int i = 0; i < VALUE_COUNT; i++) {
+      values[i] = random.nextInt(Integer.MAX_VALUE / 2) * 2 + 1;
+      indices[i] = random.nextInt(size);
+    }
+  }
+
+  @Benchmark
+  public SortedList<Integer> addAndRemove() {
+    Integer value = values[next++ & (VALUE_COUNT - 1)];
+    list.remove(list.add(value));
+    return list;
+  }
+
+  @Benchmark
+  public Integer get() {
+    return list.get(indices[next++ & (VALUE_COUNT - 1)]);
+  }
+}
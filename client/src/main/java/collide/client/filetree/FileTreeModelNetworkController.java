@@ -33,10 +33,12 @@ import com.google.collide.dto.RoutingTypes;
 import com.google.collide.dto.ServerError.FailureReason;
 import com.google.collide.dto.TreeNodeInfo;
 import com.google.collide.dto.WorkspaceTreeUpdateBroadcast;
+import com.google.collide.dto.client.DtoClientImpls.DirInfoImpl;
 import com.google.collide.dto.client.DtoClientImpls.GetDirectoryImpl;
 import com.google.collide.json.shared.JsonArray;
 import com.google.collide.shared.FrontendConstants;
 import com.google.collide.shared.util.JsonCollections;
+import com.google.collide.shared.util.StringUtils;
 import com.google.common.base.Preconditions;
 
 
@@ -99,23 +101,10 @@ public class FileTreeModelNetworkController implements FileTreeInvalidatedEvent.
             return;
           }
 
-          // Get the directory that contains the path.
-          final PathUtil dirPath = PathUtil.createExcludingLastN(path, 1);
-
-          // Request the node and its parents, starting from the closest node.
-          /*
-           * TODO: We should revisit deep linking in the file tree and possible only show
-           * the directory that is deep linked. Otherwise, we may have to load a lot of parent
-           * directories when deep linking to a very deep directory.
-           */
-          GetDirectoryImpl getDirectoryAndPath = GetDirectoryImpl.make()
-              .setPath(dirPath.getPathString())
-              .setDepth(FrontendConstants.DEFAULT_FILE_TREE_DEPTH)
-              .setRootId(fileTreeModel.getLastAppliedTreeMutationRevision());
-              // Include the root path so we load parent directories leading up to the file.
-              //.setRootPath(closest.getNodePath().getPathString());
-          fileTreeController.getDirectory(
-              getDirectoryAndPath, new ApiCallback<GetDirectoryResponse>() {
+          // Load the closest directory, which is incomplete, and look again.
+          final PathUtil closestPath = closest.getNodePath();
+          new PagedDirectoryRequest(fileTreeController, fileTreeModel, closestPath,
+              new ApiCallback<GetDirectoryResponse>() {
 
                 @Override
                 public void onMessageReceived(GetDirectoryResponse response) {
@@ -131,24 +120,25 @@ public class FileTreeModelNetworkController implements FileTreeInvalidatedEvent.
                   fileTreeModel.replaceNode(
                       new PathUtil(response.getPath()), incomingSubtree, response.getRootId());
 
-                  // Check if the node now exists.
-                  FileTreeNode child = fileTreeModel.getWorkspaceRoot().findChildNode(path);
-                  if (child == null) {
+                  // Check if the node now exists, or if we got closer to it.
+                  FileTreeNode newClosest =
+                      fileTreeModel.getWorkspaceRoot().findClosestChildNode(path);
+                  if (newClosest == null || closestPath.equals(newClosest.getNodePath())) {
                     callback.onNodeUnavailable();
                   } else {
-                    callback.onNodeAvailable(child);
+                    requestWorkspaceNode(fileTreeModel, path, callback);
                   }
                 }
 
                 @Override
                 public void onFail(FailureReason reason) {
                   Log.error(getClass(), "Failed to retrieve directory path "
-                      + dirPath.getPathString());
+                      + closestPath.getPathString());
 
                   // Update the callback.
                   callback.onError(reason);
                 }
-              });
+              }).send();
         }
       });
     }
@@ -160,11 +150,7 @@ public class FileTreeModelNetworkController implements FileTreeInvalidatedEvent.
         final FileTreeModel fileTreeModel, FileTreeNode node, final NodeRequestCallback callback) {
       Preconditions.checkArgument(node.isDirectory(), "Cannot request children of a file");
       final PathUtil path = node.getNodePath();
-      GetDirectoryImpl getDirectory = GetDirectoryImpl.make()
-          .setPath(path.getPathString())
-          .setDepth(FrontendConstants.DEFAULT_FILE_TREE_DEPTH)
-          .setRootId(fileTreeModel.getLastAppliedTreeMutationRevision());
-      fileTreeController.getDirectory(getDirectory,
+      new PagedDirectoryRequest(fileTreeController, fileTreeModel, path,
           new ApiCallback<GetDirectoryResponse>() {
 
             @Override
@@ -205,14 +191,103 @@ public class FileTreeModelNetworkController implements FileTreeInvalidatedEvent.
                 fatal.fire();
               }
             }
-          });
+          }).send();
+    }
+
+  }
+
+  /**
+   * Requests a directory one page of children at a time, so that neither a response nor the work
+   * the server does under its tree lock grows with the size of the directory. The pages are
+   * combined into the response for the first page, which is handed to the callback once the last
+   * page arrived.
+   */
+  private static class PagedDirectoryRequest implements ApiCallback<GetDirectoryResponse> {
+    private final FileTreeController<?> fileTreeController;
+    private final FileTreeModel fileTreeModel;
+    private final PathUtil path;
+    private final ApiCallback<GetDirectoryResponse> callback;
+
+    private String knownTreeVersion;
+    private GetDirectoryResponse firstPage;
+    private int receivedChildCount;
+
+    PagedDirectoryRequest(FileTreeController<?> fileTreeController, FileTreeModel fileTreeModel,
+        PathUtil path, ApiCallback<GetDirectoryResponse> callback) {
+      this.fileTreeController = fileTreeController;
+      this.fileTreeModel = fileTreeModel;
+      this.path = path;
+      this.callback = callback;
+    }
+
+    /**
+     * Lets the server reply with the tree updates since the given version instead of the
+     * directory, see {@link GetDirectoryResponse#isIncremental()}.
+     */
+    PagedDirectoryRequest setKnownTreeVersion(String knownTreeVersion) {
+      this.knownTreeVersion = knownTreeVersion;
+      return this;
+    }
+
+    void send() {
+      GetDirectoryImpl request = GetDirectoryImpl.make()
+          .setPath(path.getPathString())
+          .setDepth(FrontendConstants.DEFAULT_FILE_TREE_DEPTH)
+          .setOffset(receivedChildCount)
+          .setLimit(FrontendConstants.FILE_TREE_PAGE_SIZE)
+          .setRootId(fileTreeModel.getLastAppliedTreeMutationRevision());
+      if (firstPage == null && knownTreeVersion != null) {
+        request.setKnownTreeVersion(knownTreeVersion);
+      }
+      fileTreeController.getDirectory(request, this);
+    }
+
+    @Override
+    public void onMessageReceived(GetDirectoryResponse response) {
+      DirInfo baseDir = response.getBaseDirectory();
+      if (response.isIncremental() || baseDir == null) {
+        callback.onMessageReceived(response);
+        return;
+      }
+
+      if (firstPage == null) {
+        firstPage = response;
+      } else if (!firstPage.getRootId().equals(response.getRootId())) {
+        // The tree changed between the pages, so their children may overlap or miss some
+        firstPage = null;
+        receivedChildCount = 0;
+        send();
+        return;
+      } else {
+        DirInfoImpl combinedDir = (DirInfoImpl) firstPage.getBaseDirectory();
+        combinedDir.getSubDirectories().addAll(baseDir.getSubDirectories());
+        combinedDir.getFiles().addAll(baseDir.getFiles());
+        combinedDir.setIsComplete(baseDir.isComplete());
+      }
+
+      receivedChildCount += baseDir.getSubDirectories().size() + baseDir.getFiles().size();
+      if (response.hasMoreChildren()) {
+        send();
+      } else {
+        callback.onMessageReceived(firstPage);
+      }
     }
 
+    @Override
+    public void onFail(FailureReason reason) {
+      callback.onFail(reason);
+    }
   }
 
   private final FileTreeController<?> fileTreeController;
   private final FileTreeModel fileTreeModel;
 
+  /**
+   * The tree version up to which we applied every tree update, or null if the workspace root has
+   * not been loaded yet.
+   */
+  private String contiguousTreeVersion;
+
   FileTreeModelNetworkController(FileTreeModel fileTreeModel, FileTreeController<?> fileTreeController) {
     this.fileTreeModel = fileTreeModel;
     this.fileTreeController = fileTreeController;
@@ -331,12 +406,42 @@ public class FileTreeModelNetworkController implements FileTreeInvalidatedEvent.
   }
 
   public void handleSubtreeReplaced(GetDirectoryResponse response) {
+    if (response.isIncremental()) {
+      JsonArray<WorkspaceTreeUpdateBroadcast> treeUpdates = response.getTreeUpdates();
+      for (int i = 0, n = treeUpdates.size(); i < n; i++) {
+        applyTreeUpdate(treeUpdates.get(i));
+      }
+      return;
+    }
+
     FileTreeNode incomingSubtree = FileTreeNode.transform(response.getBaseDirectory());
     fileTreeModel.replaceNode(
         new PathUtil(response.getPath()), incomingSubtree, response.getRootId());
     if (PathUtil.WORKSPACE_ROOT.equals(new PathUtil(response.getPath()))) {
       fileTreeModel.maybeSetLastAppliedTreeMutationRevision(response.getRootId());
+      contiguousTreeVersion = response.getRootId();
+    }
+  }
+
+  /**
+   * Applies a tree update, unless we already applied it.
+   *
+   * @return false if we missed an update before this one, in which case this one is not applied
+   */
+  private boolean applyTreeUpdate(WorkspaceTreeUpdateBroadcast treeUpdate) {
+    if (contiguousTreeVersion != null) {
+      long version = StringUtils.toLong(treeUpdate.getNewTreeVersion());
+      long contiguousVersion = StringUtils.toLong(contiguousTreeVersion);
+      if (version <= contiguousVersion) {
+        return true;
+      } else if (version > contiguousVersion + 1) {
+        return false;
+      }
+      contiguousTreeVersion = treeUpdate.getNewTreeVersion();
     }
+
+    handleFileTreeMutation(treeUpdate);
+    return true;
   }
 
   @Override
@@ -370,14 +475,8 @@ public class FileTreeModelNetworkController implements FileTreeInvalidatedEvent.
   }
 
   private void reloadDirectory(final PathUtil invalidatedPath) {
-    GetDirectoryImpl request = GetDirectoryImpl.make().setRootId(
-        fileTreeModel.getLastAppliedTreeMutationRevision())
-        .setDepth(FrontendConstants.DEFAULT_FILE_TREE_DEPTH);
-
-    // Fetch the parent directory of the file
-    request.setPath(invalidatedPath.toString());
-
-    fileTreeController.getDirectory(request,
+    // If we are only behind on tree updates, the server can send those instead
+    new PagedDirectoryRequest(fileTreeController, fileTreeModel, invalidatedPath,
         new ApiCallback<GetDirectoryResponse>() {
 
           @Override
@@ -395,7 +494,7 @@ public class FileTreeModelNetworkController implements FileTreeInvalidatedEvent.
             fatal.setDismissable(true);
             fatal.fire();
           }
-        });
+        }).setKnownTreeVersion(contiguousTreeVersion).send();
   }
 
   public void registerForInvalidations(MessageFilter messageFilter) {
@@ -404,11 +503,10 @@ public class FileTreeModelNetworkController implements FileTreeInvalidatedEvent.
 
       @Override
       public void onMessageReceived(WorkspaceTreeUpdateBroadcast update) {
-        if (update != null) {
-          handleFileTreeMutation(update);
-        } else {
+        if (update == null || !applyTreeUpdate(update)) {
           // Either the invalidation was not the next sequential one or we
-          // didn't get the payload. Reload the entire tree.
+          // didn't get the payload. Reload the entire tree, or just the
+          // updates we missed if the server still has them.
           onFileTreeInvalidated(PathUtil.WORKSPACE_ROOT);
         }
       }
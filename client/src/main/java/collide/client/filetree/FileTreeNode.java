@@ -261,6 +261,21 @@ public class FileTreeNode extends TreeNodeInfoImpl {
     return dirView.isComplete();
   }
 
+  /**
+   * Checks whether or not this directory has children, which for a directory whose children have
+   * not been loaded is known from the child count sent by the server.
+   *
+   * @return true if the directory has or may have children, false if not
+   */
+  public final boolean hasChildren() {
+    assert isDirectory() : "Only directories have children!";
+    DirInfoImpl dirView = this.cast();
+    if (dirView.isComplete()) {
+      return getUnifiedChildren().size() > 0;
+    }
+    return !dirView.hasChildCount() || dirView.getChildCount() > 0;
+  }
+
   /**
    * Checks whether or not the children of this directory have been requested.
    *
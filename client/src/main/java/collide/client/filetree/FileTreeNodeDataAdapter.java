@@ -42,7 +42,7 @@ public class FileTreeNodeDataAdapter implements NodeDataAdapter<FileTreeNode> {
 
   @Override
   public boolean hasChildren(FileTreeNode data) {
-    return data.isDirectory() && (!data.isComplete() || data.getUnifiedChildren().size() > 0);
+    return data.isDirectory() && data.hasChildren();
   }
 
   @Override
@@ -22,9 +22,11 @@ import com.google.collide.client.code.Participant;
 import com.google.collide.client.code.ParticipantModel;
 import com.google.collide.client.editor.Buffer;
 import com.google.collide.client.editor.selection.CursorView;
+import com.google.collide.dto.DocOp;
 import com.google.collide.dto.DocumentSelection;
 import com.google.collide.dto.client.DtoClientImpls.DocumentSelectionImpl;
 import com.google.collide.dto.client.DtoClientImpls.FilePositionImpl;
+import com.google.collide.json.shared.JsonArray;
 import com.google.collide.json.shared.JsonStringMap;
 import com.google.collide.json.shared.JsonStringMap.IterationCallback;
 import com.google.collide.shared.document.Document;
@@ -33,6 +35,7 @@ import com.google.collide.shared.document.LineInfo;
 import com.google.collide.shared.document.anchor.Anchor;
 import com.google.collide.shared.document.anchor.Anchor.RemovalStrategy;
 import com.google.collide.shared.document.anchor.AnchorType;
+import com.google.collide.shared.ot.BulkPositionTransformer;
 import com.google.collide.shared.util.JsonCollections;
 
 import elemental.util.Timer;
@@ -116,16 +119,47 @@ class CollaboratorCursorController {
           handleSelectionChangeWithUserId(userId, selection);
         } catch (Throwable t) {
           /*
-           * TODO: There's a known bug that if a document is not open in the editor,
-           * our cached collaborator selections won't get transformed with incoming doc ops. This
-           * means that it's possible the selection is out of the actual document's range (either
-           * line number or column is too big.)
+           * The cached selections are transformed with incoming doc ops (see
+           * transformSelections), but one that was stale when it was cached can still be out of
+           * the document's range (either line number or column is too big.)
            */
         }
       }
     });
   }
 
+  /**
+   * Transforms the cached selections of collaborators with a doc op, for when
+   * the document is not open in an editor and no anchors track them. All of
+   * the positions are transformed in one pass over the doc op.
+   */
+  static void transformSelections(JsonStringMap<DocumentSelection> selections, DocOp docOp) {
+    JsonArray<String> userIds = selections.getKeys();
+    if (userIds.isEmpty()) {
+      return;
+    }
+
+    BulkPositionTransformer transformer = new BulkPositionTransformer(userIds.size() * 2);
+    for (int i = 0, n = userIds.size(); i < n; i++) {
+      DocumentSelection selection = selections.get(userIds.get(i));
+      transformer.add(selection.getBasePosition().getLineNumber(),
+          selection.getBasePosition().getColumn());
+      transformer.add(selection.getCursorPosition().getLineNumber(),
+          selection.getCursorPosition().getColumn());
+    }
+
+    transformer.transform(docOp);
+
+    for (int i = 0, n = userIds.size(); i < n; i++) {
+      FilePositionImpl basePosition = FilePositionImpl.make()
+          .setColumn(transformer.getColumn(i * 2)).setLineNumber(transformer.getLineNumber(i * 2));
+      FilePositionImpl cursorPosition = FilePositionImpl.make().setColumn(
+          transformer.getColumn(i * 2 + 1)).setLineNumber(transformer.getLineNumber(i * 2 + 1));
+      selections.put(userIds.get(i), DocumentSelectionImpl.make().setBasePosition(basePosition)
+          .setCursorPosition(cursorPosition).setUserId(userIds.get(i)));
+    }
+  }
+
   void handleSelectionChange(String clientId, @Nullable DocumentSelection selection) {
     handleSelectionChangeWithUserId(participantModel.getUserId(clientId), selection);
   }
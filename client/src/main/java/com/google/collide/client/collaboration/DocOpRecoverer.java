@@ -102,7 +102,8 @@ class DocOpRecoverer {
      * ops from the document history, we will skip those that have already been
      * applied.
      */
-    int revision = lastSentMsg != null ? lastSentMsg.getCcRevision() : revisionProvider.revision();
+    final int revision =
+        lastSentMsg != null ? lastSentMsg.getCcRevision() : revisionProvider.revision();
     
     RecoverFromMissedDocOpsImpl recoveryDto =
         RecoverFromMissedDocOpsImpl.make()
@@ -119,6 +120,18 @@ class DocOpRecoverer {
           @Override
           public void onMessageReceived(RecoverFromMissedDocOpsResponse message) {
             
+            if (message.getHistoryPruned()) {
+              /*
+               * The server no longer has the doc ops following our revision, so we can't replay
+               * them. Our copy of the document has to be reloaded from the server.
+               */
+              Log.info(getClass(), "Server history no longer covers revision ", revision);
+              errorCallback.onError();
+
+              handleRecoverFinished();
+              return;
+            }
+
             // 4) Process the doc ops while I was disconnected (which will include our ack)
             JsonArray<ServerToClientDocOp> recoveredServerDocOps = message.getDocOps();
             for (int i = 0; i < recoveredServerDocOps.size(); i++) {
@@ -76,6 +76,7 @@ public class DocumentCollaborationController implements DocOpRecoveryInitiator {
         DocOpApplier.apply(docOp, document);
 
         if (editor == null) {
+          CollaboratorCursorController.transformSelections(collaboratorSelections, docOp);
           if (selection != null) {
             collaboratorSelections.put(selection.getUserId(), selection);
           }
@@ -32,8 +32,8 @@ import com.google.collide.dto.DocumentSelection;
 import com.google.collide.dto.client.ClientDocOpFactory;
 import com.google.collide.dto.client.DtoClientImpls.DocumentSelectionImpl;
 import com.google.collide.dto.client.DtoClientImpls.FilePositionImpl;
+import com.google.collide.shared.ot.BulkPositionTransformer;
 import com.google.collide.shared.ot.OperationPair;
-import com.google.collide.shared.ot.PositionTransformer;
 import com.google.collide.shared.ot.Transformer;
 import com.google.collide.shared.util.ErrorCallback;
 import com.google.collide.shared.util.ListenerManager;
@@ -280,31 +280,29 @@ class FileConcurrencyController {
       List<DocOp> pretransformedUnackedClientOps,
       List<DocOp> pretransformedQueuedClientOps) {
 
-    PositionTransformer basePositionTransformer =
-        new PositionTransformer(selection.getBasePosition().getLineNumber(), selection
-            .getBasePosition().getColumn());
-    PositionTransformer cursorPositionTransformer =
-        new PositionTransformer(selection.getCursorPosition().getLineNumber(), selection
-            .getCursorPosition().getColumn());
+    BulkPositionTransformer transformer = new BulkPositionTransformer(2);
+    int base = transformer.add(
+        selection.getBasePosition().getLineNumber(), selection.getBasePosition().getColumn());
+    int cursor = transformer.add(
+        selection.getCursorPosition().getLineNumber(), selection.getCursorPosition().getColumn());
 
     for (DocOp op : pretransformedUnackedClientOps) {
-      basePositionTransformer.transform(op);
-      cursorPositionTransformer.transform(op);
+      transformer.transform(op);
     }
 
     for (DocOp op : pretransformedQueuedClientOps) {
-      basePositionTransformer.transform(op);
-      cursorPositionTransformer.transform(op);
+      transformer.transform(op);
     }
 
-    return DocumentSelectionImpl.make().setBasePosition(makeFilePosition(basePositionTransformer))
-        .setCursorPosition(makeFilePosition(cursorPositionTransformer))
+    return DocumentSelectionImpl.make()
+        .setBasePosition(makeFilePosition(transformer, base))
+        .setCursorPosition(makeFilePosition(transformer, cursor))
         .setUserId(selection.getUserId());
   }
 
-  private FilePositionImpl makeFilePosition(PositionTransformer transformer) {
+  private FilePositionImpl makeFilePosition(BulkPositionTransformer transformer, int index) {
     return
-        FilePositionImpl.make().setLineNumber(transformer.getLineNumber())
-            .setColumn(transformer.getColumn());
+        FilePositionImpl.make().setLineNumber(transformer.getLineNumber(index))
+            .setColumn(transformer.getColumn(index));
   }
 }
@@ -245,6 +245,9 @@ public class DocumentManager {
 
     final Document document = Document.createFromString(contents);
 
+    // Incoming doc ops and collaborator cursors look up lines all over the file
+    document.enableLineIndex();
+
     documents.add(document);
 
     boolean isLinkedToFile = fileEditSessionKey != null;
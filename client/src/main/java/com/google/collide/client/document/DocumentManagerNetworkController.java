@@ -16,6 +16,7 @@ package com.google.collide.client.document;
 
 import collide.client.filetree.FileTreeController;
 
+import com.google.collide.client.bootstrap.BootstrapSession;
 import com.google.collide.client.communication.FrontendApi.ApiCallback;
 import com.google.collide.client.document.DocumentManager.GetDocumentCallback;
 import com.google.collide.client.status.StatusMessage;
@@ -90,7 +91,8 @@ class DocumentManagerNetworkController {
     delayLoadingMessage(path);
 
     // Fetch the file's contents
-    GetFileContentsImpl getFileContents = GetFileContentsImpl.make().setPath(path.getPathString());
+    GetFileContentsImpl getFileContents = GetFileContentsImpl.make().setPath(path.getPathString())
+        .setClientId(BootstrapSession.getBootstrapSession().getActiveClientId());
     fileTreeController.getFileContents(getFileContents,
         new ApiCallback<GetFileContentsResponse>() {
 
@@ -14,12 +14,6 @@
 
 package com.google.collide.client.editor;
 
-import java.util.List;
-
-import org.waveprotocol.wave.model.operation.OperationPair;
-import org.waveprotocol.wave.model.operation.TransformException;
-import org.waveprotocol.wave.model.undo.UndoManagerImpl;
-import org.waveprotocol.wave.model.undo.UndoManagerImpl.Algorithms;
 import org.waveprotocol.wave.model.undo.UndoManagerPlus;
 
 import com.google.collide.client.editor.selection.SelectionModel;
@@ -31,12 +25,9 @@ import com.google.collide.shared.document.LineInfo;
 import com.google.collide.shared.document.Position;
 import com.google.collide.shared.document.TextChange;
 import com.google.collide.shared.document.util.PositionUtils;
-import com.google.collide.shared.ot.Composer;
-import com.google.collide.shared.ot.Composer.ComposeException;
+import com.google.collide.shared.ot.CompactingUndoManager;
 import com.google.collide.shared.ot.DocOpApplier;
 import com.google.collide.shared.ot.DocOpUtils;
-import com.google.collide.shared.ot.Inverter;
-import com.google.collide.shared.ot.Transformer;
 import com.google.collide.shared.util.JsonCollections;
 import com.google.collide.shared.util.ListenerRegistrar;
 
@@ -47,41 +38,10 @@ import com.google.collide.shared.util.ListenerRegistrar;
  */
 public class EditorUndoManager {
 
-  /**
-   * Delegates to the document operation algorithms when requested by the Wave
-   * undo library.
-   */
-  private static final UndoManagerImpl.Algorithms<DocOp> ALGORITHMS = new Algorithms<DocOp>() {
-    @Override
-    public DocOp invert(DocOp operation) {
-      return Inverter.invert(ClientDocOpFactory.INSTANCE, operation);
-    }
-
-    @Override
-    public DocOp compose(List<DocOp> operationsReverse) {
-      try {
-        return Composer.compose(ClientDocOpFactory.INSTANCE, operationsReverse);
-      } catch (ComposeException e) {
-        throw new RuntimeException(e);
-      }
-    }
-
-    @Override
-    public OperationPair<DocOp> transform(DocOp op1, DocOp op2) throws TransformException {
-      try {
-        com.google.collide.shared.ot.OperationPair ourPair =
-            Transformer.transform(ClientDocOpFactory.INSTANCE, op1, op2);
-        return new OperationPair<DocOp>(ourPair.clientOp(), ourPair.serverOp());
-      } catch (com.google.collide.shared.ot.Transformer.TransformException e) {
-        throw new TransformException(e);
-      }
-    }
-  };
-
   public static EditorUndoManager create(Editor editor, Document document,
                                          SelectionModel selection) {
     return new EditorUndoManager(editor, document, selection,
-        new UndoManagerImpl<DocOp>(ALGORITHMS));
+        new CompactingUndoManager(ClientDocOpFactory.INSTANCE));
   }
 
   /*
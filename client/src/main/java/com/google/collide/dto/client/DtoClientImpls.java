@@ -2185,6 +2185,20 @@ public class DtoClientImpls {
       return this.hasOwnProperty("isPackage");
     }-*/;
 
+    @Override
+    public final native int getChildCount() /*-{
+      return this["childCount"];
+    }-*/;
+
+    public final native DirInfoImpl setChildCount(int childCount) /*-{
+      this["childCount"] = childCount;
+      return this;
+    }-*/;
+
+    public final native boolean hasChildCount() /*-{
+      return this.hasOwnProperty("childCount");
+    }-*/;
+
     public static native DirInfoImpl make() /*-{
       return {
 
@@ -3142,6 +3156,48 @@ public class DtoClientImpls {
       return this.hasOwnProperty("path");
     }-*/;
 
+    @Override
+    public final native int getOffset() /*-{
+      return this["offset"];
+    }-*/;
+
+    public final native GetDirectoryImpl setOffset(int offset) /*-{
+      this["offset"] = offset;
+      return this;
+    }-*/;
+
+    public final native boolean hasOffset() /*-{
+      return this.hasOwnProperty("offset");
+    }-*/;
+
+    @Override
+    public final native int getLimit() /*-{
+      return this["limit"];
+    }-*/;
+
+    public final native GetDirectoryImpl setLimit(int limit) /*-{
+      this["limit"] = limit;
+      return this;
+    }-*/;
+
+    public final native boolean hasLimit() /*-{
+      return this.hasOwnProperty("limit");
+    }-*/;
+
+    @Override
+    public final native java.lang.String getKnownTreeVersion() /*-{
+      return this["knownTreeVersion"];
+    }-*/;
+
+    public final native GetDirectoryImpl setKnownTreeVersion(java.lang.String knownTreeVersion) /*-{
+      this["knownTreeVersion"] = knownTreeVersion;
+      return this;
+    }-*/;
+
+    public final native boolean hasKnownTreeVersion() /*-{
+      return this.hasOwnProperty("knownTreeVersion");
+    }-*/;
+
     public static native GetDirectoryImpl make() /*-{
       return {
         _type: 33
@@ -3194,6 +3250,48 @@ public class DtoClientImpls {
       return this.hasOwnProperty("path");
     }-*/;
 
+    @Override
+    public final native boolean hasMoreChildren() /*-{
+      return this["hasMoreChildren"];
+    }-*/;
+
+    public final native GetDirectoryResponseImpl setHasMoreChildren(boolean hasMoreChildren) /*-{
+      this["hasMoreChildren"] = hasMoreChildren;
+      return this;
+    }-*/;
+
+    public final native boolean hasHasMoreChildren() /*-{
+      return this.hasOwnProperty("hasMoreChildren");
+    }-*/;
+
+    @Override
+    public final native boolean isIncremental() /*-{
+      return this["isIncremental"];
+    }-*/;
+
+    public final native GetDirectoryResponseImpl setIsIncremental(boolean isIncremental) /*-{
+      this["isIncremental"] = isIncremental;
+      return this;
+    }-*/;
+
+    public final native boolean hasIsIncremental() /*-{
+      return this.hasOwnProperty("isIncremental");
+    }-*/;
+
+    @Override
+    public final native com.google.collide.json.shared.JsonArray<com.google.collide.dto.WorkspaceTreeUpdateBroadcast> getTreeUpdates() /*-{
+      return this["treeUpdates"];
+    }-*/;
+
+    public final native GetDirectoryResponseImpl setTreeUpdates(com.google.collide.json.client.JsoArray<com.google.collide.dto.WorkspaceTreeUpdateBroadcast> treeUpdates) /*-{
+      this["treeUpdates"] = treeUpdates;
+      return this;
+    }-*/;
+
+    public final native boolean hasTreeUpdates() /*-{
+      return this.hasOwnProperty("treeUpdates");
+    }-*/;
+
   }
 
 
@@ -3238,6 +3336,20 @@ public class DtoClientImpls {
       return this.hasOwnProperty("path");
     }-*/;
 
+    @Override
+    public final native java.lang.String getClientId() /*-{
+      return this["clientId"];
+    }-*/;
+
+    public final native GetFileContentsImpl setClientId(java.lang.String clientId) /*-{
+      this["clientId"] = clientId;
+      return this;
+    }-*/;
+
+    public final native boolean hasClientId() /*-{
+      return this.hasOwnProperty("clientId");
+    }-*/;
+
     public static native GetFileContentsImpl make() /*-{
       return {
         _type: 35
@@ -6990,6 +7102,20 @@ public class DtoClientImpls {
       return this.hasOwnProperty("docOps");
     }-*/;
 
+    @Override
+    public final native boolean getHistoryPruned() /*-{
+      return this["historyPruned"];
+    }-*/;
+
+    public final native RecoverFromMissedDocOpsResponseImpl setHistoryPruned(boolean historyPruned) /*-{
+      this["historyPruned"] = historyPruned;
+      return this;
+    }-*/;
+
+    public final native boolean hasHistoryPruned() /*-{
+      return this.hasOwnProperty("historyPruned");
+    }-*/;
+
   }
 
 
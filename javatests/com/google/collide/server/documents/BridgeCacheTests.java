@@ -0,0 +1,129 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.documents;
+
+import com.google.collide.dto.DocOp;
+import com.google.collide.dto.server.ServerDocOpFactory;
+import com.google.collide.shared.document.Document;
+import com.google.collide.shared.ot.DocOpApplier;
+import com.google.collide.shared.ot.PackedDocOp;
+import com.google.collide.shared.ot.TerseDocOpBuilder;
+import com.google.common.collect.Lists;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests for {@link BridgeCache}.
+ */
+public class BridgeCacheTests extends TestCase {
+
+  private static final int REVISION_COUNT = 300;
+
+  /** Text of the document at each revision */
+  private final List<String> texts = Lists.newArrayList();
+
+  /** Doc op at index i forms revision i, index 0 is unused */
+  private final List<PackedDocOp> docOps = Lists.newArrayList();
+
+  private BridgeCache cache;
+
+  @Override
+  protected void setUp() throws Exception {
+    Random random = new Random(42);
+    TerseDocOpBuilder builder = new TerseDocOpBuilder(ServerDocOpFactory.INSTANCE, false);
+
+    String text = "hello world\n";
+    texts.add(text);
+    docOps.add(null);
+    for (int i = 1; i <= REVISION_COUNT; i++) {
+      int size = text.length();
+      int location = random.nextInt(size - 1);
+      if (location > 0) {
+        builder.r(location);
+      }
+      if (random.nextInt(3) == 0 && size > 2) {
+        builder.d(text.substring(location, location + 1)).eolR(size - location - 1);
+        text = text.substring(0, location) + text.substring(location + 1);
+      } else {
+        String inserted = i % 2 == 0 ? "x" : "yz";
+        builder.i(inserted).eolR(size - location);
+        text = text.substring(0, location) + inserted + text.substring(location);
+      }
+      docOps.add(PackedDocOp.fromDocOp(builder.b()));
+      texts.add(text);
+    }
+
+    cache = new BridgeCache(new BridgeCache.DocOpSource() {
+      @Override
+      public PackedDocOp getDocOp(int ccRevision) {
+        return docOps.get(ccRevision);
+      }
+    });
+  }
+
+  public void testEmptyRange() throws Exception {
+    assertNull(cache.compose(10, 9));
+  }
+
+  public void testSingleRevision() throws Exception {
+    assertSame(docOps.get(7), cache.compose(7, 7));
+  }
+
+  public void testComposedRangesMatchHistory() throws Exception {
+    Random random = new Random(7);
+    for (int i = 0; i < 200; i++) {
+      int first = 1 + random.nextInt(REVISION_COUNT);
+      int last = first + random.nextInt(REVISION_COUNT - first + 1);
+      assertBridge(first, last);
+    }
+
+    // Ranges up to the head are the ones used by VersionedDocument
+    for (int first = 1; first <= REVISION_COUNT; first++) {
+      assertBridge(first, REVISION_COUNT);
+    }
+  }
+
+  public void testEvictedBlocksAreRebuilt() throws Exception {
+    assertBridge(1, REVISION_COUNT);
+    cache.evictThrough(128);
+    assertBridge(129, REVISION_COUNT);
+    assertBridge(200, 256);
+  }
+
+  public void testCacheSizeIsBounded() throws Exception {
+    cache = new BridgeCache(new BridgeCache.DocOpSource() {
+      @Override
+      public PackedDocOp getDocOp(int ccRevision) {
+        return docOps.get(ccRevision);
+      }
+    }, 20);
+
+    for (int first = 1; first <= REVISION_COUNT; first++) {
+      assertBridge(first, REVISION_COUNT);
+      assertTrue(cache.size() <= 20);
+    }
+    assertEquals(20, cache.size());
+  }
+
+  private void assertBridge(int first, int last) throws Exception {
+    Document document = Document.createFromString(texts.get(first - 1));
+    DocOp bridge = cache.compose(first, last).toDocOp(ServerDocOpFactory.INSTANCE);
+    DocOpApplier.apply(bridge, document);
+    assertEquals("Bridge " + first + " to " + last, texts.get(last), document.asText());
+  }
+}
@@ -0,0 +1,103 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.documents;
+
+import com.google.collide.dto.DocOp;
+import com.google.collide.dto.DocOpComponent.Type;
+import com.google.collide.dto.server.DtoServerImpls.DocOpComponentImpl;
+import com.google.collide.dto.server.DtoServerImpls.DocOpImpl;
+import com.google.collide.dto.server.DtoServerImpls.DocumentSelectionImpl;
+import com.google.collide.dto.server.DtoServerImpls.FilePositionImpl;
+import com.google.collide.dto.server.DtoServerImpls.ServerToClientDocOpImpl;
+import com.google.collide.dto.server.DtoServerImpls.ServerToClientDocOpsImpl;
+import com.google.collide.dto.server.ServerDocOpFactory;
+import com.google.collide.shared.ot.TerseDocOpBuilder;
+import com.google.common.collect.Lists;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParser;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link DocOpCodec}.
+ */
+public class DocOpCodecTests extends TestCase {
+
+  private static final Gson gson = new GsonBuilder().registerTypeAdapter(
+      DocOpComponentImpl.class, new DocOpComponentDeserializer()).serializeNulls().create();
+
+  private TerseDocOpBuilder builder;
+
+  @Override
+  protected void setUp() throws Exception {
+    builder = new TerseDocOpBuilder(ServerDocOpFactory.INSTANCE, false);
+  }
+
+  public void testReadMatchesGson() {
+    assertReadMatchesGson(builder.rl(3).r(5).i("hello").eolR(4).rl(10).b());
+    assertReadMatchesGson(builder.d("line\n").i("\"quoted\" \\ é\t☃\n").b());
+    assertReadMatchesGson(builder.b());
+  }
+
+  public void testReadIgnoresLayoutAndUnknownFields() {
+    String json = "{ \"extra\": {\"a\": [1, 2]},\n \"components\" : [ "
+        + "{\"count\": 3, \"type\": " + Type.RETAIN
+        + ", \"hasTrailingNewline\": true, \"unknown\": null}, "
+        + "{\"type\": " + Type.INSERT + ", \"text\": \"a\\u0062\\n\"} ] }";
+
+    DocOp expected = builder.eolR(3).i("ab\n").b();
+    assertEquals(expected, DocOpCodec.read(json));
+  }
+
+  public void testReadRejectsMalformedDocOps() {
+    assertReadFails("");
+    assertReadFails("[]");
+    assertReadFails("{\"components\": [{\"type\": 42}]}");
+    assertReadFails("{\"components\": [{\"type\": 1, \"text\": \"x\"}");
+  }
+
+  public void testWriteMatchesGeneratedJson() {
+    DocumentSelectionImpl selection = DocumentSelectionImpl.make().setUserId("user")
+        .setBasePosition(FilePositionImpl.make().setLineNumber(1).setColumn(2))
+        .setCursorPosition(FilePositionImpl.make().setLineNumber(3).setColumn(4));
+    ServerToClientDocOpImpl first = ServerToClientDocOpImpl.make().setClientId("client")
+        .setAppliedCcRevision(7).setFileEditSessionKey("resource")
+        .setDocOp2((DocOpImpl) builder.rl(2).i("<&>\"\n").eolR(4).rl(1).b());
+    ServerToClientDocOpImpl second = ServerToClientDocOpImpl.make().setClientId("client")
+        .setAppliedCcRevision(8).setFileEditSessionKey("resource").setFilePath("/a/b.txt")
+        .setDocOp2((DocOpImpl) builder.d("gone").eolR(1).b()).setSelection(selection);
+    ServerToClientDocOpsImpl docOps =
+        ServerToClientDocOpsImpl.make().setDocOps(Lists.newArrayList(first, second));
+
+    JsonParser parser = new JsonParser();
+    assertEquals(parser.parse(docOps.toJson()), parser.parse(DocOpCodec.write(docOps)));
+  }
+
+  private void assertReadMatchesGson(DocOp docOp) {
+    String json = ((DocOpImpl) docOp).toJson();
+    DocOpImpl read = (DocOpImpl) DocOpCodec.read(json);
+    assertEquals(docOp, read);
+    assertEquals(gson.fromJson(json, DocOpImpl.class).toJson(), read.toJson());
+  }
+
+  private void assertReadFails(String json) {
+    try {
+      DocOpCodec.read(json);
+      fail("Expected [" + json + "] to be rejected");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+}
@@ -0,0 +1,93 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.documents;
+
+import com.google.collide.shared.document.Document;
+import com.google.collide.shared.document.DocumentTestUtils;
+import com.google.common.base.Charsets;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Tests for {@link DocumentDigest}.
+ */
+public class DocumentDigestTests extends TestCase {
+
+  private static final String[] INSERTIONS =
+      {"a", "é", "\n", "x\ny", "☃\n\n", "😀", "\uD83D", "\uDE00"};
+
+  public void testUtf8Length() {
+    assertEquals(0, DocumentDigest.utf8Length(""));
+    for (String text : INSERTIONS) {
+      assertEquals(text.getBytes(Charsets.UTF_8).length, DocumentDigest.utf8Length(text));
+    }
+    assertEquals(4, DocumentDigest.utf8Length("😀"));
+    assertEquals("\uD83D".getBytes(Charsets.UTF_8).length, DocumentDigest.utf8Length("\uD83D"));
+  }
+
+  public void testDigestFollowsEdits() {
+    Document doc = Document.createFromString("first line\nsécond\n\nlast");
+    DocumentDigest digest = new DocumentDigest(doc);
+    assertMatchesText(doc, digest);
+
+    Random random = new Random(42);
+    for (int i = 0; i < 500; i++) {
+      // Inserts and deletes may split or join surrogate pairs
+      DocumentTestUtils.randomEdit(doc, random, INSERTIONS);
+
+      // Hash only now and then, so that the cache sees several edits at once
+      if (i % 7 == 0) {
+        assertMatchesText(doc, digest);
+      }
+    }
+    assertMatchesText(doc, digest);
+  }
+
+  public void testSurrogatePairSplitAcrossEdits() {
+    Document doc = Document.createFromString("ab\n");
+    DocumentDigest digest = new DocumentDigest(doc);
+
+    // The two halves of 😀 are inserted separately, joining into one 4 byte character
+    doc.insertText(doc.getFirstLine(), 0, 1, "\uD83D");
+    assertMatchesText(doc, digest);
+    doc.insertText(doc.getFirstLine(), 0, 2, "\uDE00");
+    assertMatchesText(doc, digest);
+
+    // Splitting the pair again, and deleting its halves one at a time
+    doc.insertText(doc.getFirstLine(), 0, 2, "x\n");
+    assertMatchesText(doc, digest);
+    doc.deleteText(doc.getFirstLine(), 0, 2, 2);
+    assertMatchesText(doc, digest);
+    doc.deleteText(doc.getFirstLine(), 0, 1, 1);
+    assertMatchesText(doc, digest);
+    doc.deleteText(doc.getFirstLine(), 0, 1, 1);
+    assertMatchesText(doc, digest);
+    assertEquals("ab\n", doc.asText());
+  }
+
+  public void testHashDependsOnLineOrder() {
+    DocumentDigest digest = new DocumentDigest(Document.createFromString("a\nb\n"));
+    assertFalse(digest.getSha1().equals(
+        new DocumentDigest(Document.createFromString("b\na\n")).getSha1()));
+  }
+
+  private static void assertMatchesText(Document doc, DocumentDigest digest) {
+    String text = doc.asText();
+    assertEquals(text.getBytes(Charsets.UTF_8).length, digest.getUtf8Length());
+    assertEquals(new DocumentDigest(Document.createFromString(text)).getSha1(), digest.getSha1());
+  }
+}
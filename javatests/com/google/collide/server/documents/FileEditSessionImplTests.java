@@ -0,0 +1,110 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.documents;
+
+import com.google.collide.dto.server.ServerDocOpFactory;
+import com.google.collide.shared.ot.TerseDocOpBuilder;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+
+import io.vertx.core.logging.LoggerFactory;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+
+/**
+ * Tests for {@link FileEditSessionImpl}.
+ */
+public class FileEditSessionImplTests extends TestCase {
+
+  private TerseDocOpBuilder builder;
+  private Path dir;
+  private Path file;
+  private FileEditSessionImpl editSession;
+  private int dirtyCount;
+
+  @Override
+  protected void setUp() throws Exception {
+    builder = new TerseDocOpBuilder(ServerDocOpFactory.INSTANCE, false);
+    dir = Files.createTempDirectory("edit-session");
+    file = dir.resolve("a.txt");
+    Files.write(file, "hello\n".getBytes(Charsets.UTF_8));
+    editSession = new FileEditSessionImpl("1", file.toString(), "hello\n", null,
+        LoggerFactory.getLogger(FileEditSessionImplTests.class));
+    editSession.setOnDirtyListener(session -> dirtyCount++);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    for (File child : dir.toFile().listFiles()) {
+      child.delete();
+    }
+    Files.delete(dir);
+  }
+
+  public void testDirtyListenerIsCalledWhenFirstChangeIsApplied() throws Exception {
+    insertAtHead("a");
+    insertAtHead("b");
+    assertEquals(1, dirtyCount);
+
+    editSession.save(file.toString());
+    assertFalse(editSession.hasChanges());
+    assertFalse(editSession.clearDirty());
+    insertAtHead("c");
+    assertEquals(2, dirtyCount);
+  }
+
+  public void testChangesAppliedWhileSavingKeepSessionDirty() throws Exception {
+    insertAtHead("a");
+    editSession.save(file.toString());
+
+    // Applied after the save took its snapshot, but before the saver cleared the dirty mark
+    insertAtHead("b");
+    assertEquals(1, dirtyCount);
+    assertTrue(editSession.clearDirty());
+
+    editSession.save(file.toString());
+    assertFalse(editSession.clearDirty());
+    insertAtHead("c");
+    assertEquals(2, dirtyCount);
+  }
+
+  public void testSaveReplacesFileAndKeepsPermissions() throws Exception {
+    boolean posix = dir.getFileSystem().supportedFileAttributeViews().contains("posix");
+    if (posix) {
+      Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rwxr-x---"));
+    }
+
+    insertAtHead("é");
+    editSession.save(file.toString());
+
+    assertEquals("éhello\n", new String(Files.readAllBytes(file), Charsets.UTF_8));
+    assertEquals(1, dir.toFile().listFiles().length);
+    if (posix) {
+      assertEquals("rwxr-x---",
+          PosixFilePermissions.toString(Files.getPosixFilePermissions(file)));
+    }
+  }
+
+  private void insertAtHead(String text) throws Exception {
+    int ccRevision = editSession.getDocument().getCcRevision();
+    int lineLength = editSession.getContents().length();
+    editSession.consume(Lists.newArrayList(builder.i(text).eolR(lineLength).b()), "author",
+        ccRevision, null);
+  }
+}
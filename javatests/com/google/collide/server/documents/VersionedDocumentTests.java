@@ -0,0 +1,109 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.documents;
+
+import com.google.collide.dto.DocOp;
+import com.google.collide.dto.server.ServerDocOpFactory;
+import com.google.collide.server.documents.VersionedDocument.DocumentOperationException;
+import com.google.collide.server.documents.VersionedDocument.HistoryPrunedException;
+import com.google.collide.shared.ot.TerseDocOpBuilder;
+import com.google.common.collect.Lists;
+
+import io.vertx.core.logging.LoggerFactory;
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link VersionedDocument}.
+ */
+public class VersionedDocumentTests extends TestCase {
+
+  private TerseDocOpBuilder builder;
+  private VersionedDocument doc;
+
+  @Override
+  protected void setUp() throws Exception {
+    builder = new TerseDocOpBuilder(ServerDocOpFactory.INSTANCE, false);
+    doc = new VersionedDocument("hello\n", LoggerFactory.getLogger(VersionedDocumentTests.class));
+  }
+
+  public void testHistoryIsPrunedInCheckpointIntervals() throws Exception {
+    doc.setHistoryRetention(100, 300);
+    typeAtHead("a", 250);
+
+    assertEquals(250, doc.getCcRevision());
+    assertEquals(100, doc.getOldestAvailableCcRevision());
+    assertEquals(150, doc.getAppliedDocOps(101).size());
+    assertNull(doc.getAppliedDocOps(50));
+  }
+
+  public void testConsumeFromPrunedRevisionFails() throws Exception {
+    doc.setHistoryRetention(100, 300);
+    typeAtHead("a", 250);
+
+    try {
+      doc.consume(Lists.newArrayList(insertX(doc.asText().getText())), "b", 50, null);
+      fail("Expected the intended revision to be pruned");
+    } catch (HistoryPrunedException e) {
+      assertEquals(100, e.oldestAvailableCcRevision);
+    }
+  }
+
+  public void testLaggingClientPinsHistoryUpToHardCap() throws Exception {
+    doc.setHistoryRetention(100, 300);
+    typeAtHead("b", 1);
+    typeAtHead("a", 250);
+
+    // Client "b" last sent a doc op intended for revision 0
+    assertEquals(0, doc.getOldestAvailableCcRevision());
+    assertEquals(251, doc.getAppliedDocOps(1).size());
+
+    typeAtHead("a", 200);
+    assertEquals(100, doc.getOldestAvailableCcRevision());
+  }
+
+  public void testRemovedClientNoLongerPinsHistory() throws Exception {
+    doc.setHistoryRetention(100, 300);
+    typeAtHead("b", 1);
+    typeAtHead("a", 250);
+    assertEquals(0, doc.getOldestAvailableCcRevision());
+
+    doc.removeClient("b");
+    assertEquals(100, doc.getOldestAvailableCcRevision());
+  }
+
+  public void testPrunedHistoryStillTransformsRecentDocOps() throws Exception {
+    doc.setHistoryRetention(100, 300);
+    typeAtHead("a", 250);
+
+    // Client "b" is at revision 240 and inserts at the end of the line
+    DocOp docOp = builder.r(245).i("!").eolR(1).b();
+    doc.consume(Lists.newArrayList(docOp), "b", 240, null);
+
+    String text = doc.asText().getText();
+    assertEquals(251, doc.getCcRevision());
+    assertTrue(text, text.endsWith("hello!\n"));
+  }
+
+  private void typeAtHead(String clientId, int count) throws DocumentOperationException {
+    for (int i = 0; i < count; i++) {
+      doc.consume(Lists.newArrayList(insertX(doc.asText().getText())), clientId, doc.getCcRevision(),
+          null);
+    }
+  }
+
+  private DocOp insertX(String text) {
+    return builder.i("x").eolR(text.length()).b();
+  }
+}
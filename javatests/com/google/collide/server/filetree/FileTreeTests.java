@@ -0,0 +1,432 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.filetree;
+
+import com.google.collide.dto.FileInfo;
+import com.google.collide.dto.server.DtoServerImpls.DirInfoImpl;
+import com.google.collide.server.filetree.FileTree.DirInfoExt;
+import com.google.collide.server.filetree.FileTree.FileInfoExt;
+import com.google.collide.server.shared.util.DtoMessageCodec;
+import com.google.common.base.Charsets;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link FileTree}.
+ */
+public class FileTreeTests extends TestCase {
+
+  private Vertx vertx;
+  private FileTree fileTree;
+
+  /** A directory under the working directory, since the tree holds workspace relative paths */
+  private Path dir;
+
+  @Override
+  protected void setUp() throws Exception {
+    vertx = Vertx.vertx();
+    DtoMessageCodec.register(vertx.eventBus());
+    fileTree = new FileTree();
+    fileTree.init(vertx, vertx.getOrCreateContext());
+    fileTree.watchService = FileSystems.getDefault().newWatchService();
+    dir = Files.createTempDirectory(Paths.get(""), "file-tree");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    fileTree.watchService.close();
+    if (fileTree.scanPool != null) {
+      fileTree.scanPool.shutdown();
+    }
+    vertx.close();
+    delete(dir.toFile());
+  }
+
+  public void testCopyPagesChildrenSubdirectoriesFirst() {
+    DirInfoExt parent = new DirInfoExt(dir, 0);
+    DirInfoExt d0 = new DirInfoExt(dir.resolve("d0"), 1);
+    d0.addChild(new FileInfoExt(dir.resolve("d0/f"), 2, 0, 0));
+    d0.setIsComplete(true);
+    parent.addChild(d0);
+    parent.addChild(new DirInfoExt(dir.resolve("d1"), 3));
+    for (int i = 0; i < 3; i++) {
+      parent.addChild(new FileInfoExt(dir.resolve("f" + i), i + 4, i, 0));
+    }
+    parent.setIsComplete(true);
+
+    DirInfoImpl all = parent.copy(1, 0, 0);
+    assertTrue(all.isComplete());
+    assertEquals(5, all.getChildCount());
+    assertEquals(2, all.getSubDirectories().size());
+    assertEquals(3, all.getFiles().size());
+    // Directories at the depth are copied without their children
+    assertFalse(all.getSubDirectories().get(0).isComplete());
+    assertEquals(0, all.getSubDirectories().get(0).getFiles().size());
+    assertEquals(1, all.getSubDirectories().get(0).getChildCount());
+
+    DirInfoImpl page = parent.copy(1, 1, 3);
+    assertFalse(page.isComplete());
+    assertEquals(5, page.getChildCount());
+    assertEquals(1, page.getSubDirectories().size());
+    assertEquals("d1", page.getSubDirectories().get(0).getName());
+    assertEquals(2, page.getFiles().size());
+    assertEquals("f0", page.getFiles().get(0).getName());
+    assertEquals("f1", page.getFiles().get(1).getName());
+    assertTrue(FileTree.hasMoreChildren(1, 3, page.getChildCount()));
+
+    DirInfoImpl last = parent.copy(2, 3, 3);
+    assertFalse(last.isComplete());
+    assertEquals(0, last.getSubDirectories().size());
+    assertEquals(2, last.getFiles().size());
+    assertEquals("f1", last.getFiles().get(0).getName());
+    assertEquals("f2", last.getFiles().get(1).getName());
+    assertFalse(FileTree.hasMoreChildren(3, 3, last.getChildCount()));
+    assertFalse(FileTree.hasMoreChildren(0, 0, last.getChildCount()));
+
+    DirInfoImpl deep = parent.copy(-1, 0, 2);
+    assertFalse(deep.isComplete());
+    assertTrue(deep.getSubDirectories().get(0).isComplete());
+    assertEquals(1, deep.getSubDirectories().get(0).getFiles().size());
+  }
+
+  public void testChangesInvalidateSerializedListings() {
+    DirInfoExt parent = new DirInfoExt(dir, 0);
+    DirInfoExt child = new DirInfoExt(dir.resolve("child"), 1);
+    parent.addChild(child);
+    FileInfoExt file = new FileInfoExt(dir.resolve("child/a"), 2, 1, 1);
+
+    cacheListings(parent, child);
+    child.addChild(file);
+    assertListingsInvalidated(parent, child);
+
+    cacheListings(parent, child);
+    assertTrue(FileTree.updateFile(child, file, new FileInfoExt(file.getPath(), -1, 2, 2)));
+    assertListingsInvalidated(parent, child);
+
+    cacheListings(parent, child);
+    assertFalse(FileTree.updateFile(child, file, new FileInfoExt(file.getPath(), -1, 2, 2)));
+    assertEquals(1, parent.serializedListings.size());
+    assertEquals(1, child.serializedListings.size());
+
+    child.removeChild("a");
+    assertListingsInvalidated(parent, child);
+
+    // A sibling's listings are not affected
+    DirInfoExt sibling = new DirInfoExt(dir.resolve("sibling"), 3);
+    parent.addChild(sibling);
+    cacheListings(parent, child);
+    cacheListings(sibling);
+    child.addChild(new FileInfoExt(dir.resolve("child/b"), 4, 0, 0));
+    assertListingsInvalidated(parent, child);
+    assertEquals(1, sibling.serializedListings.size());
+  }
+
+  public void testTreeUpdateLogReturnsUpdatesSinceKnownVersion() {
+    FileTree.TreeUpdateLog log = new FileTree.TreeUpdateLog(0, Collections.<String>emptyList());
+    assertEquals(Collections.emptyList(), log.getUpdatesSince("0"));
+    log = log.append(1, "u1").append(2, "u2").append(3, "u3");
+
+    assertEquals(names("u1", "u2", "u3"), log.getUpdatesSince("0"));
+    assertEquals(names("u3"), log.getUpdatesSince("2"));
+    assertEquals(Collections.emptyList(), log.getUpdatesSince("3"));
+    // The client needs the whole tree
+    assertNull(log.getUpdatesSince(null));
+    assertNull(log.getUpdatesSince("not a version"));
+    assertNull(log.getUpdatesSince("4"));
+    assertNull(log.getUpdatesSince("-1"));
+
+    // Versions are skipped, so the older updates can't be replayed
+    log = log.append(5, "u5");
+    assertEquals(names("u5"), log.getUpdatesSince("4"));
+    assertNull(log.getUpdatesSince("3"));
+  }
+
+  public void testTreeUpdateLogKeepsLatestUpdates() {
+    FileTree.TreeUpdateLog log = new FileTree.TreeUpdateLog(0, Collections.<String>emptyList());
+    int count = FileTree.MAX_TREE_UPDATE_HISTORY + 10;
+    for (int i = 1; i <= count; i++) {
+      log = log.append(i, "u" + i);
+    }
+
+    assertEquals(FileTree.MAX_TREE_UPDATE_HISTORY, log.updates.size());
+    assertNull(log.getUpdatesSince("9"));
+    List<String> updates = log.getUpdatesSince("10");
+    assertEquals(FileTree.MAX_TREE_UPDATE_HISTORY, updates.size());
+    assertEquals("u11", updates.get(0));
+    assertEquals("u" + count, updates.get(updates.size() - 1));
+  }
+
+  public void testRemoveChildKeepsSiblingsInOrder() {
+    DirInfoExt parent = new DirInfoExt(dir, 0);
+    for (int i = 0; i < 4; i++) {
+      parent.addChild(new FileInfoExt(dir.resolve("f" + i), i + 1, 0, 0));
+      parent.addChild(new DirInfoExt(dir.resolve("d" + i), i + 5));
+    }
+
+    parent.removeChild("f1");
+    parent.removeChild("d2");
+
+    assertEquals(6, parent.getChildCount());
+    assertEquals(3, parent.getFiles().size());
+    assertEquals(3, parent.getSubDirectories().size());
+    assertEquals("f0", parent.getFiles().get(0).getName());
+    assertEquals("f2", parent.getFiles().get(1).getName());
+    assertEquals("f3", parent.getFiles().get(2).getName());
+    assertEquals("d0", parent.getSubDirectories().get(0).getName());
+    assertEquals("d1", parent.getSubDirectories().get(1).getName());
+    assertEquals("d3", parent.getSubDirectories().get(2).getName());
+  }
+
+  public void testUpdatedFileKeepsItsPlace() {
+    DirInfoExt parent = new DirInfoExt(dir, 0);
+    FileInfoExt a = new FileInfoExt(dir.resolve("a"), 1, 10, 100);
+    FileInfoExt b = new FileInfoExt(dir.resolve("b"), 2, 10, 100);
+    parent.addChild(a);
+    parent.addChild(b);
+
+    assertFalse(FileTree.updateFile(parent, a, new FileInfoExt(dir.resolve("a"), -1, 10, 100)));
+    assertTrue(FileTree.updateFile(parent, a, new FileInfoExt(dir.resolve("a"), -1, 20, 200)));
+
+    assertSame(a, parent.getChild("a"));
+    assertEquals("1", a.getFileEditSessionKey());
+    assertEquals("20", a.getSize());
+    assertEquals(200, a.getLastModified());
+    assertEquals(2, parent.getChildCount());
+    assertSame(a, parent.getFiles().get(0));
+    assertSame(b, parent.getFiles().get(1));
+  }
+
+  public void testWatchWindowCoalescesEvents() throws Exception {
+    Path kept = Files.write(dir.resolve("kept.txt"), bytes("kept"));
+    Path other = Files.write(dir.resolve("other.txt"), bytes("other"));
+    DirInfoExt root = new DirInfoExt(Paths.get(""), 0);
+    DirInfoExt watched = new DirInfoExt(dir, 1);
+    root.addChild(watched);
+    FileInfoExt keptNode = new FileInfoExt(kept, 2, 4, 0);
+    watched.addChild(keptNode);
+    watched.addChild(new FileInfoExt(other, 3, 5, Files.getLastModifiedTime(other).toMillis()));
+    fileTree.root = root;
+    fileTree.resourceIdAllocator = 4;
+    fileTree.watchkeyToDir.put(watch(dir), watched);
+
+    final BlockingQueue<JsonObject> fileSystemEvents = new LinkedBlockingQueue<JsonObject>();
+    vertx.eventBus().<JsonObject>consumer(
+        "documents.fileSystemEvents", message -> fileSystemEvents.add(message.body()));
+
+    // Created, modified and deleted within the window
+    Path transient_ = Files.write(dir.resolve("transient.txt"), bytes("a"));
+    Files.write(transient_, bytes("ab"));
+    Files.delete(transient_);
+    // Deleted and created again
+    Files.delete(kept);
+    Files.write(kept, bytes("kept again"));
+    // Created and modified
+    Path added = Files.write(dir.resolve("added.txt"), bytes("a"));
+    Files.write(added, bytes("ab"));
+
+    fileTree.processAllWatchEvents(fileTree.watchService.take());
+
+    assertNull(watched.getChild("transient.txt"));
+    assertSame(keptNode, watched.getChild("kept.txt"));
+    assertEquals("10", keptNode.getSize());
+    assertEquals(3, watched.getChildCount());
+    assertEquals(names("kept.txt", "other.txt", "added.txt"), fileNames(watched));
+    assertEquals("4", watched.getChild("added.txt").getFileEditSessionKey());
+    assertEquals(1, fileTree.currentTreeVersion);
+
+    JsonObject events = fileSystemEvents.poll(5, TimeUnit.SECONDS);
+    assertNotNull(events);
+    assertEquals(new JsonArray(), events.getJsonArray("delete"));
+    assertEquals(new JsonArray().add("2"), events.getJsonArray("modify"));
+  }
+
+  public void testTreeIndexRoundTripKeepsResourceIds() throws Exception {
+    Files.write(dir.resolve("a.txt"), bytes("a"));
+    Files.write(dir.resolve("b.txt"), bytes("b"));
+    Files.createDirectory(dir.resolve("sub"));
+    Files.write(dir.resolve("sub/c.txt"), bytes("c"));
+    Files.write(dir.resolve("new.txt"), bytes("new"));
+
+    TreeIndex index = new TreeIndex(7);
+    index.entries.add(new TreeIndex.Entry("", true, 0, 0, 0));
+    index.entries.add(new TreeIndex.Entry(dir.toString(), true, 1, 0, 0));
+    index.entries.add(fileEntry("a.txt", 2));
+    // Changed since the index was saved
+    index.entries.add(new TreeIndex.Entry(dir.resolve("b.txt").toString(), false, 3, 99, 0));
+    // Deleted since the index was saved
+    index.entries.add(new TreeIndex.Entry(dir.resolve("gone.txt").toString(), false, 4, 1, 0));
+    index.entries.add(new TreeIndex.Entry(dir.resolve("sub").toString(), true, 5, 0, 0));
+    index.entries.add(fileEntry("sub/c.txt", 6));
+    Path indexFile = Files.createTempFile("tree", ".idx");
+    try {
+      index.write(indexFile);
+      fileTree.treeIndexFile = indexFile;
+      fileTree.scanPool = new ForkJoinPool(2);
+      assertTrue(fileTree.loadTreeIndex());
+      FileInfoExt b = (FileInfoExt) fileTree.pathToNode.get(dir.resolve("b.txt").toString());
+
+      List<FileTree.NodeInfoExt> adds = new ArrayList<FileTree.NodeInfoExt>();
+      List<FileTree.NodeInfoExt> removes = new ArrayList<FileTree.NodeInfoExt>();
+      List<FileTree.NodeInfoExt> modifies = new ArrayList<FileTree.NodeInfoExt>();
+      synchronized (fileTree.lock) {
+        fileTree.reconcile((DirInfoExt) fileTree.pathToNode.get(dir.toString()),
+            fileTree.scanTree(dir), adds, removes, modifies);
+      }
+      assertEquals(1, adds.size());
+      assertEquals("7", adds.get(0).getFileEditSessionKey());
+      assertEquals(1, removes.size());
+      assertEquals("4", removes.get(0).getFileEditSessionKey());
+      assertEquals(1, modifies.size());
+      assertSame(b, modifies.get(0));
+      assertEquals("1", b.getSize());
+
+      fileTree.isTreeIndexDirty = true;
+      fileTree.saveTreeIndex();
+      TreeIndex saved = TreeIndex.read(indexFile);
+      assertEquals(8, saved.nextResourceId);
+      assertEquals(7, saved.entries.size());
+      assertEntry(saved, "", 0);
+      assertEntry(saved, dir.toString(), 1);
+      assertEntry(saved, dir.resolve("a.txt").toString(), 2);
+      assertEntry(saved, dir.resolve("b.txt").toString(), 3);
+      assertEntry(saved, dir.resolve("sub").toString(), 5);
+      assertEntry(saved, dir.resolve("sub/c.txt").toString(), 6);
+      assertEntry(saved, dir.resolve("new.txt").toString(), 7);
+    } finally {
+      Files.deleteIfExists(indexFile);
+    }
+  }
+
+  public void testPathIndexFollowsTreeChanges() throws Exception {
+    Files.write(dir.resolve("deleted.txt"), bytes("deleted"));
+    Files.write(dir.resolve("modified.txt"), bytes("modified"));
+    TreeIndex index = new TreeIndex(4);
+    index.entries.add(new TreeIndex.Entry("", true, 0, 0, 0));
+    index.entries.add(new TreeIndex.Entry(dir.toString(), true, 1, 0, 0));
+    index.entries.add(fileEntry("deleted.txt", 2));
+    index.entries.add(fileEntry("modified.txt", 3));
+    Path indexFile = Files.createTempFile("tree", ".idx");
+    try {
+      index.write(indexFile);
+      fileTree.treeIndexFile = indexFile;
+      assertTrue(fileTree.loadTreeIndex());
+    } finally {
+      Files.deleteIfExists(indexFile);
+    }
+    FileTree.NodeInfoExt deleted = fileTree.pathToNode.get(dir.resolve("deleted.txt").toString());
+    FileTree.NodeInfoExt modified =
+        fileTree.pathToNode.get(dir.resolve("modified.txt").toString());
+    assertSame(deleted, fileTree.resourceIdToNode.get("2"));
+    assertSame(modified, fileTree.resourceIdToNode.get("3"));
+    fileTree.watchkeyToDir.put(
+        watch(dir), (DirInfoExt) fileTree.pathToNode.get(dir.toString()));
+
+    Files.delete(dir.resolve("deleted.txt"));
+    Files.write(dir.resolve("modified.txt"), bytes("modified again"));
+    Files.write(dir.resolve("added.txt"), bytes("added"));
+    fileTree.processAllWatchEvents(fileTree.watchService.take());
+
+    assertNull(fileTree.pathToNode.get(dir.resolve("deleted.txt").toString()));
+    assertNull(fileTree.resourceIdToNode.get("2"));
+    assertSame(modified, fileTree.pathToNode.get(dir.resolve("modified.txt").toString()));
+    assertSame(modified, fileTree.resourceIdToNode.get("3"));
+    FileTree.NodeInfoExt added = fileTree.pathToNode.get(dir.resolve("added.txt").toString());
+    assertNotNull(added);
+    assertSame(added, fileTree.resourceIdToNode.get(added.getFileEditSessionKey()));
+  }
+
+  private TreeIndex.Entry fileEntry(String name, long resourceId) throws Exception {
+    Path path = dir.resolve(name);
+    return new TreeIndex.Entry(path.toString(), false, resourceId, Files.size(path),
+        Files.getLastModifiedTime(path).toMillis());
+  }
+
+  private static void assertEntry(TreeIndex index, String path, long resourceId) {
+    for (TreeIndex.Entry entry : index.entries) {
+      if (entry.path.equals(path)) {
+        assertEquals(resourceId, entry.resourceId);
+        return;
+      }
+    }
+    fail("No entry for " + path);
+  }
+
+  private static void cacheListings(DirInfoExt... dirs) {
+    for (DirInfoExt cached : dirs) {
+      cached.serializedListings.put("1:0:0", new FileTree.SerializedListing(
+          "{}", cached.listingGeneration, 0, cached.getChildCount()));
+    }
+  }
+
+  private static void assertListingsInvalidated(DirInfoExt... dirs) {
+    for (DirInfoExt invalidated : dirs) {
+      assertTrue(invalidated.serializedListings.isEmpty());
+    }
+  }
+
+  private WatchKey watch(Path path) throws Exception {
+    return path.register(fileTree.watchService, StandardWatchEventKinds.ENTRY_CREATE,
+        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY,
+        StandardWatchEventKinds.OVERFLOW);
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  private static byte[] bytes(String contents) {
+    return contents.getBytes(Charsets.UTF_8);
+  }
+
+  private static List<String> names(String... names) {
+    List<String> list = new ArrayList<String>();
+    for (String name : names) {
+      list.add(name);
+    }
+    return list;
+  }
+
+  private static List<String> fileNames(DirInfoExt dir) {
+    List<String> names = new ArrayList<String>();
+    for (FileInfo file : dir.getFiles().asIterable()) {
+      names.add(file.getName());
+    }
+    return names;
+  }
+}
@@ -0,0 +1,101 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.filetree;
+
+import com.google.common.base.Charsets;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Tests for {@link TreeIndex}.
+ */
+public class TreeIndexTests extends TestCase {
+
+  private Path file;
+
+  @Override
+  protected void setUp() throws Exception {
+    file = Files.createTempFile("tree", ".idx");
+    Files.delete(file);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    Files.deleteIfExists(file);
+  }
+
+  public void testWrittenIndexIsReadBack() throws Exception {
+    TreeIndex index = new TreeIndex(42);
+    index.entries.add(new TreeIndex.Entry("", true, 0, 0, 0));
+    index.entries.add(new TreeIndex.Entry("src", true, 1, 0, 0));
+    index.entries.add(new TreeIndex.Entry("src/a b.txt", false, 7, 1234, 1350000000000L));
+    index.entries.add(new TreeIndex.Entry("src/tab\there", false, 8, 0, 1));
+    index.write(file);
+
+    TreeIndex read = TreeIndex.read(file);
+    assertEquals(42, read.nextResourceId);
+    assertEquals(4, read.entries.size());
+    for (int i = 0; i < index.entries.size(); i++) {
+      TreeIndex.Entry expected = index.entries.get(i);
+      TreeIndex.Entry actual = read.entries.get(i);
+      assertEquals(expected.path, actual.path);
+      assertEquals(expected.isDirectory, actual.isDirectory);
+      assertEquals(expected.resourceId, actual.resourceId);
+      assertEquals(expected.size, actual.size);
+      assertEquals(expected.lastModified, actual.lastModified);
+    }
+  }
+
+  public void testPathsWithLineBreaksAreLeftOut() throws Exception {
+    TreeIndex index = new TreeIndex(3);
+    index.entries.add(new TreeIndex.Entry("", true, 0, 0, 0));
+    index.entries.add(new TreeIndex.Entry("line\nbreak", false, 1, 0, 0));
+    index.entries.add(new TreeIndex.Entry("a", false, 2, 0, 0));
+    index.write(file);
+
+    TreeIndex read = TreeIndex.read(file);
+    assertEquals(2, read.entries.size());
+    assertEquals("a", read.entries.get(1).path);
+  }
+
+  public void testMissingIndexIsNull() throws Exception {
+    assertNull(TreeIndex.read(file));
+  }
+
+  public void testIndexInAnotherFormatIsNull() throws Exception {
+    Files.write(file, "collide-tree-index\t0\t3\n".getBytes(Charsets.UTF_8));
+    assertNull(TreeIndex.read(file));
+  }
+
+  public void testMalformedIndexFails() throws Exception {
+    Files.write(file, "collide-tree-index\t1\t3\nx\t1\t0\t0\ta\n".getBytes(Charsets.UTF_8));
+    try {
+      TreeIndex.read(file);
+      fail();
+    } catch (IOException expected) {
+    }
+
+    Files.write(file, "collide-tree-index\t1\t3\nf\tone\t0\t0\ta\n".getBytes(Charsets.UTF_8));
+    try {
+      TreeIndex.read(file);
+      fail();
+    } catch (IOException expected) {
+    }
+  }
+}
@@ -0,0 +1,144 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.participants;
+
+import com.google.collide.dto.server.DtoServerImpls.ServerErrorImpl;
+import com.google.collide.server.shared.util.Dto;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.MessageCodec;
+import io.vertx.core.json.JsonObject;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link BroadcastFrame} and how {@link Participants} addresses them.
+ */
+public class BroadcastFrameTests extends TestCase {
+
+  private static final String PAYLOAD = ServerErrorImpl.make().setDetails("\"é\"").toJson();
+
+  public void testBridgeFrameMatchesBridgeEncoding() {
+    BroadcastFrame frame = BroadcastFrame.create(Lists.newArrayList("a", "b"), PAYLOAD);
+
+    JsonObject expected = new JsonObject().put("type", "rec").put("address", "client.b")
+        .put("body", Dto.wrap(PAYLOAD));
+    assertEquals(expected, new JsonObject(frame.toBridgeFrame("b").toString("UTF-8")));
+  }
+
+  public void testWireRoundTrip() throws Exception {
+    Vertx vertx = Vertx.vertx();
+    try {
+      BroadcastFrame.registerCodec(vertx.eventBus());
+      BroadcastFrame.registerCodec(vertx.eventBus());
+
+      final BlockingQueue<BroadcastFrame> received = new ArrayBlockingQueue<BroadcastFrame>(1);
+      vertx.eventBus().<BroadcastFrame>consumer("test.frame", message -> {
+        received.add(message.body());
+      });
+
+      BroadcastFrame frame = BroadcastFrame.create(Lists.newArrayList("a", "ü"), PAYLOAD);
+      vertx.eventBus().send("test.frame", frame, BroadcastFrame.deliveryOptions());
+      assertSame(frame, received.poll(10, TimeUnit.SECONDS));
+    } finally {
+      vertx.close();
+    }
+
+    MessageCodec<BroadcastFrame, BroadcastFrame> codec = new BroadcastFrame.Codec();
+    BroadcastFrame frame = BroadcastFrame.create(Lists.newArrayList("a", "ü"), PAYLOAD);
+    Buffer buffer = Buffer.buffer().appendInt(42);
+    codec.encodeToWire(buffer, frame);
+    BroadcastFrame decoded = codec.decodeFromWire(4, buffer);
+    assertEquals(frame.getClientIds(), decoded.getClientIds());
+    assertEquals(frame.toBridgeFrame("ü"), decoded.toBridgeFrame("ü"));
+  }
+
+  public void testBroadcastsReachSubscribedTabsOnly() throws Exception {
+    Vertx vertx = Vertx.vertx();
+    try {
+      final BlockingQueue<Object> results = new ArrayBlockingQueue<Object>(4);
+      vertx.deployVerticle(new Participants(), (AsyncResult<String> result) -> {
+        results.add(result.succeeded());
+      });
+      assertEquals(Boolean.TRUE, results.poll(10, TimeUnit.SECONDS));
+
+      String first = createTab(vertx, results);
+      String second = createTab(vertx, results);
+      String third = createTab(vertx, results);
+
+      vertx.eventBus().<BroadcastFrame>consumer(BroadcastFrame.ADDRESS, message -> {
+        results.add(ImmutableSet.copyOf(message.body().getClientIds()));
+      });
+
+      vertx.eventBus().send("participants.subscribe", subscription(first, "file"));
+      vertx.eventBus().send("participants.subscribe", subscription(second, "file"));
+      vertx.eventBus().send("participants.subscribe", subscription(third, "other"));
+
+      // Untagged broadcasts still go to every tab but the sender
+      vertx.eventBus().send("participants.broadcast", Dto.serialized(PAYLOAD),
+          Dto.deliveryOptions().addHeader(Participants.OMIT_SENDER_TAG, first));
+      assertEquals(ImmutableSet.of(second, third), results.poll(10, TimeUnit.SECONDS));
+
+      vertx.eventBus().send("participants.broadcast", Dto.serialized(PAYLOAD),
+          Dto.deliveryOptions().addHeader(Participants.OMIT_SENDER_TAG, first)
+              .addHeader(Participants.FILE_EDIT_SESSION_KEY_TAG, "file"));
+      assertEquals(ImmutableSet.of(second), results.poll(10, TimeUnit.SECONDS));
+
+      vertx.eventBus().send("participants.unsubscribe",
+          new JsonObject().put("activeClient", third));
+      vertx.eventBus().send("participants.broadcast", Dto.serialized(PAYLOAD),
+          Dto.deliveryOptions().addHeader(Participants.FILE_EDIT_SESSION_KEY_TAG, "other"));
+      vertx.eventBus().send("participants.broadcast", Dto.serialized(PAYLOAD),
+          Dto.deliveryOptions().addHeader(Participants.FILE_EDIT_SESSION_KEY_TAG, "file"));
+      assertEquals(ImmutableSet.of(first, second), results.poll(10, TimeUnit.SECONDS));
+
+      // Closing the edit session unsubscribes every tab
+      vertx.eventBus().send("participants.unsubscribe",
+          new JsonObject().put(Participants.FILE_EDIT_SESSION_KEY_TAG, "file"));
+      vertx.eventBus().send("participants.broadcast", Dto.serialized(PAYLOAD),
+          Dto.deliveryOptions().addHeader(Participants.FILE_EDIT_SESSION_KEY_TAG, "file"));
+      vertx.eventBus().send("participants.subscribe", subscription(third, "file"));
+      vertx.eventBus().send("participants.broadcast", Dto.serialized(PAYLOAD),
+          Dto.deliveryOptions().addHeader(Participants.FILE_EDIT_SESSION_KEY_TAG, "file"));
+      assertEquals(ImmutableSet.of(third), results.poll(10, TimeUnit.SECONDS));
+    } finally {
+      vertx.close();
+    }
+  }
+
+  private static String createTab(Vertx vertx, final BlockingQueue<Object> results)
+      throws InterruptedException {
+    JsonObject request =
+        new JsonObject().put("sessionID", "session").put("createClient", true);
+    vertx.eventBus().send("participants.authorise", request,
+        (AsyncResult<Message<JsonObject>> reply) -> {
+          results.add(reply.result().body().getString("activeClient"));
+        });
+    return (String) results.poll(10, TimeUnit.SECONDS);
+  }
+
+  private static JsonObject subscription(String activeClientId, String fileEditSessionKey) {
+    return new JsonObject().put("activeClient", activeClientId)
+        .put(Participants.FILE_EDIT_SESSION_KEY_TAG, fileEditSessionKey);
+  }
+}
@@ -0,0 +1,149 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.shared.merge;
+
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.merge.MergeAlgorithm;
+
+import com.google.collide.shared.document.Document;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Tests for {@link JGitMerger} and {@link LineSequence}.
+ */
+public class JGitMergerTests extends TestCase {
+
+  private static final String[] LINES = {"a\n", "b\n", "c\n", "d\n", "\n", "last"};
+
+  private final Random random = new Random(11);
+
+  public void testCleanMerge() {
+    MergeResult result =
+        JGitMerger.merge("a\nb\nc\nd\n", "a\nB\nc\nd\n", "a\nb\nc\nD\n");
+    assertEquals("a\nB\nc\nD\n", result.getMergedText());
+    for (MergeChunk chunk : result.getMergeChunks()) {
+      assertFalse(chunk.hasConflict());
+    }
+  }
+
+  public void testConflict() {
+    MergeResult result = JGitMerger.merge("a\nb\nc\n", "a\nchild\nc\n", "a\nparent\nc\n");
+    assertEquals(3, result.getMergeChunks().size());
+    MergeChunk conflict = result.getMergeChunks().get(1);
+    assertTrue(conflict.hasConflict());
+    assertEquals("child\n", conflict.getChildData());
+    assertEquals("parent\n", conflict.getParentData());
+    assertEquals(1, conflict.getStartLine());
+    assertEquals(1, conflict.getEndLine());
+  }
+
+  public void testSequenceFromDocumentMatchesText() {
+    for (String text : new String[] {"", "\n", "a", "a\nb", "a\nb\n", "\n\nx\n"}) {
+      LineSequence fromText = LineSequence.fromText(text);
+      LineSequence fromDocument = LineSequence.fromDocument(Document.createFromString(text));
+      assertEquals(new RawText(text.getBytes()).size(), fromText.size());
+      assertEquals(fromText.size(), fromDocument.size());
+      assertEquals(text, fromText.getString(0, fromText.size()));
+      assertEquals(text, fromDocument.getString(0, fromDocument.size()));
+    }
+  }
+
+  public void testMergeMatchesRawTextMerge() {
+    MergeAlgorithm mergeAlgorithm = new MergeAlgorithm();
+    for (int i = 0; i < 500; i++) {
+      String base = createRandomText();
+      String child = mutate(base);
+      String parent = mutate(base);
+
+      org.eclipse.jgit.merge.MergeResult<RawText> rawResult =
+          mergeAlgorithm.merge(RawTextComparator.DEFAULT, new RawText(base.getBytes()),
+              new RawText(child.getBytes()), new RawText(parent.getBytes()));
+      MergeResult result = JGitMerger.merge(Document.createFromString(base),
+          Document.createFromString(child), Document.createFromString(parent));
+
+      StringBuilder expectedMergedText = new StringBuilder();
+      int chunkIndex = -1;
+      for (org.eclipse.jgit.merge.MergeChunk rawChunk : rawResult) {
+        String text = rawResult.getSequences().get(rawChunk.getSequenceIndex())
+            .getString(rawChunk.getBegin(), rawChunk.getEnd(), false);
+        switch (rawChunk.getConflictState()) {
+          case NO_CONFLICT:
+            MergeChunk chunk = result.getMergeChunks().get(++chunkIndex);
+            assertFalse(chunk.hasConflict());
+            assertEquals(text, chunk.getMergedData());
+            expectedMergedText.append(text);
+            break;
+          case FIRST_CONFLICTING_RANGE:
+            chunk = result.getMergeChunks().get(++chunkIndex);
+            assertTrue(chunk.hasConflict());
+            assertEquals(text, chunk.getChildData());
+            expectedMergedText.append(text);
+            break;
+          case NEXT_CONFLICTING_RANGE:
+            assertEquals(text, result.getMergeChunks().get(chunkIndex).getParentData());
+            break;
+        }
+      }
+      assertEquals(chunkIndex + 1, result.getMergeChunks().size());
+      assertEquals(expectedMergedText.toString(), result.getMergedText());
+    }
+  }
+
+  public void testDiffOfSharedLines() {
+    Document document = Document.createFromString("a\nb\nc\nd\ne\n");
+    LineSequence before = LineSequence.fromDocument(document);
+    document.insertText(document.getFirstLine().getNextLine(), 1, 0, "new\n");
+    LineSequence after = LineSequence.fromDocument(document);
+
+    EditList edits = JGitMerger.diff(before, after);
+    assertEquals(1, edits.size());
+    assertEquals(1, edits.get(0).getBeginB());
+    assertEquals(2, edits.get(0).getEndB());
+    assertEquals(0, edits.get(0).getLengthA());
+  }
+
+  private String createRandomText() {
+    StringBuilder sb = new StringBuilder();
+    for (int i = random.nextInt(12); i > 0; i--) {
+      sb.append(LINES[random.nextInt(LINES.length - 1)]);
+    }
+    if (random.nextBoolean()) {
+      sb.append(LINES[LINES.length - 1]);
+    }
+    return sb.toString();
+  }
+
+  private String mutate(String text) {
+    LineSequence lines = LineSequence.fromText(text);
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < lines.size(); i++) {
+      int action = random.nextInt(6);
+      if (action == 0) {
+        // Drop the line
+        continue;
+      }
+      if (action == 1) {
+        sb.append(LINES[random.nextInt(LINES.length - 1)]);
+      }
+      sb.append(lines.getLine(i));
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,81 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.shared.util;
+
+import com.google.collide.dto.ServerError.FailureReason;
+import com.google.collide.dto.server.DtoServerImpls.ServerErrorImpl;
+import com.google.collide.dtogen.server.JsonSerializable;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link DtoMessageCodec} and the {@link Dto} helpers that use it.
+ */
+public class DtoMessageCodecTests extends TestCase {
+
+  private final DtoMessageCodec codec = new DtoMessageCodec();
+
+  public void testWireRoundTrip() {
+    ServerErrorImpl dto =
+        ServerErrorImpl.make().setFailureReason(FailureReason.STALE_CLIENT).setDetails("é");
+
+    // Decoding starts after whatever the event bus wrote before the body
+    Buffer buffer = Buffer.buffer().appendInt(42);
+    codec.encodeToWire(buffer, dto);
+    JsonSerializable decoded = codec.decodeFromWire(4, buffer);
+
+    assertEquals(dto.toJson(), decoded.toJson());
+    assertEquals(dto, ServerErrorImpl.fromJsonString(decoded.toJson()));
+  }
+
+  public void testSerializedWireRoundTrip() {
+    Buffer buffer = Buffer.buffer();
+    codec.encodeToWire(buffer, Dto.serialized("{\"a\":1}"));
+    assertEquals("{\"a\":1}", codec.decodeFromWire(0, buffer).toJson());
+  }
+
+  public void testLocalDeliveryPassesDtoByReference() throws Exception {
+    Vertx vertx = Vertx.vertx();
+    try {
+      DtoMessageCodec.register(vertx.eventBus());
+      DtoMessageCodec.register(vertx.eventBus());
+
+      final BlockingQueue<Object> bodies = new ArrayBlockingQueue<Object>(2);
+      final BlockingQueue<String> received = new ArrayBlockingQueue<String>(2);
+      vertx.eventBus().consumer("test.dto", message -> {
+        bodies.add(message.body());
+        received.add(Dto.get(message));
+      });
+
+      ServerErrorImpl dto = ServerErrorImpl.make().setDetails("details");
+      vertx.eventBus().send("test.dto", dto, Dto.deliveryOptions());
+      assertSame(dto, bodies.poll(10, TimeUnit.SECONDS));
+      assertEquals(dto.toJson(), received.poll(10, TimeUnit.SECONDS));
+
+      // Clients still send the serialized Dto wrapped in a JsonObject
+      vertx.eventBus().send("test.dto", Dto.wrap(dto));
+      assertNotSame(dto, bodies.poll(10, TimeUnit.SECONDS));
+      assertEquals(dto.toJson(), received.poll(10, TimeUnit.SECONDS));
+    } finally {
+      vertx.close();
+    }
+  }
+}
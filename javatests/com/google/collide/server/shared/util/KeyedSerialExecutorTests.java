@@ -0,0 +1,167 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.shared.util;
+
+import com.google.common.collect.Lists;
+
+import junit.framework.TestCase;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link KeyedSerialExecutor}.
+ */
+public class KeyedSerialExecutorTests extends TestCase {
+
+  private ExecutorService workers;
+  private KeyedSerialExecutor executor;
+
+  @Override
+  protected void setUp() throws Exception {
+    workers = Executors.newFixedThreadPool(4);
+    executor = new KeyedSerialExecutor(workers, 16);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    workers.shutdownNow();
+  }
+
+  public void testTasksWithSameKeyRunInOrder() throws Exception {
+    int taskCount = 1000;
+    final List<Integer> order = Collections.synchronizedList(Lists.<Integer>newArrayList());
+    final CountDownLatch done = new CountDownLatch(taskCount);
+    for (int i = 0; i < taskCount; i++) {
+      final int value = i;
+      executor.execute("file", new Runnable() {
+        @Override
+        public void run() {
+          order.add(value);
+          done.countDown();
+        }
+      });
+    }
+
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    for (int i = 0; i < taskCount; i++) {
+      assertEquals(i, order.get(i).intValue());
+    }
+  }
+
+  public void testTasksWithDifferentKeysRunInParallel() throws Exception {
+    final CountDownLatch otherKeyRan = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(1);
+
+    // Blocks its stripe until a task for another key runs
+    executor.execute("a", new Runnable() {
+      @Override
+      public void run() {
+        try {
+          if (otherKeyRan.await(10, TimeUnit.SECONDS)) {
+            done.countDown();
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    executor.execute("b", new Runnable() {
+      @Override
+      public void run() {
+        otherKeyRan.countDown();
+      }
+    });
+
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+  }
+
+  public void testFailingTaskDoesNotStallQueue() throws Exception {
+    final CountDownLatch done = new CountDownLatch(1);
+    executor.execute("file", new Runnable() {
+      @Override
+      public void run() {
+        throw new IllegalStateException("expected");
+      }
+    });
+    executor.execute("file", new Runnable() {
+      @Override
+      public void run() {
+        done.countDown();
+      }
+    });
+
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+  }
+
+  public void testErrorInTaskDoesNotStopLaterTasks() throws Exception {
+    final CountDownLatch done = new CountDownLatch(1);
+    executor.execute("file", new Runnable() {
+      @Override
+      public void run() {
+        throw new AssertionError("expected");
+      }
+    });
+    executor.execute("file", new Runnable() {
+      @Override
+      public void run() {
+        done.countDown();
+      }
+    });
+
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+  }
+
+  public void testRejectedStripeIsNotLeftScheduled() throws Exception {
+    final boolean[] rejecting = {true};
+    executor = new KeyedSerialExecutor(new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        if (rejecting[0]) {
+          throw new RejectedExecutionException("expected");
+        }
+        command.run();
+      }
+    }, 1);
+
+    final List<String> ran = Lists.newArrayList();
+    try {
+      executor.execute("file", new Runnable() {
+        @Override
+        public void run() {
+          ran.add("rejected");
+        }
+      });
+      fail("Expected the task to be rejected");
+    } catch (RejectedExecutionException e) {
+      // Expected
+    }
+
+    rejecting[0] = false;
+    executor.execute("file", new Runnable() {
+      @Override
+      public void run() {
+        ran.add("accepted");
+      }
+    });
+    assertEquals(Lists.newArrayList("accepted"), ran);
+  }
+}
@@ -20,11 +20,44 @@ import com.google.collide.shared.util.StringUtils;
 
 import junit.framework.Assert;
 
+import java.util.Random;
+
 /**
  * Test utility methods for document mutation.
  */
 public final class DocumentTestUtils {
 
+  /** The texts {@link #randomEdit} inserts; the line breaks make edits add and join lines */
+  private static final String[] INSERTIONS = {"a", "bc", "\n", "x\ny", "\n\n\n", "line\nline\n"};
+
+  /**
+   * Makes a random insert or delete in the document, as {@link #randomEdit(Document, Random,
+   * String[])} with insertions that add and join lines.
+   */
+  public static TextChange randomEdit(Document doc, Random random) {
+    return randomEdit(doc, random, INSERTIONS);
+  }
+
+  /**
+   * Inserts one of the given texts at a random position of the document, or deletes from there.
+   * Deletes may span several lines, and now and then many, but stop at the end of the document.
+   */
+  public static TextChange randomEdit(Document doc, Random random, String[] insertions) {
+    LineFinder lineFinder = doc.getLineFinder();
+    LineInfo lineInfo = lineFinder.findLine(random.nextInt(doc.getLineCount()));
+    String lineText = lineInfo.line().getText();
+    int column = random.nextInt(lineText.length() - (lineText.endsWith("\n") ? 1 : 0) + 1);
+    int remaining = lineFinder.findOffset(doc.getLastLineInfo()) + doc.getLastLine().length()
+        - lineFinder.findOffset(lineInfo) - column;
+    if (random.nextBoolean() || remaining == 0) {
+      return doc.insertText(lineInfo.line(), lineInfo.number(), column,
+          insertions[random.nextInt(insertions.length)]);
+    }
+    int maxDeleteCount = random.nextInt(10) == 0 ? 2000 : 20;
+    return doc.deleteText(lineInfo.line(), lineInfo.number(), column,
+        1 + random.nextInt(Math.min(remaining, maxDeleteCount)));
+  }
+
   public static void deleteAndAssertEquals(Line line, int column, int deleteCount,
       String expectedText) {
     Document doc = line.getDocument();
@@ -0,0 +1,115 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.shared.document;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Tests for {@link LineIndex} and the {@link LineFinder} lookups that use it.
+ */
+public class LineIndexTests extends TestCase {
+
+  public void testLookupsWithoutIndex() {
+    Document doc = Document.createFromString("ab\ncde\n\nf");
+    assertFalse(doc.isLineIndexEnabled());
+    assertLookups(doc);
+  }
+
+  public void testLookupsAfterEnablingIndex() {
+    Document doc = Document.createFromString("ab\ncde\n\nf\n");
+    doc.enableLineIndex();
+    assertTrue(doc.isLineIndexEnabled());
+    assertLookups(doc);
+
+    doc = Document.createEmpty();
+    doc.enableLineIndex();
+    assertLookups(doc);
+  }
+
+  public void testFindPositionOutOfBounds() {
+    Document doc = Document.createFromString("ab\nc");
+    Document indexedDoc = Document.createFromString("ab\nc");
+    indexedDoc.enableLineIndex();
+    for (Document d : new Document[] {doc, indexedDoc}) {
+      try {
+        d.getLineFinder().findPosition(5);
+        fail();
+      } catch (IndexOutOfBoundsException expected) {
+      }
+      try {
+        d.getLineFinder().findPosition(-1);
+        fail();
+      } catch (IndexOutOfBoundsException expected) {
+      }
+    }
+  }
+
+  public void testIndexFollowsEdits() {
+    Document doc = Document.createFromString("first\nsecond\n\nlast");
+    Document indexedDoc = Document.createFromString(doc.asText());
+    indexedDoc.enableLineIndex();
+
+    Random random = new Random(42);
+    for (int i = 0; i < 2000; i++) {
+      // The same edit, on the document with the index
+      TextChange change = DocumentTestUtils.randomEdit(doc, random);
+      Line line = indexedDoc.getLineFinder().findLine(change.getLineNumber()).line();
+      if (change.getType() == TextChange.Type.INSERT) {
+        indexedDoc.insertText(line, change.getLineNumber(), change.getColumn(), change.getText());
+      } else {
+        indexedDoc.deleteText(
+            line, change.getLineNumber(), change.getColumn(), change.getText().length());
+      }
+
+      if (i % 50 == 0) {
+        assertEquals(doc.asText(), indexedDoc.asText());
+        assertLookups(indexedDoc);
+      }
+    }
+    assertLookups(indexedDoc);
+  }
+
+  /**
+   * Checks every lookup against the lines of the document.
+   */
+  private static void assertLookups(Document doc) {
+    LineFinder lineFinder = doc.getLineFinder();
+    String text = doc.asText();
+
+    int number = 0;
+    int offset = 0;
+    for (Line line = doc.getFirstLine(); line != null; line = line.getNextLine()) {
+      LineInfo lineInfo = new LineInfo(line, number);
+      assertEquals(lineInfo, lineFinder.findLine(number));
+      assertEquals(lineInfo, lineFinder.findLine(line));
+      assertEquals(lineInfo, lineFinder.findLine(doc.getFirstLineInfo(), number));
+      assertEquals(offset, lineFinder.findOffset(lineInfo));
+
+      for (int column = 0; column < line.length(); column++) {
+        assertEquals(new Position(lineInfo, column), lineFinder.findPosition(offset + column));
+      }
+
+      number++;
+      offset += line.length();
+    }
+
+    assertEquals(doc.getLineCount(), number);
+    assertEquals(text.length(), offset);
+    assertEquals(new Position(doc.getLastLineInfo(), doc.getLastLine().length()),
+        lineFinder.findPosition(offset));
+  }
+}
@@ -0,0 +1,79 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.shared.document;
+
+import com.google.common.base.Strings;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Tests for {@link TextSnapshot} and the {@link TextChunks} behind it.
+ */
+public class TextSnapshotTests extends TestCase {
+
+  public void testSnapshotIsReusedUntilDocumentChanges() {
+    Document doc = Document.createFromString(Strings.repeat("line\n", 1000));
+    TextSnapshot snapshot = doc.getTextSnapshot();
+    assertEquals(joinLines(doc), snapshot.toString());
+    assertEquals(5000, snapshot.length());
+    assertSame(snapshot, doc.getTextSnapshot());
+    assertSame(snapshot.toString(), doc.asText());
+
+    LineInfo lineInfo = doc.getLineFinder().findLine(500);
+    doc.insertText(lineInfo.line(), lineInfo.number(), 0, "new ");
+    TextSnapshot newSnapshot = doc.getTextSnapshot();
+    assertNotSame(snapshot, newSnapshot);
+    assertEquals(Strings.repeat("line\n", 1000), snapshot.toString());
+    assertEquals(joinLines(doc), newSnapshot.toString());
+
+    // Only the chunk holding the edited line was joined again
+    assertEquals(snapshot.getChunkCount(), newSnapshot.getChunkCount());
+    int changedChunkCount = 0;
+    for (int i = 0; i < snapshot.getChunkCount(); i++) {
+      if (snapshot.getChunk(i) != newSnapshot.getChunk(i)) {
+        changedChunkCount++;
+      }
+    }
+    assertEquals(1, changedChunkCount);
+  }
+
+  public void testSnapshotsFollowEdits() {
+    Document doc = Document.createFromString("first\nsecond\n\nlast");
+    doc.getTextSnapshot();
+
+    Random random = new Random(42);
+    for (int i = 0; i < 3000; i++) {
+      // The occasional large delete merges chunks
+      DocumentTestUtils.randomEdit(doc, random);
+
+      if (i % 10 == 0) {
+        TextSnapshot snapshot = doc.getTextSnapshot();
+        String text = joinLines(doc);
+        assertEquals(text, snapshot.toString());
+        assertEquals(text.length(), snapshot.length());
+      }
+    }
+  }
+
+  private static String joinLines(Document doc) {
+    StringBuilder sb = new StringBuilder();
+    for (Line line = doc.getFirstLine(); line != null; line = line.getNextLine()) {
+      sb.append(line.getText());
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,145 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.shared.document.anchor;
+
+import com.google.collide.shared.document.Document;
+import com.google.collide.shared.document.DocumentTestUtils;
+import com.google.collide.shared.document.Line;
+import com.google.common.base.Strings;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Tests for {@link LineAnchorList}.
+ */
+public class LineAnchorListTests extends TestCase {
+
+  private static final AnchorType TEST_ANCHOR_TYPE =
+      AnchorType.create(LineAnchorListTests.class, "test");
+
+  private final Map<Anchor, Integer> shiftCounts = new HashMap<Anchor, Integer>();
+
+  private final Anchor.ShiftListener shiftCounter = new Anchor.ShiftListener() {
+    @Override
+    public void onAnchorShifted(Anchor anchor) {
+      shiftCounts.put(anchor, shiftCount(anchor) + 1);
+    }
+  };
+
+  public void testListOperations() {
+    Document doc = Document.createFromString(Strings.repeat("\n", 10));
+    AnchorManager anchorManager = doc.getAnchorManager();
+    LineAnchorList list = anchorManager.getLineAnchors();
+
+    List<Anchor> anchors = new ArrayList<Anchor>();
+    for (int lineNumber : new int[] {5, 1, 9, 5, 0, 7, 3, 5}) {
+      anchors.add(createLineAnchor(doc, lineNumber));
+    }
+    assertSorted(list);
+    assertEquals(8, list.size());
+    assertEquals(0, list.findInsertionIndex(0));
+    assertEquals(3, list.findInsertionIndex(4));
+    assertEquals(3, list.findInsertionIndex(5));
+    assertEquals(6, list.findInsertionIndex(6));
+    assertEquals(8, list.findInsertionIndex(10));
+
+    anchorManager.removeAnchor(anchors.get(0));
+    assertEquals(-1, list.findIndex(anchors.get(0)));
+    assertFalse(list.remove(anchors.get(0)));
+    assertEquals(5, anchors.get(0).getLineNumber());
+    assertEquals(7, list.size());
+    assertSorted(list);
+
+    list.clear();
+    assertEquals(0, list.size());
+    assertEquals(9, anchors.get(2).getLineNumber());
+  }
+
+  public void testLineNumbersFollowEdits() {
+    Document doc = Document.createFromString(Strings.repeat("some text\n", 200));
+    LineAnchorList list = doc.getAnchorManager().getLineAnchors();
+    Random random = new Random(42);
+
+    List<Anchor> anchors = new ArrayList<Anchor>();
+    Set<Anchor> listenedAnchors = new HashSet<Anchor>();
+    for (int i = 0; i < 300; i++) {
+      Anchor anchor = createLineAnchor(doc, random.nextInt(doc.getLineCount()));
+      if (random.nextBoolean()) {
+        anchor.setRemovalStrategy(Anchor.RemovalStrategy.SHIFT);
+      }
+      if (random.nextInt(3) == 0) {
+        anchor.getShiftListenerRegistrar().add(shiftCounter);
+        listenedAnchors.add(anchor);
+      }
+      anchors.add(anchor);
+    }
+
+    for (int i = 0; i < 1000; i++) {
+      Map<Anchor, Integer> lineNumbers = new HashMap<Anchor, Integer>();
+      for (Anchor anchor : anchors) {
+        lineNumbers.put(anchor, anchor.getLineNumber());
+      }
+      Map<Anchor, Integer> previousShiftCounts = new HashMap<Anchor, Integer>(shiftCounts);
+
+      DocumentTestUtils.randomEdit(doc, random);
+
+      if (random.nextInt(20) == 0) {
+        anchors.add(createLineAnchor(doc, random.nextInt(doc.getLineCount())));
+      }
+
+      for (Anchor anchor : anchors) {
+        if (!anchor.isAttached()) {
+          continue;
+        }
+        assertEquals(doc.getLineFinder().findLine(anchor.getLine()).number(),
+            anchor.getLineNumber());
+        if (listenedAnchors.contains(anchor) && lineNumbers.containsKey(anchor)
+            && lineNumbers.get(anchor) != anchor.getLineNumber()) {
+          assertTrue(shiftCount(anchor) > (previousShiftCounts.containsKey(anchor)
+              ? previousShiftCounts.get(anchor) : 0));
+        }
+      }
+      assertSorted(list);
+    }
+  }
+
+  private static Anchor createLineAnchor(Document doc, int lineNumber) {
+    Line line = doc.getLineFinder().findLine(lineNumber).line();
+    return doc.getAnchorManager().createAnchor(
+        TEST_ANCHOR_TYPE, line, lineNumber, AnchorManager.IGNORE_COLUMN);
+  }
+
+  private int shiftCount(Anchor anchor) {
+    Integer count = shiftCounts.get(anchor);
+    return count == null ? 0 : count;
+  }
+
+  private static void assertSorted(LineAnchorList list) {
+    for (int i = 0; i < list.size(); i++) {
+      assertEquals(i, list.findIndex(list.get(i)));
+      if (i > 0) {
+        assertTrue(list.get(i - 1).getLineNumber() <= list.get(i).getLineNumber());
+      }
+    }
+  }
+}
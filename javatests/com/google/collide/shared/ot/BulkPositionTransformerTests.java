@@ -0,0 +1,104 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.shared.ot;
+
+import static com.google.collide.shared.ot.DocOpTestUtils.createRandomDocOp;
+
+import com.google.collide.dto.DocOp;
+import com.google.collide.dto.server.ServerDocOpFactory;
+import com.google.collide.shared.document.Document;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Tests that {@link BulkPositionTransformer} agrees with
+ * {@link PositionTransformer}.
+ */
+public class BulkPositionTransformerTests extends TestCase {
+
+  private static final ServerDocOpFactory FACTORY = ServerDocOpFactory.INSTANCE;
+
+  private static final String TEXT = "Hello world\nFoo bar\n\nSomething else\nlast line";
+
+  private final Random random = new Random(7);
+
+  private TerseDocOpBuilder b;
+
+  public void testPositionsKeepTheirIndices() {
+    BulkPositionTransformer transformer = new BulkPositionTransformer();
+    int onSecondLine = transformer.add(1, 2);
+    int onFirstLine = transformer.add(0, 5);
+    int atStart = transformer.add(0, 0);
+
+    // Joins the first two lines after deleting "ello"
+    transformer.transform(b.r(1).d("ello world\n").eolR(8).b());
+
+    assertEquals(3, transformer.size());
+    assertPositionEquals(0, 3, transformer, onSecondLine);
+    assertPositionEquals(0, 1, transformer, onFirstLine);
+    assertPositionEquals(0, 0, transformer, atStart);
+  }
+
+  public void testPositionsAfterTheLastComponent() {
+    BulkPositionTransformer transformer = new BulkPositionTransformer();
+    int first = transformer.add(3, 1);
+    int second = transformer.add(5, 4);
+
+    transformer.transform(b.i("\n").i("\n").rl(1).b());
+
+    assertPositionEquals(5, 1, transformer, first);
+    assertPositionEquals(7, 4, transformer, second);
+  }
+
+  public void testTransformMatchesPositionTransformer() {
+    for (int i = 0; i < 500; i++) {
+      Document doc = Document.createFromString(TEXT);
+      int positionCount = 1 + random.nextInt(40);
+      BulkPositionTransformer bulkTransformer = new BulkPositionTransformer(positionCount);
+      PositionTransformer[] transformers = new PositionTransformer[positionCount];
+      for (int j = 0; j < positionCount; j++) {
+        int lineNumber = random.nextInt(doc.getLineCount());
+        String lineText = doc.getLineFinder().findLine(lineNumber).line().getText();
+        int column = random.nextInt(lineText.length() - (lineText.endsWith("\n") ? 1 : 0) + 1);
+        transformers[j] = new PositionTransformer(lineNumber, column);
+        assertEquals(j, bulkTransformer.add(lineNumber, column));
+      }
+
+      // A few doc ops in a row, each against the document the last one left
+      for (int k = 1 + random.nextInt(3); k > 0; k--) {
+        DocOp docOp = createRandomDocOp(doc, random);
+        bulkTransformer.transform(docOp);
+        for (int j = 0; j < positionCount; j++) {
+          transformers[j].transform(docOp);
+          assertPositionEquals(transformers[j].getLineNumber(), transformers[j].getColumn(),
+              bulkTransformer, j);
+        }
+      }
+    }
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    b = new TerseDocOpBuilder(FACTORY, false);
+  }
+
+  private static void assertPositionEquals(int expectedLineNumber, int expectedColumn,
+      BulkPositionTransformer transformer, int index) {
+    assertEquals(expectedLineNumber, transformer.getLineNumber(index));
+    assertEquals(expectedColumn, transformer.getColumn(index));
+  }
+}
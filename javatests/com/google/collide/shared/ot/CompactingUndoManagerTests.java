@@ -0,0 +1,160 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.shared.ot;
+
+import com.google.collide.dto.DocOp;
+import com.google.collide.dto.server.ServerDocOpFactory;
+import com.google.collide.shared.document.Document;
+import com.google.collide.shared.document.LineInfo;
+import com.google.collide.shared.document.TextChange;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link CompactingUndoManager}.
+ */
+public class CompactingUndoManagerTests extends TestCase {
+
+  private static final ServerDocOpFactory FACTORY = ServerDocOpFactory.INSTANCE;
+
+  private Document doc;
+
+  @Override
+  protected void setUp() {
+    doc = Document.createFromString("hello\nworld\n");
+  }
+
+  public void testTypingIsCompacted() {
+    CompactingUndoManager undoManager = new CompactingUndoManager(FACTORY);
+    undoManager.undoableOp(insert(1, 0, "a"));
+    undoManager.undoableOp(insert(1, 1, "b"));
+    undoManager.undoableOp(insert(1, 2, "c"));
+    assertEquals(1, undoManager.getUndoEntryCount());
+
+    apply(undoManager.undo());
+    assertEquals("hello\nworld\n", doc.asText());
+    assertNull(undoManager.undo());
+
+    apply(undoManager.redo());
+    assertEquals("hello\nabcworld\n", doc.asText());
+  }
+
+  public void testCheckpointSeparatesUndos() {
+    CompactingUndoManager undoManager = new CompactingUndoManager(FACTORY);
+    undoManager.undoableOp(insert(0, 5, "a"));
+    undoManager.undoableOp(insert(0, 6, "b"));
+    undoManager.checkpoint();
+    undoManager.undoableOp(delete(1, 0, 2));
+    assertEquals(2, undoManager.getUndoEntryCount());
+
+    apply(undoManager.undo());
+    assertEquals("helloab\nworld\n", doc.asText());
+    apply(undoManager.undo());
+    assertEquals("hello\nworld\n", doc.asText());
+
+    apply(undoManager.redo());
+    apply(undoManager.redo());
+    assertEquals("helloab\nrld\n", doc.asText());
+    assertNull(undoManager.redo());
+  }
+
+  public void testUndoIsTransformedAgainstNonUndoableOps() {
+    CompactingUndoManager undoManager = new CompactingUndoManager(FACTORY);
+    undoManager.undoableOp(insert(1, 5, "!"));
+    undoManager.checkpoint();
+    undoManager.undoableOp(insert(0, 0, "> "));
+
+    // A collaborator edits both lines
+    undoManager.nonUndoableOp(insert(0, 2, "x"));
+    undoManager.nonUndoableOp(delete(1, 0, 1));
+    assertEquals("> xhello\norld!\n", doc.asText());
+
+    apply(undoManager.undo());
+    assertEquals("xhello\norld!\n", doc.asText());
+    apply(undoManager.undo());
+    assertEquals("xhello\norld\n", doc.asText());
+
+    undoManager.nonUndoableOp(insert(1, 0, "w"));
+    apply(undoManager.redo());
+    assertEquals("xhello\nworld!\n", doc.asText());
+  }
+
+  public void testEntryCountCap() {
+    CompactingUndoManager undoManager = new CompactingUndoManager(FACTORY, 3, 1000);
+    for (int i = 0; i < 5; i++) {
+      undoManager.undoableOp(insert(0, 0, String.valueOf(i)));
+      undoManager.checkpoint();
+    }
+    assertEquals(3, undoManager.getUndoEntryCount());
+
+    for (int i = 0; i < 3; i++) {
+      apply(undoManager.undo());
+    }
+    assertNull(undoManager.undo());
+    assertEquals("10hello\nworld\n", doc.asText());
+  }
+
+  public void testEntryCountCapWithinGroup() {
+    CompactingUndoManager undoManager = new CompactingUndoManager(FACTORY, 2, 1000);
+    undoManager.undoableOp(insert(0, 0, "a"));
+    undoManager.checkpoint();
+    undoManager.undoableOp(insert(0, 0, "b"));
+
+    // Splits the group, leaving the oldest part of it to be dropped
+    undoManager.nonUndoableOp(insert(1, 0, "x"));
+    undoManager.undoableOp(insert(0, 0, "c"));
+    assertEquals(2, undoManager.getUndoEntryCount());
+
+    apply(undoManager.undo());
+    assertEquals("ahello\nxworld\n", doc.asText());
+    assertNull(undoManager.undo());
+  }
+
+  public void testTextLengthCap() {
+    CompactingUndoManager undoManager = new CompactingUndoManager(FACTORY, 100, 10);
+    undoManager.undoableOp(insert(0, 0, "abcdef"));
+    undoManager.checkpoint();
+    undoManager.undoableOp(insert(0, 0, "ghijkl"));
+    assertEquals(1, undoManager.getUndoEntryCount());
+
+    // The newest entry is kept even if it alone is over the cap
+    undoManager.checkpoint();
+    undoManager.undoableOp(insert(0, 0, "0123456789ab"));
+    assertEquals(1, undoManager.getUndoEntryCount());
+
+    apply(undoManager.undo());
+    assertEquals("ghijklabcdefhello\nworld\n", doc.asText());
+    assertNull(undoManager.undo());
+  }
+
+  private DocOp insert(int lineNumber, int column, String text) {
+    LineInfo lineInfo = doc.getLineFinder().findLine(lineNumber);
+    return toDocOp(doc.insertText(lineInfo.line(), lineInfo.number(), column, text));
+  }
+
+  private DocOp delete(int lineNumber, int column, int deleteCount) {
+    LineInfo lineInfo = doc.getLineFinder().findLine(lineNumber);
+    return toDocOp(doc.deleteText(lineInfo.line(), lineInfo.number(), column, deleteCount));
+  }
+
+  private DocOp toDocOp(TextChange textChange) {
+    return DocOpUtils.createFromTextChange(FACTORY, textChange);
+  }
+
+  private void apply(DocOp docOp) {
+    assertNotNull(docOp);
+    DocOpApplier.apply(docOp, doc);
+  }
+}
@@ -17,12 +17,16 @@ package com.google.collide.shared.ot;
 import static com.google.collide.shared.ot.DocOpApplierTests.Operation.DELETE;
 import static com.google.collide.shared.ot.DocOpApplierTests.Operation.INSERT;
 
+import com.google.collide.dto.DocOp;
 import com.google.collide.dto.server.ServerDocOpFactory;
+import com.google.collide.json.shared.JsonArray;
 import com.google.collide.shared.document.Document;
 import com.google.collide.shared.document.DocumentMutator;
 import com.google.collide.shared.document.Line;
+import com.google.collide.shared.document.LineInfo;
 import com.google.collide.shared.document.Position;
 import com.google.collide.shared.document.TextChange;
+import com.google.collide.shared.util.JsonCollections;
 import com.google.common.collect.Lists;
 
 import junit.framework.TestCase;
@@ -127,4 +131,42 @@ public class DocOpApplierTests extends TestCase {
         DELETE, "a\nb\n", 0, 0, INSERT, "c\nd"));
 
   }
+
+  public void testApplySeriesMatchesSeparateApplication() {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 50; i++) {
+      text.append("line ").append(i).append('\n');
+    }
+
+    // Edits jumping up and down the document, turned into doc ops as they are made
+    Document editedDoc = Document.createFromString(text.toString());
+    List<DocOp> docOps = Lists.newArrayList();
+    int[] lineNumbers = {40, 3, 3, 49, 0, 25, 24, 50};
+    for (int i = 0; i < lineNumbers.length; i++) {
+      LineInfo lineInfo = editedDoc.getLineFinder().findLine(lineNumbers[i]);
+      TextChange textChange = i % 3 == 2 && lineInfo.line().getText().length() > 2
+          ? editedDoc.deleteText(lineInfo.line(), lineInfo.number(), 1, 2)
+          : editedDoc.insertText(lineInfo.line(), lineInfo.number(), 0, "new\n");
+      docOps.add(DocOpUtils.createFromTextChange(ServerDocOpFactory.INSTANCE, textChange));
+    }
+
+    Document separateDoc = Document.createFromString(text.toString());
+    JsonArray<TextChange> expectedTextChanges = JsonCollections.createArray();
+    for (DocOp docOp : docOps) {
+      expectedTextChanges.addAll(DocOpApplier.apply(docOp, separateDoc));
+    }
+
+    Document seriesDoc = Document.createFromString(text.toString());
+    JsonArray<TextChange> textChanges = DocOpApplier.apply(docOps, seriesDoc);
+
+    assertEquals(editedDoc.asText(), separateDoc.asText());
+    assertEquals(editedDoc.asText(), seriesDoc.asText());
+    assertEquals(expectedTextChanges.size(), textChanges.size());
+    for (int i = 0; i < textChanges.size(); i++) {
+      assertEquals(expectedTextChanges.get(i).getType(), textChanges.get(i).getType());
+      assertEquals(expectedTextChanges.get(i).getLineNumber(), textChanges.get(i).getLineNumber());
+      assertEquals(expectedTextChanges.get(i).getColumn(), textChanges.get(i).getColumn());
+      assertEquals(expectedTextChanges.get(i).getText(), textChanges.get(i).getText());
+    }
+  }
 }
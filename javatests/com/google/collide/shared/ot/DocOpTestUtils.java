@@ -28,11 +28,15 @@ import com.google.collide.dto.DocOpComponent.RetainLine;
 import com.google.collide.dto.server.ServerDocOpFactory;
 import com.google.collide.dto.shared.DocOpFactory;
 import com.google.collide.shared.Pair;
+import com.google.collide.shared.document.Document;
+import com.google.collide.shared.document.DocumentTestUtils;
 import com.google.collide.shared.document.TextChange;
 import com.google.collide.shared.ot.Composer.ComposeException;
 
 import org.junit.Assert;
 
+import java.util.Random;
+
 /**
  * Utility methods for testing document operations.
  *
@@ -138,6 +142,27 @@ public class DocOpTestUtils extends Assert {
     return composedDocOps.first; 
   }
 
+  /**
+   * Makes a few random edits to {@code doc} and returns the doc op for them,
+   * which applies to the text {@code doc} had before.
+   */
+  public static DocOp createRandomDocOp(Document doc, Random random) {
+    DocOp docOp = null;
+    for (int i = 1 + random.nextInt(4); i > 0; i--) {
+      TextChange textChange = DocumentTestUtils.randomEdit(doc, random);
+
+      // The conversion looks at the document, so it has to happen right away
+      DocOp curOp = asDocOp(textChange);
+      try {
+        docOp = docOp == null
+            ? curOp : Composer.compose(ServerDocOpFactory.INSTANCE, docOp, curOp);
+      } catch (ComposeException e) {
+        throw new AssertionError(e);
+      }
+    }
+    return docOp;
+  }
+
   public static DocOp asDocOp(TextChange textChange) {
     return DocOpUtils.createFromTextChange(ServerDocOpFactory.INSTANCE, textChange);
   }
@@ -0,0 +1,132 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.shared.ot;
+
+import static com.google.collide.shared.ot.DocOpTestUtils.assertDocOpEquals;
+import static com.google.collide.shared.ot.DocOpTestUtils.createRandomDocOp;
+
+import com.google.collide.dto.DocOp;
+import com.google.collide.dto.server.ServerDocOpFactory;
+import com.google.collide.json.shared.JsonArray;
+import com.google.collide.shared.document.Document;
+import com.google.collide.shared.document.TextChange;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Tests that the packed composer, transformer and applier agree with
+ * {@link Composer}, {@link Transformer} and {@link DocOpApplier}.
+ */
+public class PackedDocOpTests extends TestCase {
+
+  private static final ServerDocOpFactory FACTORY = ServerDocOpFactory.INSTANCE;
+
+  private static final String[] TEXTS = {"", "\n", "a", "Hello world\nFoo bar\nSomething else\n",
+      "first\n\nthird\nlast", "one line"};
+
+  private final Random random = new Random(42);
+
+  private TerseDocOpBuilder builder;
+
+  @Override
+  protected void setUp() {
+    builder = new TerseDocOpBuilder(FACTORY, false);
+  }
+
+  public void testRoundTrip() {
+    DocOp docOp = builder.rl(2).r(3).d("ab").i("cd\n").i("e").r(4).eolR(2).rl(1).b();
+    PackedDocOp packed = PackedDocOp.fromDocOp(docOp);
+    assertEquals(8, packed.size());
+    assertEquals(DocOpUtils.toString(docOp, true), packed.toString());
+    assertDocOpEquals(docOp, packed.toDocOp(FACTORY));
+  }
+
+  public void testComposeMatchesComposer() {
+    for (int i = 0; i < 2000; i++) {
+      Document doc = Document.createFromString(TEXTS[random.nextInt(TEXTS.length)]);
+      DocOp a = createRandomDocOp(doc, random);
+      DocOp b = createRandomDocOp(doc, random);
+
+      DocOp expected;
+      try {
+        expected = Composer.compose(FACTORY, a, b);
+      } catch (Composer.ComposeException e) {
+        // Both have to reject the same doc ops
+        expected = null;
+      }
+
+      try {
+        PackedDocOp composed =
+            PackedComposer.compose(PackedDocOp.fromDocOp(a), PackedDocOp.fromDocOp(b));
+        assertNotNull("Composer failed, packed composer did not", expected);
+        assertDocOpEquals(expected, composed.toDocOp(FACTORY));
+      } catch (Composer.ComposeException e) {
+        assertNull("Packed composer failed, Composer did not", expected);
+      }
+    }
+  }
+
+  public void testComposeFailsLikeComposer() {
+    DocOp a = builder.r(3).b();
+    DocOp b = builder.r(2).b();
+    DocOpTestUtils.assertComposeFails(a, b);
+    try {
+      PackedComposer.compose(PackedDocOp.fromDocOp(a), PackedDocOp.fromDocOp(b));
+      fail("Compose should have failed");
+    } catch (Composer.ComposeException e) {
+    }
+  }
+
+  public void testTransformMatchesTransformer() {
+    for (int i = 0; i < 2000; i++) {
+      String text = TEXTS[random.nextInt(TEXTS.length)];
+      DocOp clientOp = createRandomDocOp(Document.createFromString(text), random);
+      DocOp serverOp = createRandomDocOp(Document.createFromString(text), random);
+
+      OperationPair expected = Transformer.transform(FACTORY, clientOp, serverOp);
+      PackedOperationPair transformed = PackedTransformer.transform(
+          PackedDocOp.fromDocOp(clientOp), PackedDocOp.fromDocOp(serverOp));
+      assertDocOpEquals(expected.clientOp(), transformed.clientOp().toDocOp(FACTORY));
+      assertDocOpEquals(expected.serverOp(), transformed.serverOp().toDocOp(FACTORY));
+    }
+  }
+
+  public void testApplyMatchesDocOpApplier() {
+    for (int i = 0; i < 2000; i++) {
+      String text = TEXTS[random.nextInt(TEXTS.length)];
+      Document doc = Document.createFromString(text);
+      DocOp docOp = createRandomDocOp(doc, random);
+      String expectedText = doc.asText();
+
+      Document expectedDoc = Document.createFromString(text);
+      JsonArray<TextChange> expectedChanges = DocOpApplier.apply(docOp, expectedDoc);
+      Document packedDoc = Document.createFromString(text);
+      JsonArray<TextChange> changes =
+          PackedDocOpApplier.apply(PackedDocOp.fromDocOp(docOp), packedDoc);
+
+      assertEquals(expectedText, expectedDoc.asText());
+      assertEquals(expectedText, packedDoc.asText());
+      assertEquals(expectedChanges.size(), changes.size());
+      for (int j = 0; j < changes.size(); j++) {
+        assertEquals(expectedChanges.get(j).getType(), changes.get(j).getType());
+        assertEquals(expectedChanges.get(j).getText(), changes.get(j).getText());
+        assertEquals(expectedChanges.get(j).getLineNumber(), changes.get(j).getLineNumber());
+        assertEquals(expectedChanges.get(j).getColumn(), changes.get(j).getColumn());
+      }
+    }
+  }
+}
@@ -0,0 +1,100 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.shared.util;
+
+import com.google.collide.json.shared.JsonArray;
+import com.google.collide.shared.util.SortedList.OneWayIntComparator;
+import com.google.common.collect.Lists;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests for the {@link BTreeList} class.
+ */
+public class BTreeListTests extends TestCase {
+
+  private static class Finder extends OneWayIntComparator<Integer> {
+    @Override
+    public int compareTo(Integer o) {
+      return value - o;
+    }
+  }
+
+  private final Random random = new Random(3);
+
+  private final BTreeList<Integer> tree = new BTreeList<Integer>();
+
+  public void testEmpty() {
+    assertEquals(0, tree.size());
+    assertEquals(-1, tree.search(new Finder()));
+    assertEquals(0, tree.toArray().size());
+  }
+
+  public void testInsertAndRemoveMatchList() {
+    List<Integer> expected = Lists.newArrayList();
+    for (int i = 0; i < 20000; i++) {
+      // Mostly inserts at first, mostly removes later on
+      if (expected.isEmpty() || random.nextInt(20000) > i) {
+        int index = random.nextInt(expected.size() + 1);
+        expected.add(index, i);
+        tree.insert(index, i);
+      } else {
+        int index = random.nextInt(expected.size());
+        assertEquals(expected.remove(index), tree.remove(index));
+      }
+
+      if (i % 1000 == 0) {
+        assertContents(expected);
+      }
+    }
+    assertContents(expected);
+
+    JsonArray<Integer> removed = tree.removeRange(0, expected.size());
+    assertEquals(expected.size(), removed.size());
+    assertEquals(0, tree.size());
+  }
+
+  public void testSearchMatchesBinarySearch() {
+    JsonArray<Integer> array = JsonCollections.createArray();
+    for (int i = 0; i < 5000; i++) {
+      // Lots of duplicates, so equal runs span leaves
+      int value = random.nextInt(300) * 2;
+      Finder finder = new Finder();
+      finder.setValue(value);
+      int index = SortedList.binarySearch(array, finder);
+      index = index < 0 ? -index - 1 : index;
+      array.splice(index, 0, value);
+      tree.insert(index, value);
+    }
+
+    Finder finder = new Finder();
+    for (int value = -1; value <= 600; value++) {
+      finder.setValue(value);
+      assertEquals(SortedList.binarySearch(array, finder), tree.search(finder));
+    }
+  }
+
+  private void assertContents(List<Integer> expected) {
+    assertEquals(expected.size(), tree.size());
+    JsonArray<Integer> array = tree.toArray();
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.get(i), tree.get(i));
+      assertEquals(expected.get(i), array.get(i));
+    }
+  }
+}
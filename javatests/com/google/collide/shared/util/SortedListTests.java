@@ -93,6 +93,22 @@ public class SortedListTests extends TestCase {
     assertEquals(-1, sortedList.findIndex("y0"));
   }
 
+  public void testTreeBackedList() {
+    sortedList = new SortedList<String>(STRING_SORTING_FUNCTION, true);
+    for (int i = 0; i < 1000; i++) {
+      addElements("a" + (i * 7919 % 1000), "b" + (i % 10));
+    }
+    assertEquals(2000, sortedList.size());
+    assertEquals(1000, sortedList.findInsertionIndex("b0"));
+    assertEquals(-1, sortedList.findIndex("c"));
+    assertBinarySelfSearchResults();
+
+    assertTrue(sortedList.remove("b5"));
+    assertEquals(1999, sortedList.size());
+    assertEquals(1000, sortedList.removeThisAndFollowing(999).size());
+    assertEquals("a998", sortedList.get(sortedList.size() - 1));
+  }
+
   private void assertBinarySelfSearchResults() {
     for (int i = 0, n = sortedList.size(); i < n; ++i) {
       String s = sortedList.get(i);
@@ -7163,6 +7163,8 @@ public class DtoServerImpls {
     private boolean _hasFiles;
     protected boolean isPackage;
     private boolean _hasIsPackage;
+    protected int childCount;
+    private boolean _hasChildCount;
 
     public boolean hasSubDirectories() {
       return _hasSubDirectories;
@@ -7258,6 +7260,21 @@ public class DtoServerImpls {
       return this;
     }
 
+    public boolean hasChildCount() {
+      return _hasChildCount;
+    }
+
+    @Override
+    public int getChildCount() {
+      return childCount;
+    }
+
+    public DirInfoImpl setChildCount(int v) {
+      _hasChildCount = true;
+      childCount = v;
+      return this;
+    }
+
     @Override
     public boolean equals(Object o) {
       if (!super.equals(o)) {
@@ -7299,6 +7316,14 @@ public class DtoServerImpls {
           return false;
         }
       }
+      if (this._hasChildCount != other._hasChildCount) {
+        return false;
+      }
+      if (this._hasChildCount) {
+        if (this.childCount != other.childCount) {
+          return false;
+        }
+      }
       return true;
     }
 
@@ -7309,6 +7334,7 @@ public class DtoServerImpls {
       hash = hash * 31 + (_hasIsComplete ? java.lang.Boolean.valueOf(isComplete).hashCode() : 0);
       hash = hash * 31 + (_hasFiles ? files.hashCode() : 0);
       hash = hash * 31 + (_hasIsPackage ? java.lang.Boolean.valueOf(isPackage).hashCode() : 0);
+      hash = hash * 31 + (_hasChildCount ? java.lang.Integer.valueOf(childCount).hashCode() : 0);
       return hash;
     }
 
@@ -7338,6 +7364,9 @@ public class DtoServerImpls {
       JsonPrimitive isPackageOut = new JsonPrimitive(isPackage);
       result.add("isPackage", isPackageOut);
 
+      JsonPrimitive childCountOut = new JsonPrimitive(childCount);
+      result.add("childCount", childCountOut);
+
       JsonElement fileEditSessionKeyOut = (fileEditSessionKey == null) ? JsonNull.INSTANCE : new JsonPrimitive(fileEditSessionKey);
       result.add("fileEditSessionKey", fileEditSessionKeyOut);
 
@@ -7409,6 +7438,12 @@ public class DtoServerImpls {
         dto.setIsPackage(isPackageOut);
       }
 
+      if (json.has("childCount")) {
+        JsonElement childCountIn = json.get("childCount");
+        int childCountOut = childCountIn.getAsInt();
+        dto.setChildCount(childCountOut);
+      }
+
       if (json.has("fileEditSessionKey")) {
         JsonElement fileEditSessionKeyIn = json.get("fileEditSessionKey");
         java.lang.String fileEditSessionKeyOut = gson.fromJson(fileEditSessionKeyIn, java.lang.String.class);
@@ -10906,6 +10941,12 @@ public class DtoServerImpls {
     private boolean _hasRootId;
     protected java.lang.String path;
     private boolean _hasPath;
+    protected int offset;
+    private boolean _hasOffset;
+    protected int limit;
+    private boolean _hasLimit;
+    protected java.lang.String knownTreeVersion;
+    private boolean _hasKnownTreeVersion;
 
     public boolean hasDepth() {
       return _hasDepth;
@@ -10952,6 +10993,51 @@ public class DtoServerImpls {
       return this;
     }
 
+    public boolean hasOffset() {
+      return _hasOffset;
+    }
+
+    @Override
+    public int getOffset() {
+      return offset;
+    }
+
+    public GetDirectoryImpl setOffset(int v) {
+      _hasOffset = true;
+      offset = v;
+      return this;
+    }
+
+    public boolean hasLimit() {
+      return _hasLimit;
+    }
+
+    @Override
+    public int getLimit() {
+      return limit;
+    }
+
+    public GetDirectoryImpl setLimit(int v) {
+      _hasLimit = true;
+      limit = v;
+      return this;
+    }
+
+    public boolean hasKnownTreeVersion() {
+      return _hasKnownTreeVersion;
+    }
+
+    @Override
+    public java.lang.String getKnownTreeVersion() {
+      return knownTreeVersion;
+    }
+
+    public GetDirectoryImpl setKnownTreeVersion(java.lang.String v) {
+      _hasKnownTreeVersion = true;
+      knownTreeVersion = v;
+      return this;
+    }
+
     @Override
     public boolean equals(Object o) {
       if (!super.equals(o)) {
@@ -10985,6 +11071,30 @@ public class DtoServerImpls {
           return false;
         }
       }
+      if (this._hasOffset != other._hasOffset) {
+        return false;
+      }
+      if (this._hasOffset) {
+        if (this.offset != other.offset) {
+          return false;
+        }
+      }
+      if (this._hasLimit != other._hasLimit) {
+        return false;
+      }
+      if (this._hasLimit) {
+        if (this.limit != other.limit) {
+          return false;
+        }
+      }
+      if (this._hasKnownTreeVersion != other._hasKnownTreeVersion) {
+        return false;
+      }
+      if (this._hasKnownTreeVersion) {
+        if (!this.knownTreeVersion.equals(other.knownTreeVersion)) {
+          return false;
+        }
+      }
       return true;
     }
 
@@ -10994,6 +11104,9 @@ public class DtoServerImpls {
       hash = hash * 31 + (_hasDepth ? java.lang.Integer.valueOf(depth).hashCode() : 0);
       hash = hash * 31 + (_hasRootId ? rootId.hashCode() : 0);
       hash = hash * 31 + (_hasPath ? path.hashCode() : 0);
+      hash = hash * 31 + (_hasOffset ? java.lang.Integer.valueOf(offset).hashCode() : 0);
+      hash = hash * 31 + (_hasLimit ? java.lang.Integer.valueOf(limit).hashCode() : 0);
+      hash = hash * 31 + (_hasKnownTreeVersion ? knownTreeVersion.hashCode() : 0);
       return hash;
     }
 
@@ -11009,6 +11122,15 @@ public class DtoServerImpls {
 
       JsonElement pathOut = (path == null) ? JsonNull.INSTANCE : new JsonPrimitive(path);
       result.add("path", pathOut);
+
+      JsonPrimitive offsetOut = new JsonPrimitive(offset);
+      result.add("offset", offsetOut);
+
+      JsonPrimitive limitOut = new JsonPrimitive(limit);
+      result.add("limit", limitOut);
+
+      JsonElement knownTreeVersionOut = (knownTreeVersion == null) ? JsonNull.INSTANCE : new JsonPrimitive(knownTreeVersion);
+      result.add("knownTreeVersion", knownTreeVersionOut);
       result.add("_type", new JsonPrimitive(getType()));
       return result;
     }
@@ -11049,6 +11171,24 @@ public class DtoServerImpls {
         dto.setPath(pathOut);
       }
 
+      if (json.has("offset")) {
+        JsonElement offsetIn = json.get("offset");
+        int offsetOut = offsetIn.getAsInt();
+        dto.setOffset(offsetOut);
+      }
+
+      if (json.has("limit")) {
+        JsonElement limitIn = json.get("limit");
+        int limitOut = limitIn.getAsInt();
+        dto.setLimit(limitOut);
+      }
+
+      if (json.has("knownTreeVersion")) {
+        JsonElement knownTreeVersionIn = json.get("knownTreeVersion");
+        java.lang.String knownTreeVersionOut = gson.fromJson(knownTreeVersionIn, java.lang.String.class);
+        dto.setKnownTreeVersion(knownTreeVersionOut);
+      }
+
       return dto;
     }
     public static GetDirectoryImpl fromJsonString(String jsonString) {
@@ -11089,6 +11229,12 @@ public class DtoServerImpls {
     private boolean _hasBaseDirectory;
     protected java.lang.String path;
     private boolean _hasPath;
+    protected boolean hasMoreChildren;
+    private boolean _hasHasMoreChildren;
+    protected boolean isIncremental;
+    private boolean _hasIsIncremental;
+    protected java.util.List<WorkspaceTreeUpdateBroadcastImpl> treeUpdates;
+    private boolean _hasTreeUpdates;
 
     public boolean hasRootId() {
       return _hasRootId;
@@ -11135,6 +11281,68 @@ public class DtoServerImpls {
       return this;
     }
 
+    public boolean hasHasMoreChildren() {
+      return _hasHasMoreChildren;
+    }
+
+    @Override
+    public boolean hasMoreChildren() {
+      return hasMoreChildren;
+    }
+
+    public GetDirectoryResponseImpl setHasMoreChildren(boolean v) {
+      _hasHasMoreChildren = true;
+      hasMoreChildren = v;
+      return this;
+    }
+
+    public boolean hasIsIncremental() {
+      return _hasIsIncremental;
+    }
+
+    @Override
+    public boolean isIncremental() {
+      return isIncremental;
+    }
+
+    public GetDirectoryResponseImpl setIsIncremental(boolean v) {
+      _hasIsIncremental = true;
+      isIncremental = v;
+      return this;
+    }
+
+    public boolean hasTreeUpdates() {
+      return _hasTreeUpdates;
+    }
+
+    @Override
+    public com.google.collide.json.shared.JsonArray<com.google.collide.dto.WorkspaceTreeUpdateBroadcast> getTreeUpdates() {
+      ensureTreeUpdates();
+      return (com.google.collide.json.shared.JsonArray) new com.google.collide.json.server.JsonArrayListAdapter(treeUpdates);
+    }
+
+    public GetDirectoryResponseImpl setTreeUpdates(java.util.List<WorkspaceTreeUpdateBroadcastImpl> v) {
+      _hasTreeUpdates = true;
+      treeUpdates = v;
+      return this;
+    }
+
+    public void addTreeUpdates(WorkspaceTreeUpdateBroadcastImpl v) {
+      ensureTreeUpdates();
+      treeUpdates.add(v);
+    }
+
+    public void clearTreeUpdates() {
+      ensureTreeUpdates();
+      treeUpdates.clear();
+    }
+
+    void ensureTreeUpdates() {
+      if (!_hasTreeUpdates) {
+        setTreeUpdates(treeUpdates != null ? treeUpdates : new java.util.ArrayList<WorkspaceTreeUpdateBroadcastImpl>());
+      }
+    }
+
     @Override
     public boolean equals(Object o) {
       if (!super.equals(o)) {
@@ -11168,6 +11376,30 @@ public class DtoServerImpls {
           return false;
         }
       }
+      if (this._hasHasMoreChildren != other._hasHasMoreChildren) {
+        return false;
+      }
+      if (this._hasHasMoreChildren) {
+        if (this.hasMoreChildren != other.hasMoreChildren) {
+          return false;
+        }
+      }
+      if (this._hasIsIncremental != other._hasIsIncremental) {
+        return false;
+      }
+      if (this._hasIsIncremental) {
+        if (this.isIncremental != other.isIncremental) {
+          return false;
+        }
+      }
+      if (this._hasTreeUpdates != other._hasTreeUpdates) {
+        return false;
+      }
+      if (this._hasTreeUpdates) {
+        if (!this.treeUpdates.equals(other.treeUpdates)) {
+          return false;
+        }
+      }
       return true;
     }
 
@@ -11177,6 +11409,9 @@ public class DtoServerImpls {
       hash = hash * 31 + (_hasRootId ? rootId.hashCode() : 0);
       hash = hash * 31 + (_hasBaseDirectory ? baseDirectory.hashCode() : 0);
       hash = hash * 31 + (_hasPath ? path.hashCode() : 0);
+      hash = hash * 31 + (_hasHasMoreChildren ? java.lang.Boolean.valueOf(hasMoreChildren).hashCode() : 0);
+      hash = hash * 31 + (_hasIsIncremental ? java.lang.Boolean.valueOf(isIncremental).hashCode() : 0);
+      hash = hash * 31 + (_hasTreeUpdates ? treeUpdates.hashCode() : 0);
       return hash;
     }
 
@@ -11192,6 +11427,20 @@ public class DtoServerImpls {
 
       JsonElement pathOut = (path == null) ? JsonNull.INSTANCE : new JsonPrimitive(path);
       result.add("path", pathOut);
+
+      JsonPrimitive hasMoreChildrenOut = new JsonPrimitive(hasMoreChildren);
+      result.add("hasMoreChildren", hasMoreChildrenOut);
+
+      JsonPrimitive isIncrementalOut = new JsonPrimitive(isIncremental);
+      result.add("isIncremental", isIncrementalOut);
+
+      JsonArray treeUpdatesOut = new JsonArray();
+      ensureTreeUpdates();
+      for (WorkspaceTreeUpdateBroadcastImpl treeUpdates_ : treeUpdates) {
+        JsonElement treeUpdatesOut_ = treeUpdates_ == null ? JsonNull.INSTANCE : treeUpdates_.toJsonElement();
+        treeUpdatesOut.add(treeUpdatesOut_);
+      }
+      result.add("treeUpdates", treeUpdatesOut);
       result.add("_type", new JsonPrimitive(getType()));
       return result;
     }
@@ -11232,6 +11481,33 @@ public class DtoServerImpls {
         dto.setPath(pathOut);
       }
 
+      if (json.has("hasMoreChildren")) {
+        JsonElement hasMoreChildrenIn = json.get("hasMoreChildren");
+        boolean hasMoreChildrenOut = hasMoreChildrenIn.getAsBoolean();
+        dto.setHasMoreChildren(hasMoreChildrenOut);
+      }
+
+      if (json.has("isIncremental")) {
+        JsonElement isIncrementalIn = json.get("isIncremental");
+        boolean isIncrementalOut = isIncrementalIn.getAsBoolean();
+        dto.setIsIncremental(isIncrementalOut);
+      }
+
+      if (json.has("treeUpdates")) {
+        JsonElement treeUpdatesIn = json.get("treeUpdates");
+        java.util.ArrayList<WorkspaceTreeUpdateBroadcastImpl> treeUpdatesOut = null;
+        if (treeUpdatesIn != null && !treeUpdatesIn.isJsonNull()) {
+          treeUpdatesOut = new java.util.ArrayList<WorkspaceTreeUpdateBroadcastImpl>();
+          java.util.Iterator<JsonElement> treeUpdatesInIterator = treeUpdatesIn.getAsJsonArray().iterator();
+          while (treeUpdatesInIterator.hasNext()) {
+            JsonElement treeUpdatesIn_ = treeUpdatesInIterator.next();
+            WorkspaceTreeUpdateBroadcastImpl treeUpdatesOut_ = WorkspaceTreeUpdateBroadcastImpl.fromJsonElement(treeUpdatesIn_);
+            treeUpdatesOut.add(treeUpdatesOut_);
+          }
+        }
+        dto.setTreeUpdates(treeUpdatesOut);
+      }
+
       return dto;
     }
     public static GetDirectoryResponseImpl fromJsonString(String jsonString) {
@@ -11266,6 +11542,8 @@ public class DtoServerImpls {
     private boolean _hasWorkspaceId;
     protected java.lang.String path;
     private boolean _hasPath;
+    protected java.lang.String clientId;
+    private boolean _hasClientId;
 
     public boolean hasWorkspaceId() {
       return _hasWorkspaceId;
@@ -11297,6 +11575,21 @@ public class DtoServerImpls {
       return this;
     }
 
+    public boolean hasClientId() {
+      return _hasClientId;
+    }
+
+    @Override
+    public java.lang.String getClientId() {
+      return clientId;
+    }
+
+    public GetFileContentsImpl setClientId(java.lang.String v) {
+      _hasClientId = true;
+      clientId = v;
+      return this;
+    }
+
     @Override
     public boolean equals(Object o) {
       if (!super.equals(o)) {
@@ -11322,6 +11615,14 @@ public class DtoServerImpls {
           return false;
         }
       }
+      if (this._hasClientId != other._hasClientId) {
+        return false;
+      }
+      if (this._hasClientId) {
+        if (!this.clientId.equals(other.clientId)) {
+          return false;
+        }
+      }
       return true;
     }
 
@@ -11330,6 +11631,7 @@ public class DtoServerImpls {
       int hash = super.hashCode();
       hash = hash * 31 + (_hasWorkspaceId ? workspaceId.hashCode() : 0);
       hash = hash * 31 + (_hasPath ? path.hashCode() : 0);
+      hash = hash * 31 + (_hasClientId ? clientId.hashCode() : 0);
       return hash;
     }
 
@@ -11342,6 +11644,9 @@ public class DtoServerImpls {
 
       JsonElement pathOut = (path == null) ? JsonNull.INSTANCE : new JsonPrimitive(path);
       result.add("path", pathOut);
+
+      JsonElement clientIdOut = (clientId == null) ? JsonNull.INSTANCE : new JsonPrimitive(clientId);
+      result.add("clientId", clientIdOut);
       result.add("_type", new JsonPrimitive(getType()));
       return result;
     }
@@ -11376,6 +11681,12 @@ public class DtoServerImpls {
         dto.setPath(pathOut);
       }
 
+      if (json.has("clientId")) {
+        JsonElement clientIdIn = json.get("clientId");
+        java.lang.String clientIdOut = gson.fromJson(clientIdIn, java.lang.String.class);
+        dto.setClientId(clientIdOut);
+      }
+
       return dto;
     }
     public static GetFileContentsImpl fromJsonString(String jsonString) {
@@ -25054,6 +25365,8 @@ public class DtoServerImpls {
     private boolean _hasWorkspaceId;
     protected java.util.List<ServerToClientDocOpImpl> docOps;
     private boolean _hasDocOps;
+    protected boolean historyPruned;
+    private boolean _hasHistoryPruned;
 
     public boolean hasWorkspaceId() {
       return _hasWorkspaceId;
@@ -25102,6 +25415,21 @@ public class DtoServerImpls {
       }
     }
 
+    public boolean hasHistoryPruned() {
+      return _hasHistoryPruned;
+    }
+
+    @Override
+    public boolean getHistoryPruned() {
+      return historyPruned;
+    }
+
+    public RecoverFromMissedDocOpsResponseImpl setHistoryPruned(boolean v) {
+      _hasHistoryPruned = true;
+      historyPruned = v;
+      return this;
+    }
+
     @Override
     public boolean equals(Object o) {
       if (!super.equals(o)) {
@@ -25127,6 +25455,14 @@ public class DtoServerImpls {
           return false;
         }
       }
+      if (this._hasHistoryPruned != other._hasHistoryPruned) {
+        return false;
+      }
+      if (this._hasHistoryPruned) {
+        if (this.historyPruned != other.historyPruned) {
+          return false;
+        }
+      }
       return true;
     }
 
@@ -25135,6 +25471,7 @@ public class DtoServerImpls {
       int hash = super.hashCode();
       hash = hash * 31 + (_hasWorkspaceId ? workspaceId.hashCode() : 0);
       hash = hash * 31 + (_hasDocOps ? docOps.hashCode() : 0);
+      hash = hash * 31 + (_hasHistoryPruned ? java.lang.Boolean.valueOf(historyPruned).hashCode() : 0);
       return hash;
     }
 
@@ -25152,6 +25489,9 @@ public class DtoServerImpls {
         docOpsOut.add(docOpsOut_);
       }
       result.add("docOps", docOpsOut);
+
+      JsonPrimitive historyPrunedOut = new JsonPrimitive(historyPruned);
+      result.add("historyPruned", historyPrunedOut);
       result.add("_type", new JsonPrimitive(getType()));
       return result;
     }
@@ -25195,6 +25535,12 @@ public class DtoServerImpls {
         dto.setDocOps(docOpsOut);
       }
 
+      if (json.has("historyPruned")) {
+        JsonElement historyPrunedIn = json.get("historyPruned");
+        boolean historyPrunedOut = historyPrunedIn.getAsBoolean();
+        dto.setHistoryPruned(historyPrunedOut);
+      }
+
       return dto;
     }
     public static RecoverFromMissedDocOpsResponseImpl fromJsonString(String jsonString) {
@@ -0,0 +1,152 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.documents;
+
+import com.google.collide.shared.ot.Composer.ComposeException;
+import com.google.collide.shared.ot.PackedComposer;
+import com.google.collide.shared.ot.PackedDocOp;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Implementation notes:
+ *
+ * - Revisions are grouped into aligned blocks: the block at level k with index j holds the
+ * composition of the doc ops for revisions (j * 2^k, (j + 1) * 2^k]. A level k block is the
+ * composition of its two level k-1 halves, so every block is built with a single compose once its
+ * halves are known.
+ *
+ * - Any range of revisions splits greedily into at most 2 * MAX_LEVEL aligned blocks, so a bridge
+ * costs O(log n) composes no matter how far behind the client is.
+ *
+ * - Level 0 blocks are the doc ops themselves and are read straight from the history.
+ *
+ * - Blocks are kept as PackedDocOps and composed with the PackedComposer, which copies far less
+ * text and allocates no component objects.
+ *
+ * - Composed blocks of every level share one map, keyed by level and index, that evicts the least
+ * recently used block once it holds maxBlocks of them. Evicted blocks are simply recomposed from
+ * their halves the next time they are needed.
+ */
+/**
+ * Cache of pre-composed doc op ranges used by {@link VersionedDocument} to build the bridge from a
+ * client's intended revision to the current revision.
+ *
+ * <p>
+ * This class is not thread-safe; it is guarded by its {@link VersionedDocument}.
+ */
+final class BridgeCache {
+
+  /**
+   * Provides the doc op that was applied to form the document at a given revision.
+   */
+  interface DocOpSource {
+    PackedDocOp getDocOp(int ccRevision);
+  }
+
+  /** Blocks at this level span 2^15 revisions, comfortably more than any retained history. */
+  private static final int MAX_LEVEL = 15;
+
+  /**
+   * Default bound on the number of composed blocks. A full history of
+   * {@link VersionedDocument#DEFAULT_MAX_RETAINED_DOC_OPS} doc ops needs about as many.
+   */
+  static final int DEFAULT_MAX_BLOCKS = 10000;
+
+  private final DocOpSource source;
+
+  /** Composed blocks of levels 1 to {@link #MAX_LEVEL}, see {@link #blockKey(int, int)}. */
+  private final Map<Long, PackedDocOp> blocks;
+
+  BridgeCache(DocOpSource source) {
+    this(source, DEFAULT_MAX_BLOCKS);
+  }
+
+  BridgeCache(DocOpSource source, final int maxBlocks) {
+    this.source = source;
+    this.blocks = new LinkedHashMap<Long, PackedDocOp>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, PackedDocOp> eldest) {
+        return size() > maxBlocks;
+      }
+    };
+  }
+
+  /**
+   * Returns the composition of the doc ops for revisions {@code firstCcRevision} through
+   * {@code lastCcRevision} inclusive, or null if the range is empty.
+   */
+  PackedDocOp compose(int firstCcRevision, int lastCcRevision) throws ComposeException {
+    PackedDocOp composed = null;
+    int blockStart = firstCcRevision - 1;
+    while (blockStart < lastCcRevision) {
+      int level = 0;
+      while (level < MAX_LEVEL && ((blockStart >> level) & 1) == 0
+          && blockStart + (2 << level) <= lastCcRevision) {
+        level++;
+      }
+
+      PackedDocOp block = getBlock(level, blockStart >> level);
+      composed = composed == null ? block : PackedComposer.compose(composed, block);
+      blockStart += 1 << level;
+    }
+    return composed;
+  }
+
+  /**
+   * Evicts every block that covers a revision at or before {@code ccRevision}. Must be called
+   * whenever those doc ops are dropped from the history.
+   */
+  void evictThrough(int ccRevision) {
+    for (Iterator<Long> it = blocks.keySet().iterator(); it.hasNext();) {
+      long key = it.next();
+      int level = (int) (key >>> 32);
+      int blockStart = ((int) key) << level;
+      if (blockStart < ccRevision) {
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * @return the number of composed blocks currently cached
+   */
+  int size() {
+    return blocks.size();
+  }
+
+  private PackedDocOp getBlock(int level, int index) throws ComposeException {
+    if (level == 0) {
+      return source.getDocOp(index + 1);
+    }
+
+    Long key = blockKey(level, index);
+    PackedDocOp block = blocks.get(key);
+    if (block == null) {
+      block = PackedComposer.compose(getBlock(level - 1, 2 * index),
+          getBlock(level - 1, 2 * index + 1));
+      blocks.put(key, block);
+    }
+    return block;
+  }
+
+  private static Long blockKey(int level, int index) {
+    return ((long) level << 32) | index;
+  }
+}
@@ -0,0 +1,251 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.documents;
+
+import static com.google.collide.dto.DocOpComponent.Type.DELETE;
+import static com.google.collide.dto.DocOpComponent.Type.INSERT;
+import static com.google.collide.dto.DocOpComponent.Type.RETAIN;
+import static com.google.collide.dto.DocOpComponent.Type.RETAIN_LINE;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.SegmentedStringWriter;
+import com.fasterxml.jackson.core.util.BufferRecycler;
+import com.google.collide.dto.DocOp;
+import com.google.collide.dto.DocOpComponent;
+import com.google.collide.dto.DocOpComponent.Delete;
+import com.google.collide.dto.DocOpComponent.Insert;
+import com.google.collide.dto.DocOpComponent.Retain;
+import com.google.collide.dto.DocOpComponent.RetainLine;
+import com.google.collide.dto.ServerToClientDocOp;
+import com.google.collide.dto.server.DtoServerImpls.DocumentSelectionImpl;
+import com.google.collide.dto.server.DtoServerImpls.ServerToClientDocOpImpl;
+import com.google.collide.dto.server.DtoServerImpls.ServerToClientDocOpsImpl;
+import com.google.collide.dto.server.ServerDocOpFactory;
+import com.google.collide.json.shared.JsonArray;
+
+import java.io.IOException;
+
+/**
+ * Streaming JSON reader and writer for doc ops on the mutation path.
+ *
+ * <p>
+ * The generated DTO code and {@link DocOpComponentDeserializer} build a Gson tree for every doc op
+ * and component before creating the DTOs. This codec reads straight from the wire string into
+ * {@link ServerDocOpFactory} components, and writes the applied doc ops straight to a string, while
+ * producing the same JSON as the generated DTOs.
+ *
+ * <p>
+ * This class is thread-safe.
+ */
+public final class DocOpCodec {
+
+  private static final JsonFactory jsonFactory = new JsonFactory();
+
+  /**
+   * Parses a doc op serialized as {@code {"components": [...]}}.
+   *
+   * @throws IllegalArgumentException if the string is not a valid serialized doc op
+   */
+  public static DocOp read(String serializedDocOp) {
+    try (JsonParser parser = jsonFactory.createParser(serializedDocOp)) {
+      expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+      DocOp docOp = ServerDocOpFactory.INSTANCE.createDocOp();
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        JsonToken value = parser.nextToken();
+        if ("components".equals(field) && value == JsonToken.START_ARRAY) {
+          JsonArray<DocOpComponent> components = docOp.getComponents();
+          while (parser.nextToken() != JsonToken.END_ARRAY) {
+            components.add(readComponent(parser));
+          }
+        } else {
+          parser.skipChildren();
+        }
+      }
+      return docOp;
+    } catch (IOException | RuntimeException e) {
+      throw new IllegalArgumentException("Could not deserialize DocOp: " + serializedDocOp, e);
+    }
+  }
+
+  private static DocOpComponent readComponent(JsonParser parser) throws IOException {
+    expect(parser, parser.getCurrentToken(), JsonToken.START_OBJECT);
+
+    int type = -1;
+    String text = null;
+    int count = 0;
+    boolean hasTrailingNewline = false;
+    int lineCount = 0;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      parser.nextToken();
+      switch (field) {
+        case "type":
+          type = parser.getIntValue();
+          break;
+        case "text":
+          text = parser.getValueAsString();
+          break;
+        case "count":
+          count = parser.getIntValue();
+          break;
+        case "hasTrailingNewline":
+          hasTrailingNewline = parser.getBooleanValue();
+          break;
+        case "lineCount":
+          lineCount = parser.getIntValue();
+          break;
+        default:
+          parser.skipChildren();
+      }
+    }
+
+    switch (type) {
+      case DELETE:
+        return ServerDocOpFactory.INSTANCE.createDelete(text);
+
+      case INSERT:
+        return ServerDocOpFactory.INSTANCE.createInsert(text);
+
+      case RETAIN:
+        return ServerDocOpFactory.INSTANCE.createRetain(count, hasTrailingNewline);
+
+      case RETAIN_LINE:
+        return ServerDocOpFactory.INSTANCE.createRetainLine(lineCount);
+
+      default:
+        throw new IllegalArgumentException("Unknown DocOpComponent type: " + type);
+    }
+  }
+
+  private static void expect(JsonParser parser, JsonToken actual, JsonToken expected)
+      throws IOException {
+    if (actual != expected) {
+      throw new IOException(
+          "Expected " + expected + " but was " + actual + " at " + parser.getCurrentLocation());
+    }
+  }
+
+  /**
+   * Serializes the applied doc ops to the same JSON as {@link ServerToClientDocOpsImpl#toJson()}.
+   */
+  public static String write(ServerToClientDocOpsImpl docOps) {
+    SegmentedStringWriter out = new SegmentedStringWriter(new BufferRecycler());
+    try (JsonGenerator generator = jsonFactory.createGenerator(out)) {
+      generator.writeStartObject();
+      generator.writeArrayFieldStart("docOps");
+      JsonArray<ServerToClientDocOp> list = docOps.getDocOps();
+      for (int i = 0, n = list.size(); i < n; i++) {
+        ServerToClientDocOpImpl docOp = (ServerToClientDocOpImpl) list.get(i);
+        if (docOp == null) {
+          generator.writeNull();
+        } else {
+          writeServerToClientDocOp(generator, docOp);
+        }
+      }
+      generator.writeEndArray();
+      generator.writeNumberField("_type", docOps.getType());
+      generator.writeEndObject();
+    } catch (IOException e) {
+      // The writer is in memory, so this can't happen
+      throw new RuntimeException("Could not serialize doc ops", e);
+    }
+    return out.getAndClear();
+  }
+
+  private static void writeServerToClientDocOp(
+      JsonGenerator generator, ServerToClientDocOpImpl docOp) throws IOException {
+    generator.writeStartObject();
+    writeStringField(generator, "clientId", docOp.getClientId());
+    writeStringField(generator, "filePath", docOp.getFilePath());
+    writeStringField(generator, "workspaceId", docOp.getWorkspaceId());
+    writeStringField(generator, "fileEditSessionKey", docOp.getFileEditSessionKey());
+
+    // Selections are rare, so let the generated code serialize them
+    generator.writeFieldName("selection");
+    DocumentSelectionImpl selection = (DocumentSelectionImpl) docOp.getSelection();
+    if (selection == null) {
+      generator.writeNull();
+    } else {
+      generator.writeRawValue(selection.toJson());
+    }
+
+    generator.writeFieldName("docOp2");
+    if (docOp.getDocOp2() == null) {
+      generator.writeNull();
+    } else {
+      writeDocOp(generator, docOp.getDocOp2());
+    }
+
+    generator.writeNumberField("appliedCcRevision", docOp.getAppliedCcRevision());
+    generator.writeNumberField("_type", docOp.getType());
+    generator.writeEndObject();
+  }
+
+  private static void writeDocOp(JsonGenerator generator, DocOp docOp) throws IOException {
+    generator.writeStartObject();
+    generator.writeArrayFieldStart("components");
+    JsonArray<DocOpComponent> components = docOp.getComponents();
+    for (int i = 0, n = components.size(); i < n; i++) {
+      writeComponent(generator, components.get(i));
+    }
+    generator.writeEndArray();
+    generator.writeEndObject();
+  }
+
+  private static void writeComponent(JsonGenerator generator, DocOpComponent component)
+      throws IOException {
+    generator.writeStartObject();
+    switch (component.getType()) {
+      case DELETE:
+        writeStringField(generator, "text", ((Delete) component).getText());
+        break;
+
+      case INSERT:
+        writeStringField(generator, "text", ((Insert) component).getText());
+        break;
+
+      case RETAIN:
+        generator.writeBooleanField(
+            "hasTrailingNewline", ((Retain) component).hasTrailingNewline());
+        generator.writeNumberField("count", ((Retain) component).getCount());
+        break;
+
+      case RETAIN_LINE:
+        generator.writeNumberField("lineCount", ((RetainLine) component).getLineCount());
+        break;
+
+      default:
+        throw new IllegalArgumentException("Could not serialize DocOpComponent: " + component);
+    }
+    generator.writeNumberField("type", component.getType());
+    generator.writeEndObject();
+  }
+
+  private static void writeStringField(JsonGenerator generator, String name, String value)
+      throws IOException {
+    if (value == null) {
+      generator.writeNullField(name);
+    } else {
+      generator.writeStringField(name, value);
+    }
+  }
+
+  private DocOpCodec() {
+  }
+}
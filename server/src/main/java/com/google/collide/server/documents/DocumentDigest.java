@@ -0,0 +1,380 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.documents;
+
+import com.google.collide.json.shared.JsonArray;
+import com.google.collide.shared.document.Document;
+import com.google.collide.shared.document.Line;
+import com.google.collide.shared.document.TextChange;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.protobuf.ByteString;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/*
+ * Implementation notes:
+ *
+ * - The lines are kept in order in a treap, keyed implicitly by position. Every node keeps, for
+ * the lines of its subtree, the polynomial sum over i of h(line i) * B^(size - 1 - i) modulo the
+ * prime 2^61 - 1, for two bases B. The sums only depend on the sequence of lines, not on the
+ * shape of the treap, so equal contents always hash alike.
+ *
+ * - Lines added or removed split and merge the treap at their position. A line whose text changes
+ * is only marked stale; it is hashed again, and the sums on its path to the root recomputed, the
+ * next time the hash is requested. A request after k edited lines costs O(k log n).
+ */
+/**
+ * Keeps the UTF-8 size and a content hash of a {@link Document} up to date as it is edited, without
+ * materializing its text.
+ *
+ * <p>
+ * The size is adjusted by the length of every inserted or deleted text, taking into account
+ * surrogate pairs that the edit joins or splits at its boundaries. The hash is a SHA-1 over two
+ * polynomial hashes of the SHA-1s of the lines in order, so it only depends on the contents. It is
+ * maintained in a tree over the lines, so only the lines that changed since the last request are
+ * hashed again.
+ *
+ * <p>
+ * This class is thread-safe, but the document must not be mutated while the hash is computed.
+ */
+final class DocumentDigest {
+
+  /**
+   * Returns the number of bytes {@code text} takes in UTF-8, counting unpaired surrogates as the
+   * single replacement byte {@link String#getBytes} would produce.
+   */
+  static long utf8Length(String text) {
+    long length = 0;
+    for (int i = 0, n = text.length(); i < n; i++) {
+      char c = text.charAt(i);
+      if (c < 0x80) {
+        length++;
+      } else if (c < 0x800) {
+        length += 2;
+      } else if (Character.isHighSurrogate(c) && i + 1 < n
+          && Character.isLowSurrogate(text.charAt(i + 1))) {
+        length += 4;
+        i++;
+      } else if (Character.isSurrogate(c)) {
+        length++;
+      } else {
+        length += 3;
+      }
+    }
+    return length;
+  }
+
+  /**
+   * Returns how many more UTF-8 bytes {@code first} and {@code second} take next to each other than
+   * apart: a surrogate pair takes 4 bytes, but each unpaired half only takes 1.
+   */
+  private static int pairingBytes(char first, char second) {
+    return Character.isHighSurrogate(first) && Character.isLowSurrogate(second) ? 2 : 0;
+  }
+
+  /** The Mersenne prime 2^61 - 1 */
+  private static final long MODULUS = (1L << 61) - 1;
+
+  private static final long BASE1 = 0x1b873593_2fd5a9cbL % MODULUS;
+  private static final long BASE2 = 0x0cc9e2d5_1a85ec53L % MODULUS;
+
+  private static long mod(long x) {
+    x = (x & MODULUS) + (x >>> 61);
+    return x >= MODULUS ? x - MODULUS : x;
+  }
+
+  /** Multiplies two residues without overflowing, by splitting them in 31 and 30 bit halves */
+  private static long multiply(long a, long b) {
+    long aHigh = a >>> 31;
+    long aLow = a & 0x7fffffffL;
+    long bHigh = b >>> 31;
+    long bLow = b & 0x7fffffffL;
+    long middle = aLow * bHigh + aHigh * bLow;
+    return mod(((aHigh * bHigh) << 1) + (middle >>> 30) + ((middle & 0x3fffffffL) << 31)
+        + mod(aLow * bLow));
+  }
+
+  /** A line, and the hashes of the lines in its subtree */
+  private static final class Node {
+    final Line line;
+    final int priority;
+    Node left;
+    Node right;
+    Node parent;
+    int size;
+
+    /** Hashes of the line itself; see the implementation notes */
+    long lineHash1;
+    long lineHash2;
+
+    /** Polynomial hashes of the subtree, and the bases raised to its size */
+    long hash1;
+    long hash2;
+    long power1;
+    long power2;
+
+    Node(Line line, int priority) {
+      this.line = line;
+      this.priority = priority;
+    }
+  }
+
+  private final Document document;
+
+  /** Tree nodes of the attached lines */
+  private final Map<Line, Node> nodes = new IdentityHashMap<Line, Node>();
+
+  /** Nodes of the lines whose text changed since they were last hashed */
+  private final Map<Line, Node> staleNodes = new IdentityHashMap<Line, Node>();
+
+  private final Random priorities = new Random();
+
+  private Node root;
+
+  private long utf8Length;
+
+  /** Hash of the whole document, or null if it changed since it was last hashed */
+  private ByteString sha1;
+
+  private final Document.PreTextListener preTextListener = new Document.PreTextListener() {
+    @Override
+    public void onPreTextChange(Document document, TextChange.Type type, Line line,
+        int lineNumber, int column, String text) {
+      synchronized (DocumentDigest.this) {
+        long delta = utf8LengthDelta(line, column, text, type == TextChange.Type.INSERT);
+        utf8Length += type == TextChange.Type.INSERT ? delta : -delta;
+
+        // Lines created by the change are hashed when added; lines it removes are dropped below.
+        Node node = nodes.get(line);
+        if (node != null) {
+          staleNodes.put(line, node);
+        }
+        sha1 = null;
+      }
+    }
+  };
+
+  private final Document.LineListener lineListener = new Document.LineListener() {
+    @Override
+    public void onLineAdded(Document document, int lineNumber, JsonArray<Line> addedLines) {
+      synchronized (DocumentDigest.this) {
+        Node added = null;
+        for (int i = 0, n = addedLines.size(); i < n; i++) {
+          added = merge(added, newNode(addedLines.get(i)));
+        }
+        Node[] halves = split(root, lineNumber);
+        root = merge(merge(halves[0], added), halves[1]);
+        root.parent = null;
+        sha1 = null;
+      }
+    }
+
+    @Override
+    public void onLineRemoved(Document document, int lineNumber, JsonArray<Line> removedLines) {
+      synchronized (DocumentDigest.this) {
+        for (int i = 0, n = removedLines.size(); i < n; i++) {
+          nodes.remove(removedLines.get(i));
+          staleNodes.remove(removedLines.get(i));
+        }
+        Node[] halves = split(root, lineNumber);
+        Node[] removed = split(halves[1], removedLines.size());
+        root = merge(halves[0], removed[1]);
+        if (root != null) {
+          root.parent = null;
+        }
+        sha1 = null;
+      }
+    }
+  };
+
+  DocumentDigest(Document document) {
+    this.document = document;
+    for (Line line = document.getFirstLine(); line != null; line = line.getNextLine()) {
+      utf8Length += utf8Length(line.getText());
+      root = merge(root, newNode(line));
+    }
+    root.parent = null;
+    document.getPreTextListenerRegistrar().add(preTextListener);
+    document.getLineListenerRegistrar().add(lineListener);
+  }
+
+  synchronized long getUtf8Length() {
+    return utf8Length;
+  }
+
+  synchronized ByteString getSha1() {
+    if (sha1 == null) {
+      for (Node node : staleNodes.values()) {
+        hashLine(node);
+        for (; node != null; node = node.parent) {
+          update(node);
+        }
+      }
+      staleNodes.clear();
+
+      byte[] summary = new byte[20];
+      for (int i = 0; i < 8; i++) {
+        summary[i] = (byte) (root.hash1 >>> (8 * i));
+        summary[8 + i] = (byte) (root.hash2 >>> (8 * i));
+      }
+      for (int i = 0; i < 4; i++) {
+        summary[16 + i] = (byte) (root.size >>> (8 * i));
+      }
+      sha1 = ByteString.copyFrom(Hashing.sha1().hashBytes(summary).asBytes());
+    }
+    return sha1;
+  }
+
+  /**
+   * Returns the number of UTF-8 bytes that inserting or deleting {@code text} at {@code column} of
+   * {@code line} adds or removes, before the change is applied.
+   */
+  private static long utf8LengthDelta(Line line, int column, String text, boolean isInsert) {
+    long delta = utf8Length(text);
+    if (text.isEmpty()) {
+      return delta;
+    }
+
+    // Find the characters around the text; an insertion goes between two adjacent characters
+    String lineText = line.getText();
+    Line endLine = line;
+    int endColumn = column;
+    if (!isInsert) {
+      int lastNewline = text.lastIndexOf('\n');
+      if (lastNewline < 0) {
+        endColumn = column + text.length();
+      } else {
+        for (int i = 0; i <= lastNewline && endLine != null; i++) {
+          if (text.charAt(i) == '\n') {
+            endLine = endLine.getNextLine();
+          }
+        }
+        endColumn = text.length() - lastNewline - 1;
+      }
+    }
+    char before = column > 0 ? lineText.charAt(column - 1) : '\n';
+    char after = endLine != null && endColumn < endLine.getText().length()
+        ? endLine.getText().charAt(endColumn) : '\n';
+
+    return delta + pairingBytes(before, text.charAt(0))
+        + pairingBytes(text.charAt(text.length() - 1), after) - pairingBytes(before, after);
+  }
+
+  private Node newNode(Line line) {
+    Node node = new Node(line, priorities.nextInt());
+    nodes.put(line, node);
+    hashLine(node);
+    update(node);
+    return node;
+  }
+
+  private static void hashLine(Node node) {
+    HashCode lineSha1 = Hashing.sha1().hashUnencodedChars(node.line.getText());
+    byte[] bytes = lineSha1.asBytes();
+    long high = 0;
+    long low = 0;
+    for (int i = 0; i < 8; i++) {
+      high = (high << 8) | (bytes[i] & 0xff);
+      low = (low << 8) | (bytes[8 + i] & 0xff);
+    }
+    node.lineHash1 = mod(high >>> 3);
+    node.lineHash2 = mod(low >>> 3);
+  }
+
+  /**
+   * Recomputes the size and hashes of a node from its children.
+   */
+  private static void update(Node node) {
+    Node left = node.left;
+    Node right = node.right;
+    long hash1 = node.lineHash1;
+    long hash2 = node.lineHash2;
+    long power1 = BASE1;
+    long power2 = BASE2;
+    int size = 1;
+    if (left != null) {
+      hash1 = mod(multiply(left.hash1, BASE1) + hash1);
+      hash2 = mod(multiply(left.hash2, BASE2) + hash2);
+      power1 = multiply(left.power1, power1);
+      power2 = multiply(left.power2, power2);
+      size += left.size;
+      left.parent = node;
+    }
+    if (right != null) {
+      hash1 = mod(multiply(hash1, right.power1) + right.hash1);
+      hash2 = mod(multiply(hash2, right.power2) + right.hash2);
+      power1 = multiply(power1, right.power1);
+      power2 = multiply(power2, right.power2);
+      size += right.size;
+      right.parent = node;
+    }
+    node.hash1 = hash1;
+    node.hash2 = hash2;
+    node.power1 = power1;
+    node.power2 = power2;
+    node.size = size;
+  }
+
+  /**
+   * Splits a tree into its first {@code count} lines and the rest.
+   */
+  private static Node[] split(Node node, int count) {
+    if (node == null) {
+      return new Node[2];
+    }
+    int leftSize = node.left == null ? 0 : node.left.size;
+    Node[] halves;
+    if (count <= leftSize) {
+      halves = split(node.left, count);
+      node.left = halves[1];
+      halves[1] = node;
+    } else {
+      halves = split(node.right, count - leftSize - 1);
+      node.right = halves[0];
+      halves[0] = node;
+    }
+    update(node);
+    if (halves[0] != null) {
+      halves[0].parent = null;
+    }
+    if (halves[1] != null) {
+      halves[1].parent = null;
+    }
+    return halves;
+  }
+
+  /**
+   * Concatenates two trees.
+   */
+  private static Node merge(Node first, Node second) {
+    if (first == null) {
+      return second;
+    }
+    if (second == null) {
+      return first;
+    }
+    if (first.priority > second.priority) {
+      first.right = merge(first.right, second);
+      update(first);
+      return first;
+    }
+    second.left = merge(first, second.left);
+    update(second);
+    return second;
+  }
+}
@@ -18,20 +18,25 @@ import com.google.collide.dto.DocOp;
 import com.google.collide.dto.DocumentSelection;
 import com.google.collide.dto.FileContents;
 import com.google.collide.dto.FileContents.ContentType;
+import com.google.collide.dto.ServerError.FailureReason;
 import com.google.collide.dto.server.DtoServerImpls.*;
 import com.google.collide.json.server.JsonArrayListAdapter;
 import com.google.collide.server.documents.VersionedDocument.AppliedDocOp;
 import com.google.collide.server.documents.VersionedDocument.DocumentOperationException;
+import com.google.collide.server.documents.VersionedDocument.HistoryPrunedException;
+import com.google.collide.server.documents.VersionedDocument.VersionedText;
 import com.google.collide.server.participants.Participants;
 import com.google.collide.server.shared.BusModBase;
 import com.google.collide.server.shared.util.Dto;
+import com.google.collide.server.shared.util.KeyedSerialExecutor;
 import com.google.collide.shared.MimeTypes;
 import com.google.common.base.Charsets;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.io.Files;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.vertx.core.Handler;
+import io.vertx.core.eventbus.DeliveryOptions;
 import io.vertx.core.eventbus.Message;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
@@ -42,23 +47,24 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Set;
 import java.util.SortedMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Backend service that maintains in-memory edit sessions for documents that are being
  * collaboratively edited.
  *
- * All text mutations and document related changes are handled by this service.
+ * All text mutations and document related changes are handled by this service. Deserializing,
+ * transforming and applying doc ops happens on a pool of worker threads rather than the verticle's
+ * event loop; work for one document runs strictly in order, while different documents are edited
+ * in parallel.
  *
  */
 public class EditSessions extends BusModBase {
-  private static final Gson gson = new GsonBuilder().registerTypeAdapter(
-      DocOpComponentImpl.class, new DocOpComponentDeserializer()).serializeNulls().create();
 
   /**
    * Receives Document operations and applies them to the corresponding FileEditSession.
@@ -75,29 +81,52 @@ public class EditSessions extends BusModBase {
           ClientToServerDocOpImpl.fromJsonString(Dto.get(message));
 
       String resourceId = wrappedDocOp.getFileEditSessionKey();
+      documentExecutor.execute(resourceId, () -> mutate(message, wrappedDocOp, resourceId));
+    }
 
+    /**
+     * Applies the doc ops and replies to the sender. Runs on the serial queue for the document.
+     */
+    private void mutate(
+        Message<JsonObject> message, ClientToServerDocOpImpl wrappedDocOp, String resourceId) {
       FileEditSession editSession = editSessions.get(resourceId);
 
       // Apply the DocOp.
       if (editSession != null) {
         List<String> docOps = ((JsonArrayListAdapter<String>) wrappedDocOp.getDocOps2()).asList();
-        ServerToClientDocOpsImpl appliedDocOps = applyMutation(
-            docOps, wrappedDocOp.getClientId(), wrappedDocOp.getCcRevision(),
-            wrappedDocOp.getSelection(), resourceId, editSession);
-        message.reply(Dto.wrap(appliedDocOps));
+        try {
+          String appliedDocOps = applyMutation(
+              docOps, wrappedDocOp.getClientId(), wrappedDocOp.getCcRevision(),
+              wrappedDocOp.getSelection(), resourceId, editSession);
+          if (appliedDocOps != null) {
+            message.reply(Dto.wrap(appliedDocOps));
+          }
+        } catch (HistoryPrunedException e) {
+          // The client is too far behind; recovering will tell it to reload the document.
+          logger.debug(e.getMessage());
+          message.reply(Dto.wrap(
+              ServerErrorImpl.make().setFailureReason(FailureReason.STALE_CLIENT)
+                  .setDetails(e.getMessage())));
+        }
       }
     }
 
     private List<DocOp> deserializeDocOps(List<String> serializedDocOps) {
-      List<DocOp> docOps = new ArrayList<DocOp>();
+      List<DocOp> docOps = new ArrayList<DocOp>(serializedDocOps.size());
       for (String serializedDocOp : serializedDocOps) {
-        docOps.add(gson.fromJson(serializedDocOp, DocOpImpl.class));
+        docOps.add(DocOpCodec.read(serializedDocOp));
       }
       return docOps;
     }
 
-    private ServerToClientDocOpsImpl applyMutation(List<String> serializedDocOps, String authorId,
-        int ccRevision, DocumentSelection selection, String resourceId, FileEditSession editSession) {
+    /**
+     * Applies the doc ops and queues them for broadcast to the other participants.
+     *
+     * @return the serialized applied doc ops to reply with, or null if they could not be applied
+     */
+    private String applyMutation(List<String> serializedDocOps, String authorId,
+        int ccRevision, DocumentSelection selection, String resourceId, FileEditSession editSession)
+        throws HistoryPrunedException {
       try {
         List<DocOp> docOps = deserializeDocOps(serializedDocOps);
         VersionedDocument.ConsumeResult result =
@@ -125,13 +154,11 @@ public class EditSessions extends BusModBase {
               .setSelection((DocumentSelectionImpl) result.transformedDocumentSelection);
         }
 
-        // Broadcast the applied DocOp all the participants, ignoring the sender.
-        ServerToClientDocOpsImpl broadcastedDocOps =
-            ServerToClientDocOpsImpl.make().setDocOps(appliedDocOpsList);
-        vertx.eventBus().send("participants.broadcast", new JsonObject().put(
-            Participants.OMIT_SENDER_TAG, authorId).put(
-            "payload", broadcastedDocOps.toJson()));
-        return broadcastedDocOps;
+        // Broadcast the applied DocOps to the participants editing the file.
+        docOpBroadcaster.broadcast(resourceId, appliedDocOpsList);
+        return DocOpCodec.write(ServerToClientDocOpsImpl.make().setDocOps(appliedDocOpsList));
+      } catch (HistoryPrunedException e) {
+        throw e;
       } catch (DocumentOperationException e) {
         logger.error(String.format("Failed to apply DocOps [%s]", serializedDocOps));
       }
@@ -148,6 +175,70 @@ public class EditSessions extends BusModBase {
     }
   }
 
+  /**
+   * Coalesces the applied DocOps of each file into one broadcast per broadcast window.
+   *
+   * <p>
+   * The first DocOp queued for a file schedules a flush on the verticle's event loop, either after
+   * {@code broadcastWindowMs} or, by default, on its next tick. Everything applied to the file in
+   * the meantime goes out as one {@link ServerToClientDocOpsImpl} in revision order. Flushing on
+   * the event loop also keeps broadcasts for a file in order, whichever worker applied them.
+   *
+   * <p>
+   * DocOps are not composed, since clients acknowledge and reorder them by revision. Authors
+   * receive their own DocOps only in batches shared with other authors, and ignore them as
+   * already acknowledged.
+   */
+  class DocOpBroadcaster {
+    /** DocOps waiting to be broadcast, by resource id. Guarded by itself. */
+    private final Map<String, List<ServerToClientDocOpImpl>> pendingDocOps =
+        new HashMap<String, List<ServerToClientDocOpImpl>>();
+
+    void broadcast(final String resourceId, List<ServerToClientDocOpImpl> docOps) {
+      synchronized (pendingDocOps) {
+        List<ServerToClientDocOpImpl> pending = pendingDocOps.get(resourceId);
+        if (pending != null) {
+          pending.addAll(docOps);
+          return;
+        }
+        pendingDocOps.put(resourceId, new ArrayList<ServerToClientDocOpImpl>(docOps));
+      }
+
+      context.runOnContext(v -> {
+        if (broadcastWindowMs > 0) {
+          vertx.setTimer(broadcastWindowMs, id -> flush(resourceId));
+        } else {
+          flush(resourceId);
+        }
+      });
+    }
+
+    private void flush(String resourceId) {
+      List<ServerToClientDocOpImpl> docOps;
+      synchronized (pendingDocOps) {
+        docOps = pendingDocOps.remove(resourceId);
+      }
+
+      // Spare the author its own DocOps when it is the only one
+      String authorId = docOps.get(0).getClientId();
+      for (ServerToClientDocOpImpl docOp : docOps) {
+        if (!authorId.equals(docOp.getClientId())) {
+          authorId = null;
+          break;
+        }
+      }
+
+      DeliveryOptions options =
+          Dto.deliveryOptions().addHeader(Participants.FILE_EDIT_SESSION_KEY_TAG, resourceId);
+      if (authorId != null) {
+        options.addHeader(Participants.OMIT_SENDER_TAG, authorId);
+      }
+      String broadcastedDocOps =
+          DocOpCodec.write(ServerToClientDocOpsImpl.make().setDocOps(docOps));
+      vertx.eventBus().send("participants.broadcast", Dto.serialized(broadcastedDocOps), options);
+    }
+  }
+
   /**
    * Replies with the DocOps that were missed by the requesting client.
    */
@@ -156,7 +247,13 @@ public class EditSessions extends BusModBase {
     public void handle(Message<JsonObject> event) {
       RecoverFromMissedDocOpsImpl req = RecoverFromMissedDocOpsImpl.fromJsonString(Dto.get(event));
 
+      // Ordered with the mutations of the same document, since it may apply resent doc ops
       String resourceId = req.getFileEditSessionKey();
+      documentExecutor.execute(resourceId, () -> recover(event, req, resourceId));
+    }
+
+    private void recover(
+        Message<JsonObject> event, RecoverFromMissedDocOpsImpl req, String resourceId) {
       FileEditSession editSession = editSessions.get(resourceId);
 
       if (editSession == null) {
@@ -170,14 +267,27 @@ public class EditSessions extends BusModBase {
 
       // If the client is re-sending any unacked doc ops, apply them first
       if (req.getDocOps2().size() > 0) {
-        documentMutator.applyMutation(
-            docOps, req.getClientId(), req.getCurrentCcRevision(), null, resourceId, editSession);
+        try {
+          documentMutator.applyMutation(
+              docOps, req.getClientId(), req.getCurrentCcRevision(), null, resourceId, editSession);
+        } catch (HistoryPrunedException e) {
+          // The unacked doc ops are lost; the client is told below to reload the document.
+          logger.debug(e.getMessage());
+        }
       }
 
       // Get all the applied doc ops the client doesn't know about
       SortedMap<Integer, VersionedDocument.AppliedDocOp> appliedDocOps =
           editSession.getDocument().getAppliedDocOps(req.getCurrentCcRevision() + 1);
 
+      if (appliedDocOps == null) {
+        // They have been pruned from the history, so the client has to reload the document
+        RecoverFromMissedDocOpsResponseImpl resp = RecoverFromMissedDocOpsResponseImpl.make()
+            .setDocOps(new ArrayList<ServerToClientDocOpImpl>()).setHistoryPruned(true);
+        event.reply(Dto.wrap(resp));
+        return;
+      }
+
       List<ServerToClientDocOpImpl> appliedDocOpsList = Lists.newArrayList();
       for (Entry<Integer, VersionedDocument.AppliedDocOp> entry : appliedDocOps.entrySet()) {
         DocOpImpl docOp = (DocOpImpl) entry.getValue().docOp;
@@ -256,7 +366,10 @@ public class EditSessions extends BusModBase {
                   // Provision a new edit session and fall through.
                   editSession =
                       new FileEditSessionImpl(resourceId, currentPath, text, null, logger);
+                  editSession.getDocument().setHistoryRetention(retainedDocOps, maxRetainedDocOps);
+                  editSession.setOnDirtyListener(fileSaver);
                   editSessions.put(resourceId, editSession);
+                  currentPaths.put(resourceId, currentPath);
 
                   // Update the last opened file.
                   vertx.eventBus().send("workspace.setLastOpenedFile",
@@ -273,10 +386,22 @@ public class EditSessions extends BusModBase {
                 }
               }
 
-              // Populate file contents response Dto with information from the edit session.
+              // The requesting tab receives the file's doc ops from now on.
+              if (provisionEditSession && request.getClientId() != null) {
+                vertx.eventBus().send("participants.subscribe", new JsonObject()
+                    .put("activeClient", request.getClientId())
+                    .put(Participants.FILE_EDIT_SESSION_KEY_TAG, resourceId));
+              }
+
+              /*
+               * Populate file contents response Dto with information from the edit session. The
+               * revision and contents are read together, since a document worker may apply doc
+               * ops meanwhile.
+               */
+              VersionedText text = editSession.getDocument().asText();
               fileContentsDto.setFileEditSessionKey(resourceId)
-                  .setCcRevision(editSession.getDocument().getCcRevision())
-                  .setContents(editSession.getContents()).setContentType(ContentType.TEXT);
+                  .setCcRevision(text.ccRevision)
+                  .setContents(text.getText()).setContentType(ContentType.TEXT);
 
               // Extract the contents from the edit session before sending.
               sendContent(message, currentPath, fileContentsDto, true);
@@ -292,64 +417,194 @@ public class EditSessions extends BusModBase {
   }
 
   /**
-   * Iterates through all open, dirty edit sessions and saves them to disk.
+   * Saves edit sessions to disk a short while after they become dirty.
+   *
+   * <p>
+   * Edit sessions notify the saver when their first unsaved change is applied, and are saved
+   * {@code saveDelayMs} later, so a burst of edits results in a single write. A session stays marked
+   * dirty until it is saved; failed saves are retried with a delay that doubles up to
+   * {@link #MAX_RETRY_DELAY_MS} for as long as the failure persists. Files are written on
+   * the I/O pool, to the paths in {@link #currentPaths}; only paths that are not cached, e.g. after
+   * a move, are resolved with {@code tree.getCurrentPaths}. Scheduling state and statistics are only
+   * touched on the verticle's event loop.
    */
-  class FileSaver implements Handler<Message<JsonObject>> {
+  class FileSaver implements Handler<Message<JsonObject>>, FileEditSession.OnDirtyListener {
+
+    /** Longest delay between retries of a save that keeps failing */
+    private static final long MAX_RETRY_DELAY_MS = 60 * 1000;
+
+    /** A save that is scheduled or in progress */
+    private final class PendingSave {
+      final long dirtySinceMs;
+
+      /** Number of consecutive failed attempts to save the changes */
+      final int failedAttempts;
+      long timerId = -1;
+      boolean saving;
+
+      PendingSave(long dirtySinceMs, int failedAttempts) {
+        this.dirtySinceMs = dirtySinceMs;
+        this.failedAttempts = failedAttempts;
+      }
+    }
+
+    private final Map<String, PendingSave> pendingSaves = new HashMap<String, PendingSave>();
+
+    private long saveCount;
+    private long failureCount;
+    private long totalWriteMs;
+    private long maxWriteMs;
+    private long totalDirtyMs;
+    private long maxDirtyMs;
+
     @Override
     public void handle(Message<JsonObject> message) {
       saveAll();
     }
 
+    @Override
+    public void onDirty(FileEditSession editSession) {
+      String resourceId = editSession.getFileEditSessionKey();
+      long dirtySinceMs = System.currentTimeMillis();
+      context.runOnContext(v -> schedule(resourceId, new PendingSave(dirtySinceMs, 0)));
+    }
+
+    private void schedule(String resourceId, PendingSave pendingSave) {
+      if (pendingSaves.containsKey(resourceId)) {
+        // Changes made while saving are picked up once the save completes.
+        return;
+      }
+      pendingSaves.put(resourceId, pendingSave);
+      long delayMs = saveDelayMs;
+      for (int i = 0; i < pendingSave.failedAttempts && delayMs < MAX_RETRY_DELAY_MS; i++) {
+        delayMs *= 2;
+      }
+      pendingSave.timerId = vertx.setTimer(
+          Math.min(delayMs, MAX_RETRY_DELAY_MS), id -> save(resourceId, pendingSave));
+    }
+
+    /**
+     * Saves every dirty edit session right away.
+     */
     void saveAll() {
-      Set<Entry<String, FileEditSession>> entries = editSessions.entrySet();
-      Iterator<Entry<String, FileEditSession>> entryIter = entries.iterator();
-      final JsonArray resourceIds = new JsonArray();
-      while (entryIter.hasNext()) {
-        Entry<String, FileEditSession> entry = entryIter.next();
-        String resourceId = entry.getKey();
-        FileEditSession editSession = entry.getValue();
-        if (editSession.hasChanges()) {
-          resourceIds.add(resourceId);
+      for (Entry<String, PendingSave> entry : Lists.newArrayList(pendingSaves.entrySet())) {
+        PendingSave pendingSave = entry.getValue();
+        if (!pendingSave.saving && vertx.cancelTimer(pendingSave.timerId)) {
+          save(entry.getKey(), pendingSave);
         }
       }
+    }
 
-      // Resolve the current paths of opened files in case they have been moved.
-      eb.<JsonObject>send("tree.getCurrentPaths", new JsonObject().put("resourceIds", resourceIds),
-          message -> {
-          final Message<JsonObject> event = message.result();
+    private void save(final String resourceId, final PendingSave pendingSave) {
+      final FileEditSession editSession = editSessions.get(resourceId);
+      if (editSession == null || (!editSession.hasChanges() && !editSession.clearDirty())) {
+        pendingSaves.remove(resourceId);
+        return;
+      }
+      pendingSave.saving = true;
 
-          if (message.failed()) {
-            logger.error("Message failed calling tree.getCurrentPaths for resourceIds " + resourceIds, message.cause());
-            return;
-          }
-          JsonArray currentPaths = event.body().getJsonArray("paths");
-          Iterator<Object> pathIter = currentPaths.iterator();
-          Iterator<Object> resourceIter = resourceIds.iterator();
-
-          if (currentPaths.size() != resourceIds.size()) {
-            logger.error(String.format(
-                "Received [%d] paths in response to a request specifying [%d] resourceIds",
-                currentPaths.size(), resourceIds.size()));
+      resolvePath(resourceId, path -> {
+        if (path == null) {
+          logger.error(String.format("Could not resolve the path of [%s] to save it", resourceId));
+          saved(resourceId, pendingSave, 0, false);
+          return;
+        }
+
+        ioWorkers.execute(() -> {
+          long startMs = System.currentTimeMillis();
+          boolean succeeded = false;
+          try {
+            editSession.save(stripLeadingSlash(path));
+            succeeded = true;
+          } catch (IOException | RuntimeException e) {
+            logger.error(String.format("Failed to save file [%s]", path), e);
           }
+          long writeMs = System.currentTimeMillis() - startMs;
+          boolean result = succeeded;
+          context.runOnContext(v -> saved(resourceId, pendingSave, writeMs, result));
+        });
+      });
+    }
 
-          // Iterate through all the resolved paths and save the files to disk.
-          while (pathIter.hasNext()) {
-            String path = (String) pathIter.next();
-            String resourceId = (String) resourceIter.next();
+    private void saved(String resourceId, PendingSave pendingSave, long writeMs, boolean succeeded) {
+      pendingSaves.remove(resourceId);
+      FileEditSession editSession = editSessions.get(resourceId);
+      if (succeeded) {
+        long dirtyMs = System.currentTimeMillis() - pendingSave.dirtySinceMs;
+        saveCount++;
+        totalWriteMs += writeMs;
+        maxWriteMs = Math.max(maxWriteMs, writeMs);
+        totalDirtyMs += dirtyMs;
+        maxDirtyMs = Math.max(maxDirtyMs, dirtyMs);
+
+        // Save again whatever changed in the meantime.
+        if (editSession != null && editSession.clearDirty()) {
+          schedule(resourceId, new PendingSave(System.currentTimeMillis(), 0));
+        }
+      } else {
+        failureCount++;
 
-            if (path != null) {
-              FileEditSession editSession = editSessions.get(resourceId);
-              if (editSession != null) {
-                try {
-                  editSession.save(stripLeadingSlash(path));
-                } catch (IOException e) {
-                  logger.error(String.format("Failed to save file [%s]", path), e);
-                }
-              }
-            }
-          }
+        // Retry later; the session stays dirty, so further edits do not schedule another save.
+        if (editSession != null) {
+          schedule(resourceId,
+              new PendingSave(pendingSave.dirtySinceMs, pendingSave.failedAttempts + 1));
         }
-      );
+      }
+    }
+
+    private void resolvePath(String resourceId, Handler<String> handler) {
+      String path = currentPaths.get(resourceId);
+      if (path != null) {
+        handler.handle(path);
+        return;
+      }
+
+      eb.<JsonObject>send("tree.getCurrentPaths",
+          new JsonObject().put("resourceIds", new JsonArray().add(resourceId)), message -> {
+            if (message.failed()) {
+              logger.error("Message failed calling tree.getCurrentPaths for resourceId "
+                  + resourceId, message.cause());
+              handler.handle(null);
+              return;
+            }
+            String resolvedPath = message.result().body().getJsonArray("paths").getString(0);
+            if (resolvedPath != null) {
+              currentPaths.put(resourceId, resolvedPath);
+            }
+            handler.handle(resolvedPath);
+          });
+    }
+
+    /**
+     * Replies with save statistics. Latencies are in milliseconds; the dirty latency is the time
+     * from a file's first unsaved change until it was written.
+     */
+    void getStats(Message<JsonObject> message) {
+      message.reply(new JsonObject()
+          .put("saves", saveCount)
+          .put("failures", failureCount)
+          .put("pending", pendingSaves.size())
+          .put("meanWriteMs", saveCount == 0 ? 0 : totalWriteMs / saveCount)
+          .put("maxWriteMs", maxWriteMs)
+          .put("meanDirtyMs", saveCount == 0 ? 0 : totalDirtyMs / saveCount)
+          .put("maxDirtyMs", maxDirtyMs));
+    }
+  }
+
+  /**
+   * Keeps {@link #currentPaths} valid as files are deleted or moved on disk.
+   */
+  class FileSystemEventHandler implements Handler<Message<JsonObject>> {
+    @Override
+    public void handle(Message<JsonObject> message) {
+      for (Object resourceId : message.body().getJsonArray("delete", new JsonArray())) {
+        currentPaths.remove(resourceId);
+      }
+
+      // Moving a directory moves every file below it, so forget all paths.
+      if (!message.body().getJsonArray("move", new JsonArray()).isEmpty()) {
+        currentPaths.clear();
+      }
     }
   }
 
@@ -362,39 +617,92 @@ public class EditSessions extends BusModBase {
       String resourceId = message.body().getString("resourceId");
       if (resourceId != null) {
         editSessions.remove(resourceId);
+        currentPaths.remove(resourceId);
+        vertx.eventBus().send("participants.unsubscribe",
+            new JsonObject().put(Participants.FILE_EDIT_SESSION_KEY_TAG, resourceId));
       }
       // TODO: Notify clients to reload their opened document.
     }
   }
 
-  private final Map<String, FileEditSession> editSessions = new HashMap<String, FileEditSession>();
+  /**
+   * Forgets a tab that left in every edit session, so that it no longer holds back the pruning of
+   * their doc op history.
+   */
+  class ClientRemover implements Handler<Message<JsonObject>> {
+    @Override
+    public void handle(Message<JsonObject> message) {
+      String clientId = message.body().getString("activeClient");
+      if (clientId == null) {
+        return;
+      }
+      for (String resourceId : editSessions.keySet()) {
+        documentExecutor.execute(resourceId, () -> {
+          FileEditSession editSession = editSessions.get(resourceId);
+          if (editSession != null) {
+            editSession.getDocument().removeClient(clientId);
+          }
+        });
+      }
+    }
+  }
+
+  /** Edit sessions by resource id; read by the document workers, updated on the event loop */
+  private final Map<String, FileEditSession> editSessions = Maps.newConcurrentMap();
+
+  /** Last known paths of the files being edited, by resource id; only used on the event loop */
+  private final Map<String, String> currentPaths = new HashMap<String, String>();
   private final FileSaver fileSaver = new FileSaver();
   private final DocumentMutator documentMutator = new DocumentMutator();
+  private final DocOpBroadcaster docOpBroadcaster = new DocOpBroadcaster();
   private String addressBase;
+  private long broadcastWindowMs;
+  private int retainedDocOps;
+  private int maxRetainedDocOps;
+  private ExecutorService documentWorkers;
+  private ExecutorService ioWorkers;
+  private long saveDelayMs;
+
+  /** Serializes the work for each document, keyed by resource id */
+  private KeyedSerialExecutor documentExecutor;
 
   @Override
   public void start() {
     super.start();
     this.addressBase = getOptionalStringConfig("address", "documents");
+    this.broadcastWindowMs = getOptionalLongConfig("broadcastWindowMs", 0);
+    int workerCount =
+        getOptionalIntConfig("documentWorkers", Runtime.getRuntime().availableProcessors());
+    this.documentWorkers = Executors.newFixedThreadPool(workerCount,
+        new ThreadFactoryBuilder().setNameFormat("edit-sessions-%d").setDaemon(true).build());
+    this.documentExecutor = new KeyedSerialExecutor(documentWorkers, 4 * workerCount);
+    this.ioWorkers = Executors.newFixedThreadPool(getOptionalIntConfig("ioWorkers", 2),
+        new ThreadFactoryBuilder().setNameFormat("edit-sessions-io-%d").setDaemon(true).build());
+    this.saveDelayMs = getOptionalLongConfig("saveDelayMs", 1500);
+    this.retainedDocOps =
+        getOptionalIntConfig("retainedDocOps", VersionedDocument.DEFAULT_RETAINED_DOC_OPS);
+    this.maxRetainedDocOps =
+        getOptionalIntConfig("maxRetainedDocOps", VersionedDocument.DEFAULT_MAX_RETAINED_DOC_OPS);
     vertx.eventBus().consumer(addressBase + ".mutate", documentMutator);
     vertx.eventBus().consumer(
         addressBase + ".createEditSession", new EditSessionCreator(true));
     vertx.eventBus().consumer(
         addressBase + ".getFileContents", new EditSessionCreator(false));
     vertx.eventBus().consumer(addressBase + ".saveAll", fileSaver);
+    vertx.eventBus().consumer(addressBase + ".getSaveStats", fileSaver::getStats);
+    vertx.eventBus().consumer(addressBase + ".fileSystemEvents", new FileSystemEventHandler());
     vertx.eventBus().consumer(addressBase + ".removeEditSession", new EditSessionRemover());
     vertx.eventBus().consumer(addressBase + ".recoverMissedDocop", new DocOpRecoverer());
+    vertx.eventBus().consumer(addressBase + ".removeClient", new ClientRemover());
 
     // TODO: Handle content changes on disk and synthesize a docop to apply to the in-memory edit
     // session, and broadcast to all clients.
+  }
 
-    // Set up a regular save interval to flush to disk.
-    vertx.setPeriodic(1500, new Handler<Long>() {
-        @Override
-      public void handle(Long event) {
-        fileSaver.saveAll();
-      }
-    });
+  @Override
+  public void stop() {
+    documentWorkers.shutdown();
+    ioWorkers.shutdown();
   }
 
   /**
@@ -56,6 +56,14 @@ public interface FileEditSession extends ImmutableFileEditSession {
     void onClosed();
   }
 
+  interface OnDirtyListener {
+    /**
+     * Called when a mutation is applied to a session that is not marked dirty, on the thread that
+     * applied it. The session stays marked dirty until {@link FileEditSession#clearDirty()}.
+     */
+    void onDirty(FileEditSession editSession);
+  }
+
   /**
    * Releases the resources for this {@code FileEditSession}. Many methods will
    * throw IllegalStateException if called on a closed session object. However,
@@ -73,6 +81,24 @@ public interface FileEditSession extends ImmutableFileEditSession {
    */
   void setOnCloseListener(OnCloseListener onCloseListener);
 
+  /**
+   * Sets a listener that is called whenever this file edit session goes from having no unsaved
+   * changes to having some. Only one listener can be set.
+   *
+   * @param onDirtyListener listener to call when the file edit session becomes dirty.
+   * @throws IllegalStateException if there is already a listener attached
+   */
+  void setOnDirtyListener(OnDirtyListener onDirtyListener);
+
+  /**
+   * Clears the dirty mark once the session was saved, so that the next mutation notifies the
+   * {@link OnDirtyListener} again.
+   *
+   * @return true if changes applied in the meantime keep the session marked dirty, in which case
+   *         the listener is not notified and the caller has to save the session again
+   */
+  boolean clearDirty();
+
   /**
    * Applies a list of doc ops to the backing document.
    *
@@ -91,7 +117,7 @@ public interface FileEditSession extends ImmutableFileEditSession {
   VersionedDocument getDocument();
 
   /**
-   * Saves the file.
+   * Saves the file, replacing it atomically where the file system allows.
    * @throws IOException 
    */
   void save(String currentPath) throws IOException;
@@ -21,7 +21,7 @@ import com.google.collide.server.documents.VersionedDocument.VersionedText;
 import com.google.collide.server.shared.merge.ConflictChunk;
 import com.google.collide.server.shared.merge.MergeChunk;
 import com.google.collide.server.shared.merge.MergeResult;
-import com.google.collide.server.shared.util.FileHasher;
+import com.google.collide.shared.document.TextSnapshot;
 import com.google.collide.shared.document.anchor.Anchor;
 import com.google.collide.shared.document.anchor.Anchor.ShiftListener;
 import com.google.collide.shared.document.anchor.AnchorManager;
@@ -30,15 +30,20 @@ import com.google.collide.shared.document.anchor.InsertionPlacementStrategy;
 import com.google.collide.shared.ot.DocOpUtils;
 import com.google.common.base.Charsets;
 import com.google.common.collect.Lists;
-import com.google.common.io.Files;
 import com.google.protobuf.ByteString;
 import io.vertx.core.logging.Logger;
 
 import javax.annotation.Nullable;
-import java.io.File;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Default implementation of {@link FileEditSession}.
@@ -134,26 +139,18 @@ final class FileEditSessionImpl implements FileEditSession {
   private final List<AnchoredConflictChunk> conflictChunks = Lists.newArrayList();
 
   /*
-   * The size and sha1 fields don't actually need to stay in lock-step with the doc contents since
-   * there's no public API for retrieving a snapshot of both values. Thus, we don't need blocking
-   * synchronization. We do however need to ensure that updates made by one thread are seen by other
-   * threads, so they must be declared volatile.
+   * Mutations run on the edit session's serial worker while saves run on the I/O pool, so the
+   * revision bookkeeping must be visible across threads.
    */
 
-  /** Size of the file, in bytes. Lazily computed by {@link #getSize()}. */
-  private Integer size = null;
-
-  /** SHA-1 hash of the file contents. Lazily computed by {@link #getSha1()}. */
-  private ByteString sha1 = null;
-
   /** CC revision of the document that we last saved */
-  private int lastSavedCcRevision;
+  private volatile int lastSavedCcRevision;
 
   /** CC revision of the document after the last mutation was applied */
-  private int lastMutationCcRevision;
+  private volatile int lastMutationCcRevision;
 
   /** True if the file-edit session has been closed */
-  private boolean closed = false;
+  private volatile boolean closed = false;
 
   /** When this file edit session was closed. Makes sense only if closed = true. */
   private long closedTimeMs;
@@ -163,6 +160,15 @@ final class FileEditSessionImpl implements FileEditSession {
 
   private OnCloseListener onCloseListener;
 
+  /** Set on the verticle thread, called from the thread applying mutations. */
+  private volatile OnDirtyListener onDirtyListener;
+
+  /**
+   * Set by the mutation that notifies the {@link #onDirtyListener}, and cleared by
+   * {@link #clearDirty()}, so that each dirty period is reported exactly once.
+   */
+  private final AtomicBoolean dirty = new AtomicBoolean();
+
   /** The ID of the resource this edit session is opened for. */
   private final String resourceId;
 
@@ -257,6 +263,14 @@ final class FileEditSessionImpl implements FileEditSession {
     this.onCloseListener = listener;
   }
 
+  @Override
+  public synchronized void setOnDirtyListener(OnDirtyListener listener) {
+    if (this.onDirtyListener != null) {
+      throw new IllegalStateException("One listener already registered.");
+    }
+    this.onDirtyListener = listener;
+  }
+
   @Override
   public VersionedDocument.ConsumeResult consume(List<DocOp> docOps, String authorClientId,
       int intendedCcRevision, DocumentSelection selection) throws DocumentOperationException {
@@ -271,16 +285,16 @@ final class FileEditSessionImpl implements FileEditSession {
     if (containsMutation) {
       lastMutationCcRevision = contents.getCcRevision();
 
-      // Reset the cached size and SHA-1. We'll wait until someone actually calls getSize() or
-      // getSha1() to recompute them.
-      size = null;
-      sha1 = null;
+      OnDirtyListener listener = onDirtyListener;
+      if (listener != null && dirty.compareAndSet(false, true)) {
+        listener.onDirty(this);
+      }
     }
     return result;
   }
 
   private String getText() {
-    return contents.asText().text;
+    return contents.asText().getText();
   }
 
   @Override
@@ -293,30 +307,28 @@ final class FileEditSessionImpl implements FileEditSession {
     return lastMutationCcRevision;
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * <p>
+   * The size is maintained as the document is edited, so this does not materialize the text.
+   */
   @Override
   public int getSize() {
     checkNotClosed();
-
-    if (size == null) {
-      try {
-        size = getText().getBytes("UTF-8").length;
-      } catch (UnsupportedEncodingException e) {
-        // UTF-8 is a charset required by Java spec, per javadoc of
-        // java.nio.charset.Charset, so this can't happen.
-        throw new RuntimeException("UTF-8 not supported in this JVM?!", e);
-      }
-    }
-    return size;
+    return (int) contents.getUtf8Length();
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * <p>
+   * Only lines changed since the last call are hashed again; see {@link DocumentDigest}.
+   */
   @Override
   public ByteString getSha1() {
     checkNotClosed();
-
-    if (sha1 == null) {
-      sha1 = FileHasher.getSha1(getText());
-    }
-    return sha1;
+    return contents.getSha1();
   }
 
   @Override
@@ -336,6 +348,14 @@ final class FileEditSessionImpl implements FileEditSession {
     return lastSavedCcRevision < lastMutationCcRevision;
   }
 
+  @Override
+  public boolean clearDirty() {
+    dirty.set(false);
+
+    // A mutation racing with this either sees the cleared mark, or its changes are seen here
+    return hasChanges() && dirty.compareAndSet(false, true);
+  }
+
 
   @Override
   public void save(String currentPath) throws IOException {
@@ -348,7 +368,7 @@ final class FileEditSessionImpl implements FileEditSession {
 
     // Get a consistent snapshot of the raw text and conflict chunks
     VersionedTextAndConflictChunksImpl snapshot = getContentsAndConflictChunks();
-    String text = snapshot.getVersionedText().text;
+    TextSnapshot text = snapshot.getVersionedText().snapshot;
     List<AnchoredConflictChunk> conflictChunks = snapshot.getConflictChunks();
 
     if (hasUnresolvedConflictChunks(conflictChunks)) {
@@ -371,7 +391,7 @@ final class FileEditSessionImpl implements FileEditSession {
     logger.debug(String.format("Saved file [%s]", this));
   }
 
-  private void saveChanges(String path, String text) throws IOException {
+  private void saveChanges(String path, TextSnapshot text) throws IOException {
     /*
      * TODO: what we really should do is track lastModified. Then we can lock,
      * check the lastModified, and merge in any local FS changes that happened
@@ -383,12 +403,35 @@ final class FileEditSessionImpl implements FileEditSession {
      */
     logger.debug(String.format("Saving file [%s]", path));
 
-    File file = new File(path);
-    Files.write(text, file, Charsets.UTF_8);
+    // Write next to the file and move it into place, so a crash never leaves it half written.
+    Path file = Paths.get(path).toAbsolutePath();
+    Path temp = file.resolveSibling("." + file.getFileName() + ".collide-save");
+    try {
+      // Unlike Files.newBufferedWriter, this replaces unpaired surrogates as String#getBytes does
+      try (Writer writer = new OutputStreamWriter(Files.newOutputStream(temp), Charsets.UTF_8)) {
+        for (int i = 0, n = text.getChunkCount(); i < n; i++) {
+          writer.write(text.getChunk(i));
+        }
+      }
+      if (Files.exists(file)) {
+        try {
+          Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(file));
+        } catch (UnsupportedOperationException e) {
+          // Not a POSIX file system; the new file gets the default permissions.
+        }
+      }
+      try {
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temp);
+    }
   }
 
   private void saveConflictChunks(
-      String path, String text, List<AnchoredConflictChunk> conflictChunks) {
+      String path, TextSnapshot text, List<AnchoredConflictChunk> conflictChunks) {
     // TODO: Write the conflict chunks to some out of band location.
   }
 
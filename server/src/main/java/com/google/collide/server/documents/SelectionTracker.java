@@ -15,7 +15,7 @@
 package com.google.collide.server.documents;
 
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 
 import com.google.collide.dto.DocumentSelection;
 import com.google.collide.dto.server.DtoServerImpls.DocumentSelectionImpl;
@@ -120,9 +120,10 @@ public class SelectionTracker {
       AnchorType.create(SelectionTracker.class, "base");
 
   /**
-   * All active selections, keyed by the user's gaia ID.
+   * All active selections, keyed by the user's gaia ID. Selections in different documents change
+   * concurrently.
    */
-  private final Map<String, UserSelection> userSelections = Maps.newHashMap();
+  private final ConcurrentMap<String, UserSelection> userSelections = Maps.newConcurrentMap();
 
   @VisibleForTesting
   SelectionTracker() {
@@ -151,8 +152,11 @@ public class SelectionTracker {
 
     UserSelection selection = userSelections.get(clientId);
     if (selection == null) {
-      selection = new UserSelection(clientId);
-      userSelections.put(clientId, selection);
+      UserSelection newSelection = new UserSelection(clientId);
+      selection = userSelections.putIfAbsent(clientId, newSelection);
+      if (selection == null) {
+        selection = newSelection;
+      }
     }
 
     selection.markActive(resourceId, document, documentSelection);
@@ -22,25 +22,30 @@ import com.google.collide.dto.server.DtoServerImpls.FilePositionImpl;
 import com.google.collide.dto.server.ServerDocOpFactory;
 import com.google.collide.shared.document.Document;
 import com.google.collide.shared.document.LineInfo;
+import com.google.collide.shared.document.TextSnapshot;
 import com.google.collide.shared.document.anchor.Anchor;
 import com.google.collide.shared.document.anchor.AnchorManager;
 import com.google.collide.shared.document.anchor.AnchorType;
-import com.google.collide.shared.ot.Composer;
+import com.google.collide.shared.ot.BulkPositionTransformer;
 import com.google.collide.shared.ot.Composer.ComposeException;
 import com.google.collide.shared.ot.DocOpApplier;
 import com.google.collide.shared.ot.DocOpUtils;
-import com.google.collide.shared.ot.OperationPair;
-import com.google.collide.shared.ot.PositionTransformer;
-import com.google.collide.shared.ot.Transformer;
+import com.google.collide.shared.ot.PackedDocOp;
+import com.google.collide.shared.ot.PackedOperationPair;
+import com.google.collide.shared.ot.PackedTransformer;
 import com.google.collide.shared.ot.Transformer.TransformException;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.protobuf.ByteString;
 import io.vertx.core.logging.Logger;
 
 import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 
 /**
@@ -49,7 +54,8 @@ import java.util.TreeMap;
  * {@link #consume(List, String, int, DocumentSelection)}.
  *
  * <p>
- * This class is thread-safe.
+ * This class is thread-safe. Mutations, including anchor changes, hold the write lock; snapshots
+ * of the text, revision and history hold the read lock.
  *
  */
 public class VersionedDocument {
@@ -86,11 +92,22 @@ public class VersionedDocument {
     public final DocOp docOp;
     public final String authorClientId;
 
-    private AppliedDocOp(DocOp docOp, String authorClientId) {
+    /** Packed form of {@link #docOp} for building bridges; guarded by the document's lock */
+    private PackedDocOp packedDocOp;
+
+    private AppliedDocOp(DocOp docOp, PackedDocOp packedDocOp, String authorClientId) {
       this.docOp = docOp;
+      this.packedDocOp = packedDocOp;
       this.authorClientId = authorClientId;
     }
 
+    private PackedDocOp getPackedDocOp() {
+      if (packedDocOp == null) {
+        packedDocOp = PackedDocOp.fromDocOp(docOp);
+      }
+      return packedDocOp;
+    }
+
     @Override
     public String toString() {
       return "[" + authorClientId + ", " + DocOpUtils.toString(docOp, true) + "]";
@@ -102,11 +119,18 @@ public class VersionedDocument {
    */
   public static class VersionedText {
     public final int ccRevision;
-    public final String text;
+    public final TextSnapshot snapshot;
 
-    private VersionedText(int ccRevision, String text) {
+    private VersionedText(int ccRevision, TextSnapshot snapshot) {
       this.ccRevision = ccRevision;
-      this.text = text;
+      this.snapshot = snapshot;
+    }
+
+    /**
+     * @return the text as a single string, which is only joined on the first call
+     */
+    public String getText() {
+      return snapshot.toString();
     }
   }
 
@@ -128,37 +152,109 @@ public class VersionedDocument {
     }
   }
 
+  /**
+   * Thrown when doc ops are intended for a revision whose successors have already been pruned from
+   * the doc op history, so they can no longer be transformed up to the current revision. The client
+   * has to resynchronize from a full snapshot of the document.
+   */
+  public static class HistoryPrunedException extends DocumentOperationException {
+    private static final long serialVersionUID = 3316486826512040186L;
+
+    public final int oldestAvailableCcRevision;
+
+    public HistoryPrunedException(String text, int oldestAvailableCcRevision) {
+      super(text);
+      this.oldestAvailableCcRevision = oldestAvailableCcRevision;
+    }
+  }
+
+  /**
+   * Default number of doc ops kept in the history regardless of whether any client still needs
+   * them. Clients that fall behind by less than this can always catch up incrementally.
+   */
+  public static final int DEFAULT_RETAINED_DOC_OPS = 1000;
+
+  /**
+   * Default hard cap on the number of doc ops kept in the history. Doc ops still needed by a
+   * lagging client are pruned once the history grows past this size.
+   */
+  public static final int DEFAULT_MAX_RETAINED_DOC_OPS = 10000;
+
+  /**
+   * The history is only pruned in multiples of this many revisions, so that the cost of dropping
+   * the head of the list is amortized over many doc ops.
+   */
+  private static final int HISTORY_CHECKPOINT_INTERVAL = 100;
+
   /** Revision number of the document */
   private int ccRevision;
 
   /** Backing document */
   private final Document contents;
 
+  /** Size and hash of {@link #contents}, kept up to date as it is edited */
+  private final DocumentDigest digest;
+
   /**
    * Stores the doc ops used to build the document, where the doc op at index i was applied to form
-   * the document at revision i. There is a null value at index 0 since there was no doc op that
-   * gave birth to the document.
+   * the document at revision {@link #historyBaseCcRevision} + i. There is a null value at index 0
+   * since that doc op either gave birth to the document or was pruned.
    */
   private final List<AppliedDocOp> docOpHistory;
 
+  /**
+   * Revision of the document at the start of {@link #docOpHistory}. Clients at this revision or
+   * later can be brought up to date incrementally; older clients need a full snapshot.
+   */
+  private int historyBaseCcRevision;
+
+  /** Pre-composed ranges of {@link #docOpHistory} for building bridges */
+  private final BridgeCache bridgeCache = new BridgeCache(new BridgeCache.DocOpSource() {
+    @Override
+    public PackedDocOp getDocOp(int ccRevision) {
+      return getHistoryEntry(ccRevision).getPackedDocOp();
+    }
+  });
+
+  /** See {@link #setHistoryRetention(int, int)} */
+  private int retainedDocOps = DEFAULT_RETAINED_DOC_OPS;
+
+  /** See {@link #setHistoryRetention(int, int)} */
+  private int maxRetainedDocOps = DEFAULT_MAX_RETAINED_DOC_OPS;
+
   /**
    * Intended revision of the last doc op from each client. If we see the same revision twice, we
    * consider the second a duplicate and discard it. One such scenario would be when the client
    * re-sends an unacked doc op after being momentarily disconnected, but the original doc op
-   * actually did make it to the server.
+   * actually did make it to the server. Clients are forgotten once they leave, see
+   * {@link #removeClient(String)}.
    */
   private final Map<String, Integer> lastIntendedCcRevisionPerClient = Maps.newHashMap();
 
   private final Logger logger;
 
+  /**
+   * Guards all of the mutable state above, including the backing document and its anchors. The
+   * bridge cache is only touched while holding the write lock.
+   */
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
   /**
    * Constructs a new {@link VersionedDocument} with the given contents and revision number
    */
   public VersionedDocument(Document contents, int ccRevision, Logger logger) {
     this.ccRevision = ccRevision;
+    this.historyBaseCcRevision = ccRevision;
     this.contents = contents;
+    this.digest = new DocumentDigest(contents);
     this.logger = logger;
 
+    // Starts tracking text chunks now, as snapshots are taken under the shared read lock
+    contents.getTextSnapshot();
+
+    // Doc ops and selections from lagging clients resolve lines anywhere in the document
+    contents.enableLineIndex();
+
     // See javadoc for docOpHistory to understand the null element
     this.docOpHistory = Lists.newArrayList((AppliedDocOp) null);
   }
@@ -172,7 +268,62 @@ public class VersionedDocument {
   }
 
   public int getCcRevision() {
-    return ccRevision;
+    lock.readLock().lock();
+    try {
+      return ccRevision;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Configures how much doc op history is kept in memory.
+   *
+   * <p>
+   * Doc ops older than the last {@code retainedDocOps} revisions are pruned once every client that
+   * has sent us doc ops has moved past them. Regardless of clients, the history never holds more
+   * than {@code maxRetainedDocOps}. Clients whose revision has been pruned must resynchronize from
+   * a full snapshot; see {@link HistoryPrunedException} and {@link #getAppliedDocOps(int)}.
+   */
+  public void setHistoryRetention(int retainedDocOps, int maxRetainedDocOps) {
+    Preconditions.checkArgument(retainedDocOps >= 0 && maxRetainedDocOps >= retainedDocOps,
+        "Invalid doc op history retention [%s, %s]", retainedDocOps, maxRetainedDocOps);
+    lock.writeLock().lock();
+    try {
+      this.retainedDocOps = retainedDocOps;
+      this.maxRetainedDocOps = maxRetainedDocOps;
+      pruneHistory();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Forgets a client that has left, so that its last revision no longer holds back pruning of the
+   * history.
+   */
+  public void removeClient(String clientId) {
+    lock.writeLock().lock();
+    try {
+      if (lastIntendedCcRevisionPerClient.remove(clientId) != null) {
+        pruneHistory();
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * @return the oldest revision from which {@link #getAppliedDocOps(int)} can still bring a client
+   *         up to date
+   */
+  public int getOldestAvailableCcRevision() {
+    lock.readLock().lock();
+    try {
+      return historyBaseCcRevision;
+    } finally {
+      lock.readLock().unlock();
+    }
   }
 
   /**
@@ -187,7 +338,12 @@ public class VersionedDocument {
    */
   public ConsumeResult consume(List<? extends DocOp> docOps, String authorClientId,
       int intendedCcRevision, DocumentSelection selection) throws DocumentOperationException {
-    return consumeWithoutLocking(docOps, authorClientId, intendedCcRevision, selection);
+    lock.writeLock().lock();
+    try {
+      return consumeWithoutLocking(docOps, authorClientId, intendedCcRevision, selection);
+    } finally {
+      lock.writeLock().unlock();
+    }
   }
 
   /**
@@ -220,27 +376,32 @@ public class VersionedDocument {
       }
     }
 
+    if (intendedCcRevision < historyBaseCcRevision) {
+      throw new HistoryPrunedException(String.format(
+          "clientId [%s] sent doc ops intended for revision [%d], but history only covers [%d, %d]",
+          authorClientId, intendedCcRevision, historyBaseCcRevision, ccRevision),
+          historyBaseCcRevision);
+    }
+
     /*
      * First step, build the bridge from the intended revision to the latest revision by composing
      * all of the doc ops between these ranges. This bridge will be used to update a client doc op
-     * that's intended to be applied to a document in the past.
+     * that's intended to be applied to a document in the past. The bridge cache composes it from
+     * pre-composed ranges so this stays cheap for lagging clients. The bridge stays packed while
+     * the client doc ops are transformed against it.
      */
-    DocOp bridgeDocOp = null;
+    PackedDocOp bridgeDocOp;
     int bridgeBeginIndex = intendedCcRevision + 1;
     int bridgeEndIndexInclusive = ccRevision;
-    for (int i = bridgeBeginIndex; i <= bridgeEndIndexInclusive; i++) {
-      DocOp curDocOp = docOpHistory.get(i).docOp;
-      try {
-        bridgeDocOp = bridgeDocOp == null ? curDocOp : Composer.compose(
-            ServerDocOpFactory.INSTANCE, bridgeDocOp, curDocOp);
-      } catch (ComposeException e) {
-        throw newExceptionForConsumeWithoutLocking("Could not build bridge",
-            e,
-            intendedCcRevision,
-            bridgeBeginIndex,
-            bridgeEndIndexInclusive,
-            docOps);
-      }
+    try {
+      bridgeDocOp = bridgeCache.compose(bridgeBeginIndex, bridgeEndIndexInclusive);
+    } catch (ComposeException e) {
+      throw newExceptionForConsumeWithoutLocking("Could not build bridge",
+          e,
+          intendedCcRevision,
+          bridgeBeginIndex,
+          bridgeEndIndexInclusive,
+          docOps);
     }
 
     /*
@@ -249,14 +410,18 @@ public class VersionedDocument {
      * into our map that will be returned to the caller of this method.
      */
     SortedMap<Integer, AppliedDocOp> appliedDocOps = new TreeMap<Integer, AppliedDocOp>();
+    // One applier for the batch, so each doc op picks up at the line the previous one left off
+    DocOpApplier docOpApplier = DocOpApplier.create(contents, contents);
     for (int i = 0, n = docOps.size(); i < n; i++) {
       DocOp clientDocOp = docOps.get(i);
+      PackedDocOp packedClientDocOp = null;
 
       if (bridgeDocOp != null) {
         try {
-          OperationPair transformedPair =
-              Transformer.transform(ServerDocOpFactory.INSTANCE, clientDocOp, bridgeDocOp);
-          clientDocOp = transformedPair.clientOp();
+          PackedOperationPair transformedPair =
+              PackedTransformer.transform(PackedDocOp.fromDocOp(clientDocOp), bridgeDocOp);
+          packedClientDocOp = transformedPair.clientOp();
+          clientDocOp = packedClientDocOp.toDocOp(ServerDocOpFactory.INSTANCE);
           bridgeDocOp = transformedPair.serverOp();
         } catch (TransformException e) {
           throw newExceptionForConsumeWithoutLocking("Could not transform doc op\ni: " + i + "\n",
@@ -269,7 +434,7 @@ public class VersionedDocument {
       }
 
       try {
-        DocOpApplier.apply(clientDocOp, contents);
+        docOpApplier.applyNext(clientDocOp);
       } catch (Throwable t) {
         throw newExceptionForConsumeWithoutLocking("Could not apply doc op\nDoc op being applied: "
             + DocOpUtils.toString(clientDocOp, true) + "\n",
@@ -280,7 +445,7 @@ public class VersionedDocument {
             docOps);
       }
 
-      AppliedDocOp appliedDocOp = new AppliedDocOp(clientDocOp, authorClientId);
+      AppliedDocOp appliedDocOp = new AppliedDocOp(clientDocOp, packedClientDocOp, authorClientId);
       docOpHistory.add(appliedDocOp);
       ccRevision++;
 
@@ -288,19 +453,21 @@ public class VersionedDocument {
       lastIntendedCcRevisionPerClient.put(authorClientId, intendedCcRevision);
     }
 
+    pruneHistory();
+
     if (bridgeDocOp != null && selection != null) {
-      PositionTransformer cursorTransformer = new PositionTransformer(
+      // Both ends of the selection are transformed in one pass over the bridge
+      BulkPositionTransformer transformer = new BulkPositionTransformer(2);
+      int cursor = transformer.add(
           selection.getCursorPosition().getLineNumber(), selection.getCursorPosition().getColumn());
-      cursorTransformer.transform(bridgeDocOp);
-
-      PositionTransformer baseTransformer = new PositionTransformer(
+      int base = transformer.add(
           selection.getBasePosition().getLineNumber(), selection.getBasePosition().getColumn());
-      baseTransformer.transform(bridgeDocOp);
+      transformer.transform(bridgeDocOp.toDocOp(ServerDocOpFactory.INSTANCE));
 
       FilePositionImpl basePosition = FilePositionImpl.make().setLineNumber(
-          baseTransformer.getLineNumber()).setColumn(baseTransformer.getColumn());
+          transformer.getLineNumber(base)).setColumn(transformer.getColumn(base));
       FilePositionImpl cursorPosition = FilePositionImpl.make().setLineNumber(
-          cursorTransformer.getLineNumber()).setColumn(cursorTransformer.getColumn());
+          transformer.getLineNumber(cursor)).setColumn(transformer.getColumn(cursor));
 
       DocumentSelectionImpl transformedSelection = DocumentSelectionImpl.make()
           .setBasePosition(basePosition).setCursorPosition(cursorPosition)
@@ -328,7 +495,8 @@ public class VersionedDocument {
         .append(" to ")
         .append(bridgeEndIndexInclusive)
         .append(" doc ops:\n")
-        .append(docOpHistory.subList(bridgeBeginIndex, bridgeEndIndexInclusive + 1))
+        .append(docOpHistory.subList(bridgeBeginIndex - historyBaseCcRevision,
+            bridgeEndIndexInclusive - historyBaseCcRevision + 1))
         .append("\n");
     msg.append("Document (hyphens are line separators):\n").append(contents.asDebugString());
     msg.append("Client doc ops:\n")
@@ -338,23 +506,73 @@ public class VersionedDocument {
     return new DocumentOperationException(msg.toString(), e);
   }
 
+  /**
+   * @return the doc ops applied from {@code startingCcRevision} onwards, or null if some of them
+   *         have been pruned from the history, in which case the caller needs to fall back to a
+   *         full snapshot from {@link #asText()}
+   */
   public SortedMap<Integer, AppliedDocOp> getAppliedDocOps(int startingCcRevision) {
+    lock.readLock().lock();
+    try {
+      return getAppliedDocOpsWithoutLocking(startingCcRevision);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private SortedMap<Integer, AppliedDocOp> getAppliedDocOpsWithoutLocking(int startingCcRevision) {
     SortedMap<Integer, AppliedDocOp> appliedDocOps = new TreeMap<Integer, AppliedDocOp>();
-    if (startingCcRevision > (docOpHistory.size() - 1)) {
+    if (startingCcRevision > ccRevision) {
       logger.error(String.format(
           "startingCcRevision [%d] is larger than last revision in docOpHistory [%d]",
-          startingCcRevision, docOpHistory.size()));
+          startingCcRevision, ccRevision));
       return appliedDocOps;
     }
 
-    for (int i = startingCcRevision; i < docOpHistory.size(); i++) {
-      appliedDocOps.put(i, docOpHistory.get(i));
+    if (startingCcRevision <= historyBaseCcRevision) {
+      logger.debug(String.format(
+          "startingCcRevision [%d] has been pruned from docOpHistory, which starts after [%d]",
+          startingCcRevision, historyBaseCcRevision));
+      return null;
+    }
+
+    for (int i = startingCcRevision; i <= ccRevision; i++) {
+      appliedDocOps.put(i, getHistoryEntry(i));
     }
     return appliedDocOps;
   }
 
   public VersionedText asText() {
-    return new VersionedText(ccRevision, contents.asText());
+    lock.readLock().lock();
+    try {
+      return new VersionedText(ccRevision, contents.getTextSnapshot());
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @return the size of the text in bytes, when encoded as UTF-8
+   */
+  public long getUtf8Length() {
+    lock.readLock().lock();
+    try {
+      return digest.getUtf8Length();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @return a SHA-1 based hash of the text, see {@link DocumentDigest}
+   */
+  public ByteString getSha1() {
+    lock.readLock().lock();
+    try {
+      return digest.getSha1();
+    } finally {
+      lock.readLock().unlock();
+    }
   }
 
   /**
@@ -362,9 +580,14 @@ public class VersionedDocument {
    *        anchor
    */
   public Anchor addAnchor(AnchorType type, int lineNumber, int column) {
-    LineInfo lineInfo = contents.getLineFinder().findLine(lineNumber);
-    return contents.getAnchorManager()
-        .createAnchor(type, lineInfo.line(), lineInfo.number(), column);
+    lock.writeLock().lock();
+    try {
+      LineInfo lineInfo = contents.getLineFinder().findLine(lineNumber);
+      return contents.getAnchorManager()
+          .createAnchor(type, lineInfo.line(), lineInfo.number(), column);
+    } finally {
+      lock.writeLock().unlock();
+    }
   }
 
   /**
@@ -372,12 +595,56 @@ public class VersionedDocument {
    *        anchor
    */
   public void moveAnchor(Anchor anchor, int lineNumber, int column) {
-    LineInfo lineInfo = contents.getLineFinder().findLine(lineNumber);
-    contents.getAnchorManager().moveAnchor(anchor, lineInfo.line(), lineInfo.number(), column);
+    lock.writeLock().lock();
+    try {
+      LineInfo lineInfo = contents.getLineFinder().findLine(lineNumber);
+      contents.getAnchorManager().moveAnchor(anchor, lineInfo.line(), lineInfo.number(), column);
+    } finally {
+      lock.writeLock().unlock();
+    }
   }
 
   public void removeAnchor(Anchor anchor) {
-    contents.getAnchorManager().removeAnchor(anchor);
+    lock.writeLock().lock();
+    try {
+      contents.getAnchorManager().removeAnchor(anchor);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private AppliedDocOp getHistoryEntry(int ccRevision) {
+    return docOpHistory.get(ccRevision - historyBaseCcRevision);
+  }
+
+  /**
+   * Drops doc ops from the head of the history according to the retention set by
+   * {@link #setHistoryRetention(int, int)}. Pruning happens in whole checkpoint intervals, so the
+   * history base always moves forward by a multiple of {@link #HISTORY_CHECKPOINT_INTERVAL}.
+   */
+  private void pruneHistory() {
+    int historySize = ccRevision - historyBaseCcRevision;
+    if (historySize <= retainedDocOps) {
+      return;
+    }
+
+    // Keep what the most lagging client would need to catch up, within the hard cap
+    int newBaseCcRevision = ccRevision - retainedDocOps;
+    for (Integer clientCcRevision : lastIntendedCcRevisionPerClient.values()) {
+      newBaseCcRevision = Math.min(newBaseCcRevision, clientCcRevision);
+    }
+    newBaseCcRevision = Math.max(newBaseCcRevision, ccRevision - maxRetainedDocOps);
+
+    int prunedCount = newBaseCcRevision - historyBaseCcRevision;
+    prunedCount -= prunedCount % HISTORY_CHECKPOINT_INTERVAL;
+    if (prunedCount <= 0) {
+      return;
+    }
+
+    // Index 0 stays null, see the docOpHistory javadoc
+    docOpHistory.subList(1, prunedCount + 1).clear();
+    historyBaseCcRevision += prunedCount;
+    bridgeCache.evictThrough(historyBaseCcRevision);
   }
 
   private String docOpHistoryToString() {
@@ -17,6 +17,8 @@ package com.google.collide.server.fe;
 import collide.server.CollideServer;
 import com.google.collide.dto.shared.JsonFieldConstants;
 import com.google.collide.server.maven.MavenResources;
+import com.google.collide.server.participants.BroadcastFrame;
+import com.google.collide.server.participants.Participants;
 import com.google.collide.server.shared.BusModBase;
 import io.netty.handler.codec.http.QueryStringDecoder;
 import io.vertx.core.Handler;
@@ -34,9 +36,11 @@ import io.vertx.core.shareddata.LocalMap;
 import io.vertx.core.shareddata.Shareable;
 import io.vertx.ext.bridge.PermittedOptions;
 import io.vertx.ext.web.Router;
+import io.vertx.ext.web.handler.sockjs.BridgeEvent;
 import io.vertx.ext.web.handler.sockjs.BridgeOptions;
 import io.vertx.ext.web.handler.sockjs.SockJSHandler;
 import io.vertx.ext.web.handler.sockjs.SockJSHandlerOptions;
+import io.vertx.ext.web.handler.sockjs.SockJSSocket;
 import org.apache.http.HttpStatus;
 import xapi.gwtc.api.CompiledDirectory;
 import xapi.log.X_Log;
@@ -49,9 +53,11 @@ import xapi.util.api.Pointer;
 
 import java.io.File;
 import java.nio.charset.Charset;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 /**
@@ -114,6 +120,13 @@ public class WebFE extends BusModBase implements Handler<HttpServerRequest> {
   private String collideHome;
   private CollideServer server;
 
+  /**
+   * The bridge sockets of the tabs connected to this instance, by the client address they
+   * registered. Only touched from this verticle's context.
+   */
+  private final Map<String, SockJSSocket> clientSockets = new HashMap<String, SockJSSocket>();
+  private List<Pattern> outboundPermittedPatterns;
+
   @Override
   public void start() {
     super.start();
@@ -148,8 +161,16 @@ public class WebFE extends BusModBase implements Handler<HttpServerRequest> {
       bridgeOpts.setInboundPermitted(toOpts(inboundPermitted));
       bridgeOpts.setOutboundPermitted(toOpts(outboundPermitted));
 
+      outboundPermittedPatterns = ((List<?>) outboundPermitted.getList())
+          .stream()
+          .map(name -> Pattern.compile(String.valueOf(name)))
+          .collect(Collectors.toList());
+
       sjsServer = SockJSHandler.create(vertx, sockOpts);
-      sjsServer.bridge(bridgeOpts);
+      sjsServer.bridge(bridgeOpts, this::trackClientSockets);
+
+      BroadcastFrame.registerCodec(vertx.eventBus());
+      vertx.eventBus().<BroadcastFrame>consumer(BroadcastFrame.ADDRESS, this::writeBroadcastFrame);
 
       router = Router.router(vertx);
 //
@@ -200,6 +221,63 @@ public class WebFE extends BusModBase implements Handler<HttpServerRequest> {
   }
   public static class ShareableCompileDirectory extends CompiledDirectory implements Shareable{}
 
+  /**
+   * Remembers which socket registered each client address, so that {@link BroadcastFrame}s can be
+   * written to it directly. Addresses the bridge would not deliver to are not tracked.
+   */
+  private void trackClientSockets(BridgeEvent event) {
+    switch (event.type()) {
+      case REGISTER: {
+        String address = event.getRawMessage().getString("address");
+        if (isClientAddress(address) && isOutboundPermitted(address)) {
+          clientSockets.put(address, event.socket());
+        }
+        break;
+      }
+      case UNREGISTER: {
+        String address = event.getRawMessage().getString("address");
+        if (address != null) {
+          clientSockets.remove(address, event.socket());
+        }
+        break;
+      }
+      case SOCKET_CLOSED:
+        clientSockets.values().removeIf(socket -> socket == event.socket());
+        break;
+      default:
+        break;
+    }
+    event.complete(true);
+  }
+
+  private static boolean isClientAddress(String address) {
+    return address != null && address.startsWith(Participants.CLIENT_ADDRESS_PREFX + ".");
+  }
+
+  private boolean isOutboundPermitted(String address) {
+    for (Pattern pattern : outboundPermittedPatterns) {
+      if (pattern.matcher(address).matches()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Writes the frame to the sockets of its recipients that are connected to this instance. Every
+   * instance receives every frame and skips the clients it does not serve.
+   */
+  private void writeBroadcastFrame(Message<BroadcastFrame> message) {
+    BroadcastFrame frame = message.body();
+    for (String clientId : frame.getClientIds()) {
+      SockJSSocket socket =
+          clientSockets.get(Participants.CLIENT_ADDRESS_PREFX + "." + clientId);
+      if (socket != null) {
+        socket.write(frame.toBridgeFrame(clientId));
+      }
+    }
+  }
+
   private List<PermittedOptions> toOpts(JsonArray inboundPermitted) {
     return ((List<?>)inboundPermitted.getList())
         .stream()
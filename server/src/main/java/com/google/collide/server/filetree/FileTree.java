@@ -22,11 +22,9 @@ import com.google.collide.dto.TreeNodeInfo;
 import com.google.collide.dto.WorkspaceTreeUpdate;
 import com.google.collide.dto.server.DtoServerImpls.*;
 import com.google.collide.json.server.JsonArrayListAdapter;
-import com.google.collide.server.participants.Participants;
 import com.google.collide.server.shared.BusModBase;
 import com.google.collide.server.shared.util.Dto;
-import com.google.collide.shared.util.PathUtils;
-import com.google.collide.shared.util.PathUtils.PathVisitor;
+import com.google.common.hash.Hashing;
 import io.vertx.core.Handler;
 import io.vertx.core.eventbus.Message;
 import io.vertx.core.json.JsonArray;
@@ -37,14 +35,23 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Stack;
+import java.util.TreeMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Backend service that manages the representation of "files and folders" in the workspace
@@ -60,18 +67,30 @@ public class FileTree extends BusModBase {
    * Local data model extension. Note that toJsonElement is NOT overridden since extra fields are
    * private to us, we don't want them serialized.
    */
-  private static interface NodeInfoExt extends TreeNodeInfo {
+  static interface NodeInfoExt extends TreeNodeInfo {
     Path getPath();
   }
 
-  private static class DirInfoExt extends DirInfoImpl implements NodeInfoExt {
+  static class DirInfoExt extends DirInfoImpl implements NodeInfoExt {
     private final Path path;
     private final Map<String, NodeInfoExt> children = new HashMap<String, NodeInfoExt>();
+    private DirInfoExt parent;
+
+    /** The key watching this directory, if it was registered by a {@link ScanTask} */
+    private WatchKey watchKey;
+
+    /** Serialized copies of this directory, by the listing they were made for */
+    final Map<String, SerializedListing> serializedListings =
+        new ConcurrentHashMap<String, SerializedListing>();
+
+    /** Changes, under the lock, whenever this directory or one of its descendants changes */
+    volatile long listingGeneration;
 
     public DirInfoExt(Path path, long resourceId) {
       this.path = path;
       super.setNodeType(TreeNodeInfo.DIR_TYPE);
       super.setFileEditSessionKey(Long.toString(resourceId));
+      super.setChildCount(0);
       if (path.toString().length() == 0) {
         // root
         super.setName("/");
@@ -89,15 +108,20 @@ public class FileTree extends BusModBase {
       NodeInfoExt prior = children.put(dir.getPath().getFileName().toString(), dir);
       assert prior == null;
       super.addSubDirectories(dir);
+      super.setChildCount(children.size());
+      dir.parent = this;
       if (isPackage()) {
         dir.setIsPackage(true);
       }
+      invalidateSerializedListings();
     }
 
     public void addChild(FileInfoExt file) {
       NodeInfoExt prior = children.put(file.getPath().getFileName().toString(), file);
       assert prior == null;
       super.addFiles(file);
+      super.setChildCount(children.size());
+      invalidateSerializedListings();
     }
 
     public NodeInfoExt getChild(String name) {
@@ -111,39 +135,192 @@ public class FileTree extends BusModBase {
     public NodeInfoExt removeChild(String name) {
       NodeInfoExt removed = children.remove(name);
       assert removed != null : "Cannot remove non-existent child " + name;
+      super.setChildCount(children.size());
+      invalidateSerializedListings();
+      // The lists keep their order, so that the pages of a listing stay where they were.
       if (removed.getNodeType() == TreeNodeInfo.FILE_TYPE) {
-        JsonArrayListAdapter<FileInfo> list = (JsonArrayListAdapter<FileInfo>) super.getFiles();
-        super.clearFiles();
-        boolean didRemove = false;
-        for (FileInfo item : list.asList()) {
-          if (item == removed) {
-            didRemove = true;
-            break;
-          }
-          super.addFiles((FileInfoImpl) item);
-        }
+        removeByIdentity(((JsonArrayListAdapter<FileInfo>) super.getFiles()).asList(), removed);
       } else {
-        JsonArrayListAdapter<DirInfo> list =
-            (JsonArrayListAdapter<DirInfo>) super.getSubDirectories();
-        super.clearSubDirectories();
-        boolean didRemove = false;
-        for (DirInfo item : list.asList()) {
-          if (item == removed) {
-            didRemove = true;
-            break;
-          }
-          super.addSubDirectories((DirInfoImpl) item);
-        }
+        removeByIdentity(
+            ((JsonArrayListAdapter<DirInfo>) super.getSubDirectories()).asList(), removed);
+        ((DirInfoExt) removed).parent = null;
       }
       return removed;
     }
+
+    private static void removeByIdentity(List<?> list, Object item) {
+      for (Iterator<?> it = list.iterator(); it.hasNext();) {
+        if (it.next() == item) {
+          it.remove();
+          return;
+        }
+      }
+      assert false : "Child is missing from its list";
+    }
+
+    /**
+     * Drops the serialized listings of this directory and of its ancestors, which may include the
+     * changed part of the tree. Listings that are being serialized meanwhile are from an older
+     * generation, so they are not used either.
+     */
+    public void invalidateSerializedListings() {
+      for (DirInfoExt dir = this; dir != null; dir = dir.parent) {
+        dir.listingGeneration++;
+        dir.serializedListings.clear();
+      }
+    }
+
+    /**
+     * Copies this directory down to the given depth, so that the copy can be
+     * serialized while the tree changes. Directories at the depth are copied
+     * without their children and marked incomplete.
+     *
+     * @param depth the number of levels of children to copy, or < 0 for all
+     * @param offset the index of the first child to copy, counting
+     *        subdirectories before files
+     * @param limit the maximum number of children to copy, or <= 0 for all
+     */
+    public DirInfoImpl copy(int depth, int offset, int limit) {
+      DirInfoImpl copy = DirInfoImpl.make();
+      copy.setNodeType(getNodeType());
+      copy.setFileEditSessionKey(getFileEditSessionKey());
+      copy.setName(getName());
+      copy.setIsPackage(isPackage());
+      copy.setChildCount(getChildCount());
+      copy.clearSubDirectories();
+      copy.clearFiles();
+      if (depth == 0) {
+        copy.setIsComplete(false);
+        return copy;
+      }
+
+      int end = limit > 0 ? Math.min(offset + limit, getChildCount()) : getChildCount();
+      int index = 0;
+      for (DirInfo dir : getSubDirectories().asIterable()) {
+        if (index >= offset && index < end) {
+          copy.addSubDirectories(((DirInfoExt) dir).copy(depth - 1, 0, 0));
+        }
+        index++;
+      }
+      for (FileInfo file : getFiles().asIterable()) {
+        if (index >= offset && index < end) {
+          // Files are updated in place, so the copy gets its own
+          FileInfoImpl fileCopy = FileInfoImpl.make().setSize(file.getSize());
+          fileCopy.setNodeType(file.getNodeType());
+          fileCopy.setFileEditSessionKey(file.getFileEditSessionKey());
+          fileCopy.setName(file.getName());
+          copy.addFiles(fileCopy);
+        }
+        index++;
+      }
+      copy.setIsComplete(isComplete() && offset == 0 && end == getChildCount());
+      return copy;
+    }
+  }
+
+  /**
+   * A directory listing as serialized for tree.get.
+   */
+  static class SerializedListing {
+    final String json;
+
+    /** The listing generation of the directory when it was copied */
+    final long generation;
+
+    /** The tree version when the directory was copied */
+    final long treeVersion;
+
+    /** The child count of the directory when it was copied */
+    final int childCount;
+
+    SerializedListing(String json, long generation, long treeVersion, int childCount) {
+      this.json = json;
+      this.generation = generation;
+      this.treeVersion = treeVersion;
+      this.childCount = childCount;
+    }
   }
 
-  private static class FileInfoExt extends FileInfoImpl implements NodeInfoExt {
+  /**
+   * The latest serialized tree updates, for consecutive tree versions. Recording an update
+   * replaces the log instead of changing it, so tree.get can read it without the lock.
+   */
+  static class TreeUpdateLog {
+    /** The tree version after the newest update */
+    final long treeVersion;
+
+    /** The updates, oldest first */
+    final List<String> updates;
+
+    TreeUpdateLog(long treeVersion, List<String> updates) {
+      this.treeVersion = treeVersion;
+      this.updates = updates;
+    }
+
+    /**
+     * Returns a log with the update that led to the given tree version added, keeping at most
+     * {@link #MAX_TREE_UPDATE_HISTORY} updates.
+     */
+    TreeUpdateLog append(long version, String serializedTreeUpdate) {
+      List<String> appended = new ArrayList<String>();
+      if (version == treeVersion + 1) {
+        appended.addAll(updates.subList(
+            Math.max(0, updates.size() - MAX_TREE_UPDATE_HISTORY + 1), updates.size()));
+      }
+      // Otherwise the log only holds consecutive versions
+      appended.add(serializedTreeUpdate);
+      return new TreeUpdateLog(version, Collections.unmodifiableList(appended));
+    }
+
+    /**
+     * Returns the updates since the given tree version, or null if they are not all in the log.
+     */
+    List<String> getUpdatesSince(String knownTreeVersion) {
+      if (knownTreeVersion == null) {
+        return null;
+      }
+
+      long knownVersion;
+      try {
+        knownVersion = Long.parseLong(knownTreeVersion);
+      } catch (NumberFormatException e) {
+        return null;
+      }
+
+      if (knownVersion > treeVersion || treeVersion - knownVersion > updates.size()) {
+        return null;
+      }
+      return updates.subList(updates.size() - (int) (treeVersion - knownVersion), updates.size());
+    }
+  }
+
+  /**
+   * A path with watch events in the current window of the watcher.
+   */
+  private static class PathChange {
+    final Path path;
+
+    /** Whether the path was created or deleted, or its events overflowed */
+    boolean isStructural;
+
+    /** Whether there is a file or directory at the path now */
+    boolean exists;
+
+    /** The file at the path now, or the directory if it was scanned */
+    NodeInfoExt scanned;
+
+    PathChange(Path path) {
+      this.path = path;
+    }
+  }
+
+  static class FileInfoExt extends FileInfoImpl implements NodeInfoExt {
     private final Path path;
+    private long lastModified;
 
-    public FileInfoExt(Path path, long resourceId, long fileSize) {
+    public FileInfoExt(Path path, long resourceId, long fileSize, long lastModified) {
       this.path = path;
+      this.lastModified = lastModified;
       super.setName(path.getFileName().toString());
       super.setNodeType(TreeNodeInfo.FILE_TYPE);
       super.setFileEditSessionKey(Long.toString(resourceId));
@@ -154,6 +331,15 @@ public class FileTree extends BusModBase {
     public Path getPath() {
       return path;
     }
+
+    public long getLastModified() {
+      return lastModified;
+    }
+
+    public void update(String size, long lastModified) {
+      super.setSize(size);
+      this.lastModified = lastModified;
+    }
   }
 
   /**
@@ -164,116 +350,116 @@ public class FileTree extends BusModBase {
     @Override
     public void handle(Message<JsonObject> message) {
       WorkspaceTreeUpdate update = WorkspaceTreeUpdateImpl.fromJsonString(Dto.get(message));
-      synchronized (FileTree.this.lock) {
-        try {
-          for (Mutation mutation : update.getMutations().asIterable()) {
-            final Path oldPath = resolvePathString(mutation.getOldPath());
-            final Path newPath = resolvePathString(mutation.getNewPath());
-            switch (mutation.getMutationType()) {
-              case ADD:
-                if (mutation.getNewNodeInfo().getNodeType() == TreeNodeInfo.DIR_TYPE) {
-                  Files.createDirectory(newPath);
-                } else {
-                  assert mutation.getNewNodeInfo().getNodeType() == TreeNodeInfo.FILE_TYPE;
-                  Files.createFile(newPath);
+      try {
+        for (Mutation mutation : update.getMutations().asIterable()) {
+          final Path oldPath = resolvePathString(mutation.getOldPath());
+          final Path newPath = resolvePathString(mutation.getNewPath());
+          switch (mutation.getMutationType()) {
+            case ADD:
+              if (mutation.getNewNodeInfo().getNodeType() == TreeNodeInfo.DIR_TYPE) {
+                Files.createDirectory(newPath);
+              } else {
+                assert mutation.getNewNodeInfo().getNodeType() == TreeNodeInfo.FILE_TYPE;
+                Files.createFile(newPath);
+              }
+              break;
+            case COPY:
+              System.out.println("copy: " + oldPath + " to: " + newPath);
+              if (!Files.isDirectory(oldPath)) {
+                Files.copy(oldPath, newPath);
+                continue;
+              }
+              Files.walkFileTree(oldPath, new FileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+                    throws IOException {
+                  Path target = newPath.resolve(oldPath.relativize(dir));
+                  Files.copy(dir, target);
+                  return FileVisitResult.CONTINUE;
                 }
-                break;
-              case COPY:
-                System.out.println("copy: " + oldPath + " to: " + newPath);
-                if (!Files.isDirectory(oldPath)) {
-                  Files.copy(oldPath, newPath);
-                  continue;
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                    throws IOException {
+                  Path target = newPath.resolve(oldPath.relativize(file));
+                  Files.copy(file, target);
+                  return FileVisitResult.CONTINUE;
                 }
-                Files.walkFileTree(oldPath, new FileVisitor<Path>() {
-                  @Override
-                  public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
-                      throws IOException {
-                    Path target = newPath.resolve(oldPath.relativize(dir));
-                    Files.copy(dir, target);
-                    return FileVisitResult.CONTINUE;
-                  }
 
-                  @Override
-                  public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
-                      throws IOException {
-                    Path target = newPath.resolve(oldPath.relativize(file));
-                    Files.copy(file, target);
-                    return FileVisitResult.CONTINUE;
-                  }
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc)
+                    throws IOException {
+                  throw exc;
+                }
 
-                  @Override
-                  public FileVisitResult visitFileFailed(Path file, IOException exc)
-                      throws IOException {
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException exc)
+                    throws IOException {
+                  if (exc != null) {
                     throw exc;
                   }
+                  return FileVisitResult.CONTINUE;
+                }
+              });
+              break;
+            case DELETE:
+              if (!Files.isDirectory(oldPath)) {
+                Files.delete(oldPath);
+                continue;
+              }
+              Files.walkFileTree(oldPath, new FileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                  return FileVisitResult.CONTINUE;
+                }
 
-                  @Override
-                  public FileVisitResult postVisitDirectory(Path dir, IOException exc)
-                      throws IOException {
-                    if (exc != null) {
-                      throw exc;
-                    }
-                    return FileVisitResult.CONTINUE;
-                  }
-                });
-                break;
-              case DELETE:
-                if (!Files.isDirectory(oldPath)) {
-                  Files.delete(oldPath);
-                  continue;
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                    throws IOException {
+                  Files.delete(file);
+                  return FileVisitResult.CONTINUE;
                 }
-                Files.walkFileTree(oldPath, new FileVisitor<Path>() {
-                  @Override
-                  public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
-                    return FileVisitResult.CONTINUE;
-                  }
 
-                  @Override
-                  public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
-                      throws IOException {
-                    Files.delete(file);
-                    return FileVisitResult.CONTINUE;
-                  }
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc)
+                    throws IOException {
+                  throw exc;
+                }
 
-                  @Override
-                  public FileVisitResult visitFileFailed(Path file, IOException exc)
-                      throws IOException {
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException exc)
+                    throws IOException {
+                  if (exc != null) {
                     throw exc;
                   }
+                  Files.delete(dir);
+                  return FileVisitResult.CONTINUE;
+                }
+              });
 
-                  @Override
-                  public FileVisitResult postVisitDirectory(Path dir, IOException exc)
-                      throws IOException {
-                    if (exc != null) {
-                      throw exc;
-                    }
-                    Files.delete(dir);
-                    return FileVisitResult.CONTINUE;
-                  }
-                });
-
-                break;
-              case MOVE:
+              break;
+            case MOVE:
+              synchronized (FileTree.this.lock) {
                 expectMoves.add(new ExpectedMove(oldPath, newPath));
-                Files.move(oldPath, newPath);
-                break;
-              default:
-                throw new IllegalArgumentException(mutation.getMutationType().toString());
-            }
+              }
+              Files.move(oldPath, newPath);
+              break;
+            default:
+              throw new IllegalArgumentException(mutation.getMutationType().toString());
           }
-
-          EmptyMessageImpl response = EmptyMessageImpl.make();
-          message.reply(Dto.wrap(response));
-          // The file listener will broadcast the applied mutations to all clients.
-        } catch (Exception exc) {
-          exc.printStackTrace(System.out);
-          ServerErrorImpl response = ServerErrorImpl.make();
-          response.setFailureReason(FailureReason.SERVER_ERROR);
-          StringWriter sw = new StringWriter();
-          exc.printStackTrace(new PrintWriter(sw));
-          response.setDetails(sw.toString());
-          message.reply(Dto.wrap(response));
         }
+
+        EmptyMessageImpl response = EmptyMessageImpl.make();
+        message.reply(Dto.wrap(response));
+        // The file listener will broadcast the applied mutations to all clients.
+      } catch (Exception exc) {
+        exc.printStackTrace(System.out);
+        ServerErrorImpl response = ServerErrorImpl.make();
+        response.setFailureReason(FailureReason.SERVER_ERROR);
+        StringWriter sw = new StringWriter();
+        exc.printStackTrace(new PrintWriter(sw));
+        response.setDetails(sw.toString());
+        message.reply(Dto.wrap(response));
       }
     }
 
@@ -287,43 +473,102 @@ public class FileTree extends BusModBase {
 
   /**
    * Replies to the requester with the File Tree rooted at the path requested by the requester.
+   * <p>
+   * The reply is serialized from a copy of the requested part of the tree, which is the only step
+   * that takes the lock. The serialized listing is kept until the directory or one of its
+   * descendants changes. If the requester knows an earlier tree version, the reply is the tree
+   * updates since that version instead, as long as they are still in the history.
    */
   class FileTreeGetter implements Handler<Message<JsonObject>> {
     @Override
     public void handle(Message<JsonObject> message) {
       GetDirectoryImpl request = GetDirectoryImpl.fromJsonString(Dto.get(message));
-      final GetDirectoryResponseImpl response = GetDirectoryResponseImpl.make();
-      synchronized (FileTree.this.lock) {
-        response.setRootId(Long.toString(currentTreeVersion));
-        PathUtils.walk(request.getPath(), "/", new PathVisitor() {
-          @Override
-          public void visit(String path, String name) {
-            // Special case root.
-            if ("/".equals(path)) {
-              response.setBaseDirectory(root);
-              response.setPath(path);
-              return;
-            }
-            // Search for the next directory.
-            DirInfo lastDir = response.getBaseDirectory();
-            if (lastDir != null) {
-              for (DirInfo dir : lastDir.getSubDirectories().asIterable()) {
-                if (dir.getName().equals(name)) {
-                  response.setBaseDirectory((DirInfoImpl) dir);
-                  response.setPath(path);
-                  return;
-                }
-              }
-            }
-            // Didn't find it.
-            response.setBaseDirectory(null);
+      GetDirectoryResponseImpl response = GetDirectoryResponseImpl.make();
+
+      TreeUpdateLog treeUpdateLog = FileTree.this.treeUpdateLog;
+      List<String> treeUpdates = treeUpdateLog.getUpdatesSince(request.getKnownTreeVersion());
+      if (treeUpdates != null) {
+        response.setRootId(Long.toString(treeUpdateLog.treeVersion));
+        response.setPath(request.getPath());
+        response.setIsIncremental(true);
+        StringBuilder treeUpdatesJson = new StringBuilder("[");
+        for (String treeUpdate : treeUpdates) {
+          if (treeUpdatesJson.length() > 1) {
+            treeUpdatesJson.append(',');
           }
-        });
+          treeUpdatesJson.append(treeUpdate);
+        }
+        message.reply(Dto.wrap(
+            serializeWith(response, "treeUpdates", treeUpdatesJson.append(']').toString())));
+        return;
+      }
+
+      String path = stripSlashes(request.getPath());
+      response.setPath('/' + path);
+      NodeInfoExt baseDir = pathToNode.get(path);
+      SerializedListing listing = null;
+      int offset = Math.max(request.getOffset(), 0);
+      if (baseDir instanceof DirInfoExt) {
+        listing = getListing((DirInfoExt) baseDir, request.getDepth(), offset, request.getLimit());
+      }
+      if (listing == null) {
+        // Didn't find it.
+        response.setRootId(Long.toString(treeUpdateLog.treeVersion));
+        message.reply(Dto.wrap(response));
+        return;
+      }
+
+      response.setRootId(Long.toString(listing.treeVersion));
+      response.setHasMoreChildren(hasMoreChildren(offset, request.getLimit(), listing.childCount));
+      message.reply(Dto.wrap(serializeWith(response, "baseDirectory", listing.json)));
+    }
+
+    /**
+     * Returns the serialized listing of the directory, or null if it is no longer in the tree.
+     */
+    private SerializedListing getListing(DirInfoExt dir, int depth, int offset, int limit) {
+      String key = depth + ":" + offset + ":" + limit;
+      SerializedListing listing = dir.serializedListings.get(key);
+      if (listing != null && listing.generation == dir.listingGeneration) {
+        return listing;
+      }
+
+      DirInfoImpl copy;
+      long generation;
+      long treeVersion;
+      int childCount;
+      synchronized (FileTree.this.lock) {
+        if (pathToNode.get(dir.getPath().toString()) != dir) {
+          return null;
+        }
+        generation = dir.listingGeneration;
+        treeVersion = currentTreeVersion;
+        childCount = dir.getChildCount();
+        copy = dir.copy(depth, offset, limit);
       }
-      message.reply(Dto.wrap(response));
+      listing = new SerializedListing(copy.toJson(), generation, treeVersion, childCount);
+      dir.serializedListings.put(key, listing);
+      return listing;
+    }
+
+    /**
+     * Serializes the response with the given field set to already serialized JSON.
+     */
+    private String serializeWith(GetDirectoryResponseImpl response, String field, String json) {
+      com.google.gson.JsonObject responseJson = response.toJsonElement().getAsJsonObject();
+      responseJson.remove(field);
+      String prefix = responseJson.toString();
+      return prefix.substring(0, prefix.length() - 1) + ",\"" + field + "\":" + json + "}";
     }
   }
 
+  /**
+   * Returns whether a directory has children after the page at the offset and limit.
+   */
+  static boolean hasMoreChildren(int offset, int limit, int childCount) {
+    return limit > 0 && offset + limit < childCount;
+  }
+
   /**
    * Takes in a list of resource IDs and returns a list of String paths for the resources as they
    * currently exist.
@@ -335,15 +580,13 @@ public class FileTree extends BusModBase {
       JsonObject result = new JsonObject();
       JsonArray paths = new JsonArray();
       result.put("paths", paths);
-      synchronized (FileTree.this.lock) {
-        for (Object id : resourceIds) {
-          assert id instanceof String;
-          NodeInfoExt node = resourceIdToNode.get(id);
-          if (node == null) {
-            paths.addNull();
-          } else {
-            paths.add('/' + node.getPath().toString());
-          }
+      for (Object id : resourceIds) {
+        assert id instanceof String;
+        NodeInfoExt node = resourceIdToNode.get(id);
+        if (node == null) {
+          paths.addNull();
+        } else {
+          paths.add('/' + node.getPath().toString());
         }
       }
       message.reply(result);
@@ -352,8 +595,9 @@ public class FileTree extends BusModBase {
 
   /**
    * Takes in a list of paths and replies with a list of resource IDs. A resource ID is a stable
-   * identifier for a resource that survives across renames/moves. This identifier is currently only
-   * stable for the lifetime of this verticle.
+   * identifier for a resource that survives across renames/moves. This identifier is kept across
+   * restarts of this verticle by the tree index, as long as the resource isn't moved while the
+   * verticle is down.
    */
   class ResourceIdResolver implements Handler<Message<JsonObject>> {
     @Override
@@ -362,125 +606,77 @@ public class FileTree extends BusModBase {
       JsonObject result = new JsonObject();
       JsonArray resourceIds = new JsonArray();
       result.put("resourceIds", resourceIds);
-      synchronized (FileTree.this.lock) {
-        for (Object path : paths) {
-          NodeInfoExt found = findResource(stripSlashes((String) path));
-          if (found == null) {
-            resourceIds.addNull();
-          } else {
-            resourceIds.add(found.getFileEditSessionKey());
-          }
-        }
-      }
-      message.reply(result);
-    }
-
-    private NodeInfoExt findResource(String path) {
-      if (path.length() == 0) {
-        return root;
-      }
-      DirInfoExt cur = root;
-      while (true) {
-        int pos = path.indexOf('/');
-        if (pos < 0) {
-          // Last item.
-          return cur.getChild(path);
+      for (Object path : paths) {
+        NodeInfoExt found = pathToNode.get(stripSlashes((String) path));
+        if (found == null) {
+          resourceIds.addNull();
         } else {
-          String component = path.substring(0, pos);
-          NodeInfoExt found = cur.getChild(component);
-          // Better be a directory or we can't search anymore.
-          if (!(found instanceof DirInfoExt)) {
-            return null;
-          }
-          cur = (DirInfoExt) found;
-          path = path.substring(pos + 1);
+          resourceIds.add(found.getFileEditSessionKey());
         }
       }
+      message.reply(result);
     }
   }
 
   /**
-   * Scans the file tree, or a subsection, adding new nodes to the tree. Also sets up watchers to
-   * listen for file and directory changes.
+   * Scans a directory that is not in the tree yet, and forks a task per subdirectory so that the
+   * whole subtree is scanned in parallel. Each task only adds children to its own directory. The
+   * nodes get their resource ids once the scan is done, since the allocator isn't thread safe.
+   * Also sets up watchers on the scanned directories, but leaves adding them to
+   * {@link #watchkeyToDir} to the caller.
    */
-  private class TreeScanner {
-    public final Stack<DirInfoExt> parents = new Stack<FileTree.DirInfoExt>();
-    private final FileVisitor<Path> visitor = new FileVisitor<Path>() {
-      @Override
-      public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) {
-        DirInfoExt dir = new DirInfoExt(path, resourceIdAllocator++);
-        if (packages.contains(path)) {
-          dir.setIsPackage(true);
-        }
-        if (blacklist.contains(dir.getName()))
-          return FileVisitResult.SKIP_SUBTREE;
-        if (parents.isEmpty()) {
-          // System.out.println("scanning from: " + path.toAbsolutePath() + '/');
-          root = dir;
-        } else {
-          parents.peek().addChild(dir);
-        }
-        resourceIdToNode.put(dir.getFileEditSessionKey(), dir);
-        parents.push(dir);
-        return FileVisitResult.CONTINUE;
-      }
+  private class ScanTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
 
-      @Override
-      public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
-        // System.out.println("add: /" + path);
-        FileInfoExt file = new FileInfoExt(path, resourceIdAllocator++, attrs.size());
-        parents.peek().addChild(file);
-        resourceIdToNode.put(file.getFileEditSessionKey(), file);
-        return FileVisitResult.CONTINUE;
-      }
+    private final DirInfoExt dir;
 
-      @Override
-      public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
-        System.out.println("visitFileFailed: " + file);
-        throw exc;
-      }
+    ScanTask(DirInfoExt dir) {
+      this.dir = dir;
+    }
 
-      @Override
-      public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
-        if (exc != null) {
-          System.out.println("postVisitDirectory failed: " + dir);
-          throw exc;
+    @Override
+    protected void compute() {
+      List<ScanTask> subtasks = new ArrayList<ScanTask>();
+      try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir.getPath())) {
+        for (Path path : entries) {
+          BasicFileAttributes attrs;
+          try {
+            attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+          } catch (NoSuchFileException e) {
+            // Deleted since it was listed.
+            continue;
+          }
+          if (attrs.isDirectory()) {
+            if (blacklist.contains(path.getFileName().toString())) {
+              continue;
+            }
+            DirInfoExt child = new DirInfoExt(path, UNASSIGNED_RESOURCE_ID);
+            if (packages.contains(path)) {
+              child.setIsPackage(true);
+            }
+            dir.addChild(child);
+            subtasks.add(new ScanTask(child));
+          } else {
+            dir.addChild(new FileInfoExt(path, UNASSIGNED_RESOURCE_ID, attrs.size(),
+                attrs.lastModifiedTime().toMillis()));
+          }
         }
-        DirInfoExt dirInfo = parents.pop();
-        dirInfo.setIsComplete(true);
-        WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
-            StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY,
-            StandardWatchEventKinds.OVERFLOW);
-        if (!blacklist.contains(dirInfo.getName()))
-          watchkeyToDir.put(key, dirInfo);
-        return FileVisitResult.CONTINUE;
+        dir.watchKey = watch(dir.getPath());
+      } catch (NoSuchFileException e) {
+        // Deleted since its parent was listed, the watcher on the parent will remove it.
+      } catch (IOException e) {
+        System.out.println("scan failed: " + dir.getPath());
+        throw new UncheckedIOException(e);
       }
-    };
-
-    /**
-     * @param start the path to start scanning from
-     * @param parent the parent node to scan under
-     */
-    public void walk(Path start, DirInfoExt parent) throws IOException {
-      assert parents.isEmpty();
-      parents.push(parent);
-      Files.walkFileTree(start, visitor);
-      parents.pop();
-      assert parents.isEmpty();
-    }
-
-    /**
-     * @param root the path to start scanning from
-     */
-    public void walkFromRoot(Path root) throws IOException {
-      assert root != null;
-      assert parents.isEmpty();
-      Files.walkFileTree(root, visitor);
-      assert parents.isEmpty();
+      invokeAll(subtasks);
+      dir.setIsComplete(true);
     }
   }
 
-  /** NOT IDEAL: a lock for communicating between the threads. */
+  /**
+   * NOT IDEAL: a lock for communicating between the threads. Guards changes to the tree; the
+   * handlers that only read it take the lock at most to copy a directory listing.
+   */
   final Object lock = new Object();
 
   /** The root of the tree. */
@@ -489,9 +685,41 @@ public class FileTree extends BusModBase {
   /** The tree is versioned to reconcile racey client mutations. */
   long currentTreeVersion = 0;
 
-  /** Simple in-memory allocator for resource Ids. */
+  /** The maximum number of tree updates kept for incremental replies to tree.get */
+  static final int MAX_TREE_UPDATE_HISTORY = 1000;
+
+  /** The latest tree updates, for incremental replies to tree.get */
+  volatile TreeUpdateLog treeUpdateLog =
+      new TreeUpdateLog(0, Collections.<String>emptyList());
+
+  /** Simple in-memory allocator for resource Ids, saved with the tree index. */
   long resourceIdAllocator = 0;
 
+  /** The resource id of the nodes made by a {@link ScanTask} until they are added to the tree */
+  private static final long UNASSIGNED_RESOURCE_ID = -1;
+
+  /** The number of threads scanning the workspace; scans wait on the disk more than the CPU */
+  private static final int SCAN_PARALLELISM =
+      Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
+  /** How long the watcher waits for more events before it applies the ones it collected */
+  private static final long WATCH_QUIET_PERIOD_MS = 50;
+
+  /** The longest the watcher collects events before it applies them */
+  private static final long WATCH_WINDOW_MS = 500;
+
+  /** How often the watcher thread saves the tree index while the tree changes */
+  private static final long TREE_INDEX_SAVE_INTERVAL_MS = 60 * 1000;
+
+  /** Where the tree is saved between runs, or null to scan the whole workspace at startup. */
+  Path treeIndexFile = null;
+
+  /** Whether the tree changed since it was last saved to the tree index. */
+  boolean isTreeIndexDirty = true;
+
+  /** When the tree index was last saved. */
+  long lastTreeIndexSave = 0;
+
   static class ExpectedMove {
     public ExpectedMove(Path oldPath, Path newPath) {
       this.oldPath = oldPath;
@@ -507,11 +735,17 @@ public class FileTree extends BusModBase {
   final List<ExpectedMove> expectMoves = new ArrayList<ExpectedMove>();
 
 
-  /** Map resourceId to node. */
-  HashMap<String, NodeInfoExt> resourceIdToNode = new HashMap<String, NodeInfoExt>();
+  /**
+   * Map resourceId to node. Changed under the lock, but read without it, so resolving resource
+   * ids never waits for the watcher.
+   */
+  final Map<String, NodeInfoExt> resourceIdToNode = new ConcurrentHashMap<String, NodeInfoExt>();
+
+  /** Map workspace path, without leading or trailing slashes, to node. Read without the lock. */
+  final Map<String, NodeInfoExt> pathToNode = new ConcurrentHashMap<String, NodeInfoExt>();
 
-  /** Scans to find new files. */
-  final TreeScanner treeScanner = new TreeScanner();
+  /** Runs the {@link ScanTask}s. */
+  ForkJoinPool scanPool;
 
   /** The watch service for listening for tree changes. */
   WatchService watchService;
@@ -544,10 +778,37 @@ public class FileTree extends BusModBase {
       X_Log.info(getClass(), "No webRoot property specified for FileTree");
     }
 
+    String defaultTreeIndex;
+    try {
+      // One index per workspace, however the workspace directory was reached
+      defaultTreeIndex = Paths.get(System.getProperty("user.home"), ".collide", "tree-"
+          + Hashing.sha256().hashString(new File("").getCanonicalPath(), StandardCharsets.UTF_8)
+          + ".idx").toString();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    String treeIndex = getOptionalStringConfig("treeIndex", defaultTreeIndex);
+    if (treeIndex.length() > 0) {
+      treeIndexFile = Paths.get(treeIndex);
+    }
+
+    /*
+     * With a tree index, the tree is served as it was saved while the watcher thread scans the
+     * workspace and brings the tree up to date. Without one, the workspace is scanned first.
+     */
+    final boolean isLoadedFromIndex;
+    scanPool = new ForkJoinPool(SCAN_PARALLELISM);
     try {
       watchService = FileSystems.getDefault().newWatchService();
-      Path rootPath = new File("").toPath();
-      treeScanner.walkFromRoot(rootPath);
+      isLoadedFromIndex = loadTreeIndex();
+      if (!isLoadedFromIndex) {
+        DirInfoExt scanned = scanTree(new File("").toPath());
+        synchronized (lock) {
+          root = scanned;
+          assignResourceIds(root);
+          watchScannedDirectories(root);
+        }
+      }
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
@@ -565,9 +826,25 @@ public class FileTree extends BusModBase {
     watcherThread = new Thread(new Runnable() {
       @Override
       public void run() {
+        if (isLoadedFromIndex) {
+          try {
+            reconcileTreeWithDisk();
+          } catch (Exception e) {
+            e.printStackTrace(System.out);
+          }
+        }
+        saveTreeIndex();
+
         while (true) {
           try {
-            processAllWatchEvents(watchService.take());
+            WatchKey key =
+                watchService.poll(TREE_INDEX_SAVE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            if (key != null) {
+              processAllWatchEvents(key);
+            }
+            if (System.currentTimeMillis() - lastTreeIndexSave >= TREE_INDEX_SAVE_INTERVAL_MS) {
+              saveTreeIndex();
+            }
           } catch (InterruptedException e) {
             // Just exit the thread.
             return;
@@ -587,87 +864,375 @@ public class FileTree extends BusModBase {
       watcherThread.interrupt();
     }
     watcherThread.join();
+    scanPool.shutdown();
+    saveTreeIndex();
     super.stop();
   }
 
-  void processAllWatchEvents(WatchKey key) {
+  /**
+   * Builds the tree from the tree index, if there is one. Until the tree is reconciled with the
+   * disk, its files have the sizes and modification times they had when the index was saved.
+   *
+   * @return whether the tree was loaded
+   */
+  boolean loadTreeIndex() {
+    if (treeIndexFile == null) {
+      return false;
+    }
+
+    TreeIndex index;
+    try {
+      index = TreeIndex.read(treeIndexFile);
+    } catch (IOException e) {
+      System.out.println("Could not read the tree index: " + e);
+      return false;
+    }
+    if (index == null || index.entries.isEmpty() || !index.entries.get(0).isDirectory
+        || index.entries.get(0).path.length() != 0) {
+      return false;
+    }
+
+    Map<String, DirInfoExt> dirs = new HashMap<String, DirInfoExt>();
+    synchronized (lock) {
+      for (TreeIndex.Entry entry : index.entries) {
+        Path path = Paths.get(entry.path);
+        DirInfoExt parent = null;
+        if (root != null) {
+          parent = dirs.get(path.getParent() == null ? "" : path.getParent().toString());
+          if (parent == null || parent.getChild(path.getFileName().toString()) != null) {
+            // The parent was left out of the index.
+            continue;
+          }
+        }
+
+        NodeInfoExt node;
+        if (entry.isDirectory) {
+          DirInfoExt dir = new DirInfoExt(path, entry.resourceId);
+          if (packages.contains(path)) {
+            dir.setIsPackage(true);
+          }
+          dir.setIsComplete(true);
+          if (parent == null) {
+            root = dir;
+          } else {
+            parent.addChild(dir);
+          }
+          dirs.put(entry.path, dir);
+          node = dir;
+        } else {
+          FileInfoExt file =
+              new FileInfoExt(path, entry.resourceId, entry.size, entry.lastModified);
+          parent.addChild(file);
+          node = file;
+        }
+        mapNode(node);
+      }
+      resourceIdAllocator = Math.max(resourceIdAllocator, index.nextResourceId);
+      isTreeIndexDirty = false;
+    }
+    return true;
+  }
+
+  /**
+   * Saves the tree to the tree index if it changed since the last save.
+   */
+  void saveTreeIndex() {
+    if (treeIndexFile == null) {
+      return;
+    }
+
+    TreeIndex index;
+    synchronized (lock) {
+      if (!isTreeIndexDirty) {
+        return;
+      }
+      index = new TreeIndex(resourceIdAllocator);
+      addIndexEntries(root, index.entries);
+      isTreeIndexDirty = false;
+    }
+    lastTreeIndexSave = System.currentTimeMillis();
+    try {
+      index.write(treeIndexFile);
+    } catch (IOException e) {
+      System.out.println("Could not save the tree index: " + e);
+    }
+  }
+
+  private void addIndexEntries(DirInfoExt dir, List<TreeIndex.Entry> entries) {
+    entries.add(new TreeIndex.Entry(dir.getPath().toString(), true,
+        Long.parseLong(dir.getFileEditSessionKey()), 0, 0));
+    for (DirInfo subDirectory : dir.getSubDirectories().asIterable()) {
+      addIndexEntries((DirInfoExt) subDirectory, entries);
+    }
+    for (FileInfo fileInfo : dir.getFiles().asIterable()) {
+      FileInfoExt file = (FileInfoExt) fileInfo;
+      entries.add(new TreeIndex.Entry(file.getPath().toString(), false,
+          Long.parseLong(file.getFileEditSessionKey()), Long.parseLong(file.getSize()),
+          file.getLastModified()));
+    }
+  }
+
+  /**
+   * Scans the directory at the given path and everything under it, in parallel. The returned
+   * nodes have no resource ids yet, and their watch keys are not in {@link #watchkeyToDir}.
+   */
+  DirInfoExt scanTree(Path path) throws IOException {
+    DirInfoExt dir = new DirInfoExt(path, UNASSIGNED_RESOURCE_ID);
+    if (isInPackage(path)) {
+      dir.setIsPackage(true);
+    }
+    try {
+      scanPool.invoke(new ScanTask(dir));
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    return dir;
+  }
+
+  /**
+   * Returns whether the path or one of its ancestors is a package.
+   */
+  private boolean isInPackage(Path path) {
+    for (Path ancestor = path; ancestor != null; ancestor = ancestor.getParent()) {
+      if (packages.contains(ancestor)) {
+        return true;
+      }
+    }
+    return packages.contains(path.getFileSystem().getPath(""));
+  }
+
+  /**
+   * Gives the scanned node and its descendants new resource ids.
+   */
+  private void assignResourceIds(NodeInfoExt node) {
+    ((TreeNodeInfoImpl) node).setFileEditSessionKey(Long.toString(resourceIdAllocator++));
+    mapNode(node);
+    if (node instanceof DirInfoExt) {
+      DirInfoExt dir = (DirInfoExt) node;
+      for (DirInfo subDirectory : dir.getSubDirectories().asIterable()) {
+        assignResourceIds((DirInfoExt) subDirectory);
+      }
+      for (FileInfo file : dir.getFiles().asIterable()) {
+        assignResourceIds((FileInfoExt) file);
+      }
+    }
+  }
+
+  /**
+   * Starts processing the events of the watchers a scan set up on the directory and its
+   * descendants.
+   */
+  private void watchScannedDirectories(DirInfoExt dir) {
+    if (dir.watchKey != null) {
+      watchkeyToDir.put(dir.watchKey, dir);
+    }
+    for (DirInfo subDirectory : dir.getSubDirectories().asIterable()) {
+      watchScannedDirectories((DirInfoExt) subDirectory);
+    }
+  }
+
+  private WatchKey watch(Path dir) throws IOException {
+    return dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY,
+        StandardWatchEventKinds.OVERFLOW);
+  }
+
+  /**
+   * Scans the workspace and brings the tree loaded from the tree index up to date with it. The
+   * differences are broadcast like the changes the watchers see.
+   */
+  private void reconcileTreeWithDisk() throws IOException {
+    // The root node isn't replaced after start
+    DirInfoExt scanned = scanTree(root.getPath());
+
+    List<NodeInfoExt> adds = new ArrayList<NodeInfoExt>();
+    List<NodeInfoExt> removes = new ArrayList<NodeInfoExt>();
+    List<NodeInfoExt> modifies = new ArrayList<NodeInfoExt>();
+    boolean treeDirty;
+    long treeVersion;
+    synchronized (this.lock) {
+      reconcile(root, scanned, adds, removes, modifies);
+      treeDirty = !adds.isEmpty() || !removes.isEmpty();
+      treeVersion = treeDirty ? ++currentTreeVersion : currentTreeVersion;
+      if (treeDirty || !modifies.isEmpty()) {
+        isTreeIndexDirty = true;
+      }
+    }
+    publishTreeChanges(
+        adds, removes, new ArrayList<ExpectedMove>(), modifies, treeDirty, treeVersion);
+  }
+
+  /**
+   * Makes the directory in the tree match the same directory as scanned, moving over the
+   * scanned nodes that are new or modified.
+   */
+  void reconcile(DirInfoExt dir, DirInfoExt scanned, List<NodeInfoExt> adds,
+      List<NodeInfoExt> removes, List<NodeInfoExt> modifies) {
+    dir.watchKey = scanned.watchKey;
+    if (dir.watchKey != null) {
+      watchkeyToDir.put(dir.watchKey, dir);
+    }
+
+    List<NodeInfoExt> removed = new ArrayList<NodeInfoExt>();
+    for (NodeInfoExt child : dir.getChildren()) {
+      NodeInfoExt found = scanned.getChild(child.getName());
+      if (found == null || found.getNodeType() != child.getNodeType()) {
+        removed.add(child);
+      }
+    }
+    for (NodeInfoExt child : removed) {
+      dir.removeChild(child.getName());
+      unmapResourceIds(child);
+      removes.add(child);
+    }
+
+    for (DirInfo found : scanned.getSubDirectories().asIterable()) {
+      DirInfoExt scannedDir = (DirInfoExt) found;
+      DirInfoExt child = (DirInfoExt) dir.getChild(scannedDir.getName());
+      if (child == null) {
+        assignResourceIds(scannedDir);
+        watchScannedDirectories(scannedDir);
+        dir.addChild(scannedDir);
+        adds.add(scannedDir);
+      } else {
+        reconcile(child, scannedDir, adds, removes, modifies);
+      }
+    }
+
+    for (FileInfo found : scanned.getFiles().asIterable()) {
+      FileInfoExt scannedFile = (FileInfoExt) found;
+      FileInfoExt child = (FileInfoExt) dir.getChild(scannedFile.getName());
+      if (child == null) {
+        assignResourceIds(scannedFile);
+        dir.addChild(scannedFile);
+        adds.add(scannedFile);
+      } else if (updateFile(dir, child, scannedFile)) {
+        modifies.add(child);
+      }
+    }
+  }
+
+  /**
+   * Updates the file in the directory with the size and modification time of the scanned file.
+   * The file stays where it is in the tree and keeps its resource id.
+   *
+   * @return whether the file changed
+   */
+  static boolean updateFile(DirInfoExt dir, FileInfoExt file, FileInfoExt scanned) {
+    if (file.getSize().equals(scanned.getSize())
+        && file.getLastModified() == scanned.getLastModified()) {
+      return false;
+    }
+    file.update(scanned.getSize(), scanned.getLastModified());
+    dir.invalidateSerializedListings();
+    return true;
+  }
+
+  /**
+   * Collects the events of the given key, and of the keys signalled after it until the events
+   * pause for {@link #WATCH_QUIET_PERIOD_MS} or {@link #WATCH_WINDOW_MS} has passed. Then brings
+   * each changed path in the tree up to date with the disk and publishes the changes of the whole
+   * window at once.
+   * <p>
+   * Only what is on disk at the end of the window matters, so a path created and deleted within
+   * the window is ignored, and a file deleted and created again is modified and keeps its
+   * resource id.
+   */
+  void processAllWatchEvents(WatchKey key) throws InterruptedException {
+    // Sorted so that parents come before their descendants
+    Map<Path, PathChange> changes = new TreeMap<Path, PathChange>();
+    long windowEnd = System.currentTimeMillis() + WATCH_WINDOW_MS;
+    while (key != null) {
+      collectWatchEvents(key, changes);
+      long remaining = windowEnd - System.currentTimeMillis();
+      key = remaining > 0
+          ? watchService.poll(Math.min(WATCH_QUIET_PERIOD_MS, remaining), TimeUnit.MILLISECONDS)
+          : null;
+    }
+
+    // Look at the disk before taking the lock, since new directories have to be scanned.
+    for (PathChange change : changes.values()) {
+      readFromDisk(change);
+    }
+
     List<NodeInfoExt> adds = new ArrayList<NodeInfoExt>();
     List<NodeInfoExt> removes = new ArrayList<NodeInfoExt>();
     List<NodeInfoExt> modifies = new ArrayList<NodeInfoExt>();
     HashMap<Path, ExpectedMove> movesByOld = new HashMap<Path, ExpectedMove>();
     HashMap<Path, ExpectedMove> movesByNew = new HashMap<Path, ExpectedMove>();
     List<ExpectedMove> completedMoves = new ArrayList<ExpectedMove>();
-    boolean treeDirty = false;
+    HashSet<Path> scannedDirs = new HashSet<Path>();
+    boolean treeDirty;
     long treeVersion;
-    // System.out.println("-----");
     synchronized (this.lock) {
-      treeVersion = this.currentTreeVersion;
       // Grab all the outstanding moves.
       for (ExpectedMove move : this.expectMoves) {
         movesByOld.put(move.oldPath, move);
         movesByNew.put(move.newPath, move);
       }
       this.expectMoves.clear();
-      do {
-        DirInfoExt parent = watchkeyToDir.get(key);
-
-        // process events
-        for (WatchEvent<?> event : key.pollEvents()) {
-          if (event.kind().type() == Path.class) {
-            Path path = (Path) event.context();
-            Path resolved = parent.getPath().resolve(path);
-            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
-              treeDirty = true;
-              try {
-                treeScanner.walk(resolved, parent);
-                NodeInfoExt added = parent.getChild(resolved.getFileName().toString());
-                ExpectedMove move = movesByNew.get(resolved);
-                if (move != null) {
-                  move.newNode = added;
-                } else {
-                  adds.add(added);
-                }
-              } catch (IOException e) {
-                // Just ignore it for now.
-                continue;
-              }
-            } else if (event.kind() == StandardWatchEventKinds.ENTRY_MODIFY) {
-              NodeInfoExt modified = parent.getChild(resolved.getFileName().toString());
-              modifies.add(modified);
-            } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
-              treeDirty = true;
-              NodeInfoExt removed = parent.removeChild(resolved.getFileName().toString());
-              ExpectedMove move = movesByOld.get(resolved);
-              if (move != null) {
-                move.oldNode = removed;
-              } else {
-                unmapResourceIds(removed);
-                removes.add(removed);
-              }
-            } else {
-              assert false : "Unknown event type: " + event.kind().name();
-            }
-          } else {
-            assert event.kind() == StandardWatchEventKinds.OVERFLOW;
-            System.out.print(event.kind().name() + ": ");
-            System.out.println(event.count());
-            // TODO: reload the entire tree???
+
+      for (PathChange change : changes.values()) {
+        if (isUnderAny(change.path, scannedDirs)) {
+          // Already up to date with the scan of an ancestor.
+          continue;
+        }
+        if (change.path.toString().length() == 0) {
+          // The watcher on the root overflowed.
+          if (change.scanned != null) {
+            reconcile(root, (DirInfoExt) change.scanned, adds, removes, modifies);
           }
+          continue;
         }
-
-        // reset the key
-        boolean valid = key.reset();
-        if (!valid) {
-          // object no longer registered
-          watchkeyToDir.remove(key);
+        DirInfoExt parent = findDirectory(change.path.getParent());
+        if (parent == null) {
+          // The parent is not in the tree (anymore).
+          continue;
         }
 
-        // Process all available events without blocking to minimize jitter.
-        key = watchService.poll();
-      } while (key != null);
+        String name = change.path.getFileName().toString();
+        NodeInfoExt existing = parent.getChild(name);
+        NodeInfoExt scanned = change.scanned;
+        if (existing != null && (!change.exists
+            || (scanned != null && scanned.getNodeType() != existing.getNodeType()))) {
+          parent.removeChild(name);
+          ExpectedMove move = movesByOld.get(change.path);
+          if (move != null) {
+            move.oldNode = existing;
+          } else {
+            unmapResourceIds(existing);
+            removes.add(existing);
+          }
+          existing = null;
+        }
 
-      if (treeDirty) {
-        treeVersion = currentTreeVersion++;
+        if (scanned == null) {
+          // Nothing on disk, or a directory that only changed its attributes.
+          continue;
+        }
+        if (existing == null) {
+          assignResourceIds(scanned);
+          if (scanned instanceof DirInfoExt) {
+            watchScannedDirectories((DirInfoExt) scanned);
+            parent.addChild((DirInfoExt) scanned);
+            scannedDirs.add(change.path);
+          } else {
+            parent.addChild((FileInfoExt) scanned);
+          }
+          ExpectedMove move = movesByNew.get(change.path);
+          if (move != null) {
+            move.newNode = scanned;
+          } else {
+            adds.add(scanned);
+          }
+        } else if (existing instanceof DirInfoExt) {
+          reconcile((DirInfoExt) existing, (DirInfoExt) scanned, adds, removes, modifies);
+          scannedDirs.add(change.path);
+        } else {
+          if (updateFile(parent, (FileInfoExt) existing, (FileInfoExt) scanned)) {
+            modifies.add(existing);
+          }
+        }
       }
 
       // Post-process moves.
@@ -688,22 +1253,146 @@ public class FileTree extends BusModBase {
           } else {
             // Completed the move.
             completedMoves.add(move);
+            unmapResourceIds(move.oldNode);
             // Update the edit session key to retain identity.
             TreeNodeInfoImpl newNode = (TreeNodeInfoImpl) move.newNode;
+            resourceIdToNode.remove(newNode.getFileEditSessionKey());
             newNode.setFileEditSessionKey(move.oldNode.getFileEditSessionKey());
-            resourceIdToNode.put(newNode.getFileEditSessionKey(), move.newNode);
+            mapNode(move.newNode);
           }
         }
       }
       // TODO: post-process deletes so that child deletes are subsumed by parent deletes.
+
+      treeDirty = !adds.isEmpty() || !removes.isEmpty() || !completedMoves.isEmpty();
+      treeVersion = treeDirty ? ++currentTreeVersion : currentTreeVersion;
+      if (treeDirty || !modifies.isEmpty()) {
+        isTreeIndexDirty = true;
+      }
+    }
+
+    publishTreeChanges(adds, removes, completedMoves, modifies, treeDirty, treeVersion);
+  }
+
+  /**
+   * Adds the paths that the events of the key are about to the changes, and resets the key.
+   */
+  private void collectWatchEvents(WatchKey key, Map<Path, PathChange> changes) {
+    DirInfoExt dir;
+    synchronized (this.lock) {
+      dir = watchkeyToDir.get(key);
     }
 
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (dir == null) {
+        continue;
+      }
+      Path path;
+      if (event.kind().type() == Path.class) {
+        path = dir.getPath().resolve((Path) event.context());
+      } else {
+        assert event.kind() == StandardWatchEventKinds.OVERFLOW;
+        System.out.print(event.kind().name() + ": ");
+        System.out.println(event.count());
+        // Events were lost, so rescan the whole directory.
+        path = dir.getPath();
+      }
+
+      PathChange change = changes.get(path);
+      if (change == null) {
+        change = new PathChange(path);
+        changes.put(path, change);
+      }
+      if (event.kind() != StandardWatchEventKinds.ENTRY_MODIFY) {
+        change.isStructural = true;
+      }
+    }
+
+    // reset the key
+    boolean valid = key.reset();
+    if (!valid) {
+      // object no longer registered
+      synchronized (this.lock) {
+        watchkeyToDir.remove(key);
+      }
+    }
+  }
+
+  /**
+   * Looks at what is on disk at the changed path. Directories are scanned if they may have been
+   * created or replaced.
+   */
+  private void readFromDisk(PathChange change) {
+    BasicFileAttributes attrs;
+    try {
+      attrs = Files.readAttributes(
+          change.path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+    } catch (NoSuchFileException e) {
+      change.exists = false;
+      return;
+    } catch (IOException e) {
+      System.out.println("Could not read " + change.path + ": " + e);
+      change.exists = true;
+      return;
+    }
+
+    change.exists = true;
+    if (!attrs.isDirectory()) {
+      change.scanned = new FileInfoExt(change.path, UNASSIGNED_RESOURCE_ID, attrs.size(),
+          attrs.lastModifiedTime().toMillis());
+    } else if (change.isStructural && !blacklist.contains(change.path.getFileName().toString())) {
+      try {
+        change.scanned = scanTree(change.path);
+      } catch (IOException e) {
+        System.out.println("scan failed: " + change.path);
+        e.printStackTrace(System.out);
+      }
+    }
+  }
+
+  private static boolean isUnderAny(Path path, Set<Path> dirs) {
+    for (Path ancestor = path.getParent(); ancestor != null; ancestor = ancestor.getParent()) {
+      if (dirs.contains(ancestor)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the directory at the workspace relative path, or null if it is not in the tree. The
+   * root is at the null or empty path.
+   */
+  private DirInfoExt findDirectory(Path path) {
+    if (path == null || path.toString().length() == 0) {
+      return root;
+    }
+    DirInfoExt dir = root;
+    for (Path name : path) {
+      NodeInfoExt child = dir.getChild(name.toString());
+      if (!(child instanceof DirInfoExt)) {
+        return null;
+      }
+      dir = (DirInfoExt) child;
+    }
+    return dir;
+  }
+
+  /**
+   * Tells the edit sessions about the changes to the tree, and broadcasts the changes to the
+   * clients if the tree changed shape.
+   */
+  private void publishTreeChanges(List<NodeInfoExt> adds, List<NodeInfoExt> removes,
+      List<ExpectedMove> completedMoves, List<NodeInfoExt> modifies, boolean treeDirty,
+      long treeVersion) {
     // Notify the edit session verticle of the changes.
     JsonObject message = new JsonObject();
     JsonArray messageDelete = new JsonArray();
     JsonArray messageModify = new JsonArray();
+    JsonArray messageMove = new JsonArray();
     message.put("delete", messageDelete);
     message.put("modify", messageModify);
+    message.put("move", messageMove);
 
     // Broadcast a tree mutation to all clients.
     WorkspaceTreeUpdateBroadcastImpl broadcast = WorkspaceTreeUpdateBroadcastImpl.make();
@@ -732,7 +1421,8 @@ public class FileTree extends BusModBase {
     }
     for (ExpectedMove move : completedMoves) {
       System.out.println("mov: " + pathString(move.oldNode) + " to: " + pathString(move.newNode));
-      // Edit session doesn't care.
+      // Edit session wants moves, to update the paths it saves to.
+      messageMove.add(move.newNode.getFileEditSessionKey());
       // Broadcast to clients.
       MutationImpl mutation = MutationImpl.make()
           .setMutationType(Mutation.Type.MOVE).setNewPath(pathString(move.newNode))
@@ -753,11 +1443,22 @@ public class FileTree extends BusModBase {
     vertx.eventBus().send("documents.fileSystemEvents", message);
     if (treeDirty) {
       broadcast.setNewTreeVersion(Long.toString(treeVersion));
-      vertx.eventBus().send("participants.broadcast", new JsonObject().put(
-          Participants.PAYLOAD_TAG, broadcast.toJson()));
+      String serializedBroadcast = broadcast.toJson();
+      synchronized (this.lock) {
+        recordTreeUpdate(treeVersion, serializedBroadcast);
+      }
+      vertx.eventBus().send(
+          "participants.broadcast", Dto.serialized(serializedBroadcast), Dto.deliveryOptions());
     }
   }
 
+  /**
+   * Adds the serialized update that led to the given tree version to the history.
+   */
+  private void recordTreeUpdate(long treeVersion, String serializedTreeUpdate) {
+    treeUpdateLog = treeUpdateLog.append(treeVersion, serializedTreeUpdate);
+  }
+
   /**
    * Strips out directory children for broadcast.
    */
@@ -786,18 +1487,26 @@ public class FileTree extends BusModBase {
   }
 
   /**
-   * @param removed
+   * Adds the node to the resource id and path maps.
+   */
+  private void mapNode(NodeInfoExt node) {
+    resourceIdToNode.put(node.getFileEditSessionKey(), node);
+    pathToNode.put(node.getPath().toString(), node);
+  }
+
+  /**
+   * Removes the node and its descendants from the resource id and path maps, unless a node that
+   * replaced them took their place.
    */
   private void unmapResourceIds(NodeInfoExt removed) {
-    NodeInfoExt didRemove = resourceIdToNode.remove(removed.getFileEditSessionKey());
-    assert removed == didRemove;
+    resourceIdToNode.remove(removed.getFileEditSessionKey(), removed);
+    pathToNode.remove(removed.getPath().toString(), removed);
     if (removed instanceof DirInfoExt) {
       DirInfoExt dir = (DirInfoExt) removed;
       for (NodeInfoExt child : dir.getChildren()) {
         unmapResourceIds(child);
       }
     }
-
   }
 
   /**
@@ -0,0 +1,146 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.collide.server.filetree;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The file tree as saved to disk between runs of the {@link FileTree}, so that the tree can be
+ * served right away at startup and resource ids stay the same across restarts.
+ * <p>
+ * The index is a text file. The first line holds the format version and the next free resource
+ * id. Each following line is one node, parents before their children:
+ *
+ * <pre>
+ * type (d or f) TAB resource id TAB size TAB last modified millis TAB workspace path
+ * </pre>
+ */
+class TreeIndex {
+
+  private static final String HEADER = "collide-tree-index";
+
+  private static final int FORMAT_VERSION = 1;
+
+  /**
+   * A file or directory in the index.
+   */
+  static class Entry {
+    final String path;
+    final boolean isDirectory;
+    final long resourceId;
+    final long size;
+    final long lastModified;
+
+    Entry(String path, boolean isDirectory, long resourceId, long size, long lastModified) {
+      this.path = path;
+      this.isDirectory = isDirectory;
+      this.resourceId = resourceId;
+      this.size = size;
+      this.lastModified = lastModified;
+    }
+  }
+
+  /**
+   * Reads the index from the given file.
+   *
+   * @return the index, or null if there is no index file or it was written in another format
+   * @throws IOException if the file can't be read or is malformed
+   */
+  static TreeIndex read(Path file) throws IOException {
+    if (!Files.isRegularFile(file)) {
+      return null;
+    }
+
+    try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      String[] header = split(reader.readLine(), 3);
+      if (header == null || !HEADER.equals(header[0])
+          || !Integer.toString(FORMAT_VERSION).equals(header[1])) {
+        return null;
+      }
+
+      try {
+        TreeIndex index = new TreeIndex(Long.parseLong(header[2]));
+        String line;
+        while ((line = reader.readLine()) != null) {
+          String[] fields = split(line, 5);
+          if (fields == null || !("d".equals(fields[0]) || "f".equals(fields[0]))) {
+            throw new IOException("Malformed tree index line: " + line);
+          }
+          index.entries.add(new Entry(fields[4], "d".equals(fields[0]),
+              Long.parseLong(fields[1]), Long.parseLong(fields[2]), Long.parseLong(fields[3])));
+        }
+        return index;
+      } catch (NumberFormatException e) {
+        throw new IOException("Malformed tree index " + file, e);
+      }
+    }
+  }
+
+  /**
+   * Splits the line into exactly {@code count} tab separated fields, the last of which may
+   * contain tabs. Returns null if there are fewer fields.
+   */
+  private static String[] split(String line, int count) {
+    if (line == null) {
+      return null;
+    }
+    String[] fields = line.split("\t", count);
+    return fields.length == count ? fields : null;
+  }
+
+  final long nextResourceId;
+
+  final List<Entry> entries = new ArrayList<Entry>();
+
+  TreeIndex(long nextResourceId) {
+    this.nextResourceId = nextResourceId;
+  }
+
+  /**
+   * Writes the index to the given file, replacing it once the index is completely written.
+   * Entries whose path contains a line break are left out, and with them their descendants.
+   */
+  void write(Path file) throws IOException {
+    Path parent = file.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+
+    Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+    try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+      writer.write(HEADER + '\t' + FORMAT_VERSION + '\t' + nextResourceId);
+      writer.newLine();
+      for (Entry entry : entries) {
+        if (entry.path.indexOf('\n') >= 0 || entry.path.indexOf('\r') >= 0) {
+          continue;
+        }
+        writer.write((entry.isDirectory ? "d" : "f") + '\t' + entry.resourceId + '\t'
+            + entry.size + '\t' + entry.lastModified + '\t' + entry.path);
+        writer.newLine();
+      }
+    }
+    Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+}
@@ -0,0 +1,151 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.participants;
+
+import com.google.collide.server.shared.util.Dto;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.eventbus.MessageCodec;
+import io.vertx.core.json.Json;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A Dto payload for a set of connected tabs, encoded once for all of them.
+ *
+ * <p>
+ * {@link Participants} publishes frames on {@link #ADDRESS}, and every front end writes them
+ * straight to the event bus bridge sockets of the tabs it serves, instead of each tab's copy being
+ * wrapped and encoded again by the bridge. The frames match what the bridge would have sent for
+ * {@code Dto.wrap(payload)} on the tab's {@link Participants#CLIENT_ADDRESS_PREFX client address}.
+ *
+ * <p>
+ * Frames are immutable, so local deliveries share a single instance.
+ */
+public final class BroadcastFrame {
+
+  public static final String ADDRESS = "frontend.broadcastFrame";
+
+  private static final String CODEC_NAME = "collide.broadcastFrame";
+
+  private static final byte[] FRAME_START = "{\"type\":\"rec\",\"address\":".getBytes(Charsets.UTF_8);
+  private static final byte[] BODY_START = ",\"body\":".getBytes(Charsets.UTF_8);
+  private static final byte[] FRAME_END = "}".getBytes(Charsets.UTF_8);
+
+  /**
+   * Encodes frames for clustered delivery as the tab ids followed by the already encoded body.
+   */
+  static final class Codec implements MessageCodec<BroadcastFrame, BroadcastFrame> {
+    @Override
+    public void encodeToWire(Buffer buffer, BroadcastFrame frame) {
+      buffer.appendInt(frame.clientIds.size());
+      for (String clientId : frame.clientIds) {
+        byte[] bytes = clientId.getBytes(Charsets.UTF_8);
+        buffer.appendInt(bytes.length).appendBytes(bytes);
+      }
+      buffer.appendInt(frame.body.length).appendBytes(frame.body);
+    }
+
+    @Override
+    public BroadcastFrame decodeFromWire(int pos, Buffer buffer) {
+      int clientCount = buffer.getInt(pos);
+      pos += 4;
+      ImmutableList.Builder<String> clientIds = ImmutableList.builder();
+      for (int i = 0; i < clientCount; i++) {
+        int length = buffer.getInt(pos);
+        pos += 4;
+        clientIds.add(buffer.getString(pos, pos + length, "UTF-8"));
+        pos += length;
+      }
+      int bodyLength = buffer.getInt(pos);
+      pos += 4;
+      return new BroadcastFrame(clientIds.build(), buffer.getBytes(pos, pos + bodyLength));
+    }
+
+    @Override
+    public BroadcastFrame transform(BroadcastFrame frame) {
+      return frame;
+    }
+
+    @Override
+    public String name() {
+      return CODEC_NAME;
+    }
+
+    @Override
+    public byte systemCodecID() {
+      return -1;
+    }
+  }
+
+  /**
+   * Registers the codec for frames on the event bus, unless it is already registered. Both the
+   * publisher and every front end call this.
+   */
+  public static void registerCodec(EventBus eventBus) {
+    synchronized (BroadcastFrame.class) {
+      try {
+        eventBus.registerCodec(new Codec());
+      } catch (IllegalStateException e) {
+        // Already registered on this event bus
+      }
+    }
+  }
+
+  public static DeliveryOptions deliveryOptions() {
+    return new DeliveryOptions().setCodecName(CODEC_NAME);
+  }
+
+  /**
+   * @param clientIds the ids of the tabs that should receive the payload
+   * @param payload a serialized Dto
+   */
+  public static BroadcastFrame create(Collection<String> clientIds, String payload) {
+    return new BroadcastFrame(
+        ImmutableList.copyOf(clientIds), Dto.wrap(payload).encode().getBytes(Charsets.UTF_8));
+  }
+
+  private final List<String> clientIds;
+
+  /** The encoded message body shared by every frame */
+  private final byte[] body;
+
+  private BroadcastFrame(List<String> clientIds, byte[] body) {
+    this.clientIds = clientIds;
+    this.body = body;
+  }
+
+  public List<String> getClientIds() {
+    return clientIds;
+  }
+
+  /**
+   * Returns the bridge frame that delivers the payload to the given tab. Only the short envelope is
+   * encoded per tab.
+   */
+  public Buffer toBridgeFrame(String clientId) {
+    byte[] address =
+        Json.encode(Participants.CLIENT_ADDRESS_PREFX + "." + clientId).getBytes(Charsets.UTF_8);
+    return Buffer.buffer(FRAME_START.length + address.length + BODY_START.length + body.length
+        + FRAME_END.length)
+        .appendBytes(FRAME_START).appendBytes(address)
+        .appendBytes(BODY_START).appendBytes(body)
+        .appendBytes(FRAME_END);
+  }
+}
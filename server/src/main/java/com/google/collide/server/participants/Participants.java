@@ -18,13 +18,17 @@ import com.google.collide.dto.server.DtoServerImpls.GetWorkspaceParticipantsResp
 import com.google.collide.dto.server.DtoServerImpls.ParticipantImpl;
 import com.google.collide.dto.server.DtoServerImpls.ParticipantUserDetailsImpl;
 import com.google.collide.dto.server.DtoServerImpls.UserDetailsImpl;
+import com.google.collide.dtogen.server.JsonSerializable;
 import com.google.collide.server.shared.BusModBase;
 import com.google.collide.server.shared.util.Dto;
 import io.vertx.core.eventbus.Message;
 import io.vertx.core.json.JsonObject;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -38,6 +42,10 @@ import java.util.UUID;
  * This one however is in-memory, and also has affordances for broadcasting to joined participants.
  * Also, this implementation allows for a single username to be logged in as multiple different
  * sessions.
+ *
+ * Messages for tabs are encoded once and handed to the front ends as a {@link BroadcastFrame},
+ * which write it to the bridge socket of each recipient. Broadcasts tagged with a
+ * {@link #FILE_EDIT_SESSION_KEY_TAG} only reach the tabs subscribed to that file.
  */
 public class Participants extends BusModBase {
 
@@ -47,6 +55,7 @@ public class Participants extends BusModBase {
   public static final String OMIT_SENDER_TAG = "omitSender";
   public static final String TARGET_SPECIFIC_CLIENT_TAG = "sendToClient";
   public static final String TARGET_USERS_TABS_TAG = "sendToUsersTabs";
+  public static final String FILE_EDIT_SESSION_KEY_TAG = "fileEditSessionKey";
 
   private static final long DEFAULT_LOGIN_TIMEOUT = 60 * 60 * 1000; // 1 hour
 
@@ -60,6 +69,9 @@ public class Participants extends BusModBase {
     final LoggedInUser loginInfo;
     long timerId;
 
+    /** The files this tab is subscribed to. */
+    final Set<String> fileEditSessionKeys = new HashSet<String>();
+
     ConnectedTab(LoggedInUser loginInfo, long tabDisconnectTimerId) {
       this.loginInfo = loginInfo;
       this.timerId = tabDisconnectTimerId;
@@ -103,9 +115,13 @@ public class Participants extends BusModBase {
   /** Map of per-user session IDs LoggedInUsers. */
   protected final Map<String, LoggedInUser> loggedInUsers = new HashMap<String, LoggedInUser>();
 
+  /** Map of file edit session keys to the active client IDs of the tabs subscribed to them. */
+  protected final Map<String, Set<String>> fileSubscribers = new HashMap<String, Set<String>>();
+
   @Override
   public void start() {
     super.start();
+    BroadcastFrame.registerCodec(eb);
 
     this.password = getOptionalStringConfig("password", "");
     this.loginSessionTimeout = getOptionalLongConfig("session_timeout", DEFAULT_LOGIN_TIMEOUT);
@@ -125,28 +141,64 @@ public class Participants extends BusModBase {
     eb.consumer(addressBase + ".broadcast", this::doBroadcast);
 
     eb.consumer(addressBase + ".sendTo", this::doSendTo);
+
+    eb.consumer(addressBase + ".subscribe", this::doSubscribe);
+
+    eb.consumer(addressBase + ".unsubscribe", this::doUnsubscribe);
+  }
+
+  /**
+   * Returns the payload of a broadcast or sendTo message. Other verticles send the payload Dto as
+   * the body, with {@link Dto#deliveryOptions()}, while clients send it as a JSON string under
+   * {@link #PAYLOAD_TAG}.
+   */
+  private static String getPayload(Message<Object> event) {
+    Object body = event.body();
+    if (body instanceof JsonSerializable) {
+      return ((JsonSerializable) body).toJson();
+    }
+    return ((JsonObject) body).getString(PAYLOAD_TAG);
+  }
+
+  /**
+   * Returns a routing tag of a broadcast or sendTo message, which is a header when the body is a
+   * Dto.
+   */
+  private static String getTag(Message<Object> event, String tag) {
+    Object body = event.body();
+    if (body instanceof JsonSerializable) {
+      return event.headers().get(tag);
+    }
+    return ((JsonObject) body).getString(tag);
   }
 
-  void doBroadcast(Message<JsonObject> event) {
-    String payload = event.body().getString(PAYLOAD_TAG);
-    String senderActiveClientId = event.body().getString(OMIT_SENDER_TAG);
-    Set<Entry<String, ConnectedTab>> entries = connectedTabs.entrySet();
-    for (Entry<String, ConnectedTab> entry : entries) {
-      String activeClientId = entry.getKey();
-      String address = CLIENT_ADDRESS_PREFX + "." + activeClientId;
+  void doBroadcast(Message<Object> event) {
+    String payload = getPayload(event);
+    String senderActiveClientId = getTag(event, OMIT_SENDER_TAG);
+
+    // Broadcasts about a file only go to the tabs that have it open.
+    String fileEditSessionKey = getTag(event, FILE_EDIT_SESSION_KEY_TAG);
+    Collection<String> candidates = connectedTabs.keySet();
+    if (fileEditSessionKey != null) {
+      Set<String> subscribers = fileSubscribers.get(fileEditSessionKey);
+      candidates = subscribers == null ? Collections.<String>emptySet() : subscribers;
+    }
 
-      // Send to everyone except the optionally specified sender that we wish to ignore.
+    // Send to everyone except the optionally specified sender that we wish to ignore.
+    List<String> clientsToMessage = new ArrayList<String>(candidates.size());
+    for (String activeClientId : candidates) {
       if (!activeClientId.equals(senderActiveClientId)) {
-        vertx.eventBus().send(address, Dto.wrap(payload));
+        clientsToMessage.add(activeClientId);
       }
     }
+    sendToClients(clientsToMessage, payload);
   }
 
-  void doSendTo(Message<JsonObject> event) {
-    String payload = event.body().getString(PAYLOAD_TAG);
+  void doSendTo(Message<Object> event) {
+    String payload = getPayload(event);
 
     List<String> clientsToMessage = new ArrayList<String>();
-    String activeClientId = event.body().getString(TARGET_SPECIFIC_CLIENT_TAG);
+    String activeClientId = getTag(event, TARGET_SPECIFIC_CLIENT_TAG);
     if (activeClientId != null) {
 
       // Send to a specific tab.
@@ -155,7 +207,7 @@ public class Participants extends BusModBase {
         clientsToMessage.add(activeClientId);
       }
     } else {
-      String username = event.body().getString(TARGET_USERS_TABS_TAG);
+      String username = getTag(event, TARGET_USERS_TABS_TAG);
       if (username != null) {
 
         // Collect the ids of all this user's open tabs.
@@ -169,9 +221,99 @@ public class Participants extends BusModBase {
     }
 
     // Message the clients.
-    for (String cid :  clientsToMessage) {
-      vertx.eventBus().send(CLIENT_ADDRESS_PREFX + "." + cid, Dto.wrap(payload));
+    sendToClients(clientsToMessage, payload);
+  }
+
+  /**
+   * Encodes the payload once and publishes it to the front ends, which write it to the sockets of
+   * whichever of the clients they serve.
+   */
+  private void sendToClients(List<String> activeClientIds, String payload) {
+    if (!activeClientIds.isEmpty()) {
+      vertx.eventBus().publish(BroadcastFrame.ADDRESS,
+          BroadcastFrame.create(activeClientIds, payload), BroadcastFrame.deliveryOptions());
+    }
+  }
+
+  /**
+   * Subscribes a tab to the broadcasts for a file.
+   */
+  void doSubscribe(Message<JsonObject> event) {
+    String activeClientId = event.body().getString("activeClient");
+    String fileEditSessionKey = event.body().getString(FILE_EDIT_SESSION_KEY_TAG);
+    ConnectedTab tab = activeClientId == null ? null : connectedTabs.get(activeClientId);
+    if (tab == null || fileEditSessionKey == null) {
+      return;
+    }
+
+    Set<String> subscribers = fileSubscribers.get(fileEditSessionKey);
+    if (subscribers == null) {
+      subscribers = new HashSet<String>();
+      fileSubscribers.put(fileEditSessionKey, subscribers);
+    }
+    subscribers.add(activeClientId);
+    tab.fileEditSessionKeys.add(fileEditSessionKey);
+  }
+
+  /**
+   * Unsubscribes a tab from the broadcasts for a file, or from all files if no file is specified.
+   * Without a tab, every tab is unsubscribed from the file, e.g. when its edit session is closed.
+   */
+  void doUnsubscribe(Message<JsonObject> event) {
+    String activeClientId = event.body().getString("activeClient");
+    String fileEditSessionKey = event.body().getString(FILE_EDIT_SESSION_KEY_TAG);
+    if (activeClientId == null) {
+      Set<String> subscribers =
+          fileEditSessionKey == null ? null : fileSubscribers.remove(fileEditSessionKey);
+      if (subscribers != null) {
+        for (String subscriber : subscribers) {
+          connectedTabs.get(subscriber).fileEditSessionKeys.remove(fileEditSessionKey);
+        }
+      }
+      return;
+    }
+
+    ConnectedTab tab = connectedTabs.get(activeClientId);
+    if (tab == null) {
+      return;
+    }
+
+    if (fileEditSessionKey != null) {
+      if (tab.fileEditSessionKeys.remove(fileEditSessionKey)) {
+        removeSubscriber(fileEditSessionKey, activeClientId);
+      }
+    } else {
+      unsubscribeAll(activeClientId, tab);
+    }
+  }
+
+  private void unsubscribeAll(String activeClientId, ConnectedTab tab) {
+    for (String fileEditSessionKey : tab.fileEditSessionKeys) {
+      removeSubscriber(fileEditSessionKey, activeClientId);
+    }
+    tab.fileEditSessionKeys.clear();
+  }
+
+  private void removeSubscriber(String fileEditSessionKey, String activeClientId) {
+    Set<String> subscribers = fileSubscribers.get(fileEditSessionKey);
+    if (subscribers != null && subscribers.remove(activeClientId) && subscribers.isEmpty()) {
+      fileSubscribers.remove(fileEditSessionKey);
+    }
+  }
+
+  /**
+   * Forgets a tab that disconnected or whose user logged out.
+   */
+  private ConnectedTab removeTab(String activeClientId) {
+    ConnectedTab tab = connectedTabs.remove(activeClientId);
+    if (tab != null) {
+      unsubscribeAll(activeClientId, tab);
+
+      // The edit sessions no longer hold back their doc op history for this tab.
+      vertx.eventBus().send("documents.removeClient",
+          new JsonObject().put("activeClient", activeClientId));
     }
+    return tab;
   }
 
   /**
@@ -208,7 +350,7 @@ public class Participants extends BusModBase {
       if (loginInfo != null) {
         vertx.cancelTimer(loginInfo.timerId);
         loginInfo.timerId = vertx.setTimer(tabKeepAliveTimeout,
-            id-> connectedTabs.remove(activeClientId));
+            id-> removeTab(activeClientId));
       }
     }
   }
@@ -257,7 +399,7 @@ public class Participants extends BusModBase {
 
   private String createActiveTab(LoggedInUser user) {
     final String activeClient = UUID.randomUUID().toString();
-    long timerId = vertx.setTimer(tabKeepAliveTimeout, id-> connectedTabs.remove(activeClient));
+    long timerId = vertx.setTimer(tabKeepAliveTimeout, id-> removeTab(activeClient));
     connectedTabs.put(activeClient, new ConnectedTab(user, timerId));
     return activeClient;
   }
@@ -289,7 +431,7 @@ public class Participants extends BusModBase {
       }
 
       for (int i=0;i<usersTabs.size();i++) {
-        connectedTabs.remove(usersTabs.get(i).getKey());
+        removeTab(usersTabs.get(i).getKey());
         vertx.cancelTimer(usersTabs.get(i).getValue().timerId);
       }
       return true;
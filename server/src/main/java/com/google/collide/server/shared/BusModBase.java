@@ -1,5 +1,6 @@
 package com.google.collide.server.shared;
 
+import com.google.collide.server.shared.util.DtoMessageCodec;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.eventbus.EventBus;
 import io.vertx.core.eventbus.Message;
@@ -24,6 +25,7 @@ public abstract class BusModBase extends AbstractVerticle {
     public void start() {
         eb = vertx.eventBus();
         config = config();
+        DtoMessageCodec.register(eb);
     }
 
     protected void sendOK(Message<JsonObject> message) {
@@ -16,31 +16,56 @@ package com.google.collide.server.shared.merge;
 
 import java.util.List;
 
-import org.eclipse.jgit.diff.RawText;
-import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.diff.DiffAlgorithm;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.diff.HistogramDiff;
 import org.eclipse.jgit.merge.MergeAlgorithm;
 import org.eclipse.jgit.merge.MergeChunk.ConflictState;
 
+import com.google.collide.shared.document.Document;
 import com.google.common.collect.Lists;
 
 /**
  * Merger for performing a 3-way-merge using JGit.
+ *
+ * <p>The texts are compared as {@link LineSequence}s of their lines, so they
+ * are not encoded to bytes, and documents are not converted to text at all.
  * 
  */
 public class JGitMerger {
 
-  private static MergeAlgorithm mergeAlgorithm = new MergeAlgorithm();
+  private static DiffAlgorithm diffAlgorithm = new HistogramDiff();
+
+  private static MergeAlgorithm mergeAlgorithm = new MergeAlgorithm(diffAlgorithm);
   
   public static MergeResult merge(String base, String child, String parent) {
+    return merge(LineSequence.fromText(base), LineSequence.fromText(child),
+        LineSequence.fromText(parent));
+  }
+
+  public static MergeResult merge(Document base, Document child, Document parent) {
+    return merge(LineSequence.fromDocument(base), LineSequence.fromDocument(child),
+        LineSequence.fromDocument(parent));
+  }
+
+  public static MergeResult merge(LineSequence base, LineSequence child, LineSequence parent) {
     // Jgit Merge
-    org.eclipse.jgit.merge.MergeResult<RawText> jgitMergeResult =
-        mergeAlgorithm.merge(RawTextComparator.DEFAULT, new RawText(base.getBytes()),
-            new RawText(child.getBytes()), new RawText(parent.getBytes()));
+    org.eclipse.jgit.merge.MergeResult<LineSequence> jgitMergeResult =
+        mergeAlgorithm.merge(LineSequence.COMPARATOR, base, child, parent);
 
     return formatMerge(jgitMergeResult);
   }
 
-  public static MergeResult formatMerge(org.eclipse.jgit.merge.MergeResult<RawText> results) {
+  /**
+   * Returns the edits that turn {@code a} into {@code b}. Only the region
+   * between their common start and end is actually diffed.
+   */
+  public static EditList diff(LineSequence a, LineSequence b) {
+    return diffAlgorithm.diff(LineSequence.COMPARATOR, a, b);
+  }
+
+  public static MergeResult formatMerge(
+      org.eclipse.jgit.merge.MergeResult<LineSequence> results) {
     int runningIndex = 0;
     int numLines = 0;
     List<MergeChunk> mergeChunks = Lists.newArrayList();
@@ -48,8 +73,8 @@ public class JGitMerger {
     StringBuilder fileContent = new StringBuilder();
     int conflictIndex = 0;
     for (org.eclipse.jgit.merge.MergeChunk chunk : results) {
-      RawText seq = results.getSequences().get(chunk.getSequenceIndex());
-      String chunkContent = seq.getString(chunk.getBegin(), chunk.getEnd(), false);
+      LineSequence seq = results.getSequences().get(chunk.getSequenceIndex());
+      String chunkContent = seq.getString(chunk.getBegin(), chunk.getEnd());
 
       if (chunk.getConflictState() == ConflictState.NO_CONFLICT
           || chunk.getConflictState() == ConflictState.FIRST_CONFLICTING_RANGE) {
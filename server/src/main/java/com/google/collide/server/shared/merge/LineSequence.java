@@ -0,0 +1,123 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.shared.merge;
+
+import org.eclipse.jgit.diff.Sequence;
+import org.eclipse.jgit.diff.SequenceComparator;
+
+import com.google.collide.shared.document.Document;
+import com.google.collide.shared.document.Line;
+
+/**
+ * The lines of a text, for diffing and merging with JGit without encoding the
+ * text into a {@link org.eclipse.jgit.diff.RawText}.
+ *
+ * <p>Each line includes its newline character, and like {@code RawText} a
+ * trailing newline does not start another line. The line strings are
+ * referenced rather than copied, so a sequence taken from a {@link Document}
+ * costs one reference per line. Lines that did not change between two
+ * sequences are usually the same string instance, which {@link #COMPARATOR}
+ * checks first, so the unchanged start and end of two revisions are skipped
+ * without comparing their characters. Line hashes are the strings' own hash
+ * codes, which are cached per string.
+ *
+ * <p>This class is immutable.
+ */
+public class LineSequence extends Sequence {
+
+  public static final SequenceComparator<LineSequence> COMPARATOR =
+      new SequenceComparator<LineSequence>() {
+        @Override
+        public boolean equals(LineSequence a, int ai, LineSequence b, int bi) {
+          String aLine = a.lines[ai];
+          String bLine = b.lines[bi];
+          return aLine == bLine || aLine.equals(bLine);
+        }
+
+        @Override
+        public int hash(LineSequence seq, int ptr) {
+          return seq.lines[ptr].hashCode();
+        }
+      };
+
+  /**
+   * Takes the lines of the document as they are now. Later changes to the
+   * document do not affect the sequence.
+   */
+  public static LineSequence fromDocument(Document document) {
+    String[] lines = new String[document.getLineCount()];
+    int size = 0;
+    for (Line line = document.getFirstLine(); line != null; line = line.getNextLine()) {
+      // The document's last line is empty if the text ends with a newline
+      if (line.length() > 0) {
+        lines[size++] = line.getText();
+      }
+    }
+    return new LineSequence(lines, size);
+  }
+
+  public static LineSequence fromText(String text) {
+    int lineCount = 0;
+    for (int i = text.indexOf('\n'); i >= 0; i = text.indexOf('\n', i + 1)) {
+      lineCount++;
+    }
+
+    String[] lines = new String[lineCount + 1];
+    int size = 0;
+    int start = 0;
+    for (int end = text.indexOf('\n'); end >= 0; end = text.indexOf('\n', start)) {
+      lines[size++] = text.substring(start, end + 1);
+      start = end + 1;
+    }
+    if (start < text.length()) {
+      lines[size++] = text.substring(start);
+    }
+    return new LineSequence(lines, size);
+  }
+
+  private final String[] lines;
+
+  private final int size;
+
+  private LineSequence(String[] lines, int size) {
+    this.lines = lines;
+    this.size = size;
+  }
+
+  public String getLine(int index) {
+    return lines[index];
+  }
+
+  /**
+   * Returns the lines from {@code begin} (inclusive) to {@code end}
+   * (exclusive), joined.
+   */
+  public String getString(int begin, int end) {
+    if (end - begin == 1) {
+      return lines[begin];
+    }
+
+    StringBuilder sb = new StringBuilder();
+    for (int i = begin; i < end; i++) {
+      sb.append(lines[i]);
+    }
+    return sb.toString();
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+}
@@ -15,15 +15,55 @@
 package com.google.collide.server.shared.util;
 
 import com.google.collide.dtogen.server.JsonSerializable;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import io.vertx.core.eventbus.DeliveryOptions;
 import io.vertx.core.eventbus.Message;
 import io.vertx.core.json.JsonObject;
 
 /**
  * Utility for wrapping and unwrapping serialized Dtos.
+ *
+ * <p>
+ * Messages exchanged with browser clients carry the serialized Dto under the "dto" key of a
+ * {@link JsonObject}. Messages between verticles may instead carry the Dto itself, sent with
+ * {@link #deliveryOptions()}; {@link #get(Message)} accepts both.
  */
 public class Dto {
-  public static String get(Message<JsonObject> vertxMsg) {
-    String serializedDto = vertxMsg.body().getString("dto", null);
+
+  /**
+   * A Dto that has already been serialized, e.g. by a specialized writer, so that it is not
+   * serialized again when sent to another verticle.
+   */
+  public static final class Serialized implements JsonSerializable {
+    private final String json;
+
+    private Serialized(String json) {
+      this.json = json;
+    }
+
+    public static Serialized fromJsonString(String json) {
+      return new Serialized(json);
+    }
+
+    @Override
+    public String toJson() {
+      return json;
+    }
+
+    @Override
+    public JsonElement toJsonElement() {
+      return new JsonParser().parse(json);
+    }
+  }
+
+  public static String get(Message<?> vertxMsg) {
+    Object body = vertxMsg.body();
+    if (body instanceof JsonSerializable) {
+      return ((JsonSerializable) body).toJson();
+    }
+
+    String serializedDto = ((JsonObject) body).getString("dto", null);
     if (serializedDto == null) {
       throw new IllegalArgumentException("Missing dto field on vertx message!");
     }
@@ -37,4 +77,20 @@ public class Dto {
   public static JsonObject wrap(String serializedDto) {
     return new JsonObject().put("dto", serializedDto);
   }
+
+  /**
+   * Wraps an already serialized Dto for sending to another verticle with
+   * {@link #deliveryOptions()}.
+   */
+  public static Serialized serialized(String serializedDto) {
+    return new Serialized(serializedDto);
+  }
+
+  /**
+   * Options for sending a Dto itself as the message body to another verticle. The recipient must
+   * not be a browser client.
+   */
+  public static DeliveryOptions deliveryOptions() {
+    return new DeliveryOptions().setCodecName(DtoMessageCodec.NAME);
+  }
 }
@@ -0,0 +1,82 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.shared.util;
+
+import com.google.collide.dtogen.server.JsonSerializable;
+import com.google.common.base.Charsets;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.eventbus.MessageCodec;
+
+/**
+ * Event bus codec that sends server DTOs as message bodies, instead of wrapping their serialized
+ * form in a {@link io.vertx.core.json.JsonObject}.
+ *
+ * <p>
+ * Local deliveries pass the DTO by reference, so it must not be mutated once sent. Clustered
+ * deliveries carry its UTF-8 JSON and arrive as a {@link Dto.Serialized}; either way the
+ * recipient reads the JSON with {@link Dto#get(io.vertx.core.eventbus.Message)} and decodes it
+ * with the generated {@code fromJsonString} factory of the DTO it expects.
+ *
+ * <p>
+ * Messages to and from browser clients still go through the bridge as JSON; see
+ * {@link Dto#wrap(String)}.
+ */
+public final class DtoMessageCodec implements MessageCodec<JsonSerializable, JsonSerializable> {
+
+  public static final String NAME = "collide.dto";
+
+  /**
+   * Registers the codec on the event bus, unless it is already registered. Every verticle that
+   * sends DTOs calls this, since any of them may be deployed first.
+   */
+  public static void register(EventBus eventBus) {
+    synchronized (DtoMessageCodec.class) {
+      try {
+        eventBus.registerCodec(new DtoMessageCodec());
+      } catch (IllegalStateException e) {
+        // Already registered on this event bus
+      }
+    }
+  }
+
+  @Override
+  public void encodeToWire(Buffer buffer, JsonSerializable dto) {
+    byte[] json = dto.toJson().getBytes(Charsets.UTF_8);
+    buffer.appendInt(json.length).appendBytes(json);
+  }
+
+  @Override
+  public JsonSerializable decodeFromWire(int pos, Buffer buffer) {
+    int jsonLength = buffer.getInt(pos);
+    pos += 4;
+    return Dto.serialized(buffer.getString(pos, pos + jsonLength, "UTF-8"));
+  }
+
+  @Override
+  public JsonSerializable transform(JsonSerializable dto) {
+    return dto;
+  }
+
+  @Override
+  public String name() {
+    return NAME;
+  }
+
+  @Override
+  public byte systemCodecID() {
+    return -1;
+  }
+}
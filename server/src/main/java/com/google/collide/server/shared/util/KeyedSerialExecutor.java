@@ -0,0 +1,145 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.server.shared.util;
+
+import com.google.common.base.Preconditions;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs tasks on a shared pool of worker threads such that tasks submitted with the same key run
+ * one at a time, in submission order. Tasks with different keys usually run in parallel.
+ *
+ * <p>
+ * Keys are hashed onto a fixed number of stripes, each of which is a queue drained by at most one
+ * worker at a time. Two keys may share a stripe, in which case their tasks are serialized with
+ * respect to each other too; using more stripes than workers keeps such collisions rare.
+ *
+ * <p>
+ * This class is thread-safe.
+ */
+public final class KeyedSerialExecutor {
+
+  private static final Logger logger = LoggerFactory.getLogger(KeyedSerialExecutor.class);
+
+  /**
+   * Maximum number of tasks a stripe runs before handing its worker back to the pool, so a busy
+   * key cannot starve the other stripes.
+   */
+  private static final int MAX_TASKS_PER_DRAIN = 64;
+
+  /**
+   * Queue of pending tasks for the keys that hash to it. It is scheduled on the worker pool
+   * whenever it is non-empty and not already scheduled.
+   */
+  private class Stripe implements Runnable {
+    private final Queue<Runnable> tasks = new ArrayDeque<Runnable>();
+
+    /** Guarded by this; true while the stripe is queued on or running in the worker pool */
+    private boolean scheduled;
+
+    void submit(Runnable task) {
+      synchronized (this) {
+        tasks.add(task);
+        if (scheduled) {
+          return;
+        }
+        scheduled = true;
+      }
+      schedule();
+    }
+
+    @Override
+    public void run() {
+      for (int i = 0; i < MAX_TASKS_PER_DRAIN; i++) {
+        Runnable task;
+        synchronized (this) {
+          task = tasks.poll();
+          if (task == null) {
+            scheduled = false;
+            return;
+          }
+        }
+
+        try {
+          task.run();
+        } catch (Throwable e) {
+          // Even an Error must not leave the stripe scheduled with nothing running it
+          logger.error("Uncaught exception in serial task", e);
+        }
+      }
+
+      // Yield the worker; the stripe stays scheduled so its tasks remain in order
+      try {
+        schedule();
+      } catch (RejectedExecutionException e) {
+        logger.error("Dropped serial tasks, the worker pool was shut down", e);
+      }
+    }
+
+    /**
+     * Queues the stripe on the worker pool. If the pool rejects it, e.g. after a shutdown, the
+     * pending tasks are dropped so that the stripe does not stay scheduled with nothing to run it.
+     */
+    private void schedule() {
+      try {
+        workers.execute(this);
+      } catch (RejectedExecutionException e) {
+        synchronized (this) {
+          tasks.clear();
+          scheduled = false;
+        }
+        throw e;
+      }
+    }
+  }
+
+  private final Executor workers;
+  private final Stripe[] stripes;
+
+  /**
+   * @param workers the pool that runs the tasks
+   * @param stripeCount number of independent queues keys are hashed onto
+   */
+  public KeyedSerialExecutor(Executor workers, int stripeCount) {
+    Preconditions.checkArgument(stripeCount > 0, "Invalid stripe count [%s]", stripeCount);
+    this.workers = workers;
+    this.stripes = new Stripe[stripeCount];
+    for (int i = 0; i < stripeCount; i++) {
+      stripes[i] = new Stripe();
+    }
+  }
+
+  /**
+   * Schedules {@code task} to run after every task previously submitted with an equal key.
+   *
+   * @throws RejectedExecutionException if the worker pool does not accept tasks anymore
+   */
+  public void execute(Object key, Runnable task) {
+    stripes[stripeIndex(key)].submit(task);
+  }
+
+  private int stripeIndex(Object key) {
+    // Spread the high bits, since String hash codes of similar keys differ mostly in the low bits
+    int h = key.hashCode();
+    h ^= (h >>> 16);
+    return (h & Integer.MAX_VALUE) % stripes.length;
+  }
+}
@@ -33,6 +33,12 @@ public interface DirInfo extends TreeNodeInfo {
    *         starting at this node.
    */
   boolean isComplete();
-  
+
+  /**
+   * @return the number of files and subdirectories in this directory, which is
+   *         known even if the node has not been populated
+   */
+  int getChildCount();
+
   boolean isPackage();
 }
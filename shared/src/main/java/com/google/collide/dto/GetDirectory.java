@@ -33,4 +33,23 @@ public interface GetDirectory extends ClientToServerDto {
    * root path and path.
    */
   int getDepth();
+
+  /**
+   * The index of the first child of the directory at the specified path to
+   * include. Subdirectories come before files, each in the server's order.
+   */
+  int getOffset();
+
+  /**
+   * The maximum number of children of the directory at the specified path to
+   * include. A limit of <= 0 includes all of them.
+   */
+  int getLimit();
+
+  /**
+   * The tree version up to which the requester has applied every tree update,
+   * if it has a copy of the directory. When the server still has the updates
+   * since that version, it replies with those instead of the directory.
+   */
+  String getKnownTreeVersion();
 }
@@ -16,6 +16,7 @@ package com.google.collide.dto;
 
 import com.google.collide.dtogen.shared.RoutingType;
 import com.google.collide.dtogen.shared.ServerToClientDto;
+import com.google.collide.json.shared.JsonArray;
 
 /**
  * Represents the set of files/directories under some base directory, arranged into a tree
@@ -38,4 +39,23 @@ public interface GetDirectoryResponse extends ServerToClientDto {
    * The tree's version number.
    */
   String getRootId();
+
+  /**
+   * Whether the base directory has children past the ones in this response,
+   * which can be fetched with a larger {@link GetDirectory#getOffset()}.
+   */
+  boolean hasMoreChildren();
+
+  /**
+   * Whether this response carries the tree updates since
+   * {@link GetDirectory#getKnownTreeVersion()} instead of the base directory.
+   * Without any updates, the directory has not changed.
+   */
+  boolean isIncremental();
+
+  /**
+   * The tree updates since the known tree version, oldest first, if this
+   * response is incremental.
+   */
+  JsonArray<WorkspaceTreeUpdateBroadcast> getTreeUpdates();
 }
@@ -27,4 +27,10 @@ public interface GetFileContents extends ClientToServerDto {
 
   // TODO: Make this a resource ID/EditSessionKey.
   String getPath();
+
+  /**
+   * The active client ID of the requesting tab, which is subscribed to the doc ops of the file when
+   * an edit session is opened for it. Optional.
+   */
+  String getClientId();
 }
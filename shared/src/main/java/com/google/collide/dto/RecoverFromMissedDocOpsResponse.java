@@ -35,4 +35,11 @@ public interface RecoverFromMissedDocOpsResponse extends ServerToClientDto {
    * by {@link RecoverFromMissedDocOps#getCurrentCcRevision()}) + 1.
    */
   JsonArray<ServerToClientDocOp> getDocOps();
+
+  /**
+   * True when the server has already pruned the doc ops following the client's
+   * revision from its history, in which case {@link #getDocOps()} is empty.
+   * The client cannot catch up incrementally and must reload the document.
+   */
+  boolean getHistoryPruned();
 }
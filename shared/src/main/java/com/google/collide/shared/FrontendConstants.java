@@ -89,9 +89,15 @@ public final class FrontendConstants {
 
   /**
    * The default depth to load the file tree and sub-directories. A depth of -1 indicates infinite
-   * depth.
+   * depth. Deeper directories are loaded when they are expanded.
    */
-  public static final int DEFAULT_FILE_TREE_DEPTH = -1;
+  public static final int DEFAULT_FILE_TREE_DEPTH = 1;
+
+  /**
+   * The maximum number of children of a directory to load with one request. Larger directories
+   * are loaded over several requests.
+   */
+  public static final int FILE_TREE_PAGE_SIZE = 500;
 
   private FrontendConstants() {
   }
@@ -152,6 +152,10 @@ public class Document implements DocumentMutator {
 
   private final LineFinder lineFinder;
 
+  private LineIndex lineIndex;
+
+  private TextChunks textChunks;
+
   private final DocumentMutatorImpl documentMutator;
 
   private final ListenerManager<TextListener> textListenerManager;
@@ -182,6 +186,10 @@ public class Document implements DocumentMutator {
   }
 
   public String asText() {
+    if (textChunks != null) {
+      return textChunks.getSnapshot().toString();
+    }
+
     StringBuilder sb = new StringBuilder();
     for (Line line = firstLine; line != null; line = line.getNextLine()) {
       sb.append(line.getText());
@@ -190,6 +198,23 @@ public class Document implements DocumentMutator {
     return sb.toString();
   }
 
+  /**
+   * Returns an immutable snapshot of the text. Until the document changes, the
+   * same snapshot is returned again. After a change, only the lines near the
+   * change are joined again; the rest of the text is shared with the previous
+   * snapshot.
+   *
+   * The first call starts keeping a copy of the text in chunks, which is then
+   * updated on every mutation, so documents that are only read line by line
+   * should not call this.
+   */
+  public TextSnapshot getTextSnapshot() {
+    if (textChunks == null) {
+      textChunks = TextChunks.create(this);
+    }
+    return textChunks.getSnapshot();
+  }
+
   @Override
   public TextChange deleteText(Line line, int column, int deleteCount) {
     return documentMutator.deleteText(line, column, deleteCount);
@@ -236,6 +261,23 @@ public class Document implements DocumentMutator {
     return lineFinder;
   }
 
+  /**
+   * Indexes the lines of this document, so that the {@link LineFinder} resolves
+   * line numbers and character offsets in O(log n) instead of iterating from
+   * the closest known line. The index costs a tree node per line and a little
+   * work on every mutation. The documents of edit sessions and of the files
+   * opened in the editor enable it; scratch documents, e.g. for diffs, don't.
+   */
+  public void enableLineIndex() {
+    if (lineIndex == null) {
+      lineIndex = LineIndex.create(this);
+    }
+  }
+
+  public boolean isLineIndexEnabled() {
+    return lineIndex != null;
+  }
+
   public ListenerRegistrar<LineListener> getLineListenerRegistrar() {
     return lineListenerManager;
   }
@@ -316,6 +358,20 @@ public class Document implements DocumentMutator {
     return (T) tags.get(key);
   }
 
+  /**
+   * Returns the line index, or null if it is not enabled.
+   */
+  LineIndex getLineIndex() {
+    return lineIndex;
+  }
+
+  /**
+   * Returns the text chunks, or null if no snapshot was taken yet.
+   */
+  TextChunks getTextChunks() {
+    return textChunks;
+  }
+
   void commitLineCountChange(int lineCountDelta) {
     if (lineCountDelta != 0) {
       lineCount += lineCountDelta;
@@ -92,7 +92,7 @@ class DocumentMutatorImpl implements DocumentMutator {
       }
 
       String lastLineChunk = curLine.getText().substring(lastLineFirstUntouchedColumn);
-      firstLine.setText(firstLineChunk + lastLineChunk);
+      setLineText(firstLine, firstLineChunk + lastLineChunk);
 
       int numberOfDeletedLines = curLineNumber - firstLineNumber;
 
@@ -249,7 +249,7 @@ class DocumentMutatorImpl implements DocumentMutator {
     // Add the text first
     String oldText = line.getText();
     String newText = oldText.substring(0, column) + text + oldText.substring(column);
-    line.setText(newText);
+    setLineText(line, newText);
 
     // Update the anchors
     anchorManager.handleSingleLineTextInsertion(line, column, text.length());
@@ -281,7 +281,7 @@ class DocumentMutatorImpl implements DocumentMutator {
     String secondChunk = lineText.substring(column);
     JsonArray<String> insertionLineTexts = StringUtils.split(text, "\n");
     
-    line.setText(firstChunk + insertionLineTexts.get(0) + "\n");
+    setLineText(line, firstChunk + insertionLineTexts.get(0) + "\n");
 
     Line prevLine = line;
     int prevLineNumber = lineNumber;
@@ -341,6 +341,28 @@ class DocumentMutatorImpl implements DocumentMutator {
     }
 
     line.setAttached(true);
+
+    LineIndex lineIndex = document.getLineIndex();
+    if (lineIndex != null) {
+      lineIndex.insertAfter(previousLine, line);
+    }
+    TextChunks textChunks = document.getTextChunks();
+    if (textChunks != null) {
+      textChunks.insertAfter(previousLine, line);
+    }
+  }
+
+  private void setLineText(Line line, String text) {
+    line.setText(text);
+
+    LineIndex lineIndex = document.getLineIndex();
+    if (lineIndex != null) {
+      lineIndex.updateLength(line);
+    }
+    TextChunks textChunks = document.getTextChunks();
+    if (textChunks != null) {
+      textChunks.updateText(line);
+    }
   }
 
   private void deleteTextImpl(final Line firstLine, final int firstLineNumber,
@@ -382,5 +404,14 @@ class DocumentMutatorImpl implements DocumentMutator {
     }
 
     line.setAttached(false);
+
+    LineIndex lineIndex = document.getLineIndex();
+    if (lineIndex != null) {
+      lineIndex.remove(line);
+    }
+    TextChunks textChunks = document.getTextChunks();
+    if (textChunks != null) {
+      textChunks.remove(line);
+    }
   }
 }
@@ -43,6 +43,12 @@ public class Line implements TaggableLine {
 
   private final Document document;
 
+  /** The line's node in the document's {@link LineIndex}, if it has one */
+  private LineIndex.Node indexNode;
+
+  /** The chunk holding the line in the document's {@link TextChunks}, if it has them */
+  private TextChunks.Chunk chunk;
+
   private Line nextLine;
 
   private Line previousLine;
@@ -145,6 +151,22 @@ public class Line implements TaggableLine {
     return getNextLine() == null;
   }
 
+  LineIndex.Node getIndexNode() {
+    return indexNode;
+  }
+
+  void setIndexNode(LineIndex.Node indexNode) {
+    this.indexNode = indexNode;
+  }
+
+  TextChunks.Chunk getChunk() {
+    return chunk;
+  }
+
+  void setChunk(TextChunks.Chunk chunk) {
+    this.chunk = chunk;
+  }
+
   void setAttached(boolean attached) {
     this.attached = attached;
   }
@@ -25,6 +25,9 @@ import com.google.collide.shared.document.util.LineUtils;
  * finds the closest anchor with line number, and then iterates to the line of
  * interest. Most document edits will originate on a line with an anchor
  * (local/collaborator cursors use anchors), so the common case is fast.
+ *
+ * - If the document has a line index (see Document#enableLineIndex), all
+ * lookups go through it instead, and take O(log n) wherever they land.
  */
 /**
  * Helper to efficiently resolve a line number given the line, or vice versa.
@@ -48,6 +51,11 @@ public class LineFinder {
           + " but document length is " + document.getLineCount());
     }
 
+    LineIndex lineIndex = document.getLineIndex();
+    if (lineIndex != null) {
+      return lineIndex.getLine(targetLineNumber);
+    }
+
     int distanceFromFirstLine = targetLineNumber;
     int distanceFromLastLine = document.getLineCount() - targetLineNumber - 1;
 
@@ -75,6 +83,10 @@ public class LineFinder {
   }
 
   public LineInfo findLine(Line line) {
+    LineIndex lineIndex = document.getLineIndex();
+    if (lineIndex != null && line.isAttached()) {
+      return new LineInfo(line, lineIndex.getLineNumber(line));
+    }
 
     Line forwardIteratingLine = line;
     int forwardLineCount = 0;
@@ -123,7 +135,7 @@ public class LineFinder {
           + " but document length is " + document.getLineCount());
     }
 
-    if (begin == null) {
+    if (begin == null || document.getLineIndex() != null) {
       return findLine(targetLineNumber);
     }
 
@@ -146,4 +158,59 @@ public class LineFinder {
 
     return new LineInfo(line, number);
   }
+
+  /**
+   * Returns the offset of the first character of the given line from the start
+   * of the document. This iterates over the preceding lines unless the document
+   * has a line index.
+   */
+  public int findOffset(LineInfo lineInfo) {
+    LineIndex lineIndex = document.getLineIndex();
+    if (lineIndex != null) {
+      return lineIndex.getOffset(lineInfo.line());
+    }
+
+    int offset = 0;
+    for (Line line = lineInfo.line().getPreviousLine(); line != null;
+        line = line.getPreviousLine()) {
+      offset += line.length();
+    }
+    return offset;
+  }
+
+  /**
+   * Finds the position of the character at the given offset from the start of
+   * the document. The end of the document is a valid offset. This iterates from
+   * the first line unless the document has a line index.
+   */
+  public Position findPosition(int offset) {
+    if (offset < 0) {
+      throw new IndexOutOfBoundsException("Asking for offset " + offset);
+    }
+
+    LineIndex lineIndex = document.getLineIndex();
+    if (lineIndex != null) {
+      if (offset > lineIndex.getCharCount()) {
+        throw new IndexOutOfBoundsException("Asking for offset " + offset
+            + " but document length is " + lineIndex.getCharCount());
+      }
+      LineInfo lineInfo = lineIndex.getLineAtOffset(offset);
+      return new Position(lineInfo, offset - lineIndex.getOffset(lineInfo.line()));
+    }
+
+    Line line = document.getFirstLine();
+    int number = 0;
+    int column = offset;
+    while (column >= line.length() && line.getNextLine() != null) {
+      column -= line.length();
+      line = line.getNextLine();
+      number++;
+    }
+
+    if (column > line.length()) {
+      throw new IndexOutOfBoundsException("Asking for offset " + offset
+          + " but document length is " + (offset - column + line.length()));
+    }
+    return new Position(new LineInfo(line, number), column);
+  }
 }
@@ -0,0 +1,336 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.shared.document;
+
+/*
+ * Implementation notes:
+ *
+ * - This is an AVL tree keyed implicitly by position: a node's line number is
+ * the number of lines in the subtrees to its left. Every node also stores the
+ * line and character counts of its subtree, so both line numbers and character
+ * offsets resolve in a single descent or a single walk up to the root.
+ *
+ * - Each attached line points to its node, so resolving a line's number or
+ * offset does not need to search for it.
+ */
+/**
+ * A balanced tree over the lines of a {@link Document} that resolves line
+ * numbers and character offsets in O(log n).
+ *
+ * The index is optional (see {@link Document#enableLineIndex()}) and kept up to
+ * date by the {@link DocumentMutatorImpl}: it must be told about every line
+ * that is inserted or removed, and about every line whose text changes.
+ */
+final class LineIndex {
+
+  /**
+   * A node of the tree, one per line.
+   */
+  static final class Node {
+    private Line line;
+    private Node left;
+    private Node right;
+    private Node parent;
+    private int height = 1;
+    private int length;
+    private int subtreeLineCount = 1;
+    private int subtreeCharCount;
+
+    private Node(Line line) {
+      setLine(line);
+      length = subtreeCharCount = line.length();
+    }
+
+    private void setLine(Line line) {
+      this.line = line;
+      line.setIndexNode(this);
+    }
+  }
+
+  /**
+   * Builds an index over the given document's current lines.
+   */
+  static LineIndex create(Document document) {
+    LineIndex index = new LineIndex();
+    index.nextLineToBuild = document.getFirstLine();
+    index.root = index.build(document.getLineCount());
+    index.nextLineToBuild = null;
+    return index;
+  }
+
+  private Node root;
+
+  /** The next line to add while building a tree, see {@link #build} */
+  private Line nextLineToBuild;
+
+  private LineIndex() {
+  }
+
+  /**
+   * Returns the line with the given number, which must be within the document.
+   */
+  LineInfo getLine(int lineNumber) {
+    assert lineNumber >= 0 && lineNumber < getLineCount();
+
+    Node node = root;
+    int remaining = lineNumber;
+    while (true) {
+      int leftLineCount = lineCount(node.left);
+      if (remaining < leftLineCount) {
+        node = node.left;
+      } else if (remaining == leftLineCount) {
+        return new LineInfo(node.line, lineNumber);
+      } else {
+        remaining -= leftLineCount + 1;
+        node = node.right;
+      }
+    }
+  }
+
+  /**
+   * Returns the line containing the character at the given offset from the
+   * start of the document. The end of the document is on the last line.
+   */
+  LineInfo getLineAtOffset(int offset) {
+    assert offset >= 0 && offset <= getCharCount();
+
+    Node node = root;
+    int remaining = offset;
+    int lineNumber = 0;
+    while (node != null) {
+      int leftCharCount = charCount(node.left);
+      if (remaining < leftCharCount) {
+        node = node.left;
+        continue;
+      }
+
+      remaining -= leftCharCount;
+      lineNumber += lineCount(node.left);
+      if (remaining < node.length || node.right == null) {
+        return new LineInfo(node.line, lineNumber);
+      }
+
+      remaining -= node.length;
+      lineNumber++;
+      node = node.right;
+    }
+
+    throw new IllegalStateException("Could not find offset " + offset);
+  }
+
+  int getLineNumber(Line line) {
+    Node node = line.getIndexNode();
+    int lineNumber = lineCount(node.left);
+    for (; node.parent != null; node = node.parent) {
+      if (node == node.parent.right) {
+        lineNumber += lineCount(node.parent.left) + 1;
+      }
+    }
+    return lineNumber;
+  }
+
+  /**
+   * Returns the offset of the first character of the given line from the start
+   * of the document.
+   */
+  int getOffset(Line line) {
+    Node node = line.getIndexNode();
+    int offset = charCount(node.left);
+    for (; node.parent != null; node = node.parent) {
+      if (node == node.parent.right) {
+        offset += charCount(node.parent.left) + node.parent.length;
+      }
+    }
+    return offset;
+  }
+
+  int getLineCount() {
+    return lineCount(root);
+  }
+
+  int getCharCount() {
+    return charCount(root);
+  }
+
+  /**
+   * Adds {@code line} immediately after {@code previousLine}, which must
+   * already be indexed.
+   */
+  void insertAfter(Line previousLine, Line line) {
+    Node node = new Node(line);
+    Node previous = previousLine.getIndexNode();
+    if (previous.right == null) {
+      previous.right = node;
+      node.parent = previous;
+    } else {
+      Node successor = previous.right;
+      while (successor.left != null) {
+        successor = successor.left;
+      }
+      successor.left = node;
+      node.parent = successor;
+    }
+
+    rebalanceToRoot(node.parent);
+  }
+
+  void remove(Line line) {
+    Node node = line.getIndexNode();
+    line.setIndexNode(null);
+
+    if (node.left != null && node.right != null) {
+      // Let the node take over its successor's line, and remove the successor
+      Node successor = node.right;
+      while (successor.left != null) {
+        successor = successor.left;
+      }
+      node.setLine(successor.line);
+      node.length = successor.length;
+      node = successor;
+    }
+
+    Node child = node.left != null ? node.left : node.right;
+    Node parent = node.parent;
+    if (child != null) {
+      child.parent = parent;
+    }
+    replaceChild(parent, node, child);
+
+    rebalanceToRoot(parent);
+  }
+
+  /**
+   * Updates the index after the text of the given line changed.
+   */
+  void updateLength(Line line) {
+    Node node = line.getIndexNode();
+    node.length = line.length();
+    for (; node != null; node = node.parent) {
+      update(node);
+    }
+  }
+
+  /**
+   * Builds a perfectly balanced tree of the next {@code count} lines.
+   */
+  private Node build(int count) {
+    if (count == 0) {
+      return null;
+    }
+
+    Node left = build(count / 2);
+    Node node = new Node(nextLineToBuild);
+    nextLineToBuild = nextLineToBuild.getNextLine();
+    Node right = build(count - count / 2 - 1);
+
+    node.left = left;
+    node.right = right;
+    if (left != null) {
+      left.parent = node;
+    }
+    if (right != null) {
+      right.parent = node;
+    }
+    update(node);
+    return node;
+  }
+
+  private void rebalanceToRoot(Node node) {
+    while (node != null) {
+      update(node);
+
+      int balance = height(node.left) - height(node.right);
+      if (balance > 1) {
+        if (height(node.left.left) < height(node.left.right)) {
+          rotateLeft(node.left);
+        }
+        node = rotateRight(node);
+      } else if (balance < -1) {
+        if (height(node.right.right) < height(node.right.left)) {
+          rotateRight(node.right);
+        }
+        node = rotateLeft(node);
+      }
+
+      node = node.parent;
+    }
+  }
+
+  /**
+   * @return the new root of the rotated subtree
+   */
+  private Node rotateLeft(Node node) {
+    Node pivot = node.right;
+    node.right = pivot.left;
+    if (pivot.left != null) {
+      pivot.left.parent = node;
+    }
+    pivot.parent = node.parent;
+    replaceChild(node.parent, node, pivot);
+    pivot.left = node;
+    node.parent = pivot;
+
+    update(node);
+    update(pivot);
+    return pivot;
+  }
+
+  /**
+   * @return the new root of the rotated subtree
+   */
+  private Node rotateRight(Node node) {
+    Node pivot = node.left;
+    node.left = pivot.right;
+    if (pivot.right != null) {
+      pivot.right.parent = node;
+    }
+    pivot.parent = node.parent;
+    replaceChild(node.parent, node, pivot);
+    pivot.right = node;
+    node.parent = pivot;
+
+    update(node);
+    update(pivot);
+    return pivot;
+  }
+
+  private void replaceChild(Node parent, Node oldChild, Node newChild) {
+    if (parent == null) {
+      root = newChild;
+    } else if (parent.left == oldChild) {
+      parent.left = newChild;
+    } else {
+      parent.right = newChild;
+    }
+  }
+
+  private static void update(Node node) {
+    node.height = Math.max(height(node.left), height(node.right)) + 1;
+    node.subtreeLineCount = lineCount(node.left) + lineCount(node.right) + 1;
+    node.subtreeCharCount = charCount(node.left) + charCount(node.right) + node.length;
+  }
+
+  private static int height(Node node) {
+    return node == null ? 0 : node.height;
+  }
+
+  private static int lineCount(Node node) {
+    return node == null ? 0 : node.subtreeLineCount;
+  }
+
+  private static int charCount(Node node) {
+    return node == null ? 0 : node.subtreeCharCount;
+  }
+}
@@ -0,0 +1,213 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.shared.document;
+
+import com.google.collide.json.shared.JsonArray;
+import com.google.collide.shared.util.JsonCollections;
+
+/*
+ * Implementation notes:
+ *
+ * - The lines of the document are grouped into runs of consecutive lines
+ * (chunks), each of which caches its joined text. Each line points to its
+ * chunk, so an edit only has to drop the cached text of the chunks it touches.
+ *
+ * - Chunks are split when they grow past twice the target size and merged
+ * into their next chunk when they shrink below a quarter of it, so the number
+ * of chunks stays proportional to the number of lines.
+ */
+/**
+ * Keeps the text of a {@link Document} in chunks so that snapshots of it only
+ * have to join the lines of chunks that changed since the last snapshot.
+ *
+ * This is created the first time the document is asked for a snapshot, and is
+ * then kept up to date by the {@link DocumentMutatorImpl}: it must be told
+ * about every line that is inserted or removed, and about every line whose text
+ * changes.
+ */
+final class TextChunks {
+
+  /** The number of lines in a freshly built chunk */
+  private static final int TARGET_CHUNK_LINE_COUNT = 64;
+
+  /**
+   * A run of consecutive lines.
+   */
+  static final class Chunk {
+    private Line firstLine;
+    private int lineCount;
+    private Chunk next;
+    private Chunk previous;
+
+    /** The joined text of the lines, or null if one of them changed */
+    private String text;
+  }
+
+  static TextChunks create(Document document) {
+    TextChunks textChunks = new TextChunks();
+    Chunk previous = null;
+    Line line = document.getFirstLine();
+    while (line != null) {
+      Chunk chunk = new Chunk();
+      chunk.firstLine = line;
+      for (; line != null && chunk.lineCount < TARGET_CHUNK_LINE_COUNT;
+          line = line.getNextLine()) {
+        line.setChunk(chunk);
+        chunk.lineCount++;
+      }
+
+      if (previous == null) {
+        textChunks.firstChunk = chunk;
+      } else {
+        previous.next = chunk;
+        chunk.previous = previous;
+      }
+      previous = chunk;
+    }
+    return textChunks;
+  }
+
+  private Chunk firstChunk;
+
+  /** The snapshot of the current text, or null if it changed since */
+  private TextSnapshot snapshot;
+
+  private TextChunks() {
+  }
+
+  /**
+   * Returns a snapshot of the current text. This only joins the lines of the
+   * chunks that changed since the last snapshot.
+   */
+  synchronized TextSnapshot getSnapshot() {
+    if (snapshot == null) {
+      JsonArray<String> chunkTexts = JsonCollections.createArray();
+      int length = 0;
+      for (Chunk chunk = firstChunk; chunk != null; chunk = chunk.next) {
+        if (chunk.text == null) {
+          chunk.text = joinLines(chunk);
+        }
+        chunkTexts.add(chunk.text);
+        length += chunk.text.length();
+      }
+      snapshot = new TextSnapshot(chunkTexts, length);
+    }
+    return snapshot;
+  }
+
+  /**
+   * Adds {@code line} immediately after {@code previousLine}, which must
+   * already be in a chunk.
+   */
+  void insertAfter(Line previousLine, Line line) {
+    Chunk chunk = previousLine.getChunk();
+    line.setChunk(chunk);
+    chunk.lineCount++;
+    changed(chunk);
+
+    if (chunk.lineCount > 2 * TARGET_CHUNK_LINE_COUNT) {
+      split(chunk);
+    }
+  }
+
+  void remove(Line line) {
+    Chunk chunk = line.getChunk();
+    line.setChunk(null);
+    chunk.lineCount--;
+    changed(chunk);
+
+    if (chunk.lineCount == 0) {
+      unlink(chunk);
+      return;
+    }
+
+    if (chunk.firstLine == line) {
+      // The line is detached, but still points to the rest of its chunk
+      chunk.firstLine = line.getNextLine();
+    }
+    if (chunk.lineCount < TARGET_CHUNK_LINE_COUNT / 4 && chunk.next != null
+        && chunk.lineCount + chunk.next.lineCount <= 2 * TARGET_CHUNK_LINE_COUNT) {
+      mergeWithNext(chunk);
+    }
+  }
+
+  /**
+   * Updates the chunks after the text of the given line changed.
+   */
+  void updateText(Line line) {
+    changed(line.getChunk());
+  }
+
+  private void changed(Chunk chunk) {
+    chunk.text = null;
+    snapshot = null;
+  }
+
+  private void split(Chunk chunk) {
+    Line line = chunk.firstLine;
+    for (int i = 0; i < TARGET_CHUNK_LINE_COUNT; i++) {
+      line = line.getNextLine();
+    }
+
+    Chunk newChunk = new Chunk();
+    newChunk.firstLine = line;
+    newChunk.lineCount = chunk.lineCount - TARGET_CHUNK_LINE_COUNT;
+    for (int i = 0; i < newChunk.lineCount; i++, line = line.getNextLine()) {
+      line.setChunk(newChunk);
+    }
+    chunk.lineCount = TARGET_CHUNK_LINE_COUNT;
+
+    newChunk.previous = chunk;
+    newChunk.next = chunk.next;
+    if (chunk.next != null) {
+      chunk.next.previous = newChunk;
+    }
+    chunk.next = newChunk;
+  }
+
+  private void mergeWithNext(Chunk chunk) {
+    Chunk next = chunk.next;
+    Line line = next.firstLine;
+    for (int i = 0; i < next.lineCount; i++, line = line.getNextLine()) {
+      line.setChunk(chunk);
+    }
+    chunk.lineCount += next.lineCount;
+    unlink(next);
+  }
+
+  private void unlink(Chunk chunk) {
+    if (chunk.previous == null) {
+      firstChunk = chunk.next;
+    } else {
+      chunk.previous.next = chunk.next;
+    }
+    if (chunk.next != null) {
+      chunk.next.previous = chunk.previous;
+    }
+  }
+
+  private static String joinLines(Chunk chunk) {
+    if (chunk.lineCount == 1) {
+      return chunk.firstLine.getText();
+    }
+
+    StringBuilder sb = new StringBuilder();
+    Line line = chunk.firstLine;
+    for (int i = 0; i < chunk.lineCount; i++, line = line.getNextLine()) {
+      sb.append(line.getText());
+    }
+    return sb.toString();
+  }
+}
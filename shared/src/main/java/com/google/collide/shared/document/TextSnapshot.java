@@ -0,0 +1,77 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.shared.document;
+
+import com.google.collide.json.shared.JsonArray;
+
+/**
+ * An immutable snapshot of the text of a {@link Document}, see
+ * {@link Document#getTextSnapshot()}.
+ *
+ * The text is held as a list of chunks of consecutive lines. Snapshots of the
+ * same document share the chunks that did not change between them, so the text
+ * can be written out chunk by chunk without ever being joined. The joined text
+ * is only built when {@link #toString()} is first called.
+ *
+ * This class is immutable.
+ */
+public final class TextSnapshot {
+
+  private final JsonArray<String> chunks;
+
+  private final int length;
+
+  /** The joined text, or null if it has not been asked for yet */
+  private String text;
+
+  TextSnapshot(JsonArray<String> chunks, int length) {
+    this.chunks = chunks;
+    this.length = length;
+  }
+
+  public int getChunkCount() {
+    return chunks.size();
+  }
+
+  public String getChunk(int index) {
+    return chunks.get(index);
+  }
+
+  /**
+   * Returns the number of characters in the text.
+   */
+  public int length() {
+    return length;
+  }
+
+  /**
+   * Returns the text as a single string.
+   */
+  @Override
+  public String toString() {
+    if (text == null) {
+      if (chunks.size() == 1) {
+        text = chunks.get(0);
+      } else {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0, n = chunks.size(); i < n; i++) {
+          sb.append(chunks.get(i));
+        }
+        text = sb.toString();
+      }
+    }
+    return text;
+  }
+}
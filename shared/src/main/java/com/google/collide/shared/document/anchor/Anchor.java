@@ -151,8 +151,15 @@ public class Anchor implements ReadOnlyAnchor {
 
   private Line line;
 
+  /**
+   * The line number, unless the anchor is in the {@link LineAnchorList}, which
+   * then keeps track of it (see {@link #lineAnchorNode})
+   */
   private int lineNumber;
 
+  /** The anchor's node in the {@link LineAnchorList}, if it is in one */
+  private LineAnchorList.Node lineAnchorNode;
+
   private ListenerManager<ShiftListenerImpl<? extends ReadOnlyAnchor>> shiftListenerManager;
   
   private ListenerManager<MoveListenerImpl<? extends ReadOnlyAnchor>> moveListenerManager;
@@ -213,12 +220,12 @@ public class Anchor implements ReadOnlyAnchor {
   }
 
   public LineInfo getLineInfo() {
-    return new LineInfo(line, lineNumber);
+    return new LineInfo(line, getLineNumber());
   }
 
   @Override
   public int getLineNumber() {
-    return lineNumber;
+    return lineAnchorNode != null ? lineAnchorNode.getLineNumber() : lineNumber;
   }
 
   @Override
@@ -260,6 +267,9 @@ public class Anchor implements ReadOnlyAnchor {
   public ListenerRegistrar<ShiftListener> getShiftListenerRegistrar() {
     if (shiftListenerManager == null) {
       shiftListenerManager = ListenerManager.create();
+      if (lineAnchorNode != null) {
+        lineAnchorNode.onShiftListenerAdded();
+      }
     }
 
     return (ListenerRegistrar) shiftListenerManager;
@@ -303,7 +313,7 @@ public class Anchor implements ReadOnlyAnchor {
   public String toString() {
     StringBuilder sb = new StringBuilder(getType().toString());
     sb.append(":").append(getId());
-    sb.append(" (").append(lineNumber).append(',').append(column).append(")");
+    sb.append(" (").append(getLineNumber()).append(',').append(column).append(")");
     sb.append("[").append(value).append("]");
     sb.append(": ");
 
@@ -376,12 +386,32 @@ public class Anchor implements ReadOnlyAnchor {
     this.column = column;
   }
 
+  /**
+   * Make sure all calls to this method are surrounded with removal and
+   * re-addition to the list(s) it belongs in!
+   */
   void setLineWithoutDispatch(Line line, int lineNumber) {
     checkArgument(hasLineNumber() == (lineNumber != AnchorManager.IGNORE_LINE_NUMBER));
+    assert lineAnchorNode == null : "The line number is kept by the line anchor list";
     this.line = line;
     this.lineNumber = lineNumber;
   }
 
+  LineAnchorList.Node getLineAnchorNode() {
+    return lineAnchorNode;
+  }
+
+  void setLineAnchorNode(LineAnchorList.Node lineAnchorNode) {
+    this.lineAnchorNode = lineAnchorNode;
+  }
+
+  /**
+   * Returns whether shift listeners may have been added to this anchor.
+   */
+  boolean hasShiftListeners() {
+    return shiftListenerManager != null;
+  }
+
   @Override
   public boolean hasColumn() {
     return column != AnchorManager.IGNORE_COLUMN;
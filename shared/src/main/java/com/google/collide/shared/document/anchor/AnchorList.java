@@ -20,6 +20,9 @@ import com.google.common.annotations.VisibleForTesting;
 /**
  * List with anchor-specific optimizations. This class assumes all the anchors
  * in the list will be on the same line.
+ *
+ * The list is tree-backed since a single long line (think minified code) can
+ * carry thousands of anchors.
  */
 @VisibleForTesting
 public class AnchorList extends SortedList<Anchor> {
@@ -54,7 +57,7 @@ public class AnchorList extends SortedList<Anchor> {
   private final OneWayComparator oneWayComparator = new OneWayComparator();
 
   public AnchorList() {
-    super(COMPARATOR);
+    super(COMPARATOR, true);
   }
 
   // TODO: second parameter is always -1. Remove?
@@ -501,14 +501,14 @@ public class AnchorManager {
     AnchorList oldAnchors = getAnchorsOrNull(oldLine);
     if (oldAnchors == null) {
       throw new IllegalStateException("List of line's anchors should not be null\nLine anchors:\n"
-          + dumpAnchors(lineAnchors));
+          + lineAnchors);
     }
     
     boolean removed = oldAnchors.remove(anchor);
     if (!removed) {
       throw new IllegalStateException(
           "Could not find anchor in list of line's anchors\nAnchors on line:\n"
-              + dumpAnchors(oldAnchors) + "\nLine anchors:\n" + dumpAnchors(lineAnchors));
+              + dumpAnchors(oldAnchors) + "\nLine anchors:\n" + lineAnchors);
     }
 
     if (anchor.hasLineNumber()) {
@@ -516,7 +516,7 @@ public class AnchorManager {
       if (!removed) {
         throw new IllegalStateException(
             "Could not find anchor in list of anchors that care about line numbers\nLine anchors:\n"
-                + dumpAnchors(lineAnchors) + "\nAnchors on line:\n" + dumpAnchors(oldAnchors));
+                + lineAnchors + "\nAnchors on line:\n" + dumpAnchors(oldAnchors));
       }
     }
 
@@ -609,19 +609,14 @@ public class AnchorManager {
   }
 
   /**
-   * Takes care of shifting the line numbers of interested anchors.
+   * Takes care of shifting the line numbers of interested anchors. Only anchors
+   * that may have shift listeners get the shift dispatched.
    *
    * @param lineNumber inclusive
    */
   private void shiftLineNumbersDeferDispatch(final int lineNumber, int shiftAmount,
       AnchorDeferredDispatcher dispatcher) {
-    int insertionIndex = lineAnchors.findInsertionIndex(lineNumber);
-    for (int i = insertionIndex, n = lineAnchors.size(); i < n; i++) {
-      Anchor anchor = lineAnchors.get(i);
-      anchor.setLineWithoutDispatch(anchor.getLine(), anchor.getLineNumber() + shiftAmount);
-
-      dispatcher.deferDispatchShifted(anchor);
-    }
+    lineAnchors.shiftLineNumbers(lineNumber, shiftAmount, dispatcher);
   }
 
   private static String dumpAnchors(SortedList<Anchor> anchorList) {
@@ -14,39 +14,448 @@
 
 package com.google.collide.shared.document.anchor;
 
-import com.google.collide.shared.util.SortedList;
-
+/*
+ * Implementation notes:
+ *
+ * - This is an AVL tree of the anchors ordered by line number. A node does not
+ * store its anchor's line number, but the difference to its parent's line
+ * number (the root stores its line number as is). Shifting the line numbers of
+ * all anchors from some line onwards is then a single descent that adjusts
+ * O(log n) differences, instead of an update of every following anchor.
+ *
+ * - While an anchor is in the list, its line number is resolved by summing the
+ * differences on the path from its node to the root (see
+ * Anchor#getLineNumber).
+ *
+ * - Each node also counts the anchors in its subtree that may have shift
+ * listeners, so that shifting only has to visit the anchors that need their
+ * shift dispatched.
+ */
 /**
  * List for line anchors with specific optimizations for line anchors.
+ *
+ * Adding, removing, indexing and shifting line numbers are O(log n).
  */
-public class LineAnchorList extends SortedList<Anchor> {
+public class LineAnchorList {
+
+  /**
+   * A node of the tree, one per anchor.
+   */
+  static final class Node {
+    private final Anchor anchor;
+    private Node left;
+    private Node right;
+    private Node parent;
+    private int height = 1;
+    private int size = 1;
+
+    /** The line number relative to the parent's line number */
+    private int lineNumberDelta;
+
+    /** Whether the anchor may have shift listeners */
+    private boolean hasShiftListeners;
+
+    /** The number of anchors in the subtree that may have shift listeners */
+    private int shiftListenerCount;
 
-  private static class Comparator implements SortedList.Comparator<Anchor> {
-    @Override
-    public int compare(Anchor a, Anchor b) {
-      return a.getLineNumber() - b.getLineNumber();
+    private Node(Anchor anchor) {
+      this.anchor = anchor;
+      hasShiftListeners = anchor.hasShiftListeners();
+      shiftListenerCount = hasShiftListeners ? 1 : 0;
     }
+
+    int getLineNumber() {
+      int lineNumber = 0;
+      for (Node node = this; node != null; node = node.parent) {
+        lineNumber += node.lineNumberDelta;
+      }
+      return lineNumber;
+    }
+
+    /**
+     * Called when the anchor gets its first shift listener.
+     */
+    void onShiftListenerAdded() {
+      if (!hasShiftListeners) {
+        hasShiftListeners = true;
+        for (Node node = this; node != null; node = node.parent) {
+          node.shiftListenerCount++;
+        }
+      }
+    }
+  }
+
+  private Node root;
+
+  public LineAnchorList() {
   }
 
-  private static class OneWayComparator implements SortedList.OneWayComparator<Anchor> {
-    private int lineNumber;
+  public void add(Anchor anchor) {
+    int lineNumber = anchor.getLineNumber();
+    Node node = new Node(anchor);
+    if (root == null) {
+      node.lineNumberDelta = lineNumber;
+      root = node;
+    } else {
+      // Anchors are inserted before the anchors already on the same line
+      Node parent = root;
+      int parentLineNumber = root.lineNumberDelta;
+      while (true) {
+        Node child = lineNumber <= parentLineNumber ? parent.left : parent.right;
+        if (child == null) {
+          break;
+        }
+        parent = child;
+        parentLineNumber += child.lineNumberDelta;
+      }
 
-    @Override
-    public int compareTo(Anchor o) {
-      return lineNumber - o.getLineNumber();
+      node.parent = parent;
+      node.lineNumberDelta = lineNumber - parentLineNumber;
+      if (lineNumber <= parentLineNumber) {
+        parent.left = node;
+      } else {
+        parent.right = node;
+      }
+      rebalanceToRoot(parent);
     }
+
+    anchor.setLineAnchorNode(node);
   }
 
-  private static final Comparator COMPARATOR = new Comparator();
+  /**
+   * Removes all anchors. They keep their current line numbers, but will no
+   * longer be shifted.
+   */
+  public void clear() {
+    detachAll(root, 0);
+    root = null;
+  }
 
-  private final OneWayComparator oneWayComparator = new OneWayComparator();
+  /**
+   * Returns the index of the given anchor, or -1 if it is not in this list.
+   */
+  public int findIndex(Anchor anchor) {
+    Node node = anchor.getLineAnchorNode();
+    if (node == null) {
+      return -1;
+    }
 
-  public LineAnchorList() {
-    super(COMPARATOR);
+    int index = size(node.left);
+    for (; node.parent != null; node = node.parent) {
+      if (node == node.parent.right) {
+        index += size(node.parent.left) + 1;
+      }
+    }
+    return index;
   }
 
+  /**
+   * Returns the index of the first anchor on or after the given line number,
+   * or the size of the list if there is none.
+   */
   public int findInsertionIndex(int lineNumber) {
-    oneWayComparator.lineNumber = lineNumber;
-    return findInsertionIndex(oneWayComparator);
+    int index = 0;
+    Node node = root;
+    int nodeLineNumber = 0;
+    while (node != null) {
+      nodeLineNumber += node.lineNumberDelta;
+      if (lineNumber <= nodeLineNumber) {
+        node = node.left;
+      } else {
+        index += size(node.left) + 1;
+        node = node.right;
+      }
+    }
+    return index;
+  }
+
+  public Anchor get(int index) {
+    if (index < 0 || index >= size()) {
+      throw new IndexOutOfBoundsException("Index " + index + " but size is " + size());
+    }
+
+    Node node = root;
+    while (true) {
+      int leftSize = size(node.left);
+      if (index < leftSize) {
+        node = node.left;
+      } else if (index == leftSize) {
+        return node.anchor;
+      } else {
+        index -= leftSize + 1;
+        node = node.right;
+      }
+    }
+  }
+
+  /**
+   * Removes the given {@code anchor}, which keeps its current line number.
+   *
+   * @return whether the anchor was in this list
+   */
+  public boolean remove(Anchor anchor) {
+    Node node = anchor.getLineAnchorNode();
+    if (node == null) {
+      return false;
+    }
+
+    anchor.setLineAnchorNode(null);
+    anchor.setLineWithoutDispatch(anchor.getLine(), node.getLineNumber());
+
+    if (node.left != null && node.right != null) {
+      // Swap the node with its successor, which has no left child
+      Node successor = node.right;
+      while (successor.left != null) {
+        successor = successor.left;
+      }
+      swapWithSuccessor(node, successor);
+    }
+
+    Node child = node.left != null ? node.left : node.right;
+    Node parent = node.parent;
+    if (child != null) {
+      child.parent = parent;
+      child.lineNumberDelta += node.lineNumberDelta;
+    }
+    replaceChild(parent, node, child);
+
+    rebalanceToRoot(parent);
+    return true;
+  }
+
+  public int size() {
+    return size(root);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < size(); i++) {
+      sb.append(get(i).toString());
+      sb.append("\n");
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Shifts the line numbers of the anchors on or after the given line number,
+   * and defers the dispatch of the shift to those that may have shift
+   * listeners.
+   */
+  void shiftLineNumbers(int lineNumber, int shiftAmount, AnchorDeferredDispatcher dispatcher) {
+    if (shiftAmount == 0) {
+      return;
+    }
+
+    if (root != null && root.shiftListenerCount > 0) {
+      deferDispatchShifted(root, 0, lineNumber, dispatcher);
+    }
+
+    /*
+     * Walk down to where the line number would be inserted. Whenever the walk
+     * turns left, the node and its right subtree are shifted; whenever it turns
+     * right afterwards, the shift is undone for that subtree.
+     */
+    boolean isShifted = false;
+    Node node = root;
+    int nodeLineNumber = 0;
+    while (node != null) {
+      nodeLineNumber += node.lineNumberDelta;
+      boolean shouldBeShifted = lineNumber <= nodeLineNumber;
+      if (shouldBeShifted != isShifted) {
+        node.lineNumberDelta += shouldBeShifted ? shiftAmount : -shiftAmount;
+        isShifted = shouldBeShifted;
+      }
+      node = shouldBeShifted ? node.left : node.right;
+    }
+  }
+
+  /**
+   * Visits the anchors that may have shift listeners, and are on or after the
+   * given line number, in order.
+   */
+  private static void deferDispatchShifted(Node node, int parentLineNumber, int lineNumber,
+      AnchorDeferredDispatcher dispatcher) {
+    if (node == null || node.shiftListenerCount == 0) {
+      return;
+    }
+
+    int nodeLineNumber = parentLineNumber + node.lineNumberDelta;
+    if (lineNumber <= nodeLineNumber) {
+      deferDispatchShifted(node.left, nodeLineNumber, lineNumber, dispatcher);
+      if (node.hasShiftListeners) {
+        dispatcher.deferDispatchShifted(node.anchor);
+      }
+    }
+    deferDispatchShifted(node.right, nodeLineNumber, lineNumber, dispatcher);
+  }
+
+  private static void detachAll(Node node, int parentLineNumber) {
+    if (node == null) {
+      return;
+    }
+
+    int nodeLineNumber = parentLineNumber + node.lineNumberDelta;
+    detachAll(node.left, nodeLineNumber);
+    detachAll(node.right, nodeLineNumber);
+    node.anchor.setLineAnchorNode(null);
+    node.anchor.setLineWithoutDispatch(node.anchor.getLine(), nodeLineNumber);
+  }
+
+  /**
+   * Exchanges the positions of a node with two children and its successor,
+   * keeping the line numbers of every node.
+   */
+  private void swapWithSuccessor(Node node, Node successor) {
+    int nodeLineNumber = node.getLineNumber();
+    int successorLineNumber = successor.getLineNumber();
+
+    Node nodeParent = node.parent;
+    Node nodeLeft = node.left;
+    Node nodeRight = node.right;
+    Node successorParent = successor.parent;
+    Node successorRight = successor.right;
+
+    // Move the successor into the node's place
+    replaceChild(nodeParent, node, successor);
+    successor.parent = nodeParent;
+    successor.left = nodeLeft;
+    nodeLeft.parent = successor;
+    if (nodeRight == successor) {
+      successor.right = node;
+      node.parent = successor;
+    } else {
+      successor.right = nodeRight;
+      nodeRight.parent = successor;
+      successorParent.left = node;
+      node.parent = successorParent;
+    }
+
+    // Move the node into the successor's place
+    node.left = null;
+    node.right = successorRight;
+    if (successorRight != null) {
+      successorRight.parent = node;
+    }
+
+    int height = node.height;
+    node.height = successor.height;
+    successor.height = height;
+
+    // Fix up the line number deltas of the moved nodes and their new children
+    int parentLineNumber = nodeLineNumber - node.lineNumberDelta;
+    successor.lineNumberDelta = successorLineNumber - parentLineNumber;
+    nodeLeft.lineNumberDelta += nodeLineNumber - successorLineNumber;
+    if (nodeRight != successor) {
+      nodeRight.lineNumberDelta += nodeLineNumber - successorLineNumber;
+    }
+    node.lineNumberDelta = nodeLineNumber - node.parent.getLineNumber();
+    if (successorRight != null) {
+      successorRight.lineNumberDelta += successorLineNumber - nodeLineNumber;
+    }
+
+    for (Node n = node; n != null; n = n.parent) {
+      update(n);
+    }
+  }
+
+  private void rebalanceToRoot(Node node) {
+    while (node != null) {
+      update(node);
+
+      int balance = height(node.left) - height(node.right);
+      if (balance > 1) {
+        if (height(node.left.left) < height(node.left.right)) {
+          rotateLeft(node.left);
+        }
+        node = rotateRight(node);
+      } else if (balance < -1) {
+        if (height(node.right.right) < height(node.right.left)) {
+          rotateRight(node.right);
+        }
+        node = rotateLeft(node);
+      }
+
+      node = node.parent;
+    }
+  }
+
+  /**
+   * @return the new root of the rotated subtree
+   */
+  private Node rotateLeft(Node node) {
+    Node pivot = node.right;
+    Node middle = pivot.left;
+
+    node.right = middle;
+    if (middle != null) {
+      middle.parent = node;
+      middle.lineNumberDelta += pivot.lineNumberDelta;
+    }
+    pivot.parent = node.parent;
+    replaceChild(node.parent, node, pivot);
+    pivot.left = node;
+    node.parent = pivot;
+
+    pivot.lineNumberDelta += node.lineNumberDelta;
+    node.lineNumberDelta = node.lineNumberDelta - pivot.lineNumberDelta;
+
+    update(node);
+    update(pivot);
+    return pivot;
+  }
+
+  /**
+   * @return the new root of the rotated subtree
+   */
+  private Node rotateRight(Node node) {
+    Node pivot = node.left;
+    Node middle = pivot.right;
+
+    node.left = middle;
+    if (middle != null) {
+      middle.parent = node;
+      middle.lineNumberDelta += pivot.lineNumberDelta;
+    }
+    pivot.parent = node.parent;
+    replaceChild(node.parent, node, pivot);
+    pivot.right = node;
+    node.parent = pivot;
+
+    pivot.lineNumberDelta += node.lineNumberDelta;
+    node.lineNumberDelta = node.lineNumberDelta - pivot.lineNumberDelta;
+
+    update(node);
+    update(pivot);
+    return pivot;
+  }
+
+  private void replaceChild(Node parent, Node oldChild, Node newChild) {
+    if (parent == null) {
+      root = newChild;
+    } else if (parent.left == oldChild) {
+      parent.left = newChild;
+    } else {
+      parent.right = newChild;
+    }
+  }
+
+  private static void update(Node node) {
+    node.height = Math.max(height(node.left), height(node.right)) + 1;
+    node.size = size(node.left) + size(node.right) + 1;
+    node.shiftListenerCount = shiftListenerCount(node.left) + shiftListenerCount(node.right)
+        + (node.hasShiftListeners ? 1 : 0);
+  }
+
+  private static int height(Node node) {
+    return node == null ? 0 : node.height;
+  }
+
+  private static int size(Node node) {
+    return node == null ? 0 : node.size;
+  }
+
+  private static int shiftListenerCount(Node node) {
+    return node == null ? 0 : node.shiftListenerCount;
   }
 }
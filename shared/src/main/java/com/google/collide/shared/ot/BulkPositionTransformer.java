@@ -0,0 +1,252 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.shared.ot;
+
+import com.google.collide.dto.DocOp;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/*
+ * The positions are visited in document order through the order array. While
+ * the transformer walks the doc op, only positions on the doc op's current line
+ * or the line after it can be affected individually (see PositionTransformer).
+ * Those are the "active" positions between activeStart and lazyStart. Positions
+ * before activeStart are on earlier lines and are final. Positions from
+ * lazyStart on are further down the document, and the only thing a component
+ * can do to them is insert or delete a newline before them, so their line
+ * numbers are shifted together through lineDelta and only resolved once the
+ * doc op reaches them.
+ *
+ * A transform keeps the positions in document order, so they are only sorted
+ * again after new ones are added.
+ */
+/**
+ * Transforms many document positions with a document operation in a single
+ * pass over the operation's components, giving the same results as a
+ * {@link PositionTransformer} per position.
+ *
+ * The cost of a transform is linear in the number of components plus the
+ * number of positions, instead of their product.
+ */
+public class BulkPositionTransformer {
+
+  private class Transformer implements DocOpCursor {
+    private int docOpColumn;
+    private int docOpLineNumber;
+
+    /** The first position that is not final yet */
+    private int activeStart;
+
+    /** The first position whose line number has not been resolved yet */
+    private int lazyStart;
+
+    /** Pending line number change of the positions from lazyStart on */
+    private int lineDelta;
+
+    @Override
+    public void delete(String text) {
+      activatePositions();
+
+      boolean endsWithNewline = text.endsWith("\n");
+      for (int i = activeStart; i < lazyStart; i++) {
+        int position = order[i];
+        int lineNumber = lineNumbers[position];
+        if (lineNumber == docOpLineNumber) {
+          if (columns[position] >= docOpColumn) {
+            int columnOfLastDeletedChar = docOpColumn + text.length() - 1;
+            if (columns[position] <= columnOfLastDeletedChar) {
+              // Collapse onto the start of the deleted region
+              columns[position] = docOpColumn;
+            } else {
+              columns[position] -= text.length();
+            }
+          }
+        } else if (endsWithNewline && lineNumber == docOpLineNumber + 1) {
+          // This line and the next are being joined
+          lineNumbers[position] = docOpLineNumber;
+          columns[position] += docOpColumn;
+        } else if (endsWithNewline && lineNumber > docOpLineNumber) {
+          lineNumbers[position]--;
+        }
+      }
+
+      if (endsWithNewline) {
+        lineDelta--;
+      }
+    }
+
+    @Override
+    public void insert(String text) {
+      activatePositions();
+
+      boolean endsWithNewline = text.endsWith("\n");
+      for (int i = activeStart; i < lazyStart; i++) {
+        int position = order[i];
+        int lineNumber = lineNumbers[position];
+        if (lineNumber == docOpLineNumber) {
+          if (columns[position] >= docOpColumn) {
+            if (endsWithNewline) {
+              // Splitting the lines
+              lineNumbers[position]++;
+              columns[position] -= docOpColumn;
+            } else {
+              columns[position] += text.length();
+            }
+          }
+        } else if (lineNumber > docOpLineNumber && endsWithNewline) {
+          lineNumbers[position]++;
+        }
+      }
+
+      if (endsWithNewline) {
+        lineDelta++;
+        skipDocOpLines(1);
+      } else {
+        docOpColumn += text.length();
+      }
+    }
+
+    @Override
+    public void retain(int count, boolean hasTrailingNewline) {
+      if (hasTrailingNewline) {
+        skipDocOpLines(1);
+      } else {
+        docOpColumn += count;
+      }
+    }
+
+    @Override
+    public void retainLine(int lineCount) {
+      skipDocOpLines(lineCount);
+    }
+
+    private void skipDocOpLines(int lineCount) {
+      docOpLineNumber += lineCount;
+      docOpColumn = 0;
+
+      // Positions above the doc op's line cannot change anymore
+      while (activeStart < lazyStart && lineNumbers[order[activeStart]] < docOpLineNumber) {
+        activeStart++;
+      }
+    }
+
+    /**
+     * Resolves the line numbers of the positions that the current component
+     * may affect individually.
+     */
+    private void activatePositions() {
+      while (lazyStart < size && lineNumbers[order[lazyStart]] + lineDelta <= docOpLineNumber + 1) {
+        lineNumbers[order[lazyStart]] += lineDelta;
+        lazyStart++;
+      }
+    }
+
+    private void finish() {
+      for (int i = lazyStart; i < size; i++) {
+        lineNumbers[order[i]] += lineDelta;
+      }
+    }
+  }
+
+  private int[] lineNumbers;
+  private int[] columns;
+  private int size;
+
+  /** The indices of the positions in document order */
+  private int[] order;
+  private boolean isOrderValid = true;
+
+  public BulkPositionTransformer() {
+    this(4);
+  }
+
+  /**
+   * @param expectedSize the number of positions to allocate room for
+   */
+  public BulkPositionTransformer(int expectedSize) {
+    int capacity = Math.max(expectedSize, 1);
+    lineNumbers = new int[capacity];
+    columns = new int[capacity];
+    order = new int[capacity];
+  }
+
+  /**
+   * Adds a position to transform.
+   *
+   * @return the index to read the transformed position with
+   */
+  public int add(int lineNumber, int column) {
+    if (size == lineNumbers.length) {
+      lineNumbers = copyOf(lineNumbers, size * 2);
+      columns = copyOf(columns, size * 2);
+      order = copyOf(order, size * 2);
+    }
+
+    lineNumbers[size] = lineNumber;
+    columns[size] = column;
+    order[size] = size;
+    isOrderValid = false;
+    return size++;
+  }
+
+  public void transform(DocOp op) {
+    if (!isOrderValid) {
+      sortOrder();
+    }
+
+    Transformer transformer = new Transformer();
+    DocOpUtils.accept(op, transformer);
+    transformer.finish();
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int getColumn(int index) {
+    return columns[index];
+  }
+
+  public int getLineNumber(int index) {
+    return lineNumbers[index];
+  }
+
+  private void sortOrder() {
+    Integer[] sorted = new Integer[size];
+    for (int i = 0; i < size; i++) {
+      sorted[i] = i;
+    }
+
+    Arrays.sort(sorted, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        int lineNumberDelta = lineNumbers[a] - lineNumbers[b];
+        return lineNumberDelta != 0 ? lineNumberDelta : columns[a] - columns[b];
+      }
+    });
+
+    for (int i = 0; i < size; i++) {
+      order[i] = sorted[i];
+    }
+    isOrderValid = true;
+  }
+
+  private static int[] copyOf(int[] array, int length) {
+    int[] copy = new int[length];
+    System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+    return copy;
+  }
+}
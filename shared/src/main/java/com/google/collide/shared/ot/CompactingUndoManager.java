@@ -0,0 +1,323 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.shared.ot;
+
+import org.waveprotocol.wave.model.undo.UndoManagerPlus;
+import org.waveprotocol.wave.model.util.Pair;
+
+import com.google.collide.dto.DocOp;
+import com.google.collide.dto.DocOpComponent;
+import com.google.collide.dto.DocOpComponent.Delete;
+import com.google.collide.dto.DocOpComponent.Insert;
+import com.google.collide.dto.shared.DocOpFactory;
+import com.google.collide.json.shared.JsonArray;
+import com.google.collide.shared.ot.Composer.ComposeException;
+import com.google.collide.shared.util.JsonCollections;
+
+/*
+ * This follows the Wave UndoManagerImpl and its UndoStack, with these
+ * differences:
+ *
+ * - An undoable op is composed into the top entry while no checkpoint and no
+ *   non-undoable op came in between, so a run of typing is one entry rather
+ *   than one per keystroke. Undoing the entry is the same as undoing each op
+ *   and composing the inverses.
+ *
+ * - The non-undoable ops that follow an entry are composed into a single op as
+ *   they arrive. As before, they are only transformed against the entry's
+ *   inverse when the entry is popped.
+ *
+ * - Each stack is capped by entry count and by the length of the text in its
+ *   inserts and deletes. Past a cap, the oldest entries are dropped, along with
+ *   their share of the oldest checkpoint group.
+ */
+/**
+ * An undo manager for document operations that keeps its history compact and
+ * bounded.
+ */
+public class CompactingUndoManager implements UndoManagerPlus<DocOp> {
+
+  /** The default maximum number of entries per stack */
+  public static final int DEFAULT_MAX_ENTRY_COUNT = 500;
+
+  /** The default maximum text length held per stack */
+  public static final int DEFAULT_MAX_TEXT_LENGTH = 1024 * 1024;
+
+  private static class Entry {
+    DocOp op;
+
+    /** The ops applied after this one that must not be undone, or null */
+    DocOp nonUndoable;
+
+    int textLength;
+  }
+
+  private class UndoStack {
+    private final JsonArray<Entry> entries = JsonCollections.createArray();
+    private int textLength;
+
+    void push(DocOp op) {
+      Entry entry = new Entry();
+      entry.op = op;
+      entries.add(entry);
+      updateTextLength(entry);
+    }
+
+    /**
+     * Composes the op into the top entry if no non-undoable op follows it.
+     *
+     * @return whether the op was composed
+     */
+    boolean compactIntoTop(DocOp op) {
+      if (entries.isEmpty() || entries.peek().nonUndoable != null) {
+        return false;
+      }
+
+      Entry top = entries.peek();
+      top.op = compose(top.op, op);
+      updateTextLength(top);
+      return true;
+    }
+
+    /**
+     * Pops the top entry and returns the op that undoes it and the transformed
+     * non-undoable op, see {@link UndoManagerPlus#undoPlus()}.
+     */
+    Pair<DocOp, DocOp> pop() {
+      if (entries.isEmpty()) {
+        return null;
+      }
+
+      Entry entry = entries.pop();
+      textLength -= entry.textLength;
+
+      DocOp op = Inverter.invert(factory, entry.op);
+      if (entry.nonUndoable == null) {
+        return new Pair<DocOp, DocOp>(op, null);
+      }
+
+      OperationPair pair;
+      try {
+        pair = Transformer.transform(factory, op, entry.nonUndoable);
+      } catch (Transformer.TransformException e) {
+        throw new IllegalStateException("invalid operation transformation encountered", e);
+      }
+
+      if (!entries.isEmpty()) {
+        addNonUndoable(entries.peek(), pair.serverOp());
+      }
+      return new Pair<DocOp, DocOp>(pair.clientOp(), pair.serverOp());
+    }
+
+    void nonUndoableOp(DocOp op) {
+      if (!entries.isEmpty()) {
+        addNonUndoable(entries.peek(), op);
+      }
+    }
+
+    void clear() {
+      entries.clear();
+      textLength = 0;
+    }
+
+    int size() {
+      return entries.size();
+    }
+
+    boolean isOverCap() {
+      return entries.size() > maxEntryCount || (textLength > maxTextLength && entries.size() > 1);
+    }
+
+    void removeOldest() {
+      textLength -= entries.remove(0).textLength;
+    }
+
+    private void addNonUndoable(Entry entry, DocOp op) {
+      entry.nonUndoable = entry.nonUndoable == null ? op : compose(entry.nonUndoable, op);
+      updateTextLength(entry);
+    }
+
+    private void updateTextLength(Entry entry) {
+      textLength -= entry.textLength;
+      entry.textLength = getTextLength(entry.op)
+          + (entry.nonUndoable != null ? getTextLength(entry.nonUndoable) : 0);
+      textLength += entry.textLength;
+    }
+  }
+
+  /**
+   * Returns the length of the text of the inserts and deletes, which dominates
+   * the memory a doc op takes.
+   */
+  private static int getTextLength(DocOp docOp) {
+    int length = 0;
+    JsonArray<DocOpComponent> components = docOp.getComponents();
+    for (int i = 0, n = components.size(); i < n; i++) {
+      DocOpComponent component = components.get(i);
+      if (component.getType() == DocOpComponent.Type.INSERT) {
+        length += ((Insert) component).getText().length();
+      } else if (component.getType() == DocOpComponent.Type.DELETE) {
+        length += ((Delete) component).getText().length();
+      }
+    }
+    return length;
+  }
+
+  private final DocOpFactory factory;
+  private final int maxEntryCount;
+  private final int maxTextLength;
+
+  private final UndoStack undoStack = new UndoStack();
+  private final UndoStack redoStack = new UndoStack();
+
+  /** The entry counts of the closed checkpoint groups on the undo stack, oldest first */
+  private final JsonArray<Integer> groupSizes = JsonCollections.createArray();
+
+  /** The entry count of the group that is still open */
+  private int openGroupSize;
+
+  public CompactingUndoManager(DocOpFactory factory) {
+    this(factory, DEFAULT_MAX_ENTRY_COUNT, DEFAULT_MAX_TEXT_LENGTH);
+  }
+
+  /**
+   * @param maxEntryCount the number of entries each of the undo and redo
+   *        stacks keeps at most
+   * @param maxTextLength the length of the inserted and deleted text each stack
+   *        keeps at most, though the newest entry is always kept
+   */
+  public CompactingUndoManager(DocOpFactory factory, int maxEntryCount, int maxTextLength) {
+    this.factory = factory;
+    this.maxEntryCount = maxEntryCount;
+    this.maxTextLength = maxTextLength;
+  }
+
+  @Override
+  public void undoableOp(DocOp op) {
+    if (openGroupSize == 0 || !undoStack.compactIntoTop(op)) {
+      undoStack.push(op);
+      openGroupSize++;
+    }
+    redoStack.clear();
+    enforceCaps();
+  }
+
+  @Override
+  public void nonUndoableOp(DocOp op) {
+    undoStack.nonUndoableOp(op);
+    redoStack.nonUndoableOp(op);
+    enforceCaps();
+  }
+
+  @Override
+  public void checkpoint() {
+    if (openGroupSize > 0) {
+      groupSizes.add(openGroupSize);
+      openGroupSize = 0;
+    }
+  }
+
+  @Override
+  public DocOp undo() {
+    Pair<DocOp, DocOp> undoPlus = undoPlus();
+    return undoPlus == null ? null : undoPlus.first;
+  }
+
+  @Override
+  public DocOp redo() {
+    Pair<DocOp, DocOp> redoPlus = redoPlus();
+    return redoPlus == null ? null : redoPlus.first;
+  }
+
+  @Override
+  public Pair<DocOp, DocOp> undoPlus() {
+    int numToUndo = releaseCheckpoint();
+    if (numToUndo == 0) {
+      return null;
+    }
+
+    Pair<DocOp, DocOp> ops = undoStack.pop();
+    DocOp op = ops.first;
+    for (int i = 1; i < numToUndo; i++) {
+      ops = undoStack.pop();
+      op = compose(op, ops.first);
+    }
+    redoStack.push(op);
+    enforceCaps();
+    return new Pair<DocOp, DocOp>(op, ops.second);
+  }
+
+  @Override
+  public Pair<DocOp, DocOp> redoPlus() {
+    Pair<DocOp, DocOp> ops = redoStack.pop();
+    if (ops != null) {
+      checkpoint();
+      undoStack.push(ops.first);
+      openGroupSize++;
+      enforceCaps();
+    }
+    return ops;
+  }
+
+  /**
+   * Returns the number of entries on the undo stack.
+   */
+  public int getUndoEntryCount() {
+    return undoStack.size();
+  }
+
+  /**
+   * Returns the number of entries on the redo stack.
+   */
+  public int getRedoEntryCount() {
+    return redoStack.size();
+  }
+
+  private int releaseCheckpoint() {
+    if (openGroupSize > 0) {
+      int value = openGroupSize;
+      openGroupSize = 0;
+      return value;
+    }
+    return groupSizes.isEmpty() ? 0 : groupSizes.pop();
+  }
+
+  private void enforceCaps() {
+    while (undoStack.isOverCap()) {
+      undoStack.removeOldest();
+
+      // The oldest entry belongs to the oldest group
+      if (groupSizes.isEmpty()) {
+        openGroupSize--;
+      } else if (groupSizes.get(0) == 1) {
+        groupSizes.remove(0);
+      } else {
+        groupSizes.set(0, groupSizes.get(0) - 1);
+      }
+    }
+
+    while (redoStack.isOverCap()) {
+      redoStack.removeOldest();
+    }
+  }
+
+  private DocOp compose(DocOp a, DocOp b) {
+    try {
+      return Composer.compose(factory, a, b);
+    } catch (ComposeException e) {
+      throw new IllegalStateException("invalid operation composition encountered", e);
+    }
+  }
+}
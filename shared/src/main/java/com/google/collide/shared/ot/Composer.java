@@ -53,7 +53,7 @@ public class Composer {
      */
     private static final long serialVersionUID = 5790109173803687121L;
 
-    private ComposeException(String message, Exception e) {
+    ComposeException(String message, Exception e) {
       super(message, e);
     }
   }
@@ -28,8 +28,17 @@ import com.google.collide.shared.document.TextChange;
 import com.google.collide.shared.util.JsonCollections;
 import com.google.common.base.Preconditions;
 
+import java.util.List;
+
 
 /**
+ * Applies document operations to a document.
+ *
+ * An instance can apply a series of doc ops, each to the document the previous
+ * one left behind (see {@link #apply(List, Document, DocumentMutator)}). It
+ * keeps its line cursor between the doc ops, so a doc op that starts by
+ * retaining lines is resolved from where the previous one ended instead of
+ * from the top of the document.
  */
 public class DocOpApplier {
 
@@ -39,13 +48,36 @@ public class DocOpApplier {
 
   public static JsonArray<TextChange> apply(DocOp docOp, Document document,
       DocumentMutator documentMutator) {
-    DocOpApplier docOpApplier = new DocOpApplier(docOp, document, documentMutator);
-    docOpApplier.apply();
-    return docOpApplier.textChanges;
+    return new DocOpApplier(document, documentMutator).applyNext(docOp);
+  }
+
+  public static JsonArray<TextChange> apply(List<? extends DocOp> docOps, Document document) {
+    return apply(docOps, document, document);
+  }
+
+  /**
+   * Applies the doc ops in order and returns the text changes of all of them.
+   */
+  public static JsonArray<TextChange> apply(List<? extends DocOp> docOps, Document document,
+      DocumentMutator documentMutator) {
+    DocOpApplier docOpApplier = new DocOpApplier(document, documentMutator);
+    JsonArray<TextChange> textChanges = JsonCollections.createArray();
+    for (int i = 0, n = docOps.size(); i < n; i++) {
+      textChanges.addAll(docOpApplier.applyNext(docOps.get(i)));
+    }
+    return textChanges;
+  }
+
+  /**
+   * Creates an applier for a series of doc ops. The document must only be
+   * changed through the applier until the series is done.
+   */
+  public static DocOpApplier create(Document document, DocumentMutator documentMutator) {
+    return new DocOpApplier(document, documentMutator);
   }
 
   private int column;
-  private final JsonArray<DocOpComponent> components;
+  private JsonArray<DocOpComponent> components;
   private int componentIndex;
   private final Document document;
   private DocumentMutator documentMutator;
@@ -56,18 +88,29 @@ public class DocOpApplier {
    */
   private boolean isFinished;
 
+  /** Where the previous doc op ended, null before the first doc op */
   private LineInfo lineInfo;
-  private final JsonArray<TextChange> textChanges = JsonCollections.createArray();
+  private JsonArray<TextChange> textChanges;
 
-  private DocOpApplier(DocOp docOp, Document document, DocumentMutator documentMutator) {
-    this.components = docOp.getComponents();
+  private DocOpApplier(Document document, DocumentMutator documentMutator) {
     this.document = document;
     this.documentMutator = documentMutator;
-
-    lineInfo = new LineInfo(document.getFirstLine(), 0);
   }
 
-  public void apply() {
+  /**
+   * Applies the next doc op of the series to the document.
+   *
+   * @return the text changes of this doc op
+   */
+  public JsonArray<TextChange> applyNext(DocOp docOp) {
+    components = docOp.getComponents();
+    componentIndex = 0;
+    column = 0;
+    isFinished = false;
+    textChanges = JsonCollections.createArray();
+
+    moveToStart();
+
     for (; componentIndex < components.size(); componentIndex++) {
       DocOpComponent component = components.get(componentIndex);
 
@@ -89,12 +132,40 @@ public class DocOpApplier {
           break;
       }
     }
+
+    return textChanges;
+  }
+
+  /**
+   * Moves to the beginning of the document, or to the end of the doc op's
+   * leading retain line if it has one.
+   */
+  private void moveToStart() {
+    boolean canUsePreviousLine = lineInfo != null && lineInfo.line().isAttached();
+    if (components.size() > 0
+        && components.get(0).getType() == DocOpComponent.Type.RETAIN_LINE) {
+      int lineNumber = ((RetainLine) components.get(0)).getLineCount();
+      if (lineNumber < document.getLineCount()) {
+        lineInfo = canUsePreviousLine ? findLine(lineInfo, lineNumber)
+            : document.getLineFinder().findLine(lineNumber);
+      } else {
+        // The doc op retains the entire document
+        isFinished = true;
+        if (!canUsePreviousLine) {
+          lineInfo = new LineInfo(document.getFirstLine(), 0);
+        }
+      }
+      componentIndex = 1;
+    } else {
+      lineInfo = new LineInfo(document.getFirstLine(), 0);
+    }
   }
 
   private void handleDelete(Delete deleteOp) {
     Preconditions.checkArgument(!isFinished, "Unexpected finished while handling delete");
-    Preconditions.checkArgument(lineInfo.line().getText().substring(column).startsWith(
-        deleteOp.getText()), "To-be-deleted text isn't actually at location");
+    Preconditions.checkArgument(lineInfo.line().getText().regionMatches(
+        column, deleteOp.getText(), 0, deleteOp.getText().length()),
+        "To-be-deleted text isn't actually at location");
 
     StringBuilder text = new StringBuilder(deleteOp.getText());
     while (componentIndex + 1 < components.size()
@@ -163,7 +234,7 @@ public class DocOpApplier {
     int lineCount = retainLineOp.getLineCount();
     int newLineNumber = lineInfo.number() + lineCount;
     if (newLineNumber < document.getLineCount()) {
-      lineInfo = document.getLineFinder().findLine(lineInfo.number() + lineCount);
+      lineInfo = findLine(lineInfo, newLineNumber);
       column = 0;
     } else {
       // We have spanned the entire document
@@ -171,6 +242,18 @@ public class DocOpApplier {
     }
   }
 
+  /**
+   * Finds the line by walking from {@code begin} if that is closer than either
+   * end of the document, otherwise leaves the search to the line finder.
+   */
+  private LineInfo findLine(LineInfo begin, int targetLineNumber) {
+    int distance = Math.abs(targetLineNumber - begin.number());
+    if (distance <= targetLineNumber && distance < document.getLineCount() - targetLineNumber) {
+      return document.getLineFinder().findLine(begin, targetLineNumber);
+    }
+    return document.getLineFinder().findLine(targetLineNumber);
+  }
+
   private void moveToNextLine() {
     boolean didMove = lineInfo.moveToNext();
     Preconditions.checkArgument(didMove, "Did not actually move to next line");
@@ -0,0 +1,597 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.shared.ot;
+
+import static com.google.collide.dto.DocOpComponent.Type.DELETE;
+import static com.google.collide.dto.DocOpComponent.Type.INSERT;
+import static com.google.collide.dto.DocOpComponent.Type.RETAIN;
+import static com.google.collide.dto.DocOpComponent.Type.RETAIN_LINE;
+
+import com.google.collide.shared.ot.Composer.ComposeException;
+import com.google.common.base.Preconditions;
+
+/*
+ * This is the state machine of Composer, flattened so that it does not need an
+ * object per state or per component. The state is one of the constants below,
+ * and the leftover of the longer lived component is kept in primitive fields:
+ * a character or line count, or the start and end of a text in the buffer of
+ * its doc op (text is never copied until it reaches the output).
+ *
+ * The handleA* methods correspond to the ProcessingAForBXxx states of Composer
+ * (processing a component of A against the leftover of B), and the handleB*
+ * methods to its ProcessingBForAXxx states. Keep the two in sync; the tests
+ * compare their outputs.
+ */
+/**
+ * Composes packed document operations, producing the same components as
+ * {@link Composer}.
+ */
+public class PackedComposer {
+
+  /**
+   * Runtime exception used internally by this class, converted to the public
+   * {@link ComposeException} around the entire composition.
+   */
+  private static class InternalComposeException extends RuntimeException {
+    private static final long serialVersionUID = 1836540922736210154L;
+
+    private InternalComposeException(String message) {
+      super(message);
+    }
+  }
+
+  private static final int DEFAULT = 0;
+  private static final int A_FOR_B_DELETE = 1;
+  private static final int A_FOR_B_RETAIN = 2;
+  private static final int A_FOR_B_RETAIN_LINE = 3;
+  private static final int B_FOR_A_FINISHED = 4;
+  private static final int B_FOR_A_INSERT = 5;
+  private static final int B_FOR_A_RETAIN = 6;
+  private static final int B_FOR_A_RETAIN_LINE = 7;
+
+  public static PackedDocOp compose(PackedDocOp a, PackedDocOp b) throws ComposeException {
+    try {
+      return new PackedComposer(a, b).composeImpl();
+    } catch (InternalComposeException e) {
+      throw new ComposeException(
+          "Could not compose operations:\na: " + a + "\nb: " + b + "\n", e);
+    }
+  }
+
+  private final PackedDocOp a;
+  private final String aText;
+
+  private final PackedDocOp b;
+  private final String bText;
+
+  private final PackedDocOp.Builder output;
+
+  private int state = DEFAULT;
+
+  /** The leftover text of A's insert (in A's text) or B's delete (in B's text) */
+  private int leftoverStart;
+  private int leftoverEnd;
+
+  /** The leftover character or line count of a retain or retain line */
+  private int leftoverCount;
+
+  /** Whether the leftover retain covers the end of its line */
+  private boolean leftoverHasTrailingNewline;
+
+  /** See Composer.ProcessingBForAFinished */
+  private boolean hasBUsedRlToMatchLeftoverTextOnLastLineOfA;
+
+  /** See Composer#isLastComponentOfA */
+  private boolean isLastComponentOfA;
+  private boolean isLastComponentOfB;
+
+  private PackedComposer(PackedDocOp a, PackedDocOp b) {
+    this.a = a;
+    this.aText = a.getText();
+    this.b = b;
+    this.bText = b.getText();
+
+    // Roughly a component per component of A and B, the builder grows if not
+    output = new PackedDocOp.Builder(true, a.size() + b.size());
+  }
+
+  private PackedDocOp composeImpl() {
+    int aIndex = 0;
+    int aSize = a.size();
+    int aTextOffset = 0;
+
+    int bIndex = 0;
+    int bSize = b.size();
+    int bTextOffset = 0;
+
+    isLastComponentOfB = bSize == 0;
+
+    while (aIndex < aSize) {
+      assert !isProcessingB();
+
+      isLastComponentOfA = aIndex == aSize - 1;
+      int aValue = a.getValue(aIndex);
+      switch (a.getType(aIndex)) {
+        case DELETE:
+          // B doesn't know about the text A deleted, so it passes through
+          output.delete(aText, aTextOffset, aTextOffset + aValue);
+          aTextOffset += aValue;
+          break;
+
+        case INSERT:
+          handleAInsert(aTextOffset, aTextOffset + aValue);
+          aTextOffset += aValue;
+          break;
+
+        case RETAIN:
+          handleARetain(aValue, a.hasTrailingNewline(aIndex));
+          break;
+
+        case RETAIN_LINE:
+          handleARetainLine(aValue);
+          break;
+      }
+      aIndex++;
+
+      while (isProcessingB() && state != B_FOR_A_FINISHED) {
+        if (bIndex >= bSize) {
+          throw new InternalComposeException("Mismatch in doc ops");
+        }
+
+        isLastComponentOfB = bIndex == bSize - 1;
+        bTextOffset = acceptB(bIndex++, bTextOffset);
+      }
+    }
+
+    if (state != DEFAULT && state != B_FOR_A_FINISHED && !isBRetainingRestOfLastLine()) {
+      throw new InternalComposeException("Invalid state");
+    }
+
+    if (bIndex < bSize) {
+      if (state == DEFAULT) {
+        setFinishedState(false);
+      }
+
+      while (bIndex < bSize) {
+        isLastComponentOfB = bIndex == bSize - 1;
+        bTextOffset = acceptB(bIndex++, bTextOffset);
+      }
+    }
+
+    return output.build();
+  }
+
+  private int acceptB(int bIndex, int bTextOffset) {
+    int bValue = b.getValue(bIndex);
+    switch (b.getType(bIndex)) {
+      case DELETE:
+        handleBDelete(bTextOffset, bTextOffset + bValue);
+        return bTextOffset + bValue;
+
+      case INSERT:
+        handleBInsert(bTextOffset, bTextOffset + bValue);
+        return bTextOffset + bValue;
+
+      case RETAIN:
+        handleBRetain(bValue, b.hasTrailingNewline(bIndex));
+        return bTextOffset;
+
+      case RETAIN_LINE:
+        handleBRetainLine(bValue);
+        return bTextOffset;
+
+      default:
+        throw new IllegalArgumentException(
+            "Unknown component type with ordinal: " + b.getType(bIndex));
+    }
+  }
+
+  private void handleAInsert(int start, int end) {
+    int length = end - start;
+    switch (state) {
+      case DEFAULT:
+        setTextState(B_FOR_A_INSERT, start, end);
+        break;
+
+      case A_FOR_B_DELETE: {
+        int bDeleteLength = leftoverEnd - leftoverStart;
+        if (length <= bDeleteLength) {
+          cancelBDelete(length);
+        } else {
+          setTextState(B_FOR_A_INSERT, start + bDeleteLength, end);
+        }
+        break;
+      }
+
+      case A_FOR_B_RETAIN:
+        if (length <= leftoverCount) {
+          output.insert(aText, start, end);
+          cancelBRetain(length);
+        } else {
+          output.insert(aText, start, start + leftoverCount);
+          setTextState(B_FOR_A_INSERT, start + leftoverCount, end);
+        }
+        break;
+
+      case A_FOR_B_RETAIN_LINE: {
+        // B is retaining the line that A modified
+        output.insert(aText, start, end);
+
+        boolean hasNewline = PackedDocOp.endsWithNewline(aText, start, end);
+        if (hasNewline || isLastComponentOfA) {
+          cancelBRetainLines(1, hasNewline);
+        }
+        break;
+      }
+
+      default:
+        throw new IllegalStateException("Not processing A");
+    }
+  }
+
+  private void handleARetain(int count, boolean hasTrailingNewline) {
+    switch (state) {
+      case DEFAULT:
+        setRetainState(B_FOR_A_RETAIN, count, hasTrailingNewline);
+        break;
+
+      case A_FOR_B_DELETE: {
+        int bDeleteLength = leftoverEnd - leftoverStart;
+        if (count <= bDeleteLength) {
+          output.delete(bText, leftoverStart, leftoverStart + count);
+          cancelBDelete(count);
+        } else {
+          output.delete(bText, leftoverStart, leftoverEnd);
+          setRetainState(B_FOR_A_RETAIN, count - bDeleteLength, hasTrailingNewline);
+        }
+        break;
+      }
+
+      case A_FOR_B_RETAIN:
+        if (count <= leftoverCount) {
+          output.retain(count, hasTrailingNewline);
+          cancelBRetain(count);
+        } else {
+          output.retain(leftoverCount, leftoverHasTrailingNewline);
+          setRetainState(B_FOR_A_RETAIN, count - leftoverCount, hasTrailingNewline);
+        }
+        break;
+
+      case A_FOR_B_RETAIN_LINE:
+        // B is retaining the line that A modified
+        output.retain(count, hasTrailingNewline);
+
+        if (hasTrailingNewline || isLastComponentOfA) {
+          cancelBRetainLines(1, hasTrailingNewline);
+        }
+        break;
+
+      default:
+        throw new IllegalStateException("Not processing A");
+    }
+  }
+
+  private void handleARetainLine(int lineCount) {
+    switch (state) {
+      case DEFAULT:
+        if (isLastComponentOfB && lineCount == 1 && isLastComponentOfA) {
+          // This catches the RL(1) that matches nothing
+        } else {
+          setRetainLineState(B_FOR_A_RETAIN_LINE, lineCount);
+        }
+        break;
+
+      case A_FOR_B_DELETE:
+        // B is modifying a previously retained line
+        output.delete(bText, leftoverStart, leftoverEnd);
+        handleARetainLineAfterBComponent(lineCount,
+            PackedDocOp.endsWithNewline(bText, leftoverStart, leftoverEnd));
+        break;
+
+      case A_FOR_B_RETAIN:
+        output.retain(leftoverCount, leftoverHasTrailingNewline);
+        handleARetainLineAfterBComponent(lineCount, leftoverHasTrailingNewline);
+        break;
+
+      case A_FOR_B_RETAIN_LINE: {
+        // A and B are retaining some lines
+        int bLineCount = leftoverCount;
+        int minLineCount = Math.min(lineCount, bLineCount);
+        output.retainLine(minLineCount);
+
+        if (lineCount == bLineCount) {
+          state = DEFAULT;
+        } else if (lineCount == minLineCount) {
+          cancelBRetainLines(minLineCount, true);
+        } else {
+          setRetainLineState(B_FOR_A_RETAIN_LINE, lineCount - minLineCount);
+        }
+        break;
+      }
+
+      default:
+        throw new IllegalStateException("Not processing A");
+    }
+  }
+
+  /**
+   * Handles A's retain line after B's leftover delete or retain was output.
+   */
+  private void handleARetainLineAfterBComponent(int lineCount, boolean bHasNewline) {
+    if (bHasNewline || isLastComponentOfB) {
+      // B's component finishes a line, so A's retain line is affected
+      if (lineCount == 1) {
+        state = DEFAULT;
+      } else {
+        setRetainLineState(B_FOR_A_RETAIN_LINE, lineCount - 1);
+      }
+    } else {
+      setRetainLineState(B_FOR_A_RETAIN_LINE, lineCount);
+    }
+  }
+
+  private void handleBInsert(int start, int end) {
+    // Every processing B state passes B's insertion through
+    output.insert(bText, start, end);
+
+    if (state == B_FOR_A_RETAIN_LINE && isLastComponentOfB) {
+      cancelARetainLines(1);
+    }
+  }
+
+  private void handleBDelete(int start, int end) {
+    int length = end - start;
+    switch (state) {
+      case B_FOR_A_FINISHED:
+        throw new InternalComposeException("A finished, B cannot have a delete");
+
+      case B_FOR_A_INSERT: {
+        int aInsertLength = leftoverEnd - leftoverStart;
+        if (length <= aInsertLength) {
+          cancelAInsert(length);
+        } else {
+          setTextState(A_FOR_B_DELETE, start + aInsertLength, end);
+        }
+        break;
+      }
+
+      case B_FOR_A_RETAIN:
+        if (length <= leftoverCount) {
+          output.delete(bText, start, end);
+          cancelARetain(length);
+        } else {
+          output.delete(bText, start, start + leftoverCount);
+          setTextState(A_FOR_B_DELETE, start + leftoverCount, end);
+        }
+        break;
+
+      case B_FOR_A_RETAIN_LINE:
+        // A is retaining the line that B modified
+        output.delete(bText, start, end);
+
+        if (PackedDocOp.endsWithNewline(bText, start, end) || isLastComponentOfB) {
+          cancelARetainLines(1);
+        }
+        break;
+
+      default:
+        throw new IllegalStateException("Not processing B");
+    }
+  }
+
+  private void handleBRetain(int count, boolean hasTrailingNewline) {
+    switch (state) {
+      case B_FOR_A_FINISHED:
+        throw new InternalComposeException("A finished, B cannot have a retain");
+
+      case B_FOR_A_INSERT: {
+        int aInsertLength = leftoverEnd - leftoverStart;
+        if (count <= aInsertLength) {
+          output.insert(aText, leftoverStart, leftoverStart + count);
+          cancelAInsert(count);
+        } else {
+          output.insert(aText, leftoverStart, leftoverEnd);
+          setRetainState(A_FOR_B_RETAIN, count - aInsertLength, hasTrailingNewline);
+        }
+        break;
+      }
+
+      case B_FOR_A_RETAIN:
+        if (count <= leftoverCount) {
+          output.retain(count, hasTrailingNewline);
+          cancelARetain(count);
+        } else {
+          output.retain(leftoverCount, leftoverHasTrailingNewline);
+          setRetainState(A_FOR_B_RETAIN, count - leftoverCount, hasTrailingNewline);
+        }
+        break;
+
+      case B_FOR_A_RETAIN_LINE:
+        // A is retaining the line that B modified
+        output.retain(count, hasTrailingNewline);
+
+        if (hasTrailingNewline || isLastComponentOfB) {
+          cancelARetainLines(1);
+        }
+        break;
+
+      default:
+        throw new IllegalStateException("Not processing B");
+    }
+  }
+
+  private void handleBRetainLine(int lineCount) {
+    switch (state) {
+      case B_FOR_A_FINISHED:
+        if (lineCount == 1 && !hasBUsedRlToMatchLeftoverTextOnLastLineOfA) {
+          output.retainLine(1);
+          hasBUsedRlToMatchLeftoverTextOnLastLineOfA = true;
+        } else {
+          throw new InternalComposeException("A finished, B cannot have a retain line");
+        }
+        break;
+
+      case B_FOR_A_INSERT: {
+        assert lineCount > 0;
+
+        // B is retaining the line where A modified
+        output.insert(aText, leftoverStart, leftoverEnd);
+
+        if (PackedDocOp.endsWithNewline(aText, leftoverStart, leftoverEnd)) {
+          lineCount--;
+        }
+        transitionForAInsertOrRetainAndBRetainLine(lineCount);
+        break;
+      }
+
+      case B_FOR_A_RETAIN:
+        Preconditions.checkArgument(lineCount > 0, "Must retain more than one line");
+
+        output.retain(leftoverCount, leftoverHasTrailingNewline);
+
+        if (leftoverHasTrailingNewline) {
+          lineCount--;
+        }
+        transitionForAInsertOrRetainAndBRetainLine(lineCount);
+        break;
+
+      case B_FOR_A_RETAIN_LINE: {
+        // A and B are retaining some lines
+        int aLineCount = leftoverCount;
+        int minLineCount = Math.min(aLineCount, lineCount);
+        output.retainLine(minLineCount);
+
+        if (aLineCount == lineCount) {
+          state = DEFAULT;
+        } else if (lineCount == minLineCount) {
+          cancelARetainLines(minLineCount);
+        } else {
+          setRetainLineState(A_FOR_B_RETAIN_LINE, lineCount - minLineCount);
+        }
+        break;
+      }
+
+      default:
+        throw new IllegalStateException("Not processing B");
+    }
+  }
+
+  private void cancelBDelete(int count) {
+    Preconditions.checkArgument(count <= leftoverEnd - leftoverStart,
+        "Cannot cancel if A's component is longer than B's");
+    leftoverStart += count;
+    if (leftoverStart == leftoverEnd) {
+      state = DEFAULT;
+    }
+  }
+
+  private void cancelBRetain(int count) {
+    Preconditions.checkArgument(count <= leftoverCount,
+        "Cannot cancel if A's component is longer than B's");
+    leftoverCount -= count;
+    if (leftoverCount == 0) {
+      state = DEFAULT;
+    }
+  }
+
+  private void cancelBRetainLines(int lineCount, boolean hasNewline) {
+    if (hasNewline) {
+      leftoverCount -= lineCount;
+    }
+
+    if (isLastComponentOfA) {
+      transitionForLastComponentOfAAndBRetainLine(leftoverCount);
+    } else if (leftoverCount == 0) {
+      state = DEFAULT;
+    }
+  }
+
+  private void cancelAInsert(int count) {
+    leftoverStart += count;
+    if (leftoverStart >= leftoverEnd) {
+      state = DEFAULT;
+    }
+  }
+
+  private void cancelARetain(int count) {
+    leftoverCount -= count;
+    if (leftoverCount <= 0) {
+      state = DEFAULT;
+    }
+  }
+
+  private void cancelARetainLines(int lineCount) {
+    leftoverCount -= lineCount;
+    if (leftoverCount == 0) {
+      state = DEFAULT;
+    }
+  }
+
+  private void transitionForAInsertOrRetainAndBRetainLine(int remainingBRetainLineCount) {
+    if (isLastComponentOfA) {
+      transitionForLastComponentOfAAndBRetainLine(remainingBRetainLineCount);
+    } else if (remainingBRetainLineCount == 0) {
+      state = DEFAULT;
+    } else {
+      setRetainLineState(A_FOR_B_RETAIN_LINE, remainingBRetainLineCount);
+    }
+  }
+
+  private void transitionForLastComponentOfAAndBRetainLine(int remainingBRetainLineCount) {
+    switch (remainingBRetainLineCount) {
+      case 0:
+        setFinishedState(false);
+        break;
+      case 1:
+        setFinishedState(true);
+        break;
+      default:
+        // This is an invalid state
+        setRetainLineState(A_FOR_B_RETAIN_LINE, remainingBRetainLineCount);
+        break;
+    }
+  }
+
+  private void setTextState(int newState, int start, int end) {
+    state = newState;
+    leftoverStart = start;
+    leftoverEnd = end;
+  }
+
+  private void setRetainState(int newState, int count, boolean hasTrailingNewline) {
+    state = newState;
+    leftoverCount = count;
+    leftoverHasTrailingNewline = hasTrailingNewline;
+  }
+
+  private void setRetainLineState(int newState, int lineCount) {
+    state = newState;
+    leftoverCount = lineCount;
+  }
+
+  private void setFinishedState(boolean hasBUsedRlToMatchLeftoverTextOnLastLineOfA) {
+    state = B_FOR_A_FINISHED;
+    this.hasBUsedRlToMatchLeftoverTextOnLastLineOfA = hasBUsedRlToMatchLeftoverTextOnLastLineOfA;
+  }
+
+  private boolean isProcessingB() {
+    return state >= B_FOR_A_FINISHED;
+  }
+
+  private boolean isBRetainingRestOfLastLine() {
+    return state == A_FOR_B_RETAIN_LINE && isLastComponentOfA && isLastComponentOfB
+        && leftoverCount == 1;
+  }
+}
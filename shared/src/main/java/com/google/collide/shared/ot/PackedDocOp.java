@@ -0,0 +1,343 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.shared.ot;
+
+import static com.google.collide.dto.DocOpComponent.Type.DELETE;
+import static com.google.collide.dto.DocOpComponent.Type.INSERT;
+import static com.google.collide.dto.DocOpComponent.Type.RETAIN;
+import static com.google.collide.dto.DocOpComponent.Type.RETAIN_LINE;
+
+import com.google.collide.dto.DocOp;
+import com.google.collide.dto.DocOpComponent;
+import com.google.collide.dto.DocOpComponent.Delete;
+import com.google.collide.dto.DocOpComponent.Insert;
+import com.google.collide.dto.DocOpComponent.Retain;
+import com.google.collide.dto.DocOpComponent.RetainLine;
+import com.google.collide.dto.shared.DocOpFactory;
+import com.google.collide.json.shared.JsonArray;
+
+/*
+ * Layout: component i has the type types[i] (one of DocOpComponent.Type, with
+ * TRAILING_NEWLINE or'ed in for retains covering the end of their line) and the
+ * value values[i], which is the character count of a retain, the line count of
+ * a retain line, or the text length of an insert or delete. The texts of the
+ * inserts and deletes are stored back to back in text, in component order, so
+ * the text of a component starts where the text of the previous insert or
+ * delete ended.
+ */
+/**
+ * A document operation packed into two int arrays and a single string, instead
+ * of one {@link DocOpComponent} object per component.
+ *
+ * {@link PackedComposer}, {@link PackedTransformer} and
+ * {@link PackedDocOpApplier} work directly on this representation, which saves
+ * the component objects and the intermediate substrings that {@link Composer}
+ * and {@link Transformer} create. Use {@link #fromDocOp(DocOp)} and
+ * {@link #toDocOp(DocOpFactory)} to convert at the edges.
+ *
+ * This class is immutable.
+ */
+public final class PackedDocOp {
+
+  /**
+   * Builds a packed document operation. With compaction, this produces the same
+   * components as {@link DocOpCapturer}.
+   */
+  static final class Builder {
+    private final boolean shouldCompact;
+
+    private int[] types;
+    private int[] values;
+    private int size;
+    private final StringBuilder text = new StringBuilder();
+
+    private int curType = -1;
+
+    /** The count, line count or text length of the current component */
+    private int curValue;
+
+    /** Only valid if the current component is retain */
+    private boolean curHasTrailingNewline;
+
+    private boolean curLineHasNonRetainComponents;
+
+    /**
+     * @param expectedSize the number of components to allocate room for, the
+     *        builder grows past it if required
+     */
+    Builder(boolean shouldCompact, int expectedSize) {
+      this.shouldCompact = shouldCompact;
+      types = new int[Math.max(expectedSize, 4)];
+      values = new int[types.length];
+    }
+
+    PackedDocOp build() {
+      commitCurrentComponent();
+      return new PackedDocOp(types, values, size, text.toString());
+    }
+
+    /**
+     * Adds a delete of the characters of {@code source} between {@code start}
+     * (inclusive) and {@code end} (exclusive).
+     */
+    void delete(String source, int start, int end) {
+      appendText(DELETE, source, start, end);
+    }
+
+    /**
+     * Adds an insert of the characters of {@code source} between {@code start}
+     * (inclusive) and {@code end} (exclusive).
+     */
+    void insert(String source, int start, int end) {
+      appendText(INSERT, source, start, end);
+    }
+
+    void retain(int count, boolean hasTrailingNewline) {
+      if (shouldCompact && !curLineHasNonRetainComponents && hasTrailingNewline) {
+        // Same as DocOpCapturer, a line with only retains becomes a retain line
+        if (curType == RETAIN && !curHasTrailingNewline) {
+          discardCurrentComponent();
+        }
+
+        retainLine(1);
+        return;
+      }
+
+      checkAndCommitIfRequired(RETAIN);
+      curType = RETAIN;
+      curValue += count;
+      curHasTrailingNewline = hasTrailingNewline;
+
+      if (curHasTrailingNewline) {
+        curLineHasNonRetainComponents = false;
+      }
+    }
+
+    void retainLine(int lineCount) {
+      checkAndCommitIfRequired(RETAIN_LINE);
+      curType = RETAIN_LINE;
+      curValue += lineCount;
+      curLineHasNonRetainComponents = false;
+    }
+
+    private void appendText(int type, String source, int start, int end) {
+      checkAndCommitIfRequired(type);
+      curType = type;
+      text.append(source, start, end);
+      curValue += end - start;
+      // Reset the variable if starting a new line
+      curLineHasNonRetainComponents = !endsWithNewline(source, start, end);
+    }
+
+    private void checkAndCommitIfRequired(int newType) {
+      if (!shouldCompact || curType != newType
+          || (curType == RETAIN && curHasTrailingNewline)
+          || ((curType == DELETE || curType == INSERT) && curValue > 0
+              && text.charAt(text.length() - 1) == '\n')) {
+        commitCurrentComponent();
+      }
+    }
+
+    private void commitCurrentComponent() {
+      if (curType == -1) {
+        return;
+      }
+
+      if (size == types.length) {
+        types = copyOf(types, size * 2);
+        values = copyOf(values, size * 2);
+      }
+      types[size] = curType == RETAIN && curHasTrailingNewline ? RETAIN | TRAILING_NEWLINE
+          : curType;
+      values[size] = curValue;
+      size++;
+
+      discardCurrentComponent();
+    }
+
+    private void discardCurrentComponent() {
+      curType = -1;
+      curHasTrailingNewline = false;
+      curValue = 0;
+    }
+
+    private static int[] copyOf(int[] array, int length) {
+      int[] copy = new int[length];
+      System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+      return copy;
+    }
+  }
+
+  /** Flag set on the type of a retain whose last character is a newline */
+  private static final int TRAILING_NEWLINE = 0x10;
+
+  /**
+   * Packs the given document operation, keeping its components as they are.
+   */
+  public static PackedDocOp fromDocOp(DocOp docOp) {
+    JsonArray<DocOpComponent> components = docOp.getComponents();
+    Builder builder = new Builder(false, components.size());
+    for (int i = 0, n = components.size(); i < n; i++) {
+      DocOpComponent component = components.get(i);
+      switch (component.getType()) {
+        case DELETE:
+          String deleteText = ((Delete) component).getText();
+          builder.delete(deleteText, 0, deleteText.length());
+          break;
+
+        case INSERT:
+          String insertText = ((Insert) component).getText();
+          builder.insert(insertText, 0, insertText.length());
+          break;
+
+        case RETAIN:
+          Retain retain = (Retain) component;
+          builder.retain(retain.getCount(), retain.hasTrailingNewline());
+          break;
+
+        case RETAIN_LINE:
+          builder.retainLine(((RetainLine) component).getLineCount());
+          break;
+
+        default:
+          throw new IllegalArgumentException(
+              "Unknown doc op component with ordinal " + component.getType());
+      }
+    }
+    return builder.build();
+  }
+
+  static boolean endsWithNewline(String text, int start, int end) {
+    return end > start && text.charAt(end - 1) == '\n';
+  }
+
+  private final int[] types;
+
+  private final int[] values;
+
+  private final int size;
+
+  private final String text;
+
+  private PackedDocOp(int[] types, int[] values, int size, String text) {
+    this.types = types;
+    this.values = values;
+    this.size = size;
+    this.text = text;
+  }
+
+  /**
+   * Unpacks this into a document operation with the same components.
+   */
+  public DocOp toDocOp(DocOpFactory factory) {
+    DocOp docOp = factory.createDocOp();
+    JsonArray<DocOpComponent> components = docOp.getComponents();
+    int textOffset = 0;
+    for (int i = 0; i < size; i++) {
+      int value = values[i];
+      switch (getType(i)) {
+        case DELETE:
+          components.add(factory.createDelete(text.substring(textOffset, textOffset + value)));
+          textOffset += value;
+          break;
+
+        case INSERT:
+          components.add(factory.createInsert(text.substring(textOffset, textOffset + value)));
+          textOffset += value;
+          break;
+
+        case RETAIN:
+          components.add(factory.createRetain(value, hasTrailingNewline(i)));
+          break;
+
+        case RETAIN_LINE:
+          components.add(factory.createRetainLine(value));
+          break;
+      }
+    }
+    return docOp;
+  }
+
+  /**
+   * Returns the number of components.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the {@link DocOpComponent.Type} of the given component.
+   */
+  public int getType(int index) {
+    return types[index] & ~TRAILING_NEWLINE;
+  }
+
+  /**
+   * Returns the character count of a retain, the line count of a retain line,
+   * or the text length of an insert or delete.
+   */
+  public int getValue(int index) {
+    return values[index];
+  }
+
+  /**
+   * Returns whether the given retain component covers the end of its line.
+   */
+  public boolean hasTrailingNewline(int index) {
+    return (types[index] & TRAILING_NEWLINE) != 0;
+  }
+
+  /**
+   * Returns the texts of all insert and delete components, back to back.
+   */
+  String getText() {
+    return text;
+  }
+
+  /**
+   * Uses the same notation as {@link DocOpUtils#toString(DocOp, boolean)}.
+   */
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    int textOffset = 0;
+    for (int i = 0; i < size; i++) {
+      int value = values[i];
+      switch (getType(i)) {
+        case DELETE:
+        case INSERT:
+          sb.append(getType(i) == DELETE ? "D(" : "I(");
+          if (endsWithNewline(text, textOffset, textOffset + value)) {
+            sb.append(text, textOffset, textOffset + value - 1).append("\\n");
+          } else {
+            sb.append(text, textOffset, textOffset + value);
+          }
+          sb.append(')');
+          textOffset += value;
+          break;
+
+        case RETAIN:
+          sb.append("R(").append(hasTrailingNewline(i) ? (value - 1) + "\\n" : "" + value)
+              .append(')');
+          break;
+
+        case RETAIN_LINE:
+          sb.append("RL(").append(value).append(')');
+          break;
+      }
+    }
+    return sb.toString();
+  }
+}
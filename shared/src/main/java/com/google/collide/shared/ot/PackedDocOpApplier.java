@@ -0,0 +1,185 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.shared.ot;
+
+import static com.google.collide.dto.DocOpComponent.Type.DELETE;
+import static com.google.collide.dto.DocOpComponent.Type.INSERT;
+import static com.google.collide.dto.DocOpComponent.Type.RETAIN;
+import static com.google.collide.dto.DocOpComponent.Type.RETAIN_LINE;
+
+import com.google.collide.json.shared.JsonArray;
+import com.google.collide.shared.document.Document;
+import com.google.collide.shared.document.DocumentMutator;
+import com.google.collide.shared.document.LineInfo;
+import com.google.collide.shared.document.TextChange;
+import com.google.collide.shared.util.JsonCollections;
+import com.google.common.base.Preconditions;
+
+/**
+ * Applies packed document operations, see {@link DocOpApplier}.
+ *
+ * Consecutive inserts (or deletes) are applied as one text change. Their texts
+ * are adjacent in the packed buffer, so this takes a single substring of it.
+ */
+public class PackedDocOpApplier {
+
+  public static JsonArray<TextChange> apply(PackedDocOp docOp, Document document) {
+    return apply(docOp, document, document);
+  }
+
+  public static JsonArray<TextChange> apply(PackedDocOp docOp, Document document,
+      DocumentMutator documentMutator) {
+    PackedDocOpApplier applier = new PackedDocOpApplier(docOp, document, documentMutator);
+    applier.apply();
+    return applier.textChanges;
+  }
+
+  private int column;
+  private final PackedDocOp docOp;
+  private final String docOpText;
+  private int componentIndex;
+  private int textOffset;
+  private final Document document;
+  private final DocumentMutator documentMutator;
+
+  /**
+   * If true, we are definitely finished and cannot accepts any more doc op
+   * components.
+   */
+  private boolean isFinished;
+
+  private LineInfo lineInfo;
+  private final JsonArray<TextChange> textChanges = JsonCollections.createArray();
+
+  private PackedDocOpApplier(PackedDocOp docOp, Document document,
+      DocumentMutator documentMutator) {
+    this.docOp = docOp;
+    this.docOpText = docOp.getText();
+    this.document = document;
+    this.documentMutator = documentMutator;
+
+    lineInfo = new LineInfo(document.getFirstLine(), 0);
+  }
+
+  private void apply() {
+    for (; componentIndex < docOp.size(); componentIndex++) {
+      switch (docOp.getType(componentIndex)) {
+        case INSERT:
+          handleInsert();
+          break;
+
+        case DELETE:
+          handleDelete();
+          break;
+
+        case RETAIN:
+          handleRetain();
+          break;
+
+        case RETAIN_LINE:
+          handleRetainLine();
+          break;
+      }
+    }
+  }
+
+  private void handleDelete() {
+    Preconditions.checkArgument(!isFinished, "Unexpected finished while handling delete");
+
+    int start = textOffset;
+    int length = docOp.getValue(componentIndex);
+    Preconditions.checkArgument(
+        lineInfo.line().getText().regionMatches(column, docOpText, start, length),
+        "To-be-deleted text isn't actually at location");
+
+    while (componentIndex + 1 < docOp.size() && docOp.getType(componentIndex + 1) == DELETE) {
+      componentIndex++;
+      length += docOp.getValue(componentIndex);
+    }
+    textOffset += length;
+
+    addTextChange(
+        documentMutator.deleteText(lineInfo.line(), lineInfo.number(), column, length));
+  }
+
+  private void handleInsert() {
+    Preconditions.checkArgument(!isFinished, "Unexpected finished while handling insert");
+
+    int start = textOffset;
+    int newLineDelta = 0;
+    int newColumn = column;
+
+    // Offset the componentIndex for the first iteration
+    componentIndex--;
+
+    do {
+      componentIndex++;
+      int length = docOp.getValue(componentIndex);
+      textOffset += length;
+
+      if (PackedDocOp.endsWithNewline(docOpText, textOffset - length, textOffset)) {
+        newLineDelta++;
+        newColumn = 0;
+      } else {
+        newColumn += length;
+      }
+    } while (componentIndex + 1 < docOp.size() && docOp.getType(componentIndex + 1) == INSERT);
+
+    addTextChange(documentMutator.insertText(lineInfo.line(), lineInfo.number(), column,
+        docOpText.substring(start, textOffset)));
+
+    for (; newLineDelta > 0; newLineDelta--) {
+      moveToNextLine();
+    }
+
+    column = newColumn;
+  }
+
+  private void addTextChange(TextChange textChange) {
+    if (textChange != null) {
+      textChanges.add(textChange);
+    }
+  }
+
+  private void handleRetain() {
+    Preconditions.checkArgument(!isFinished, "Unexpected finished while handling retain");
+
+    if (docOp.hasTrailingNewline(componentIndex)) {
+      moveToNextLine();
+    } else {
+      column += docOp.getValue(componentIndex);
+    }
+  }
+
+  private void handleRetainLine() {
+    Preconditions.checkArgument(!isFinished, "Unexpected finished while handling retain line");
+
+    int newLineNumber = lineInfo.number() + docOp.getValue(componentIndex);
+    if (newLineNumber < document.getLineCount()) {
+      lineInfo = document.getLineFinder().findLine(lineInfo, newLineNumber);
+      column = 0;
+    } else {
+      // We have spanned the entire document
+      isFinished = true;
+    }
+  }
+
+  private void moveToNextLine() {
+    boolean didMove = lineInfo.moveToNext();
+    Preconditions.checkArgument(didMove, "Did not actually move to next line");
+
+    column = 0;
+  }
+}
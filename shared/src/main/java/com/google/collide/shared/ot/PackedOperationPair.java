@@ -0,0 +1,43 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.shared.ot;
+
+/**
+ * A pair of packed document operations, see {@link OperationPair}.
+ */
+public final class PackedOperationPair {
+
+  private final PackedDocOp clientOp;
+  private final PackedDocOp serverOp;
+
+  public PackedOperationPair(PackedDocOp clientOp, PackedDocOp serverOp) {
+    this.clientOp = clientOp;
+    this.serverOp = serverOp;
+  }
+
+  /**
+   * @return The client's operation.
+   */
+  public PackedDocOp clientOp() {
+    return clientOp;
+  }
+
+  /**
+   * @return The server's operation.
+   */
+  public PackedDocOp serverOp() {
+    return serverOp;
+  }
+}
@@ -0,0 +1,391 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.shared.ot;
+
+import static com.google.collide.dto.DocOpComponent.Type.DELETE;
+import static com.google.collide.dto.DocOpComponent.Type.INSERT;
+import static com.google.collide.dto.DocOpComponent.Type.RETAIN;
+import static com.google.collide.dto.DocOpComponent.Type.RETAIN_LINE;
+
+import com.google.collide.shared.ot.Transformer.TransformException;
+import com.google.common.base.Preconditions;
+
+/*
+ * This follows Transformer, but instead of a Processor object per component
+ * each side keeps its current component in the primitive fields of a Side, and
+ * the text of inserts and deletes is addressed by its range in the buffer of
+ * the side's doc op.
+ *
+ * Transformer dispatches on both components and lets one processor hand over
+ * to the other (flipping the ProcessorResult). Here dispatch() resolves each
+ * pair of component types to the handler that Transformer ends up running, and
+ * the handlers take the two sides in the roles of that processor ("my" side
+ * first) so the finished flags need no flipping.
+ */
+/**
+ * Transforms packed document operations, producing the same components as
+ * {@link Transformer}.
+ */
+public class PackedTransformer {
+
+  /** Type of a side whose components have all been transformed */
+  private static final int FINISHED = -2;
+
+  /** Type of a side that needs to move on to its next component */
+  private static final int NONE = -1;
+
+  /**
+   * The state of one of the document operations being transformed.
+   */
+  private static class Side {
+    final PackedDocOp op;
+    final String text;
+    final PackedDocOp.Builder output;
+
+    int index;
+    int textOffset;
+
+    int type = NONE;
+
+    /** The leftover text of the current insert or delete */
+    int start;
+    int end;
+
+    /** The leftover count of the current retain or retain line */
+    int count;
+
+    /** Whether the current retain covers the end of its line */
+    boolean hasTrailingNewline;
+
+    /** See Transformer.RetainLineProcessor#substituteRetainCount */
+    int substituteRetainCount;
+
+    /** Whether the current component is finished after this iteration */
+    boolean isStateFinished;
+
+    /** See Transformer.ProcessorResult */
+    boolean isCurrentComponentInsertOfNewline;
+    boolean isPreviousComponentInsertOfNewline;
+
+    Side(PackedDocOp op, PackedDocOp otherOp) {
+      this.op = op;
+      this.text = op.getText();
+
+      // Roughly a component per component of either side
+      output = new PackedDocOp.Builder(true, op.size() + otherOp.size());
+    }
+
+    /**
+     * Moves to the next component if the current one is finished. Returns
+     * false if there are no more components.
+     */
+    boolean moveToNextComponentIfRequired() {
+      if (type == NONE) {
+        if (index < op.size()) {
+          type = op.getType(index);
+          count = op.getValue(index);
+          hasTrailingNewline = op.hasTrailingNewline(index);
+          substituteRetainCount = 0;
+          if (type == INSERT || type == DELETE) {
+            start = textOffset;
+            end = textOffset + count;
+            textOffset = end;
+          }
+          index++;
+        } else {
+          type = FINISHED;
+        }
+      }
+      return type != FINISHED;
+    }
+
+    void reset() {
+      if (isStateFinished) {
+        type = NONE;
+      }
+      isPreviousComponentInsertOfNewline = isCurrentComponentInsertOfNewline;
+      isStateFinished = isCurrentComponentInsertOfNewline = false;
+    }
+  }
+
+  public static PackedOperationPair transform(PackedDocOp clientOp, PackedDocOp serverOp)
+      throws TransformException {
+    try {
+      return transformImpl(clientOp, serverOp);
+    } catch (Throwable t) {
+      throw new TransformException("Could not transform doc ops:\nClient: " + clientOp
+          + "\nServer: " + serverOp + "\n", t);
+    }
+  }
+
+  private static PackedOperationPair transformImpl(PackedDocOp clientOp, PackedDocOp serverOp) {
+    /*
+     * The output of each side is that side's doc op transformed to apply to
+     * the document *after* the other side's original doc op.
+     */
+    Side client = new Side(clientOp, serverOp);
+    Side server = new Side(serverOp, clientOp);
+
+    while (true) {
+      boolean hasClientComponent = client.moveToNextComponentIfRequired();
+      boolean hasServerComponent = server.moveToNextComponentIfRequired();
+      if (!hasClientComponent && !hasServerComponent) {
+        break;
+      }
+
+      dispatch(client, server);
+      client.reset();
+      server.reset();
+    }
+
+    return new PackedOperationPair(client.output.build(), server.output.build());
+  }
+
+  private static void dispatch(Side x, Side y) {
+    switch (x.type) {
+      case DELETE:
+        switch (y.type) {
+          case DELETE:
+            handleDeleteVsDelete(x, y);
+            break;
+          case INSERT:
+            performInsert(y, x);
+            break;
+          case RETAIN:
+            handleDeleteVsRetain(x, y);
+            break;
+          case RETAIN_LINE:
+            handleRetainLineVsDelete(y, x);
+            break;
+          default:
+            throw new IllegalStateException("Cannot delete if the other side is finished");
+        }
+        break;
+
+      case INSERT:
+        if (y.type == RETAIN_LINE) {
+          handleRetainLineVsInsert(y, x);
+        } else {
+          /*
+           * Against another insertion we only insert this one, so contiguous
+           * insertions by one side stay contiguous in the transformed op
+           */
+          performInsert(x, y);
+        }
+        break;
+
+      case RETAIN:
+        switch (y.type) {
+          case DELETE:
+            handleDeleteVsRetain(y, x);
+            break;
+          case INSERT:
+            performInsert(y, x);
+            break;
+          case RETAIN:
+            handleRetainVsRetain(x, y);
+            break;
+          case RETAIN_LINE:
+            handleRetainLineVsRetain(y, x);
+            break;
+          default:
+            throw new IllegalStateException("Cannot retain if other side is finished");
+        }
+        break;
+
+      case RETAIN_LINE:
+        switch (y.type) {
+          case DELETE:
+            handleRetainLineVsDelete(x, y);
+            break;
+          case INSERT:
+            handleRetainLineVsInsert(x, y);
+            break;
+          case RETAIN:
+            handleRetainLineVsRetain(x, y);
+            break;
+          case RETAIN_LINE:
+            handleRetainLineVsRetainLine(x, y);
+            break;
+          default:
+            handleRetainLineVsFinished(x, y);
+            break;
+        }
+        break;
+
+      case FINISHED:
+        switch (y.type) {
+          case DELETE:
+            throw new IllegalStateException("Cannot delete if the other side is finished");
+          case INSERT:
+            performInsert(y, x);
+            break;
+          case RETAIN:
+            throw new IllegalStateException("Cannot retain if other side is finished");
+          case RETAIN_LINE:
+            handleRetainLineVsFinished(y, x);
+            break;
+          default:
+            throw new IllegalStateException("Both should not be finished");
+        }
+        break;
+    }
+  }
+
+  private static void performInsert(Side insert, Side other) {
+    insert.output.insert(insert.text, insert.start, insert.end);
+    boolean endsWithNewline = PackedDocOp.endsWithNewline(insert.text, insert.start, insert.end);
+    other.output.retain(insert.end - insert.start, endsWithNewline);
+
+    if (endsWithNewline) {
+      insert.isCurrentComponentInsertOfNewline = true;
+    }
+    insert.isStateFinished = true;
+  }
+
+  private static void handleDeleteVsDelete(Side x, Side y) {
+    // The transformed ops shouldn't know about the deletes, so output nothing
+    int xLength = x.end - x.start;
+    int yLength = y.end - y.start;
+    if (xLength == yLength) {
+      x.isStateFinished = true;
+      y.isStateFinished = true;
+    } else if (xLength < yLength) {
+      y.start += xLength;
+      x.isStateFinished = true;
+    } else {
+      x.start += yLength;
+      y.isStateFinished = true;
+    }
+  }
+
+  private static void handleDeleteVsRetain(Side delete, Side retain) {
+    /*
+     * The other transformed op won't have anything to retain, so output nothing
+     * for it. Our transformed op needs to delete though.
+     */
+    int minCount = Math.min(delete.end - delete.start, retain.count);
+    retain.count -= minCount;
+
+    delete.output.delete(delete.text, delete.start, delete.start + minCount);
+    delete.start += minCount;
+    if (delete.start == delete.end) {
+      delete.isStateFinished = true;
+    }
+
+    if (retain.count == 0) {
+      retain.isStateFinished = true;
+    }
+  }
+
+  private static void handleRetainVsRetain(Side x, Side y) {
+    int minCount = Math.min(x.count, y.count);
+    performRetain(x, minCount);
+    performRetain(y, minCount);
+  }
+
+  private static void performRetain(Side retain, int retainCount) {
+    retain.output.retain(retainCount,
+        retain.count == retainCount ? retain.hasTrailingNewline : false);
+
+    if (retain.count == retainCount) {
+      retain.isStateFinished = true;
+    }
+    retain.count -= retainCount;
+  }
+
+  private static void handleRetainLineVsDelete(Side retainLine, Side delete) {
+    delete.output.delete(delete.text, delete.start, delete.end);
+
+    if (PackedDocOp.endsWithNewline(delete.text, delete.start, delete.end)) {
+      handleLineEnd(retainLine, false);
+    }
+
+    delete.isStateFinished = true;
+  }
+
+  private static void handleRetainLineVsFinished(Side retainLine, Side finished) {
+    Preconditions.checkState(retainLine.count == 1,
+        "Cannot retain more than one line if other side is finished");
+
+    if (retainLine.isPreviousComponentInsertOfNewline) {
+      finished.output.retainLine(1);
+    }
+
+    retainLine.count = 0;
+    retainLine.output.retainLine(1);
+    retainLine.isStateFinished = true;
+  }
+
+  private static void handleRetainLineVsInsert(Side retainLine, Side insert) {
+    insert.output.insert(insert.text, insert.start, insert.end);
+
+    if (PackedDocOp.endsWithNewline(insert.text, insert.start, insert.end)) {
+      // Retain the line just inserted by other
+      retainLine.count++;
+      handleLineEnd(retainLine, true);
+
+      insert.isCurrentComponentInsertOfNewline = true;
+    } else {
+      retainLine.substituteRetainCount += insert.end - insert.start;
+    }
+
+    insert.isStateFinished = true;
+  }
+
+  private static void handleRetainLineVsRetain(Side retainLine, Side retain) {
+    retain.output.retain(retain.count, retain.hasTrailingNewline);
+    retainLine.substituteRetainCount += retain.count;
+
+    if (retain.hasTrailingNewline) {
+      handleLineEnd(retainLine, true);
+    }
+
+    retain.isStateFinished = true;
+  }
+
+  private static void handleRetainLineVsRetainLine(Side x, Side y) {
+    int minLineCount = Math.min(x.count, y.count);
+
+    x.output.retainLine(minLineCount);
+    x.count -= minLineCount;
+
+    y.output.retainLine(minLineCount);
+    y.count -= minLineCount;
+
+    if (x.count == 0) {
+      x.isStateFinished = true;
+    }
+
+    if (y.count == 0) {
+      y.isStateFinished = true;
+    }
+  }
+
+  private static void handleLineEnd(Side retainLine, boolean canUseRetainLine) {
+    if (canUseRetainLine) {
+      retainLine.output.retainLine(1);
+    } else if (retainLine.substituteRetainCount > 0) {
+      retainLine.output.retain(retainLine.substituteRetainCount, false);
+    }
+
+    retainLine.count--;
+    retainLine.substituteRetainCount = 0;
+
+    if (retainLine.count == 0) {
+      retainLine.isStateFinished = true;
+    }
+  }
+}
@@ -0,0 +1,417 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.collide.shared.util;
+
+import com.google.collide.json.shared.JsonArray;
+import com.google.collide.shared.util.SortedList.OneWayComparator;
+import com.google.common.base.Preconditions;
+
+/*
+ * A counted B+ tree: the items are in the leaves, in order, and every node
+ * knows how many items are below it, which is what indexing descends by. A leaf
+ * holds up to MAX_NODE_LENGTH items in an array that grows as needed, so a
+ * small list is a single short array. Nodes that drop below MIN_NODE_LENGTH
+ * are merged with or refilled from a sibling, which keeps the tree balanced
+ * under removals.
+ *
+ * Only plain arrays are used so this works the same in GWT.
+ */
+/**
+ * A list that inserts and removes items at any index in O(lg N), for lists
+ * too long to shift on every change.
+ *
+ * The list does not sort its items, but {@link #search(OneWayComparator)}
+ * assumes they are sorted, see {@link SortedList}.
+ */
+public class BTreeList<T> {
+
+  private static final int MAX_NODE_LENGTH = 64;
+
+  private static final int MIN_NODE_LENGTH = MAX_NODE_LENGTH / 4;
+
+  private abstract static class Node {
+    /** The number of items in this subtree */
+    int size;
+
+    /** The number of items of a leaf, or children of an internal node */
+    abstract int length();
+  }
+
+  private static class Leaf extends Node {
+    Object[] items = new Object[4];
+
+    @Override
+    int length() {
+      return size;
+    }
+  }
+
+  private static class InternalNode extends Node {
+    final Node[] children = new Node[MAX_NODE_LENGTH];
+    int childCount;
+
+    @Override
+    int length() {
+      return childCount;
+    }
+  }
+
+  private Node root = new Leaf();
+
+  public void add(T item) {
+    insert(root.size, item);
+  }
+
+  public void clear() {
+    root = new Leaf();
+  }
+
+  @SuppressWarnings("unchecked")
+  public T get(int index) {
+    checkIndex(index, root.size);
+
+    Node node = root;
+    while (node instanceof InternalNode) {
+      InternalNode internalNode = (InternalNode) node;
+      int i = 0;
+      while (index >= internalNode.children[i].size) {
+        index -= internalNode.children[i].size;
+        i++;
+      }
+      node = internalNode.children[i];
+    }
+    return (T) ((Leaf) node).items[index];
+  }
+
+  /**
+   * Inserts the item at the given {@code index}, shifting the items from there
+   * on up by one.
+   */
+  public void insert(int index, T item) {
+    checkIndex(index, root.size + 1);
+
+    Node split = insert(root, index, item);
+    if (split != null) {
+      InternalNode newRoot = new InternalNode();
+      newRoot.children[0] = root;
+      newRoot.children[1] = split;
+      newRoot.childCount = 2;
+      newRoot.size = root.size + split.size;
+      root = newRoot;
+    }
+  }
+
+  public T remove(int index) {
+    checkIndex(index, root.size);
+
+    T item = remove(root, index);
+    if (root instanceof InternalNode && ((InternalNode) root).childCount == 1) {
+      root = ((InternalNode) root).children[0];
+    }
+    return item;
+  }
+
+  /**
+   * Removes {@code count} items starting at {@code index}.
+   *
+   * @return the removed items
+   */
+  public JsonArray<T> removeRange(int index, int count) {
+    JsonArray<T> removed = JsonCollections.createArray();
+    for (int i = 0; i < count; i++) {
+      removed.add(remove(index));
+    }
+    return removed;
+  }
+
+  /**
+   * Finds the value of the {@code comparator} in this list, whose items must be
+   * sorted. This follows the contract of
+   * {@link SortedList#binarySearch(JsonArray, OneWayComparator)}: it returns
+   * the index of the first item equal to the value, or if there is none,
+   * {@code (-(insertion point) - 1)}.
+   */
+  @SuppressWarnings("unchecked")
+  public int search(OneWayComparator<T> comparator) {
+    int offset = 0;
+    Node node = root;
+    while (node instanceof InternalNode) {
+      InternalNode internalNode = (InternalNode) node;
+
+      /*
+       * The first item not less than the value is in the last child whose first
+       * item is less than the value, or it is the first item of the child after
+       */
+      int lower = 1;
+      int upper = internalNode.childCount - 1;
+      int childIndex = 0;
+      while (lower <= upper) {
+        int middle = lower + (upper - lower) / 2;
+        if (comparator.compareTo((T) getFirstItem(internalNode.children[middle])) > 0) {
+          childIndex = middle;
+          lower = middle + 1;
+        } else {
+          upper = middle - 1;
+        }
+      }
+
+      for (int i = 0; i < childIndex; i++) {
+        offset += internalNode.children[i].size;
+      }
+      node = internalNode.children[childIndex];
+    }
+
+    Leaf leaf = (Leaf) node;
+    int lower = 0;
+    int upper = leaf.size - 1;
+    while (lower <= upper) {
+      int middle = lower + (upper - lower) / 2;
+      if (comparator.compareTo((T) leaf.items[middle]) > 0) {
+        lower = middle + 1;
+      } else {
+        upper = middle - 1;
+      }
+    }
+
+    int index = offset + lower;
+    if (index < root.size && comparator.compareTo(get(index)) == 0) {
+      return index;
+    }
+    return -index - 1;
+  }
+
+  public int size() {
+    return root.size;
+  }
+
+  /**
+   * @return copy of this list as an array
+   */
+  public JsonArray<T> toArray() {
+    JsonArray<T> array = JsonCollections.createArray();
+    addItems(root, array);
+    return array;
+  }
+
+  /**
+   * Inserts the item into the subtree of {@code node}.
+   *
+   * @return a new node with the upper half of {@code node} if it had to be
+   *         split, which the caller must add after {@code node}
+   */
+  private static Node insert(Node node, int index, Object item) {
+    if (node instanceof Leaf) {
+      Leaf leaf = (Leaf) node;
+      if (leaf.size < MAX_NODE_LENGTH) {
+        insertIntoLeaf(leaf, index, item);
+        return null;
+      }
+
+      Leaf right = new Leaf();
+      moveItems(leaf, MAX_NODE_LENGTH / 2, right);
+      if (index <= leaf.size) {
+        insertIntoLeaf(leaf, index, item);
+      } else {
+        insertIntoLeaf(right, index - leaf.size, item);
+      }
+      return right;
+    }
+
+    InternalNode internalNode = (InternalNode) node;
+    int i = 0;
+    while (i < internalNode.childCount - 1 && index > internalNode.children[i].size) {
+      index -= internalNode.children[i].size;
+      i++;
+    }
+
+    internalNode.size++;
+    Node split = insert(internalNode.children[i], index, item);
+    if (split == null) {
+      return null;
+    }
+
+    if (internalNode.childCount < MAX_NODE_LENGTH) {
+      insertChild(internalNode, i + 1, split);
+      return null;
+    }
+
+    InternalNode right = new InternalNode();
+    moveChildren(internalNode, MAX_NODE_LENGTH / 2, right);
+    if (i < internalNode.childCount) {
+      insertChild(internalNode, i + 1, split);
+    } else {
+      insertChild(right, i + 1 - internalNode.childCount, split);
+      // The split's items were counted in this node, as part of its child
+      internalNode.size -= split.size;
+      right.size += split.size;
+    }
+    return right;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T remove(Node node, int index) {
+    if (node instanceof Leaf) {
+      Leaf leaf = (Leaf) node;
+      Object item = leaf.items[index];
+      System.arraycopy(leaf.items, index + 1, leaf.items, index, leaf.size - index - 1);
+      leaf.items[--leaf.size] = null;
+      return (T) item;
+    }
+
+    InternalNode internalNode = (InternalNode) node;
+    int i = 0;
+    while (index >= internalNode.children[i].size) {
+      index -= internalNode.children[i].size;
+      i++;
+    }
+
+    internalNode.size--;
+    T item = remove(internalNode.children[i], index);
+    if (internalNode.children[i].length() < MIN_NODE_LENGTH && internalNode.childCount > 1) {
+      rebalance(internalNode, i < internalNode.childCount - 1 ? i : i - 1);
+    }
+    return item;
+  }
+
+  /**
+   * Merges the children at {@code index} and {@code index + 1} if they fit in
+   * one node, otherwise evens them out.
+   */
+  private static void rebalance(InternalNode parent, int index) {
+    Node left = parent.children[index];
+    Node right = parent.children[index + 1];
+    int totalLength = left.length() + right.length();
+
+    if (left instanceof Leaf) {
+      Leaf leftLeaf = (Leaf) left;
+      Leaf rightLeaf = (Leaf) right;
+      if (totalLength <= MAX_NODE_LENGTH) {
+        moveItems(rightLeaf, 0, leftLeaf);
+      } else if (leftLeaf.size < rightLeaf.size) {
+        // Move the first items of the right leaf to the end of the left one
+        Leaf moved = new Leaf();
+        moveItems(rightLeaf, 0, moved);
+        moveItems(moved, totalLength / 2 - leftLeaf.size, rightLeaf);
+        moveItems(moved, 0, leftLeaf);
+      } else {
+        Leaf moved = new Leaf();
+        moveItems(leftLeaf, totalLength / 2, moved);
+        moveItems(rightLeaf, 0, moved);
+        moveItems(moved, 0, rightLeaf);
+      }
+    } else {
+      InternalNode leftNode = (InternalNode) left;
+      InternalNode rightNode = (InternalNode) right;
+      if (totalLength <= MAX_NODE_LENGTH) {
+        moveChildren(rightNode, 0, leftNode);
+      } else if (leftNode.childCount < rightNode.childCount) {
+        InternalNode moved = new InternalNode();
+        moveChildren(rightNode, 0, moved);
+        moveChildren(moved, totalLength / 2 - leftNode.childCount, rightNode);
+        moveChildren(moved, 0, leftNode);
+      } else {
+        InternalNode moved = new InternalNode();
+        moveChildren(leftNode, totalLength / 2, moved);
+        moveChildren(rightNode, 0, moved);
+        moveChildren(moved, 0, rightNode);
+      }
+    }
+
+    if (right.size == 0) {
+      // Merged into the left node
+      System.arraycopy(parent.children, index + 2, parent.children, index + 1,
+          parent.childCount - index - 2);
+      parent.children[--parent.childCount] = null;
+    }
+  }
+
+  private static void insertIntoLeaf(Leaf leaf, int index, Object item) {
+    ensureCapacity(leaf, leaf.size + 1);
+    System.arraycopy(leaf.items, index, leaf.items, index + 1, leaf.size - index);
+    leaf.items[index] = item;
+    leaf.size++;
+  }
+
+  /**
+   * Moves the items of {@code from} starting at {@code start} to the end of
+   * {@code to}.
+   */
+  private static void moveItems(Leaf from, int start, Leaf to) {
+    int count = from.size - start;
+    ensureCapacity(to, to.size + count);
+    System.arraycopy(from.items, start, to.items, to.size, count);
+    to.size += count;
+    for (int i = start; i < from.size; i++) {
+      from.items[i] = null;
+    }
+    from.size = start;
+  }
+
+  private static void ensureCapacity(Leaf leaf, int capacity) {
+    if (leaf.items.length < capacity) {
+      Object[] items = new Object[Math.min(Math.max(leaf.items.length * 2, capacity),
+          MAX_NODE_LENGTH)];
+      System.arraycopy(leaf.items, 0, items, 0, leaf.size);
+      leaf.items = items;
+    }
+  }
+
+  private static void insertChild(InternalNode node, int index, Node child) {
+    System.arraycopy(node.children, index, node.children, index + 1, node.childCount - index);
+    node.children[index] = child;
+    node.childCount++;
+  }
+
+  /**
+   * Moves the children of {@code from} starting at {@code start} to the end of
+   * {@code to}, along with their item counts.
+   */
+  private static void moveChildren(InternalNode from, int start, InternalNode to) {
+    for (int i = start; i < from.childCount; i++) {
+      Node child = from.children[i];
+      from.size -= child.size;
+      to.size += child.size;
+      to.children[to.childCount++] = child;
+      from.children[i] = null;
+    }
+    from.childCount = Math.min(from.childCount, start);
+  }
+
+  private static Object getFirstItem(Node node) {
+    while (node instanceof InternalNode) {
+      node = ((InternalNode) node).children[0];
+    }
+    return ((Leaf) node).items[0];
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> void addItems(Node node, JsonArray<T> array) {
+    if (node instanceof Leaf) {
+      Leaf leaf = (Leaf) node;
+      for (int i = 0; i < leaf.size; i++) {
+        array.add((T) leaf.items[i]);
+      }
+    } else {
+      InternalNode internalNode = (InternalNode) node;
+      for (int i = 0; i < internalNode.childCount; i++) {
+        addItems(internalNode.children[i], array);
+      }
+    }
+  }
+
+  private static void checkIndex(int index, int size) {
+    Preconditions.checkElementIndex(index, size);
+  }
+}
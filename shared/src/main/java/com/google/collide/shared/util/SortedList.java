@@ -20,7 +20,10 @@ import com.google.common.base.Preconditions;
 /**
  * List that is sorted based on the given {@link Comparator}.
  *
- * Insertions and removal of an instance are O(N).
+ * By default the items are kept in a flat array, and insertions and removal of
+ * an instance are O(N). A tree-backed list keeps them in a {@link BTreeList}
+ * instead, where both are O(lg N) at the price of an O(lg N) {@link #get(int)};
+ * use it for lists that can grow long.
  *
  */
 public class SortedList<T> {
@@ -67,6 +70,116 @@ public class SortedList<T> {
     }
   }
 
+  /**
+   * Storage of the items, in order.
+   */
+  private interface Items<T> {
+    T get(int index);
+
+    void insert(int index, T item);
+
+    T remove(int index);
+
+    JsonArray<T> removeRange(int index, int count);
+
+    /** See {@link SortedList#binarySearch(JsonArray, OneWayComparator)} */
+    int search(OneWayComparator<T> comparator);
+
+    int size();
+
+    void clear();
+
+    JsonArray<T> copy();
+  }
+
+  private static class ArrayItems<T> implements Items<T> {
+    private final JsonArray<T> array = JsonCollections.createArray();
+
+    @Override
+    public T get(int index) {
+      return array.get(index);
+    }
+
+    @Override
+    public void insert(int index, T item) {
+      array.splice(index, 0, item);
+    }
+
+    @Override
+    public T remove(int index) {
+      return array.remove(index);
+    }
+
+    @Override
+    public JsonArray<T> removeRange(int index, int count) {
+      return array.splice(index, count);
+    }
+
+    @Override
+    public int search(OneWayComparator<T> comparator) {
+      return binarySearch(array, comparator);
+    }
+
+    @Override
+    public int size() {
+      return array.size();
+    }
+
+    @Override
+    public void clear() {
+      array.clear();
+    }
+
+    @Override
+    public JsonArray<T> copy() {
+      return array.copy();
+    }
+  }
+
+  private static class TreeItems<T> implements Items<T> {
+    private final BTreeList<T> tree = new BTreeList<T>();
+
+    @Override
+    public T get(int index) {
+      return tree.get(index);
+    }
+
+    @Override
+    public void insert(int index, T item) {
+      tree.insert(index, item);
+    }
+
+    @Override
+    public T remove(int index) {
+      return tree.remove(index);
+    }
+
+    @Override
+    public JsonArray<T> removeRange(int index, int count) {
+      return tree.removeRange(index, count);
+    }
+
+    @Override
+    public int search(OneWayComparator<T> comparator) {
+      return tree.search(comparator);
+    }
+
+    @Override
+    public int size() {
+      return tree.size();
+    }
+
+    @Override
+    public void clear() {
+      tree.clear();
+    }
+
+    @Override
+    public JsonArray<T> copy() {
+      return tree.toArray();
+    }
+  }
+
   private final class ComparatorDelegator implements OneWayComparator<T> {
     T a;
 
@@ -78,14 +191,22 @@ public class SortedList<T> {
 
   private static final boolean ENSURE_SORTED_PRECONDITIONS_ENABLED = false;
   
-  private final JsonArray<T> array;
+  private final Items<T> items;
 
   private final Comparator<T> comparator;
 
   private final ComparatorDelegator comparatorDelegator = new ComparatorDelegator();
 
   public SortedList(Comparator<T> comparator) {
-    this.array = JsonCollections.createArray();
+    this(comparator, false);
+  }
+
+  /**
+   * @param isTreeBacked whether to keep the items in a {@link BTreeList}
+   *        rather than a flat array, see the class comment
+   */
+  public SortedList(Comparator<T> comparator, boolean isTreeBacked) {
+    this.items = isTreeBacked ? new TreeItems<T>() : new ArrayItems<T>();
     this.comparator = comparator;
   }
 
@@ -97,7 +218,7 @@ public class SortedList<T> {
    */
   public int add(T item) {
     int index = findInsertionIndex(item);
-    array.splice(index, 0, item);
+    items.insert(index, item);
     ensureSortedIfEnabled();
     return index;
   }
@@ -106,7 +227,7 @@ public class SortedList<T> {
    * Clears the list.
    */
   public void clear() {
-    array.clear();
+    items.clear();
   }
 
   /**
@@ -168,7 +289,7 @@ public class SortedList<T> {
    *        less than the comparator's value will be returned.
    */
   public int findInsertionIndex(OneWayComparator<T> comparator, boolean greaterItemIfNoMatch) {
-    int insertionPoint = binarySearch(array, comparator);
+    int insertionPoint = items.search(comparator);
     if (insertionPoint >= 0) {
       return insertionPoint;
     }
@@ -192,9 +313,9 @@ public class SortedList<T> {
    * @return index of item in the list, or {@code -1} if not found
    */
   public int findIndex(T item) {
-    for (int i = findInsertionIndex(item); i < array.size()
-        && comparator.compare(item, array.get(i)) == 0; i++) {
-      if (array.get(i).equals(item)) {
+    for (int i = findInsertionIndex(item); i < items.size()
+        && comparator.compare(item, items.get(i)) == 0; i++) {
+      if (items.get(i).equals(item)) {
         return i;
       }
     }
@@ -205,14 +326,14 @@ public class SortedList<T> {
    * Returns the item at the given {@code index}.
    */
   public T get(int index) {
-    return array.get(index);
+    return items.get(index);
   }
 
   /**
    * Removes the item at the given {@code index}.
    */
   public T remove(int index) {
-    T item = array.remove(index);
+    T item = items.remove(index);
     ensureSortedIfEnabled();
     return item;
   }
@@ -221,16 +342,16 @@ public class SortedList<T> {
    * Removes the items starting at {@code index} through to the end.
    */
   public JsonArray<T> removeThisAndFollowing(int index) {
-    JsonArray<T> items = removeSublist(index, array.size() - index);
+    JsonArray<T> removedItems = removeSublist(index, items.size() - index);
     ensureSortedIfEnabled();
-    return items;
+    return removedItems;
   }
 
   /**
    * Removes the items starting at {@code index} through to the end.
    */
   public JsonArray<T> removeSublist(int index, int sublistSize) {
-    JsonArray<T> sublist = array.splice(index, sublistSize);
+    JsonArray<T> sublist = items.removeRange(index, sublistSize);
     ensureSortedIfEnabled();
     return sublist;
   }
@@ -241,7 +362,7 @@ public class SortedList<T> {
   public boolean remove(T item) {
     int index = findIndex(item);
     if (index >= 0) {
-      array.remove(index);
+      items.remove(index);
       ensureSortedIfEnabled();
       return true;
     }
@@ -252,14 +373,14 @@ public class SortedList<T> {
    * @return the size of this list
    */
   public int size() {
-    return array.size();
+    return items.size();
   }
 
   /**
    * @return copy of this list as an array
    */
   public JsonArray<T> toArray() {
-    return array.copy();
+    return items.copy();
   }
 
   /**
@@ -309,8 +430,8 @@ public class SortedList<T> {
   
   public final void ensureSortedIfEnabled() {
     if (ENSURE_SORTED_PRECONDITIONS_ENABLED) {
-      for (int i = 1; i < array.size(); i++) {
-        Preconditions.checkState(comparator.compare(array.get(i - 1), array.get(i)) <= 0);
+      for (int i = 1; i < items.size(); i++) {
+        Preconditions.checkState(comparator.compare(items.get(i - 1), items.get(i)) <= 0);
       }
     }
   }
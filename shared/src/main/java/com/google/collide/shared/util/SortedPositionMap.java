@@ -76,7 +76,7 @@ public class SortedPositionMap<T> {
   private final SortedList<Entry> list;
 
   public SortedPositionMap() {
-    list = new SortedList<Entry>(comparator);
+    list = new SortedList<Entry>(comparator, true);
   }
 
   public T get(int lineNumber, int column) {